@@ -0,0 +1,162 @@
+package com.thetransactioncompany.cors;
+
+
+import java.util.Properties;
+
+
+/**
+ * Named CORS policies for the benchmarks.
+ *
+ * <ul>
+ *     <li>{@code any} Allows any origin.
+ *     <li>{@code exact-<n>} Allows {@code n} origins, matched exactly.
+ *     <li>{@code suffix} Allows 100 origins, matched by suffix.
+ * </ul>
+ *
+ * @author Vladimir Dzhuvinov
+ * @version $version$ ($version-date$)
+ */
+public final class BenchmarkPolicies {
+
+
+	/**
+	 * The number of allowed origins for the {@code suffix} policy.
+	 */
+	private static final int SUFFIX_ORIGINS = 100;
+	
+	
+	/**
+	 * Prevents instantiation.
+	 */
+	private BenchmarkPolicies() {
+	
+		// do nothing
+	}
+	
+	
+	/**
+	 * Returns the allowed origin with the specified index for the 
+	 * {@code exact-<n>} policies.
+	 *
+	 * @param i The origin index.
+	 *
+	 * @return The origin.
+	 */
+	public static String exactOrigin(final int i) {
+	
+		return "https://app" + i + ".example.com";
+	}
+	
+	
+	/**
+	 * Returns the allowed origin with the specified index for the 
+	 * {@code suffix} policy.
+	 *
+	 * @param i The origin index.
+	 *
+	 * @return The origin.
+	 */
+	public static String suffixOrigin(final int i) {
+	
+		return "https://example" + i + ".com";
+	}
+	
+	
+	/**
+	 * Creates the CORS filter properties for the specified policy.
+	 *
+	 * @param policy      The policy name.
+	 * @param credentials The {@code cors.supportsCredentials} value.
+	 *
+	 * @return The CORS filter properties.
+	 */
+	public static Properties properties(final String policy, final boolean credentials) {
+	
+		Properties props = new Properties();
+		
+		props.setProperty("cors.supportedMethods", "GET, POST, HEAD, OPTIONS");
+		props.setProperty("cors.supportedHeaders", "Content-Type, X-Requested-With, Authorization");
+		props.setProperty("cors.exposedHeaders", "X-Request-Id");
+		props.setProperty("cors.supportsCredentials", Boolean.toString(credentials));
+		props.setProperty("cors.maxAge", "3600");
+		
+		if (policy.equals("any")) {
+		
+			props.setProperty("cors.allowOrigin", "*");
+		}
+		else if (policy.startsWith("exact-")) {
+		
+			int n = Integer.parseInt(policy.substring("exact-".length()));
+			
+			StringBuilder sb = new StringBuilder();
+			
+			for (int i=0; i < n; i++) {
+				if (i > 0)
+					sb.append(' ');
+				sb.append(exactOrigin(i));
+			}
+			
+			props.setProperty("cors.allowOrigin", sb.toString());
+		}
+		else if (policy.equals("suffix")) {
+		
+			StringBuilder sb = new StringBuilder();
+			
+			for (int i=0; i < SUFFIX_ORIGINS; i++) {
+				if (i > 0)
+					sb.append(' ');
+				sb.append(suffixOrigin(i));
+			}
+			
+			props.setProperty("cors.allowOrigin", sb.toString());
+			props.setProperty("cors.allowOriginSuffixMatching", "true");
+		}
+		else {
+			throw new IllegalArgumentException("Unknown policy: " + policy);
+		}
+		
+		return props;
+	}
+	
+	
+	/**
+	 * Returns an allowed request origin for the specified policy.
+	 *
+	 * @param policy The policy name.
+	 *
+	 * @return The request origin.
+	 */
+	public static String allowedRequestOrigin(final String policy) {
+	
+		if (policy.equals("any"))
+			return "https://www.example.org";
+		
+		if (policy.startsWith("exact-"))
+			return exactOrigin(Integer.parseInt(policy.substring("exact-".length())) / 2);
+		
+		if (policy.equals("suffix"))
+			return "https://www." + suffixOrigin(SUFFIX_ORIGINS / 2).substring("https://".length());
+		
+		throw new IllegalArgumentException("Unknown policy: " + policy);
+	}
+	
+	
+	/**
+	 * Creates a CORS configuration for the specified policy.
+	 *
+	 * @param policy      The policy name.
+	 * @param credentials The {@code cors.supportsCredentials} value.
+	 *
+	 * @return The CORS configuration.
+	 */
+	public static CORSConfiguration configuration(final String policy, final boolean credentials) {
+	
+		try {
+			return new CORSConfiguration(properties(policy, credentials));
+			
+		} catch (CORSConfigurationException e) {
+		
+			throw new IllegalStateException(e.getMessage(), e);
+		}
+	}
+}
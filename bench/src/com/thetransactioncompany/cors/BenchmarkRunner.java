@@ -0,0 +1,42 @@
+package com.thetransactioncompany.cors;
+
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+
+/**
+ * Runs the CORS Filter benchmarks with the GC profiler attached, so that
+ * the allocated bytes per operation ({@code gc.alloc.rate.norm}) are
+ * reported next to the throughput and average time.
+ *
+ * <p>Usage:
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar com.thetransactioncompany.cors.BenchmarkRunner [regexp]
+ * </pre>
+ *
+ * @author Vladimir Dzhuvinov
+ * @version $version$ ($version-date$)
+ */
+public class BenchmarkRunner {
+
+
+	public static void main(final String[] args)
+		throws RunnerException {
+	
+		OptionsBuilder builder = new OptionsBuilder();
+		
+		if (args.length > 0)
+			builder.include(args[0]);
+		else
+			builder.include(".*Benchmark");
+		
+		Options opts = builder.addProfiler(GCProfiler.class).build();
+		
+		new Runner(opts).run();
+	}
+}
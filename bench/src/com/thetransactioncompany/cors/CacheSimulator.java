@@ -0,0 +1,524 @@
+package com.thetransactioncompany.cors;
+
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+
+/**
+ * Simulates decision caches in front of the CORS policy checks, to size
+ * them for a given traffic before enabling them. A recorded or synthetic
+ * request stream is replayed through each candidate cache size and
+ * eviction policy, and the hit ratio, the estimated memory footprint and
+ * the throughput are reported.
+ *
+ * <p>Usage:
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar com.thetransactioncompany.cors.CacheSimulator [options]
+ *
+ *   --mode      origin | preflight                  (default origin)
+ *   --stream    zipf | uniform | adversarial        (default zipf)
+ *   --capture   request capture file, replaces --stream
+ *   --config    CORS filter properties file         (default: allow any origin)
+ *   --requests  synthetic stream length             (default 1000000)
+ *   --origins   distinct synthetic origins          (default 10000)
+ *   --exponent  Zipf exponent                       (default 1.0)
+ *   --sizes     cache sizes, comma separated        (default 16,64,256,1024,4096)
+ *   --policies  lru,fifo,random, comma separated    (default lru,fifo,random)
+ * </pre>
+ *
+ * <p>In {@code origin} mode the cache key is the origin; in
+ * {@code preflight} mode it is the origin, the requested method and the
+ * requested headers. The {@code adversarial} stream sends a fresh random
+ * origin with each request, as a hostile client would to defeat the cache.
+ *
+ * <p>The memory footprint is an estimate for a 64-bit JVM with compressed
+ * references: the key strings plus about 64 bytes of map entry overhead
+ * per cached decision.
+ *
+ * @author Vladimir Dzhuvinov
+ * @version $version$ ($version-date$)
+ */
+public class CacheSimulator {
+
+
+	/**
+	 * Estimated per-entry overhead of a cached decision, in bytes: the
+	 * map entry, the table slot and the string header.
+	 */
+	static final int ENTRY_OVERHEAD = 64;
+
+
+	/**
+	 * Synthetic request header sets for the preflight mode, most frequent
+	 * first.
+	 */
+	static final String[] HEADER_SETS = {
+		"", "Content-Type", "Content-Type, Authorization",
+		"Authorization", "X-Requested-With", "Content-Type, X-Requested-With"
+	};
+
+
+	/**
+	 * Synthetic requested methods for the preflight mode, most frequent
+	 * first.
+	 */
+	static final String[] METHODS = { "POST", "PUT", "DELETE", "GET" };
+
+
+	/**
+	 * A bounded decision cache with an eviction policy.
+	 */
+	static abstract class SimulatedCache {
+
+
+		/**
+		 * The maximum number of entries.
+		 */
+		final int capacity;
+
+
+		SimulatedCache(final int capacity) {
+
+			this.capacity = capacity;
+		}
+
+
+		/**
+		 * Gets a cached decision.
+		 *
+		 * @param key The key.
+		 *
+		 * @return The decision, {@code null} on a miss.
+		 */
+		abstract PolicyDecision get(final String key);
+
+
+		/**
+		 * Caches a decision, evicting an entry if the cache is full.
+		 *
+		 * @param key      The key.
+		 * @param decision The decision.
+		 */
+		abstract void put(final String key, final PolicyDecision decision);
+
+
+		/**
+		 * Gets the cached keys.
+		 *
+		 * @return The keys.
+		 */
+		abstract Iterable<String> keys();
+
+
+		/**
+		 * Estimates the memory footprint of the cached entries.
+		 *
+		 * @return The estimated footprint, in bytes.
+		 */
+		long footprint() {
+
+			long bytes = 0;
+
+			for (String key: keys())
+				bytes += ENTRY_OVERHEAD + 16 + key.length();
+
+			return bytes;
+		}
+	}
+
+
+	/**
+	 * Cache evicting the least recently used (LRU) or, in insertion order,
+	 * the first cached (FIFO) entry.
+	 */
+	static final class LinkedCache extends SimulatedCache {
+
+
+		private final Map<String,PolicyDecision> map;
+
+
+		LinkedCache(final int capacity, final boolean accessOrder) {
+
+			super(capacity);
+
+			map = new LinkedHashMap<String,PolicyDecision>(capacity * 2, 0.75f, accessOrder) {
+
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(final Map.Entry<String,PolicyDecision> eldest) {
+
+					return size() > LinkedCache.this.capacity;
+				}
+			};
+		}
+
+
+		@Override
+		PolicyDecision get(final String key) {
+
+			return map.get(key);
+		}
+
+
+		@Override
+		void put(final String key, final PolicyDecision decision) {
+
+			map.put(key, decision);
+		}
+
+
+		@Override
+		Iterable<String> keys() {
+
+			return map.keySet();
+		}
+	}
+
+
+	/**
+	 * Cache evicting a random entry.
+	 */
+	static final class RandomCache extends SimulatedCache {
+
+
+		private final Map<String,PolicyDecision> map = new HashMap<String,PolicyDecision>();
+
+
+		private final List<String> keys = new ArrayList<String>();
+
+
+		private final Random random = new Random(42);
+
+
+		RandomCache(final int capacity) {
+
+			super(capacity);
+		}
+
+
+		@Override
+		PolicyDecision get(final String key) {
+
+			return map.get(key);
+		}
+
+
+		@Override
+		void put(final String key, final PolicyDecision decision) {
+
+			if (map.size() == capacity) {
+
+				// Swap-remove a random victim
+				int i = random.nextInt(keys.size());
+				map.remove(keys.get(i));
+				keys.set(i, keys.get(keys.size() - 1));
+				keys.remove(keys.size() - 1);
+			}
+
+			map.put(key, decision);
+			keys.add(key);
+		}
+
+
+		@Override
+		Iterable<String> keys() {
+
+			return keys;
+		}
+	}
+
+
+	/**
+	 * Creates a cache.
+	 *
+	 * @param policy   The eviction policy, {@code lru}, {@code fifo} or
+	 *                 {@code random}.
+	 * @param capacity The capacity.
+	 *
+	 * @return The cache.
+	 */
+	static SimulatedCache createCache(final String policy, final int capacity) {
+
+		if (policy.equals("lru"))
+			return new LinkedCache(capacity, true);
+		else if (policy.equals("fifo"))
+			return new LinkedCache(capacity, false);
+		else if (policy.equals("random"))
+			return new RandomCache(capacity);
+		else
+			throw new IllegalArgumentException("Unknown eviction policy: " + policy);
+	}
+
+
+	/**
+	 * Computes the cache key of a request.
+	 *
+	 * @param request   The request.
+	 * @param preflight {@code true} for the preflight mode.
+	 *
+	 * @return The cache key.
+	 */
+	static String key(final BulkPolicyEvaluator.Request request, final boolean preflight) {
+
+		if (! preflight)
+			return request.origin;
+
+		return request.origin + '\n' + request.method + '\n' + request.requestHeaders;
+	}
+
+
+	/**
+	 * Generates a synthetic request stream.
+	 *
+	 * @param stream    The stream type: {@code zipf}, {@code uniform} or
+	 *                  {@code adversarial}.
+	 * @param requests  The number of requests.
+	 * @param origins   The number of distinct origins, for the
+	 *                  {@code zipf} and {@code uniform} streams.
+	 * @param exponent  The Zipf exponent.
+	 * @param preflight {@code true} to generate preflight requests.
+	 *
+	 * @return The requests.
+	 */
+	static BulkPolicyEvaluator.Request[] generate(final String stream,
+	                                              final int requests,
+	                                              final int origins,
+	                                              final double exponent,
+	                                              final boolean preflight) {
+
+		Random random = new Random(42);
+
+		ZipfDistribution originDist = new ZipfDistribution(origins, exponent);
+		ZipfDistribution headerDist = new ZipfDistribution(HEADER_SETS.length, 1.0);
+		ZipfDistribution methodDist = new ZipfDistribution(METHODS.length, 1.0);
+
+		BulkPolicyEvaluator.Request[] out = new BulkPolicyEvaluator.Request[requests];
+
+		for (int i=0; i < requests; i++) {
+
+			String origin;
+
+			if (stream.equals("zipf"))
+				origin = "https://app" + originDist.sample(random) + ".example.com";
+			else if (stream.equals("uniform"))
+				origin = "https://app" + random.nextInt(origins) + ".example.com";
+			else if (stream.equals("adversarial"))
+				origin = "https://" + Long.toHexString(random.nextLong()) + ".example.org";
+			else
+				throw new IllegalArgumentException("Unknown stream: " + stream);
+
+			if (preflight)
+				out[i] = new BulkPolicyEvaluator.Request(origin,
+				                                         METHODS[methodDist.sample(random)],
+				                                         HEADER_SETS[headerDist.sample(random)]);
+			else
+				out[i] = new BulkPolicyEvaluator.Request(origin, "GET", null);
+		}
+
+		return out;
+	}
+
+
+	/**
+	 * Loads the requests of a capture file, skipping non-CORS requests.
+	 *
+	 * @param file      The capture file.
+	 * @param preflight {@code true} to keep the preflight requests,
+	 *                  {@code false} to keep the actual requests.
+	 *
+	 * @return The requests.
+	 *
+	 * @throws Exception On an I/O or parse exception.
+	 */
+	static BulkPolicyEvaluator.Request[] load(final String file, final boolean preflight)
+		throws Exception {
+
+		List<BulkPolicyEvaluator.Request> requests = new ArrayList<BulkPolicyEvaluator.Request>();
+
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+
+		try {
+			PolicyAuditTool.LogIterator it = new PolicyAuditTool.LogIterator(reader, false);
+
+			while (it.hasNext()) {
+
+				BulkPolicyEvaluator.Request request = it.next();
+
+				if (request.origin != null && request.isPreflight() == preflight)
+					requests.add(request);
+			}
+
+		} finally {
+			reader.close();
+		}
+
+		return requests.toArray(new BulkPolicyEvaluator.Request[requests.size()]);
+	}
+
+
+	/**
+	 * Replays the requests through a cache.
+	 *
+	 * @param evaluator The policy evaluator, called on cache misses.
+	 * @param cache     The cache, {@code null} for none.
+	 * @param requests  The requests.
+	 * @param keys      The precomputed cache keys.
+	 *
+	 * @return The number of cache hits.
+	 */
+	static long replay(final BulkPolicyEvaluator evaluator,
+	                   final SimulatedCache cache,
+	                   final BulkPolicyEvaluator.Request[] requests,
+	                   final String[] keys) {
+
+		long hits = 0;
+
+		for (int i=0; i < requests.length; i++) {
+
+			if (cache == null) {
+				evaluator.evaluate(requests[i]);
+				continue;
+			}
+
+			if (cache.get(keys[i]) != null) {
+				hits++;
+				continue;
+			}
+
+			cache.put(keys[i], evaluator.evaluate(requests[i]));
+		}
+
+		return hits;
+	}
+
+
+	public static void main(final String[] args)
+		throws Exception {
+
+		String mode = "origin";
+		String stream = "zipf";
+		String captureFile = null;
+		String configFile = null;
+		int requestCount = 1000000;
+		int originCount = 10000;
+		double exponent = 1.0;
+		String sizes = "16,64,256,1024,4096";
+		String policies = "lru,fifo,random";
+
+		for (int i=0; i + 1 < args.length; i += 2) {
+
+			if (args[i].equals("--mode"))
+				mode = args[i + 1];
+			else if (args[i].equals("--stream"))
+				stream = args[i + 1];
+			else if (args[i].equals("--capture"))
+				captureFile = args[i + 1];
+			else if (args[i].equals("--config"))
+				configFile = args[i + 1];
+			else if (args[i].equals("--requests"))
+				requestCount = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("--origins"))
+				originCount = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("--exponent"))
+				exponent = Double.parseDouble(args[i + 1]);
+			else if (args[i].equals("--sizes"))
+				sizes = args[i + 1];
+			else if (args[i].equals("--policies"))
+				policies = args[i + 1];
+			else
+				throw new IllegalArgumentException("Unknown option: " + args[i]);
+		}
+
+		if (! mode.equals("origin") && ! mode.equals("preflight"))
+			throw new IllegalArgumentException("Unknown mode: " + mode);
+
+		final boolean preflight = mode.equals("preflight");
+
+		Properties props = new Properties();
+
+		if (configFile != null) {
+
+			InputStream in = new FileInputStream(configFile);
+
+			try {
+				props.load(in);
+
+			} finally {
+				in.close();
+			}
+		}
+
+		// Single requests only, evaluated on the calling thread
+		BulkPolicyEvaluator evaluator = new BulkPolicyEvaluator(new CORSConfiguration(props),
+		                                                        ForkJoinPool.commonPool(),
+		                                                        BulkPolicyEvaluator.DEFAULT_BATCH_SIZE);
+
+		BulkPolicyEvaluator.Request[] requests = captureFile != null ?
+			load(captureFile, preflight) :
+			generate(stream, requestCount, originCount, exponent, preflight);
+
+		if (requests.length == 0) {
+			System.out.println("No " + mode + " requests to simulate");
+			return;
+		}
+
+		String[] keys = new String[requests.length];
+
+		for (int i=0; i < requests.length; i++)
+			keys[i] = key(requests[i], preflight);
+
+		System.out.println("Simulating " + requests.length + " " + mode + " requests from " +
+		                   (captureFile != null ? captureFile : stream + " stream"));
+		System.out.println();
+
+
+		// Uncached baseline, after a warm-up pass
+
+		replay(evaluator, null, requests, keys);
+
+		long start = System.nanoTime();
+		replay(evaluator, null, requests, keys);
+		double baseline = requests.length / ((System.nanoTime() - start) / 1e9);
+
+		System.out.println(String.format("%-8s %8s %10s %12s %14s %8s", "policy", "size", "hit ratio", "footprint", "req/s", "speedup"));
+		System.out.println(String.format("%-8s %8s %10s %12s %14.0f %8s", "none", "-", "-", "-", baseline, "1.00"));
+
+		for (String policy: policies.split(",")) {
+
+			for (String size: sizes.split(",")) {
+
+				int capacity = Integer.parseInt(size.trim());
+
+				// Warm-up pass on a separate cache, to JIT compile
+				replay(evaluator, createCache(policy.trim(), capacity), requests, keys);
+
+				SimulatedCache cache = createCache(policy.trim(), capacity);
+
+				start = System.nanoTime();
+				long hits = replay(evaluator, cache, requests, keys);
+				double throughput = requests.length / ((System.nanoTime() - start) / 1e9);
+
+				System.out.println(String.format("%-8s %8d %9.2f%% %11.1fK %14.0f %8.2f",
+				                                 policy.trim(),
+				                                 capacity,
+				                                 100.0 * hits / requests.length,
+				                                 cache.footprint() / 1024.0,
+				                                 throughput,
+				                                 throughput / baseline));
+			}
+		}
+	}
+}
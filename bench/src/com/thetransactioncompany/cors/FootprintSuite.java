@@ -0,0 +1,259 @@
+package com.thetransactioncompany.cors;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.openjdk.jol.info.GraphLayout;
+
+
+/**
+ * Measures the retained heap of {@link CORSConfiguration} instances with
+ * increasing numbers of allowed origins and supported headers, to track
+ * the memory cost of large configurations across versions.
+ *
+ * <p>Each configuration is measured two ways:
+ *
+ * <ul>
+ *     <li>{@code jol} -- the total size of the object graph reachable from
+ *         the instance, as walked by JOL;
+ *     <li>{@code delta} -- the heap growth after a full GC with several
+ *         copies of the instance retained, divided by the number of
+ *         copies.
+ * </ul>
+ *
+ * <p>The bytes per origin and per header are computed against a baseline
+ * configuration with one origin and no headers.
+ *
+ * <p>Usage:
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar com.thetransactioncompany.cors.FootprintSuite [options]
+ *
+ *   --origins  allowed origin counts, comma separated   (default 1000,10000,100000)
+ *   --headers  supported header counts, comma separated (default 0,100,1000)
+ *   --csv      print CSV instead of a table, for comparing versions
+ * </pre>
+ *
+ * <p>Run with a fixed heap, e.g. {@code -Xms2g -Xmx2g}, for stable heap
+ * deltas.
+ *
+ * @author Vladimir Dzhuvinov
+ * @version $version$ ($version-date$)
+ */
+public class FootprintSuite {
+
+
+	/**
+	 * Creates the filter properties for a configuration.
+	 *
+	 * @param origins The number of allowed origins, must be positive.
+	 * @param headers The number of supported (and exposed) headers.
+	 *
+	 * @return The properties.
+	 */
+	static Properties properties(final int origins, final int headers) {
+
+		StringBuilder sb = new StringBuilder(origins * 32);
+
+		for (int i=0; i < origins; i++) {
+
+			if (i > 0)
+				sb.append(' ');
+
+			sb.append("https://app").append(i).append(".example.com");
+		}
+
+		Properties props = new Properties();
+		props.setProperty("cors.allowOrigin", sb.toString());
+
+		sb.setLength(0);
+
+		for (int i=0; i < headers; i++) {
+
+			if (i > 0)
+				sb.append(", ");
+
+			sb.append("X-Custom-Header-").append(i);
+		}
+
+		props.setProperty("cors.supportedHeaders", sb.toString());
+		props.setProperty("cors.exposedHeaders", sb.toString());
+
+		return props;
+	}
+
+
+	/**
+	 * Measures the object graph size of a configuration with JOL.
+	 *
+	 * @param props The filter properties.
+	 *
+	 * @return The size in bytes.
+	 *
+	 * @throws CORSConfigurationException On a bad configuration.
+	 */
+	static long jolSize(final Properties props)
+		throws CORSConfigurationException {
+
+		return GraphLayout.parseInstance(new CORSConfiguration(props)).totalSize();
+	}
+
+
+	/**
+	 * Measures the retained heap per configuration instance from the heap
+	 * growth after a full GC.
+	 *
+	 * @param props  The filter properties.
+	 * @param copies The number of instances to retain.
+	 *
+	 * @return The size in bytes, per instance.
+	 *
+	 * @throws CORSConfigurationException On a bad configuration.
+	 */
+	static long deltaSize(final Properties props, final int copies)
+		throws CORSConfigurationException {
+
+		List<CORSConfiguration> retained = new ArrayList<CORSConfiguration>(copies);
+
+		long before = usedHeap();
+
+		for (int i=0; i < copies; i++)
+			retained.add(new CORSConfiguration(props));
+
+		long after = usedHeap();
+
+		// Keep the instances reachable until measured
+		if (retained.size() != copies)
+			throw new IllegalStateException();
+
+		return (after - before) / copies;
+	}
+
+
+	/**
+	 * Gets the used heap after a full GC.
+	 *
+	 * @return The used heap, in bytes.
+	 */
+	static long usedHeap() {
+
+		Runtime rt = Runtime.getRuntime();
+
+		long used = Long.MAX_VALUE;
+
+		// Repeat until the used heap stops shrinking
+		for (int i=0; i < 10; i++) {
+
+			System.gc();
+
+			try {
+				Thread.sleep(20);
+
+			} catch (InterruptedException e) {
+
+				Thread.currentThread().interrupt();
+			}
+
+			long u = rt.totalMemory() - rt.freeMemory();
+
+			if (u >= used)
+				break;
+
+			used = u;
+		}
+
+		return used;
+	}
+
+
+	/**
+	 * Parses a comma separated list of integers.
+	 *
+	 * @param s The string.
+	 *
+	 * @return The integers.
+	 */
+	private static int[] parseInts(final String s) {
+
+		String[] tokens = s.split(",");
+
+		int[] out = new int[tokens.length];
+
+		for (int i=0; i < tokens.length; i++)
+			out[i] = Integer.parseInt(tokens[i].trim());
+
+		return out;
+	}
+
+
+	public static void main(final String[] args)
+		throws Exception {
+
+		int[] originCounts = { 1000, 10000, 100000 };
+		int[] headerCounts = { 0, 100, 1000 };
+		boolean csv = false;
+
+		for (int i=0; i < args.length; i++) {
+
+			if (args[i].equals("--origins") && i + 1 < args.length)
+				originCounts = parseInts(args[++i]);
+			else if (args[i].equals("--headers") && i + 1 < args.length)
+				headerCounts = parseInts(args[++i]);
+			else if (args[i].equals("--csv"))
+				csv = true;
+			else
+				throw new IllegalArgumentException("Unknown option: " + args[i]);
+		}
+
+
+		// Baseline: one origin, no headers
+
+		Properties baseProps = properties(1, 0);
+		long baseJol = jolSize(baseProps);
+		long baseDelta = deltaSize(baseProps, 1000);
+
+		if (csv)
+			System.out.println("origins,headers,jol_bytes,delta_bytes,bytes_per_origin,bytes_per_header");
+		else
+			System.out.println(String.format("%8s %8s %14s %14s %12s %12s",
+			                                 "origins", "headers", "jol bytes", "delta bytes", "B/origin", "B/header"));
+
+		for (int origins: originCounts) {
+
+			// Origin-only configuration, to separate the header cost
+			long originsOnly = jolSize(properties(origins, 0));
+
+			double perOrigin = origins > 1 ? (double)(originsOnly - baseJol) / (origins - 1) : 0.0;
+
+			for (int headers: headerCounts) {
+
+				Properties props = properties(origins, headers);
+
+				long jol = headers > 0 ? jolSize(props) : originsOnly;
+
+				// Retain enough copies to rise above the GC noise
+				int copies = (int)Math.max(1, Math.min(1000, 20000000L / (jol + 1)));
+
+				long delta = deltaSize(props, copies);
+
+				// Supported and exposed headers are both populated
+				double perHeader = headers > 0 ? (double)(jol - originsOnly) / (2 * headers) : 0.0;
+
+				if (csv)
+					System.out.println(String.format("%d,%d,%d,%d,%.1f,%.1f",
+					                                 origins, headers, jol, delta, perOrigin, perHeader));
+				else
+					System.out.println(String.format("%8d %8d %14d %14d %12.1f %12s",
+					                                 origins, headers, jol, delta, perOrigin,
+					                                 headers > 0 ? String.format("%.1f", perHeader) : "-"));
+			}
+		}
+
+		if (! csv) {
+			System.out.println();
+			System.out.println(String.format("baseline (1 origin, 0 headers): jol %d bytes, delta %d bytes", baseJol, baseDelta));
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package com.thetransactioncompany.cors;
+
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Benchmarks the header name and header list parsing done during preflight
+ * handling: {@link HeaderFieldName#formatCanonical} with common and exotic
+ * names, and {@link CORSConfiguration#parseWords} on header lists of
+ * increasing length.
+ *
+ * @author Vladimir Dzhuvinov
+ * @version $version$ ($version-date$)
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HeaderParsingBenchmark {
+
+
+	/**
+	 * Realistic request header names, most common first.
+	 */
+	static final String[] HEADER_NAMES = {
+		"Content-Type", "Authorization", "X-Requested-With", "Accept",
+		"Accept-Language", "Cache-Control", "If-None-Match", "If-Modified-Since",
+		"X-CSRF-Token", "X-Request-Id", "X-Correlation-Id", "X-Api-Key",
+		"X-Client-Version", "X-Device-Id", "X-Session-Id", "X-Forwarded-For",
+		"X-Amz-Date", "X-Amz-Security-Token", "X-Amz-Content-Sha256", "Pragma",
+		"Range", "DNT", "X-Timezone", "X-Locale", "X-Tenant-Id",
+		"X-B3-TraceId", "X-B3-SpanId", "X-B3-Sampled", "Traceparent", "Tracestate"
+	};
+	
+	
+	/**
+	 * The number of headers in the parsed list.
+	 */
+	@Param({"1", "5", "10", "20", "30"})
+	public int headers;
+	
+	
+	/**
+	 * Common header name (as sent by browsers, lower case).
+	 */
+	private String commonName;
+	
+	
+	/**
+	 * Exotic header name (long, mixed case, many tokens).
+	 */
+	private String exoticName;
+	
+	
+	/**
+	 * The header list, as in an "Access-Control-Request-Headers" value.
+	 */
+	private String headerList;
+	
+	
+	@Setup
+	public void setUp() {
+	
+		commonName = "content-type";
+		exoticName = "X-MY-Company-Mobile-App-Build-Fingerprint-V2";
+		
+		StringBuilder sb = new StringBuilder();
+		
+		for (int i=0; i < headers; i++) {
+			if (i > 0)
+				sb.append(", ");
+			sb.append(HEADER_NAMES[i % HEADER_NAMES.length].toLowerCase());
+		}
+		
+		headerList = sb.toString();
+	}
+	
+	
+	@Benchmark
+	public String formatCanonicalCommon() {
+	
+		return HeaderFieldName.formatCanonical(commonName);
+	}
+	
+	
+	@Benchmark
+	public String formatCanonicalExotic() {
+	
+		return HeaderFieldName.formatCanonical(exoticName);
+	}
+	
+	
+	@Benchmark
+	public String[] parseWords() {
+	
+		return CORSConfiguration.parseWords(headerList);
+	}
+	
+	
+	@Benchmark
+	public HeaderFieldName[] parseHeaderList() {
+	
+		// What preflight handling does with the request headers
+		String[] words = CORSConfiguration.parseWords(headerList);
+		
+		HeaderFieldName[] names = new HeaderFieldName[words.length];
+		
+		for (int i=0; i < words.length; i++)
+			names[i] = new HeaderFieldName(words[i]);
+		
+		return names;
+	}
+}
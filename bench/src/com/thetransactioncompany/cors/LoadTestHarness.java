@@ -0,0 +1,492 @@
+package com.thetransactioncompany.cors;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.FilterHolder;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+
+
+/**
+ * End-to-end throughput harness. Starts an embedded Jetty on localhost with
+ * the {@link CORSFilter} in front of a trivial servlet, then drives it with
+ * a multi-threaded HTTP client replaying a configurable mix of preflight,
+ * actual, denied and non-CORS requests. Reports the requests per second and
+ * latency percentiles for each request type.
+ *
+ * <p>Usage:
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar com.thetransactioncompany.cors.LoadTestHarness [options]
+ *
+ *   --policy      any | exact-N | suffix       (default exact-1000)
+ *   --credentials true | false                 (default true)
+ *   --threads     client threads               (default 8)
+ *   --warmup      warm-up seconds              (default 10)
+ *   --duration    measurement seconds          (default 30)
+ *   --mix         type:weight,...              (default preflight:20,actual:70,other:10)
+ *   --seed        request mix random seed      (default 42)
+ * </pre>
+ *
+ * <p>The request types are {@code preflight}, {@code actual},
+ * {@code denied} (actual request from a disallowed origin) and
+ * {@code other} (non-CORS). Runs with the same options and seed replay the
+ * same request sequence, so the numbers are comparable between versions.
+ *
+ * @author Vladimir Dzhuvinov
+ * @version $version$ ($version-date$)
+ */
+public class LoadTestHarness {
+
+
+	/**
+	 * The request types.
+	 */
+	static final String[] TYPES = {"preflight", "actual", "denied", "other"};
+
+
+	/**
+	 * Trivial servlet, similar to the demo {@code HelloWorldServlet}.
+	 */
+	public static class HelloWorldServlet extends HttpServlet {
+
+
+		protected void service(final HttpServletRequest request, final HttpServletResponse response)
+			throws IOException, ServletException {
+
+			response.setContentType("text/plain");
+
+			PrintWriter out = response.getWriter();
+
+			out.println("[HTTP " + request.getMethod() + "] Hello world!");
+		}
+	}
+
+
+	/**
+	 * Growable array of latency samples, in nanoseconds.
+	 */
+	static final class Samples {
+
+
+		private long[] values = new long[1 << 16];
+
+
+		private int size = 0;
+
+
+		void add(final long value) {
+
+			if (size == values.length)
+				values = Arrays.copyOf(values, size * 2);
+
+			values[size++] = value;
+		}
+
+
+		void addAll(final Samples other) {
+
+			for (int i=0; i < other.size; i++)
+				add(other.values[i]);
+		}
+
+
+		int size() {
+
+			return size;
+		}
+
+
+		long[] sorted() {
+
+			long[] copy = Arrays.copyOf(values, size);
+			Arrays.sort(copy);
+			return copy;
+		}
+	}
+
+
+	/**
+	 * Client thread, issues requests until the deadline.
+	 */
+	static final class Client extends Thread {
+
+
+		private final String baseURL;
+
+
+		private final String allowedOrigin;
+
+
+		private final int[] cumulativeWeights;
+
+
+		private final Random random;
+
+
+		private final CountDownLatch start;
+
+
+		private volatile long measureFrom;
+
+
+		private volatile long deadline;
+
+
+		final Samples[] samples = new Samples[TYPES.length];
+
+
+		final int[] errors = new int[TYPES.length];
+
+
+		Client(final String baseURL,
+		       final String allowedOrigin,
+		       final int[] cumulativeWeights,
+		       final long seed,
+		       final CountDownLatch start) {
+
+			this.baseURL = baseURL;
+			this.allowedOrigin = allowedOrigin;
+			this.cumulativeWeights = cumulativeWeights;
+			this.random = new Random(seed);
+			this.start = start;
+
+			for (int i=0; i < samples.length; i++)
+				samples[i] = new Samples();
+
+			setDaemon(true);
+		}
+
+
+		void schedule(final long measureFrom, final long deadline) {
+
+			this.measureFrom = measureFrom;
+			this.deadline = deadline;
+		}
+
+
+		private int nextType() {
+
+			int r = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+
+			for (int i=0; i < cumulativeWeights.length; i++) {
+				if (r < cumulativeWeights[i])
+					return i;
+			}
+
+			return cumulativeWeights.length - 1;
+		}
+
+
+		public void run() {
+
+			try {
+				start.await();
+
+			} catch (InterruptedException e) {
+				return;
+			}
+
+			byte[] buf = new byte[4096];
+
+			while (true) {
+
+				long t0 = System.nanoTime();
+
+				if (t0 >= deadline)
+					return;
+
+				int type = nextType();
+
+				int expected = HttpServletResponse.SC_OK;
+
+				try {
+					HttpURLConnection con = (HttpURLConnection)new URL(baseURL).openConnection();
+
+					if (TYPES[type].equals("preflight")) {
+						con.setRequestMethod("OPTIONS");
+						con.setRequestProperty("Origin", allowedOrigin);
+						con.setRequestProperty("Access-Control-Request-Method", "POST");
+						con.setRequestProperty("Access-Control-Request-Headers", "Content-Type, X-Requested-With");
+					}
+					else if (TYPES[type].equals("actual")) {
+						con.setRequestProperty("Origin", allowedOrigin);
+					}
+					else if (TYPES[type].equals("denied")) {
+						con.setRequestProperty("Origin", "https://denied.example.net");
+						expected = HttpServletResponse.SC_FORBIDDEN;
+					}
+
+					int status = con.getResponseCode();
+
+					// Drain the body so the connection is kept alive
+					InputStream in = status < 400 ? con.getInputStream() : con.getErrorStream();
+
+					if (in != null) {
+						while (in.read(buf) != -1) {
+							// discard
+						}
+						in.close();
+					}
+
+					if (status != expected && t0 >= measureFrom)
+						errors[type]++;
+
+				} catch (IOException e) {
+
+					if (t0 >= measureFrom)
+						errors[type]++;
+					continue;
+				}
+
+				if (t0 >= measureFrom)
+					samples[type].add(System.nanoTime() - t0);
+			}
+		}
+	}
+
+
+	/**
+	 * Parses the request mix specification into cumulative weights, in
+	 * {@link #TYPES} order.
+	 *
+	 * @param spec The mix specification, e.g. {@code preflight:20,actual:80}.
+	 *
+	 * @return The cumulative weights.
+	 */
+	static int[] parseMix(final String spec) {
+
+		int[] weights = new int[TYPES.length];
+
+		for (String item: spec.split(",")) {
+
+			String[] kv = item.trim().split(":");
+
+			int index = Arrays.asList(TYPES).indexOf(kv[0].trim());
+
+			if (kv.length != 2 || index < 0)
+				throw new IllegalArgumentException("Bad request mix item: " + item);
+
+			weights[index] = Integer.parseInt(kv[1].trim());
+		}
+
+		int[] cumulative = new int[TYPES.length];
+
+		int sum = 0;
+
+		for (int i=0; i < weights.length; i++) {
+			sum += weights[i];
+			cumulative[i] = sum;
+		}
+
+		if (sum <= 0)
+			throw new IllegalArgumentException("The request mix must have a positive total weight");
+
+		return cumulative;
+	}
+
+
+	/**
+	 * Parses {@code --key value} command line options.
+	 *
+	 * @param args The command line arguments.
+	 *
+	 * @return The options.
+	 */
+	static Map<String,String> parseOptions(final String[] args) {
+
+		Map<String,String> opts = new HashMap<String,String>();
+
+		opts.put("policy", "exact-1000");
+		opts.put("credentials", "true");
+		opts.put("threads", "8");
+		opts.put("warmup", "10");
+		opts.put("duration", "30");
+		opts.put("mix", "preflight:20,actual:70,other:10");
+		opts.put("seed", "42");
+
+		for (int i=0; i + 1 < args.length; i += 2) {
+
+			if (! args[i].startsWith("--") || ! opts.containsKey(args[i].substring(2)))
+				throw new IllegalArgumentException("Unknown option: " + args[i]);
+
+			opts.put(args[i].substring(2), args[i + 1]);
+		}
+
+		return opts;
+	}
+
+
+	/**
+	 * Returns the sample at the specified percentile.
+	 *
+	 * @param sorted     The sorted samples.
+	 * @param percentile The percentile, 0 to 100.
+	 *
+	 * @return The sample value, 0 if none.
+	 */
+	static long percentile(final long[] sorted, final double percentile) {
+
+		if (sorted.length == 0)
+			return 0;
+
+		int index = (int)Math.ceil(percentile / 100.0 * sorted.length) - 1;
+
+		return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+	}
+
+
+	public static void main(final String[] args)
+		throws Exception {
+
+		Map<String,String> opts = parseOptions(args);
+
+		String policy = opts.get("policy");
+		boolean credentials = Boolean.parseBoolean(opts.get("credentials"));
+		int threads = Integer.parseInt(opts.get("threads"));
+		int warmup = Integer.parseInt(opts.get("warmup"));
+		int duration = Integer.parseInt(opts.get("duration"));
+		int[] mix = parseMix(opts.get("mix"));
+		long seed = Long.parseLong(opts.get("seed"));
+
+		// Allow the client to set the Origin and Access-Control-* headers,
+		// and keep one connection per client thread alive
+		System.setProperty("sun.net.http.allowRestrictedHeaders", "true");
+		System.setProperty("http.maxConnections", Integer.toString(threads));
+
+
+		// Start the server
+
+		Server server = new Server();
+
+		ServerConnector connector = new ServerConnector(server);
+		connector.setHost("127.0.0.1");
+		connector.setPort(0);
+		server.addConnector(connector);
+
+		ServletContextHandler context = new ServletContextHandler(ServletContextHandler.NO_SESSIONS);
+		context.setContextPath("/");
+
+		FilterHolder filterHolder = new FilterHolder(CORSFilter.class);
+
+		Properties props = BenchmarkPolicies.properties(policy, credentials);
+
+		for (String name: props.stringPropertyNames())
+			filterHolder.setInitParameter(name, props.getProperty(name));
+
+		context.addFilter(filterHolder, "/*", EnumSet.of(DispatcherType.REQUEST));
+		context.addServlet(new ServletHolder(new HelloWorldServlet()), "/*");
+
+		server.setHandler(context);
+		server.start();
+
+		String baseURL = "http://127.0.0.1:" + connector.getLocalPort() + "/cors-resource";
+
+		System.out.println("CORS Filter load test: policy=" + policy +
+		                   " credentials=" + credentials +
+		                   " threads=" + threads +
+		                   " warmup=" + warmup + "s" +
+		                   " duration=" + duration + "s" +
+		                   " mix=" + opts.get("mix"));
+
+
+		// Run the clients
+
+		CountDownLatch start = new CountDownLatch(1);
+
+		Client[] clients = new Client[threads];
+
+		String allowedOrigin = BenchmarkPolicies.allowedRequestOrigin(policy);
+
+		long now = System.nanoTime();
+		long measureFrom = now + warmup * 1000000000L;
+		long deadline = measureFrom + duration * 1000000000L;
+
+		for (int i=0; i < threads; i++) {
+			clients[i] = new Client(baseURL, allowedOrigin, mix, seed + i, start);
+			clients[i].schedule(measureFrom, deadline);
+			clients[i].start();
+		}
+
+		start.countDown();
+
+		for (Client client: clients)
+			client.join();
+
+		server.stop();
+
+
+		// Report
+
+		System.out.println();
+		System.out.println(String.format("%-10s %10s %10s %9s %9s %9s %9s %9s %7s",
+			"type", "requests", "req/s", "p50 us", "p90 us", "p99 us", "p99.9 us", "max us", "errors"));
+
+		Samples all = new Samples();
+		int allErrors = 0;
+
+		for (int t=0; t < TYPES.length; t++) {
+
+			Samples merged = new Samples();
+			int errors = 0;
+
+			for (Client client: clients) {
+				merged.addAll(client.samples[t]);
+				errors += client.errors[t];
+			}
+
+			if (merged.size() == 0 && errors == 0)
+				continue;
+
+			all.addAll(merged);
+			allErrors += errors;
+
+			printRow(TYPES[t], merged.sorted(), errors, duration);
+		}
+
+		printRow("total", all.sorted(), allErrors, duration);
+	}
+
+
+	/**
+	 * Prints a report row.
+	 *
+	 * @param type     The request type.
+	 * @param sorted   The sorted latency samples, in nanoseconds.
+	 * @param errors   The number of errors.
+	 * @param duration The measurement duration, in seconds.
+	 */
+	private static void printRow(final String type, final long[] sorted, final int errors, final int duration) {
+
+		System.out.println(String.format("%-10s %10d %10.0f %9.1f %9.1f %9.1f %9.1f %9.1f %7d",
+			type,
+			sorted.length,
+			sorted.length / (double)duration,
+			percentile(sorted, 50) / 1000.0,
+			percentile(sorted, 90) / 1000.0,
+			percentile(sorted, 99) / 1000.0,
+			percentile(sorted, 99.9) / 1000.0,
+			(sorted.length > 0 ? sorted[sorted.length - 1] : 0) / 1000.0,
+			errors));
+	}
+}
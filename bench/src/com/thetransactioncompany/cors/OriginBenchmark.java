@@ -0,0 +1,162 @@
+package com.thetransactioncompany.cors;
+
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Benchmarks the {@link Origin} class: parsing with {@code new Origin(String)}
+ * and {@link Origin#equals} / {@link Origin#hashCode}.
+ *
+ * <p>The origin kinds:
+ *
+ * <ul>
+ *     <li>{@code host} A plain host name, e.g. {@code https://www.example.com}.
+ *     <li>{@code host-port} A host name with port.
+ *     <li>{@code ipv4} An IPv4 address.
+ *     <li>{@code ipv6} An IPv6 literal. Currently rejected by the IDN
+ *         conversion, so the cost of the rejection path is measured.
+ *     <li>{@code idn-ascii} An IDN host in ASCII (punycode) form, as sent
+ *         by browsers.
+ *     <li>{@code idn-unicode} An IDN host in Unicode form. Currently 
+ *         rejected by the URI parser, so the cost of the rejection path is 
+ *         measured.
+ *     <li>{@code null} The {@code "null"} origin of privacy-sensitive 
+ *         contexts.
+ * </ul>
+ *
+ * @author Vladimir Dzhuvinov
+ * @version $version$ ($version-date$)
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OriginBenchmark {
+
+
+	/**
+	 * The origin kind.
+	 */
+	@Param({"host", "host-port", "ipv4", "ipv6", "idn-ascii", "idn-unicode", "null"})
+	public String kind;
+	
+	
+	/**
+	 * The origin string to parse.
+	 */
+	private String originString;
+	
+	
+	/**
+	 * Parsed origin (for the equals / hash code benchmarks).
+	 */
+	private Origin origin;
+	
+	
+	/**
+	 * Separately parsed equal origin.
+	 */
+	private Origin equalOrigin;
+	
+	
+	/**
+	 * Returns a sample origin string of the specified kind.
+	 *
+	 * @param kind The origin kind.
+	 *
+	 * @return The origin string.
+	 */
+	static String sample(final String kind) {
+	
+		if (kind.equals("host"))
+			return "https://www.example.com";
+		if (kind.equals("host-port"))
+			return "https://sso.example.com:8443";
+		if (kind.equals("ipv4"))
+			return "http://192.168.0.1:8080";
+		if (kind.equals("ipv6"))
+			return "http://[2001:db8::1]:8080";
+		if (kind.equals("idn-ascii"))
+			return "https://xn--bcher-kva.example.com";
+		if (kind.equals("idn-unicode"))
+			return "https://b\u00fccher.example.com";
+		if (kind.equals("null"))
+			return "null";
+		
+		throw new IllegalArgumentException("Unknown origin kind: " + kind);
+	}
+	
+	
+	/**
+	 * Parses the specified origin string.
+	 *
+	 * @param s The origin string.
+	 *
+	 * @return The origin, {@code null} if rejected.
+	 */
+	private static Origin parse(final String s) {
+	
+		try {
+			return new Origin(s);
+			
+		} catch (OriginException e) {
+			return null;
+			
+		} catch (IllegalArgumentException e) {
+			// Thrown by the IDN conversion
+			return null;
+		}
+	}
+	
+	
+	@Setup
+	public void setUp() {
+	
+		originString = sample(kind);
+		
+		// Rejected origins fall back to a plain host for the
+		// equals / hash code benchmarks
+		origin = parse(originString);
+		
+		if (origin == null)
+			origin = parse(sample("host"));
+		
+		equalOrigin = parse(origin.toString());
+	}
+	
+	
+	@Benchmark
+	public Origin parseOrigin() {
+	
+		return parse(originString);
+	}
+	
+	
+	@Benchmark
+	public boolean originEquals() {
+	
+		return origin.equals(equalOrigin);
+	}
+	
+	
+	@Benchmark
+	public int originHashCode() {
+	
+		return origin.hashCode();
+	}
+}
@@ -0,0 +1,308 @@
+package com.thetransactioncompany.cors;
+
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+
+/**
+ * Replays a file of captured requests (see {@link RequestCapture} and the
+ * {@code cors.captureFile} filter parameter) through a
+ * {@link CORSRequestHandler}, single-threaded or in parallel, and reports
+ * the throughput and the outcome counts. Use it to benchmark candidate
+ * configurations and engine changes against real traffic offline.
+ *
+ * <p>Usage:
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar com.thetransactioncompany.cors.ReplayDriver capture-file [options]
+ *
+ *   --config     CORS filter properties file       (default: the default config)
+ *   --threads    replay threads                    (default 1)
+ *   --iterations passes over the captured requests (default 10)
+ *   --warmup     warm-up passes, not measured      (default 3)
+ * </pre>
+ *
+ * <p>With several threads each thread replays an interleaved slice of the
+ * captured requests.
+ *
+ * @author Vladimir Dzhuvinov
+ * @version $version$ ($version-date$)
+ */
+public class ReplayDriver {
+
+
+	/**
+	 * The replay outcomes.
+	 */
+	static final String[] OUTCOMES = {
+		"actual-allowed", "preflight-allowed", "non-cors",
+		"invalid", "origin-denied", "method-unsupported", "header-unsupported"
+	};
+
+
+	/**
+	 * Replay thread, processes a slice of the requests.
+	 */
+	static final class Replayer extends Thread {
+
+
+		private final CORSRequestHandler handler;
+
+
+		private final FakeHttpServletRequest[] requests;
+
+
+		private final int iterations;
+
+
+		final long[] outcomes = new long[OUTCOMES.length];
+
+
+		Replayer(final CORSRequestHandler handler,
+		         final FakeHttpServletRequest[] requests,
+		         final int iterations) {
+
+			this.handler = handler;
+			this.requests = requests;
+			this.iterations = iterations;
+		}
+
+
+		public void run() {
+
+			FakeHttpServletResponse response = new FakeHttpServletResponse();
+
+			for (int i=0; i < iterations; i++) {
+
+				for (FakeHttpServletRequest request: requests) {
+
+					request.clearAttributes();
+					response.reset();
+
+					outcomes[replay(handler, request, response)]++;
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Replays a single request.
+	 *
+	 * @param handler  The CORS request handler.
+	 * @param request  The request.
+	 * @param response The response.
+	 *
+	 * @return The outcome index, see {@link #OUTCOMES}.
+	 */
+	static int replay(final CORSRequestHandler handler,
+	                  final FakeHttpServletRequest request,
+	                  final FakeHttpServletResponse response) {
+
+		try {
+			switch (CORSRequestType.detect(request)) {
+
+				case ACTUAL:
+					handler.handleActualRequest(request, response);
+					return 0;
+
+				case PREFLIGHT:
+					handler.handlePreflightRequest(request, response);
+					return 1;
+
+				default:
+					return 2;
+			}
+
+		} catch (InvalidCORSRequestException e) {
+			return 3;
+
+		} catch (CORSOriginDeniedException e) {
+			return 4;
+
+		} catch (UnsupportedHTTPMethodException e) {
+			return 5;
+
+		} catch (UnsupportedHTTPHeaderException e) {
+			return 6;
+		}
+	}
+
+
+	/**
+	 * Loads the captured requests.
+	 *
+	 * @param file The capture file.
+	 *
+	 * @return The requests.
+	 *
+	 * @throws IOException On an I/O exception.
+	 */
+	static List<FakeHttpServletRequest> load(final String file)
+		throws IOException {
+
+		List<FakeHttpServletRequest> requests = new ArrayList<FakeHttpServletRequest>();
+
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+
+		try {
+			RequestCapture.Record record;
+
+			while ((record = RequestCapture.read(reader)) != null) {
+
+				requests.add(new FakeHttpServletRequest(record.method, record.requestURI)
+					.setHeader("Origin", record.origin)
+					.setHeader("Access-Control-Request-Method", record.requestMethod)
+					.setHeader("Access-Control-Request-Headers", record.requestHeaders));
+			}
+
+		} finally {
+			reader.close();
+		}
+
+		return requests;
+	}
+
+
+	public static void main(final String[] args)
+		throws Exception {
+
+		if (args.length < 1) {
+			System.err.println("Usage: ReplayDriver capture-file [--config file] [--threads n] [--iterations n] [--warmup n]");
+			System.exit(1);
+		}
+
+		String configFile = null;
+		int threads = 1;
+		int iterations = 10;
+		int warmup = 3;
+
+		for (int i=1; i + 1 < args.length; i += 2) {
+
+			if (args[i].equals("--config"))
+				configFile = args[i + 1];
+			else if (args[i].equals("--threads"))
+				threads = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("--iterations"))
+				iterations = Integer.parseInt(args[i + 1]);
+			else if (args[i].equals("--warmup"))
+				warmup = Integer.parseInt(args[i + 1]);
+			else
+				throw new IllegalArgumentException("Unknown option: " + args[i]);
+		}
+
+		Properties props = new Properties();
+
+		if (configFile != null) {
+
+			InputStream in = new FileInputStream(configFile);
+
+			try {
+				props.load(in);
+
+			} finally {
+				in.close();
+			}
+		}
+
+		CORSRequestHandler handler = new CORSRequestHandler(new CORSConfiguration(props));
+
+		List<FakeHttpServletRequest> requests = load(args[0]);
+
+		System.out.println("Replaying " + requests.size() + " captured requests" +
+		                   " threads=" + threads +
+		                   " iterations=" + iterations +
+		                   " warmup=" + warmup);
+
+		if (requests.isEmpty())
+			return;
+
+
+		// Interleaved slices, one per thread
+
+		FakeHttpServletRequest[][] slices = new FakeHttpServletRequest[threads][];
+
+		for (int t=0; t < threads; t++) {
+
+			List<FakeHttpServletRequest> slice = new ArrayList<FakeHttpServletRequest>();
+
+			for (int i=t; i < requests.size(); i += threads)
+				slice.add(requests.get(i));
+
+			slices[t] = slice.toArray(new FakeHttpServletRequest[slice.size()]);
+		}
+
+
+		// Warm up
+
+		run(handler, slices, warmup);
+
+
+		// Measure
+
+		long start = System.nanoTime();
+
+		Replayer[] replayers = run(handler, slices, iterations);
+
+		long elapsed = System.nanoTime() - start;
+
+		long[] outcomes = new long[OUTCOMES.length];
+		long total = 0;
+
+		for (Replayer replayer: replayers) {
+			for (int i=0; i < outcomes.length; i++) {
+				outcomes[i] += replayer.outcomes[i];
+				total += replayer.outcomes[i];
+			}
+		}
+
+		System.out.println();
+		System.out.println(String.format("requests:  %d", total));
+		System.out.println(String.format("elapsed:   %.3f s", elapsed / 1e9));
+		System.out.println(String.format("req/s:     %.0f", total / (elapsed / 1e9)));
+		System.out.println(String.format("ns/req:    %.1f (x %d threads)", (double)elapsed * threads / total, threads));
+		System.out.println();
+
+		for (int i=0; i < outcomes.length; i++) {
+			if (outcomes[i] > 0)
+				System.out.println(String.format("%-20s %12d %6.2f%%", OUTCOMES[i], outcomes[i], 100.0 * outcomes[i] / total));
+		}
+	}
+
+
+	/**
+	 * Runs the replay threads to completion.
+	 *
+	 * @param handler    The CORS request handler.
+	 * @param slices     The request slices, one per thread.
+	 * @param iterations The passes over each slice.
+	 *
+	 * @return The completed replay threads.
+	 *
+	 * @throws InterruptedException If interrupted.
+	 */
+	private static Replayer[] run(final CORSRequestHandler handler,
+	                              final FakeHttpServletRequest[][] slices,
+	                              final int iterations)
+		throws InterruptedException {
+
+		Replayer[] replayers = new Replayer[slices.length];
+
+		for (int t=0; t < slices.length; t++) {
+			replayers[t] = new Replayer(handler, slices[t], iterations);
+			replayers[t].start();
+		}
+
+		for (Replayer replayer: replayers)
+			replayer.join();
+
+		return replayers;
+	}
+}
@@ -0,0 +1,193 @@
+package com.thetransactioncompany.cors;
+
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+
+/**
+ * Benchmarks the CORS request path: {@link CORSFilter#doFilter}, 
+ * {@link CORSRequestHandler#handleActualRequest}, 
+ * {@link CORSRequestHandler#handlePreflightRequest} and 
+ * {@link CORSRequestType#detect}, for each of the 
+ * {@link BenchmarkPolicies} with and without credentials support and 
+ * policy compilation.
+ *
+ * <p>Run with the GC profiler to report the allocated bytes per operation:
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar RequestPathBenchmark -prof gc
+ * </pre>
+ *
+ * @author Vladimir Dzhuvinov
+ * @version $version$ ($version-date$)
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RequestPathBenchmark {
+
+
+	/**
+	 * The CORS policy, see {@link BenchmarkPolicies}.
+	 */
+	@Param({"any", "exact-10", "exact-1000", "exact-100000", "suffix"})
+	public String policy;
+	
+	
+	/**
+	 * The {@code cors.supportsCredentials} setting.
+	 */
+	@Param({"true", "false"})
+	public boolean credentials;
+	
+	
+	/**
+	 * The {@code cors.compilePolicy} setting.
+	 */
+	@Param({"false", "true"})
+	public boolean compile;
+	
+	
+	/**
+	 * No-op filter chain.
+	 */
+	private static final FilterChain NO_OP_CHAIN = new FilterChain() {
+	
+		public void doFilter(final ServletRequest request, final ServletResponse response) {
+		
+			// do nothing
+		}
+	};
+	
+	
+	private CORSFilter filter;
+	
+	
+	private CORSRequestHandler handler;
+	
+	
+	private FakeHttpServletRequest actualRequest;
+	
+	
+	private FakeHttpServletRequest preflightRequest;
+	
+	
+	private FakeHttpServletRequest otherRequest;
+	
+	
+	private FakeHttpServletResponse response;
+	
+	
+	@Setup
+	public void setUp()
+		throws Exception {
+	
+		Properties props = BenchmarkPolicies.properties(policy, credentials);
+		props.setProperty("cors.compilePolicy", Boolean.toString(compile));
+		
+		filter = new CORSFilter();
+		filter.init(new FakeFilterConfig(props));
+		
+		handler = new CORSRequestHandler(new CORSConfiguration(props));
+		
+		String origin = BenchmarkPolicies.allowedRequestOrigin(policy);
+		
+		actualRequest = new FakeHttpServletRequest("GET", "/api/resource")
+			.setHeader("Origin", origin)
+			.setHeader("Accept", "application/json");
+		
+		preflightRequest = new FakeHttpServletRequest("OPTIONS", "/api/resource")
+			.setHeader("Origin", origin)
+			.setHeader("Access-Control-Request-Method", "POST")
+			.setHeader("Access-Control-Request-Headers", "Content-Type, X-Requested-With");
+		
+		otherRequest = new FakeHttpServletRequest("GET", "/api/resource")
+			.setHeader("Accept", "application/json");
+		
+		response = new FakeHttpServletResponse();
+	}
+	
+	
+	@Benchmark
+	public FakeHttpServletResponse filterActualRequest()
+		throws Exception {
+	
+		actualRequest.clearAttributes();
+		response.reset();
+		filter.doFilter(actualRequest, response, NO_OP_CHAIN);
+		return response;
+	}
+	
+	
+	@Benchmark
+	public FakeHttpServletResponse filterPreflightRequest()
+		throws Exception {
+	
+		preflightRequest.clearAttributes();
+		response.reset();
+		filter.doFilter(preflightRequest, response, NO_OP_CHAIN);
+		return response;
+	}
+	
+	
+	@Benchmark
+	public FakeHttpServletResponse filterOtherRequest()
+		throws Exception {
+	
+		otherRequest.clearAttributes();
+		response.reset();
+		filter.doFilter(otherRequest, response, NO_OP_CHAIN);
+		return response;
+	}
+	
+	
+	@Benchmark
+	public FakeHttpServletResponse handleActualRequest()
+		throws Exception {
+	
+		actualRequest.clearAttributes();
+		response.reset();
+		handler.handleActualRequest(actualRequest, response);
+		return response;
+	}
+	
+	
+	@Benchmark
+	public FakeHttpServletResponse handlePreflightRequest()
+		throws Exception {
+	
+		response.reset();
+		handler.handlePreflightRequest(preflightRequest, response);
+		return response;
+	}
+	
+	
+	@Benchmark
+	public void detectRequestType(final Blackhole bh) {
+	
+		bh.consume(CORSRequestType.detect(actualRequest));
+		bh.consume(CORSRequestType.detect(preflightRequest));
+		bh.consume(CORSRequestType.detect(otherRequest));
+	}
+}
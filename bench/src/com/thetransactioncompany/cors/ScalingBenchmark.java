@@ -0,0 +1,230 @@
+package com.thetransactioncompany.cors;
+
+
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+
+/**
+ * Multi-threaded benchmark of the CORS request path against one shared 
+ * {@link CORSFilter} instance. Run with increasing thread counts (JMH 
+ * {@code -t}), or use {@link ScalingReport} to run the whole series and
+ * compute the scaling efficiency.
+ *
+ * <p>Parameters:
+ *
+ * <ul>
+ *     <li>{@code distribution} The request origin distribution over 1000
+ *         allowed origins: {@code single} (always the same origin) or 
+ *         {@code zipf} (skewed, exponent 1.1, 10% disallowed origins).
+ *     <li>{@code swap} If {@code true} a background thread re-initialises
+ *         the shared filter with an alternate configuration every 10 ms.
+ * </ul>
+ *
+ * @author Vladimir Dzhuvinov
+ * @version $version$ ($version-date$)
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScalingBenchmark {
+
+
+	/**
+	 * The number of allowed origins.
+	 */
+	static final int ORIGINS = 1000;
+	
+	
+	/**
+	 * The number of pre-generated requests per thread.
+	 */
+	static final int REQUESTS_PER_THREAD = 4096;
+	
+	
+	/**
+	 * No-op filter chain.
+	 */
+	private static final FilterChain NO_OP_CHAIN = new FilterChain() {
+	
+		public void doFilter(final ServletRequest request, final ServletResponse response) {
+		
+			// do nothing
+		}
+	};
+	
+	
+	/**
+	 * State shared by all benchmark threads: the filter and the 
+	 * configuration swapper.
+	 */
+	@State(Scope.Benchmark)
+	public static class SharedState {
+	
+	
+		@Param({"single", "zipf"})
+		public String distribution;
+		
+		
+		@Param({"false", "true"})
+		public boolean swap;
+		
+		
+		CORSFilter filter;
+		
+		
+		private volatile boolean swapping;
+		
+		
+		private Thread swapper;
+		
+		
+		@Setup(Level.Trial)
+		public void setUp()
+			throws ServletException {
+		
+			final Properties props = BenchmarkPolicies.properties("exact-" + ORIGINS, true);
+			
+			final Properties altProps = BenchmarkPolicies.properties("exact-" + ORIGINS, true);
+			altProps.setProperty("cors.maxAge", "600");
+			
+			filter = new CORSFilter();
+			filter.init(new FakeFilterConfig(props));
+			
+			if (! swap)
+				return;
+			
+			swapping = true;
+			
+			swapper = new Thread("cors-config-swapper") {
+			
+				public void run() {
+				
+					boolean alt = false;
+				
+					while (swapping) {
+					
+						try {
+							filter.init(new FakeFilterConfig(alt ? altProps : props));
+							alt = ! alt;
+							Thread.sleep(10);
+							
+						} catch (ServletException e) {
+							throw new IllegalStateException(e);
+							
+						} catch (InterruptedException e) {
+							return;
+						}
+					}
+				}
+			};
+			
+			swapper.setDaemon(true);
+			swapper.start();
+		}
+		
+		
+		@TearDown(Level.Trial)
+		public void tearDown()
+			throws InterruptedException {
+		
+			swapping = false;
+			
+			if (swapper != null)
+				swapper.join();
+		}
+	}
+	
+	
+	/**
+	 * Per-thread state: the pre-generated requests and a response.
+	 */
+	@State(Scope.Thread)
+	public static class ThreadState {
+	
+	
+		FakeHttpServletRequest[] requests;
+		
+		
+		FakeHttpServletResponse response;
+		
+		
+		int next = 0;
+		
+		
+		@Setup(Level.Trial)
+		public void setUp(final SharedState shared, final ThreadParams threadParams) {
+		
+			Random random = new Random(threadParams.getThreadIndex());
+			
+			ZipfDistribution zipf = new ZipfDistribution(ORIGINS, 1.1);
+			
+			requests = new FakeHttpServletRequest[REQUESTS_PER_THREAD];
+			
+			for (int i=0; i < requests.length; i++) {
+			
+				String origin;
+				
+				if (shared.distribution.equals("single"))
+					origin = BenchmarkPolicies.exactOrigin(ORIGINS / 2);
+				else if (random.nextInt(10) == 0)
+					origin = "https://denied" + random.nextInt(ORIGINS) + ".example.net";
+				else
+					origin = BenchmarkPolicies.exactOrigin(zipf.sample(random));
+				
+				if (i % 5 == 0) {
+					requests[i] = new FakeHttpServletRequest("OPTIONS", "/api/resource")
+						.setHeader("Origin", origin)
+						.setHeader("Access-Control-Request-Method", "POST")
+						.setHeader("Access-Control-Request-Headers", "Content-Type");
+				}
+				else {
+					requests[i] = new FakeHttpServletRequest("GET", "/api/resource")
+						.setHeader("Origin", origin);
+				}
+			}
+			
+			response = new FakeHttpServletResponse();
+		}
+	}
+	
+	
+	@Benchmark
+	public FakeHttpServletResponse doFilter(final SharedState shared, final ThreadState state)
+		throws Exception {
+	
+		FakeHttpServletRequest request = state.requests[state.next];
+		
+		state.next = (state.next + 1) & (REQUESTS_PER_THREAD - 1);
+		
+		request.clearAttributes();
+		state.response.reset();
+		
+		shared.filter.doFilter(request, state.response, NO_OP_CHAIN);
+		
+		return state.response;
+	}
+}
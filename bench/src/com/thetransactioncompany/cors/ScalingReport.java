@@ -0,0 +1,132 @@
+package com.thetransactioncompany.cors;
+
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+
+/**
+ * Runs the {@link ScalingBenchmark} with 1, 2, 4, ... up to N threads and
+ * reports the throughput and scaling efficiency of each configuration. 
+ * The efficiency at {@code t} threads is the throughput divided by 
+ * {@code t} times the single-threaded throughput. Configurations that 
+ * scale below the efficiency threshold are flagged as likely shared-state
+ * contention (contended counters or caches, false sharing, synchronized 
+ * collections), to be investigated with e.g. {@code -prof perfc2c} or 
+ * {@code -prof perfasm}.
+ *
+ * <p>Usage:
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar com.thetransactioncompany.cors.ScalingReport [max-threads [threshold]]
+ * </pre>
+ *
+ * <p>The maximum thread count defaults to the number of available 
+ * processors and the efficiency threshold to 0.8.
+ *
+ * @author Vladimir Dzhuvinov
+ * @version $version$ ($version-date$)
+ */
+public class ScalingReport {
+
+
+	/**
+	 * Returns the thread counts to run: powers of 2 up to the maximum,
+	 * plus the maximum itself.
+	 *
+	 * @param max The maximum thread count.
+	 *
+	 * @return The thread counts.
+	 */
+	static List<Integer> threadCounts(final int max) {
+	
+		List<Integer> counts = new ArrayList<Integer>();
+		
+		for (int t=1; t < max; t *= 2)
+			counts.add(t);
+		
+		counts.add(max);
+		
+		return counts;
+	}
+	
+	
+	public static void main(final String[] args)
+		throws Exception {
+	
+		int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+		double threshold = args.length > 1 ? Double.parseDouble(args[1]) : 0.8;
+		
+		List<Integer> counts = threadCounts(maxThreads);
+		
+		// Throughput per configuration, in thread count order
+		Map<String,List<Double>> scores = new LinkedHashMap<String,List<Double>>();
+		
+		for (int threads: counts) {
+		
+			Options opts = new OptionsBuilder()
+				.include(ScalingBenchmark.class.getName())
+				.threads(threads)
+				.build();
+			
+			Collection<RunResult> results = new Runner(opts).run();
+			
+			for (RunResult result: results) {
+			
+				String key = "distribution=" + result.getParams().getParam("distribution") +
+				             " swap=" + result.getParams().getParam("swap");
+				
+				if (! scores.containsKey(key))
+					scores.put(key, new ArrayList<Double>());
+				
+				scores.get(key).add(result.getPrimaryResult().getScore());
+			}
+		}
+		
+		System.out.println();
+		System.out.println("CORS Filter scaling report (throughput in ops/us, efficiency threshold " + threshold + ")");
+		
+		boolean flagged = false;
+		
+		for (Map.Entry<String,List<Double>> entry: scores.entrySet()) {
+		
+			System.out.println();
+			System.out.println(entry.getKey());
+			System.out.println(String.format("  %8s %12s %10s", "threads", "ops/us", "efficiency"));
+			
+			List<Double> values = entry.getValue();
+			
+			double base = values.get(0);
+			
+			for (int i=0; i < values.size(); i++) {
+			
+				int threads = counts.get(i);
+				
+				double efficiency = values.get(i) / (threads * base);
+				
+				String flag = "";
+				
+				if (efficiency < threshold) {
+					flag = "  <-- poor scaling, check for shared-state contention";
+					flagged = true;
+				}
+				
+				System.out.println(String.format("  %8d %12.3f %10.2f%s", threads, values.get(i), efficiency, flag));
+			}
+		}
+		
+		if (flagged) {
+			System.out.println();
+			System.out.println("Some configurations scale below the threshold. Profile them with -prof perfc2c");
+			System.out.println("(false sharing) or -prof perfasm, and review the shared state on the request path.");
+		}
+	}
+}
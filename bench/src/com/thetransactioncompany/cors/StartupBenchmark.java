@@ -0,0 +1,176 @@
+package com.thetransactioncompany.cors;
+
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Benchmarks the construction of the CORS configuration at filter startup
+ * for large allowed origin lists. Each invocation builds the complete
+ * configuration, so the single shot time is the startup cost.
+ *
+ * <p>Parameters:
+ *
+ * <ul>
+ *     <li>{@code origins} The number of allowed origins.
+ *     <li>{@code source} How the origins are supplied:
+ *         <ul>
+ *             <li>{@code property} Inline, in the {@code cors.allowOrigin}
+ *                 property.
+ *             <li>{@code file-sequential} In a file, read by a
+ *                 {@link OriginListLoader} on a single worker thread.
+ *             <li>{@code file} In a file, in the
+ *                 {@code cors.allowOriginFile} property (one worker
+ *                 thread per processor).
+ *             <li>{@code snapshot} In a {@link PolicySnapshot}.
+ *         </ul>
+ * </ul>
+ *
+ * @author Vladimir Dzhuvinov
+ * @version $version$ ($version-date$)
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StartupBenchmark {
+
+
+	@Param({"1000", "10000", "100000", "1000000"})
+	public int origins;
+
+
+	@Param({"property", "file-sequential", "file", "snapshot"})
+	public String source;
+
+
+	/**
+	 * The configuration properties.
+	 */
+	private Properties props;
+
+
+	/**
+	 * The origin list file.
+	 */
+	private File originFile;
+
+
+	/**
+	 * The policy snapshot file.
+	 */
+	private File snapshotFile;
+
+
+	@Setup(Level.Trial)
+	public void setUp()
+		throws Exception {
+
+		props = BenchmarkPolicies.properties("any", true);
+		props.remove("cors.allowOrigin");
+
+		originFile = File.createTempFile("cors-origins", ".txt");
+
+		Writer writer = new OutputStreamWriter(new FileOutputStream(originFile), "UTF-8");
+
+		try {
+			for (int i=0; i < origins; i++) {
+				writer.write(BenchmarkPolicies.exactOrigin(i));
+				writer.write('\n');
+			}
+
+		} finally {
+			writer.close();
+		}
+
+		if (source.equals("property")) {
+
+			StringBuilder sb = new StringBuilder();
+
+			for (int i=0; i < origins; i++) {
+
+				if (i > 0)
+					sb.append(' ');
+
+				sb.append(BenchmarkPolicies.exactOrigin(i));
+			}
+
+			props.setProperty("cors.allowOrigin", sb.toString());
+		}
+		else {
+			props.setProperty("cors.allowOriginFile", originFile.getPath());
+		}
+
+		snapshotFile = File.createTempFile("cors-policy", ".snapshot");
+
+		OutputStream out = new FileOutputStream(snapshotFile);
+
+		try {
+			PolicySnapshot.write(new CORSConfiguration(props), out);
+
+		} finally {
+			out.close();
+		}
+	}
+
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+
+		originFile.delete();
+		snapshotFile.delete();
+	}
+
+
+	@Benchmark
+	public Object startup()
+		throws IOException, CORSConfigurationException {
+
+		if (source.equals("snapshot"))
+			return PolicySnapshot.read(snapshotFile);
+
+		if (source.equals("file-sequential")) {
+
+			ForkJoinPool pool = new ForkJoinPool(1);
+
+			try {
+				Set<String> allowed = new OriginListLoader(pool, OriginListLoader.DEFAULT_BATCH_SIZE).load(originFile);
+
+				if (allowed.size() != origins)
+					throw new IllegalStateException("Unexpected origin count: " + allowed.size());
+
+				return allowed;
+
+			} finally {
+				pool.shutdown();
+			}
+		}
+
+		return new CORSConfiguration(props);
+	}
+}
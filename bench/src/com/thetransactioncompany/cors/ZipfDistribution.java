@@ -0,0 +1,66 @@
+package com.thetransactioncompany.cors;
+
+
+import java.util.Arrays;
+import java.util.Random;
+
+
+/**
+ * Zipf distribution over the ranks {@code 0 .. n-1}, rank 0 being the most
+ * frequent. Used to generate skewed origin streams for the benchmarks.
+ *
+ * @author Vladimir Dzhuvinov
+ * @version $version$ ($version-date$)
+ */
+public final class ZipfDistribution {
+
+
+	/**
+	 * The cumulative probabilities of the ranks.
+	 */
+	private final double[] cdf;
+	
+	
+	/**
+	 * Creates a new Zipf distribution.
+	 *
+	 * @param n        The number of ranks, must be positive.
+	 * @param exponent The exponent, typically around 1.0. Higher values
+	 *                 make the distribution more skewed.
+	 */
+	public ZipfDistribution(final int n, final double exponent) {
+	
+		if (n <= 0)
+			throw new IllegalArgumentException("The number of ranks must be positive");
+	
+		cdf = new double[n];
+		
+		double sum = 0.0;
+		
+		for (int i=0; i < n; i++) {
+			sum += 1.0 / Math.pow(i + 1, exponent);
+			cdf[i] = sum;
+		}
+		
+		for (int i=0; i < n; i++)
+			cdf[i] /= sum;
+	}
+	
+	
+	/**
+	 * Samples a rank.
+	 *
+	 * @param random The random number generator to use.
+	 *
+	 * @return The rank, {@code 0 .. n-1}.
+	 */
+	public int sample(final Random random) {
+	
+		int i = Arrays.binarySearch(cdf, random.nextDouble());
+		
+		if (i < 0)
+			i = -i - 1;
+		
+		return Math.min(i, cdf.length - 1);
+	}
+}
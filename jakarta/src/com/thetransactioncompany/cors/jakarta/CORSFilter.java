@@ -0,0 +1,500 @@
+package com.thetransactioncompany.cors.jakarta;
+
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Enumeration;
+import java.util.Properties;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.DispatcherType;
+import jakarta.servlet.Filter;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.FilterConfig;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import com.thetransactioncompany.cors.CORSConfiguration;
+import com.thetransactioncompany.cors.CORSConfigurationException;
+import com.thetransactioncompany.cors.CORSErrors;
+import com.thetransactioncompany.cors.CORSFilterLifecycle;
+import com.thetransactioncompany.cors.CORSFilterStatus;
+import com.thetransactioncompany.cors.CORSPolicyAdmin;
+import com.thetransactioncompany.cors.CORSRequestProcessor;
+import com.thetransactioncompany.cors.HotRequestTracker;
+import com.thetransactioncompany.cors.PolicyWarmup;
+import com.thetransactioncompany.cors.RequestCapture;
+
+
+/**
+ * Cross-Origin Resource Sharing (CORS) filter for Jakarta Servlet 6
+ * containers. Accepts the same init parameters and tags the requests with
+ * the same attributes as the {@code javax.servlet}
+ * {@link com.thetransactioncompany.cors.CORSFilter}, including
+ * {@code cors.snapshotFile}, {@code cors.backgroundInit},
+ * {@code cors.mbeanName}, {@code cors.warmupIterations},
+ * {@code cors.hotRequestFile}, {@code cors.policyAdmin} and
+ * {@code cors.syncDirectory}.
+ *
+ * <p>The filter never blocks on the client connection:
+ *
+ * <ul>
+ *     <li>Allowed preflight requests are answered with a body-less
+ *         {@code 200} response.
+ *     <li>Denied requests are answered asynchronously, the error message
+ *         being written by a {@code WriteListener} once the output stream
+ *         is ready. The asynchronous request is completed on a timeout or
+ *         an error too. This requires the filter (and the target servlet)
+ *         to be declared {@code async-supported}; otherwise the denial is
+ *         sent body-less, with the status code only.
+ * </ul>
+ *
+ * <p>Only the {@code REQUEST} dispatch of a request performs the CORS work;
+ * forward, include, error and async dispatches of the same request are
+ * passed straight down the chain.
+ *
+ * <p>The initialisation and the runtime replacement of the processor are
+ * shared with the {@code javax.servlet} filter, see
+ * {@link CORSFilterLifecycle}.
+ *
+ * @author Vladimir Dzhuvinov
+ * @version $version$ ($version-date$)
+ */
+public class CORSFilter implements Filter {
+
+
+	/**
+	 * The filter lifecycle, publishes the CORS request processor.
+	 */
+	private final CORSFilterLifecycle<CORSRequestProcessor> lifecycle = new CORSFilterLifecycle<CORSRequestProcessor>() {
+
+		@Override
+		protected CORSRequestProcessor createProcessor(final CORSConfiguration config,
+		                                               final boolean compilePolicy,
+		                                               final long policyVersion) {
+
+			return new CORSRequestProcessor(config, compilePolicy, policyVersion);
+		}
+
+
+		@Override
+		protected PolicyWarmup.Target createWarmupTarget(final CORSRequestProcessor processor) {
+
+			return new WarmupTarget(processor);
+		}
+	};
+
+
+	/**
+	 * Drives the warm-up requests through the CORS work of
+	 * {@link CORSFilter#doFilter}, with proxy servlet request / response
+	 * stubs.
+	 */
+	private static final class WarmupTarget implements PolicyWarmup.Target {
+
+
+		/**
+		 * The filter chain, does nothing.
+		 */
+		private static final FilterChain CHAIN = new FilterChain() {
+
+			@Override
+			public void doFilter(final ServletRequest request, final ServletResponse response) {
+
+				// do nothing
+			}
+		};
+
+
+		private final CORSRequestProcessor processor;
+
+
+		private final PolicyWarmup.Stub requestStub = new PolicyWarmup.Stub();
+
+
+		private final HttpServletRequest request = requestStub.newProxy(HttpServletRequest.class);
+
+
+		private final HttpServletResponse response = new PolicyWarmup.Stub().newProxy(HttpServletResponse.class);
+
+
+		WarmupTarget(final CORSRequestProcessor processor) {
+
+			this.processor = processor;
+		}
+
+
+		@Override
+		public void request(final String method,
+		                    final String origin,
+		                    final String requestMethod,
+		                    final String requestHeaders) {
+
+			requestStub.set(method, origin, requestMethod, requestHeaders);
+
+			try {
+				doFilter(processor, null, null, request, response, CHAIN);
+
+			} catch (IOException | ServletException e) {
+				// ignore
+			}
+		}
+	}
+
+
+	/**
+	 * Adapts a Jakarta HTTP servlet request / response pair to the
+	 * container-agnostic CORS interfaces.
+	 */
+	private static final class Exchange implements CORSFilterLifecycle.FilterExchange {
+
+
+		private final HttpServletRequest request;
+
+
+		private final HttpServletResponse response;
+
+
+		Exchange(final HttpServletRequest request, final HttpServletResponse response) {
+
+			this.request = request;
+			this.response = response;
+		}
+
+
+		@Override
+		public CharSequence getMethod() {
+
+			return request.getMethod();
+		}
+
+
+		@Override
+		public CharSequence getHeader(final String name) {
+
+			return request.getHeader(name);
+		}
+
+
+		@Override
+		public void addHeader(final String name, final String value) {
+
+			response.addHeader(name, value);
+		}
+
+
+		@Override
+		public String getRequestURI() {
+
+			return request.getRequestURI();
+		}
+
+
+		@Override
+		public void setAttribute(final String name, final Object value) {
+
+			request.setAttribute(name, value);
+		}
+
+
+		@Override
+		public void sendError(final int sc, final String msg)
+			throws IOException {
+
+			respondError(request, response, sc, msg);
+		}
+	}
+
+
+	/**
+	 * Writes a response body without blocking, then completes the
+	 * asynchronous request. Also completes the request if the write times
+	 * out or fails.
+	 */
+	static final class MessageWriter implements WriteListener, AsyncListener {
+
+
+		private final AsyncContext asyncContext;
+
+
+		private final ServletOutputStream out;
+
+
+		private final byte[] body;
+
+
+		private boolean written = false;
+
+
+		MessageWriter(final AsyncContext asyncContext, final ServletOutputStream out, final byte[] body) {
+
+			this.asyncContext = asyncContext;
+			this.out = out;
+			this.body = body;
+		}
+
+
+		@Override
+		public void onWritePossible()
+			throws IOException {
+
+			// The container calls back when the stream becomes ready
+			// again after a partial write
+			while (out.isReady()) {
+
+				if (written) {
+					asyncContext.complete();
+					return;
+				}
+
+				out.write(body);
+				written = true;
+			}
+		}
+
+
+		@Override
+		public void onError(final Throwable t) {
+
+			asyncContext.complete();
+		}
+
+
+		@Override
+		public void onTimeout(final AsyncEvent event) {
+
+			asyncContext.complete();
+		}
+
+
+		@Override
+		public void onError(final AsyncEvent event) {
+
+			asyncContext.complete();
+		}
+
+
+		@Override
+		public void onComplete(final AsyncEvent event) {
+
+			// do nothing
+		}
+
+
+		@Override
+		public void onStartAsync(final AsyncEvent event) {
+
+			// do nothing
+		}
+	}
+
+
+	/**
+	 * Converts the filter init parameters to a Java properties hashtable.
+	 *
+	 * @param config The filter configuration.
+	 *
+	 * @return The init parameters as Java properties.
+	 */
+	private static Properties getFilterInitParameters(final FilterConfig config) {
+
+		Properties props = new Properties();
+
+		Enumeration<String> en = config.getInitParameterNames();
+
+		while (en.hasMoreElements()) {
+
+			String key = en.nextElement();
+			props.setProperty(key, config.getInitParameter(key));
+		}
+
+		return props;
+	}
+
+
+	@Override
+	public void init(final FilterConfig filterConfig)
+		throws ServletException {
+
+		try {
+			lifecycle.init(filterConfig.getFilterName(), getFilterInitParameters(filterConfig));
+
+		} catch (CORSConfigurationException e) {
+
+			throw new ServletException(e);
+		}
+	}
+
+
+	/**
+	 * Returns the initialisation status of this filter.
+	 *
+	 * @return The filter status.
+	 */
+	public CORSFilterStatus getStatus() {
+
+		return lifecycle.getStatus();
+	}
+
+
+	/**
+	 * Returns the runtime administration interface of the access policy
+	 * of this filter.
+	 *
+	 * @return The policy admin, {@code null} if {@code cors.policyAdmin}
+	 *         is not enabled.
+	 */
+	public CORSPolicyAdmin getPolicyAdmin() {
+
+		return lifecycle.getPolicyAdmin();
+	}
+
+
+	/**
+	 * Gets the CORS configuration in effect.
+	 *
+	 * @return The CORS configuration, {@code null} if not initialised.
+	 */
+	public CORSConfiguration getConfiguration() {
+
+		CORSRequestProcessor processor = lifecycle.getProcessor();
+
+		return processor != null ? processor.getConfiguration() : null;
+	}
+
+
+	/**
+	 * Filters an HTTP request / response pair according to the configured
+	 * CORS policy.
+	 *
+	 * @param request  The HTTP request.
+	 * @param response The HTTP response.
+	 * @param chain    The filter chain.
+	 *
+	 * @throws IOException      On a I/O exception.
+	 * @throws ServletException On a general request processing exception.
+	 */
+	private void doFilter(final HttpServletRequest request, final HttpServletResponse response, final FilterChain chain)
+		throws IOException, ServletException {
+
+		if (request.getDispatcherType() != DispatcherType.REQUEST) {
+			chain.doFilter(request, response);
+			return;
+		}
+
+		// Read once, the processor may be replaced by a concurrent
+		// re-initialisation
+		doFilter(lifecycle.getProcessor(), lifecycle.getCapture(), lifecycle.getHotRequestTracker(), request, response, chain);
+	}
+
+
+	/**
+	 * Performs the CORS work of the filter on an HTTP request / response
+	 * pair and tags the request. Also used by the filter warm-up.
+	 *
+	 * @param processor         The CORS request processor.
+	 * @param capture           The request capture, {@code null} if
+	 *                          disabled.
+	 * @param hotRequestTracker The hot request tracker, {@code null} if
+	 *                          disabled.
+	 * @param request           The HTTP request.
+	 * @param response          The HTTP response.
+	 * @param chain             The filter chain.
+	 *
+	 * @throws IOException      On a I/O exception.
+	 * @throws ServletException On a general request processing exception.
+	 */
+	private static void doFilter(final CORSRequestProcessor processor,
+	                             final RequestCapture capture,
+	                             final HotRequestTracker hotRequestTracker,
+	                             final HttpServletRequest request,
+	                             final HttpServletResponse response,
+	                             final FilterChain chain)
+		throws IOException, ServletException {
+
+		switch (CORSFilterLifecycle.process(processor, capture, hotRequestTracker, new Exchange(request, response))) {
+
+			case CHAIN:
+				chain.doFilter(request, response);
+				break;
+
+			case PREFLIGHT:
+				// Body-less, nothing to block on
+				response.setStatus(HttpServletResponse.SC_OK);
+				response.setContentLength(0);
+				break;
+
+			default:
+				// Error response sent
+		}
+	}
+
+
+	/**
+	 * Answers a request with a CORS error message. The message body is
+	 * written asynchronously if the request supports it, else the response
+	 * is sent body-less.
+	 *
+	 * @param request  The HTTP request.
+	 * @param response The HTTP response.
+	 * @param sc       The HTTP status code.
+	 * @param msg      The message.
+	 *
+	 * @throws IOException On a I/O exception.
+	 */
+	private static void respondError(final HttpServletRequest request,
+	                                 final HttpServletResponse response,
+	                                 final int sc,
+	                                 final String msg)
+		throws IOException {
+
+		response.setStatus(sc);
+		response.resetBuffer();
+
+		if (! request.isAsyncSupported()) {
+			response.setContentLength(0);
+			return;
+		}
+
+		byte[] body = (CORSErrors.MESSAGE_PREFIX + msg + "\r\n").getBytes(StandardCharsets.UTF_8);
+
+		response.setContentType("text/plain;charset=UTF-8");
+		response.setContentLength(body.length);
+
+		AsyncContext asyncContext = request.startAsync(request, response);
+
+		ServletOutputStream out = response.getOutputStream();
+
+		MessageWriter writer = new MessageWriter(asyncContext, out, body);
+		asyncContext.addListener(writer);
+		out.setWriteListener(writer);
+	}
+
+
+	@Override
+	public void doFilter(final ServletRequest request, final ServletResponse response, final FilterChain chain)
+		throws IOException, ServletException {
+
+		if (request instanceof HttpServletRequest && response instanceof HttpServletResponse) {
+
+			doFilter((HttpServletRequest)request, (HttpServletResponse)response, chain);
+		}
+		else {
+			throw new ServletException("Cannot filter non-HTTP requests/responses");
+		}
+	}
+
+
+	@Override
+	public void destroy() {
+
+		lifecycle.destroy();
+	}
+}
@@ -0,0 +1,406 @@
+package com.thetransactioncompany.cors.jakarta;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.DispatcherType;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.FilterConfig;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import junit.framework.*;
+
+
+/**
+ * Tests the Jakarta Servlet CORS filter.
+ *
+ * @author Vladimir Dzhuvinov
+ * @version $version$ ($version-date$)
+ */
+public class CORSFilterTest extends TestCase {
+
+
+	/**
+	 * Output stream which only becomes ready when told to.
+	 */
+	private static class SlowOutputStream extends ServletOutputStream {
+
+
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+
+		boolean ready = false;
+
+
+		WriteListener listener;
+
+
+		@Override
+		public boolean isReady() {
+
+			return ready;
+		}
+
+
+		@Override
+		public void setWriteListener(final WriteListener listener) {
+
+			this.listener = listener;
+		}
+
+
+		@Override
+		public void write(final int b) {
+
+			bytes.write(b);
+		}
+	}
+
+
+	/**
+	 * Fake request / response / async context state, backing the proxies.
+	 */
+	private static class Exchange implements InvocationHandler {
+
+
+		final String method;
+
+
+		final Map<String,String> requestHeaders = new HashMap<String,String>();
+
+
+		final Map<String,Object> attributes = new HashMap<String,Object>();
+
+
+		final boolean asyncSupported;
+
+
+		DispatcherType dispatcherType = DispatcherType.REQUEST;
+
+
+		final Map<String,String> responseHeaders = new HashMap<String,String>();
+
+
+		final SlowOutputStream out = new SlowOutputStream();
+
+
+		int status = 200;
+
+
+		int contentLength = -1;
+
+
+		boolean asyncStarted = false;
+
+
+		boolean completed = false;
+
+
+		AsyncListener asyncListener;
+
+
+		final HttpServletRequest request;
+
+
+		final HttpServletResponse response;
+
+
+		Exchange(final String method, final boolean asyncSupported) {
+
+			this.method = method;
+			this.asyncSupported = asyncSupported;
+
+			ClassLoader cl = getClass().getClassLoader();
+
+			request = (HttpServletRequest)Proxy.newProxyInstance(cl, new Class<?>[]{HttpServletRequest.class}, this);
+			response = (HttpServletResponse)Proxy.newProxyInstance(cl, new Class<?>[]{HttpServletResponse.class}, this);
+		}
+
+
+		Exchange header(final String name, final String value) {
+
+			requestHeaders.put(name.toLowerCase(), value);
+			return this;
+		}
+
+
+		@Override
+		public Object invoke(final Object proxy, final Method m, final Object[] args) {
+
+			String name = m.getName();
+
+			if (name.equals("getMethod"))
+				return method;
+			else if (name.equals("getHeader") && proxy == request)
+				return requestHeaders.get(((String)args[0]).toLowerCase());
+			else if (name.equals("getHeader"))
+				return responseHeaders.get(args[0]);
+			else if (name.equals("getRequestURI"))
+				return "/resource";
+			else if (name.equals("getAttribute"))
+				return attributes.get(args[0]);
+			else if (name.equals("setAttribute"))
+				attributes.put((String)args[0], args[1]);
+			else if (name.equals("isAsyncSupported"))
+				return asyncSupported;
+			else if (name.equals("getDispatcherType"))
+				return dispatcherType;
+			else if (name.equals("startAsync")) {
+				asyncStarted = true;
+				return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{AsyncContext.class}, new InvocationHandler() {
+
+					@Override
+					public Object invoke(final Object p, final Method am, final Object[] aa) {
+
+						if (am.getName().equals("complete"))
+							completed = true;
+						else if (am.getName().equals("addListener"))
+							asyncListener = (AsyncListener)aa[0];
+
+						return null;
+					}
+				});
+			}
+			else if (name.equals("setStatus"))
+				status = (Integer)args[0];
+			else if (name.equals("setContentLength"))
+				contentLength = (Integer)args[0];
+			else if (name.equals("addHeader") || name.equals("setHeader"))
+				responseHeaders.put((String)args[0], (String)args[1]);
+			else if (name.equals("getOutputStream"))
+				return out;
+			else if (name.equals("isCommitted"))
+				return false;
+			else if (name.equals("hashCode"))
+				return System.identityHashCode(proxy);
+			else if (name.equals("equals"))
+				return proxy == args[0];
+
+			return null;
+		}
+	}
+
+
+	/**
+	 * Counts the requests passed down the chain.
+	 */
+	private static class CountingChain implements FilterChain {
+
+
+		int count = 0;
+
+
+		@Override
+		public void doFilter(final ServletRequest request, final ServletResponse response) {
+
+			count++;
+		}
+	}
+
+
+	private static CORSFilter createFilter()
+		throws Exception {
+
+		Properties props = new Properties();
+		props.setProperty("cors.allowOrigin", "http://example.com");
+		props.setProperty("cors.supportedMethods", "GET, POST");
+		props.setProperty("cors.supportedHeaders", "Content-Type");
+
+		return createFilter("CORS", props);
+	}
+
+
+	private static CORSFilter createFilter(final String filterName, final Properties props)
+		throws Exception {
+
+		FilterConfig config = (FilterConfig)Proxy.newProxyInstance(
+			CORSFilterTest.class.getClassLoader(),
+			new Class<?>[]{FilterConfig.class},
+			new InvocationHandler() {
+
+				@Override
+				public Object invoke(final Object proxy, final Method m, final Object[] args) {
+
+					if (m.getName().equals("getFilterName"))
+						return filterName;
+					else if (m.getName().equals("getInitParameterNames"))
+						return Collections.enumeration(props.stringPropertyNames());
+					else if (m.getName().equals("getInitParameter"))
+						return props.getProperty((String)args[0]);
+
+					return null;
+				}
+			});
+
+		CORSFilter filter = new CORSFilter();
+		filter.init(config);
+		return filter;
+	}
+
+
+	public void testPreflightBodyless()
+		throws Exception {
+
+		Exchange ex = new Exchange("OPTIONS", true)
+			.header("Origin", "http://example.com")
+			.header("Access-Control-Request-Method", "POST")
+			.header("Access-Control-Request-Headers", "Content-Type");
+
+		CountingChain chain = new CountingChain();
+
+		createFilter().doFilter(ex.request, ex.response, chain);
+
+		assertEquals(0, chain.count);
+		assertEquals(200, ex.status);
+		assertEquals(0, ex.contentLength);
+		assertEquals("http://example.com", ex.responseHeaders.get("Access-Control-Allow-Origin"));
+		assertEquals("Content-Type", ex.responseHeaders.get("Access-Control-Allow-Headers"));
+		assertFalse(ex.asyncStarted);
+		assertEquals(0, ex.out.bytes.size());
+		assertEquals("preflight", ex.attributes.get("cors.requestType"));
+	}
+
+
+	public void testDenialWrittenAsynchronously()
+		throws Exception {
+
+		Exchange ex = new Exchange("OPTIONS", true)
+			.header("Origin", "http://evil.com")
+			.header("Access-Control-Request-Method", "POST");
+
+		CountingChain chain = new CountingChain();
+
+		createFilter().doFilter(ex.request, ex.response, chain);
+
+		assertEquals(0, chain.count);
+		assertEquals(403, ex.status);
+		assertTrue(ex.asyncStarted);
+		assertNotNull(ex.out.listener);
+
+		// The client is slow, nothing written yet
+		ex.out.listener.onWritePossible();
+		assertEquals(0, ex.out.bytes.size());
+		assertFalse(ex.completed);
+
+		ex.out.ready = true;
+		ex.out.listener.onWritePossible();
+
+		String body = new String(ex.out.bytes.toByteArray(), "UTF-8");
+		assertTrue(body.startsWith("Cross-Origin Resource Sharing (CORS) Filter: "));
+		assertEquals(body.length(), ex.contentLength);
+		assertTrue(ex.completed);
+	}
+
+
+	public void testDenialCompletedOnTimeout()
+		throws Exception {
+
+		Exchange ex = new Exchange("OPTIONS", true)
+			.header("Origin", "http://evil.com")
+			.header("Access-Control-Request-Method", "POST");
+
+		createFilter().doFilter(ex.request, ex.response, new CountingChain());
+
+		assertTrue(ex.asyncStarted);
+		assertNotNull(ex.asyncListener);
+
+		// The client never reads the response
+		ex.out.listener.onWritePossible();
+		assertFalse(ex.completed);
+
+		ex.asyncListener.onTimeout(new AsyncEvent(null));
+		assertTrue(ex.completed);
+	}
+
+
+	public void testDenialBodylessWithoutAsyncSupport()
+		throws Exception {
+
+		Exchange ex = new Exchange("OPTIONS", false)
+			.header("Origin", "http://example.com")
+			.header("Access-Control-Request-Method", "DELETE");
+
+		createFilter().doFilter(ex.request, ex.response, new CountingChain());
+
+		assertEquals(405, ex.status);
+		assertEquals(0, ex.contentLength);
+		assertFalse(ex.asyncStarted);
+		assertEquals(0, ex.out.bytes.size());
+	}
+
+
+	public void testActualRequestPassedOnce()
+		throws Exception {
+
+		Exchange ex = new Exchange("GET", true).header("Origin", "http://example.com");
+
+		CountingChain chain = new CountingChain();
+
+		CORSFilter filter = createFilter();
+		filter.doFilter(ex.request, ex.response, chain);
+
+		assertEquals(1, chain.count);
+		assertEquals("http://example.com", ex.responseHeaders.get("Access-Control-Allow-Origin"));
+		assertEquals("actual", ex.attributes.get("cors.requestType"));
+
+		// Forward dispatch of the same request
+		ex.dispatcherType = DispatcherType.FORWARD;
+		ex.responseHeaders.clear();
+		filter.doFilter(ex.request, ex.response, chain);
+
+		assertEquals(2, chain.count);
+		assertTrue(ex.responseHeaders.isEmpty());
+	}
+
+
+	public void testTwoFiltersInChain()
+		throws Exception {
+
+		Properties props = new Properties();
+		props.setProperty("cors.allowOrigin", "http://example.com");
+
+		CORSFilter first = createFilter("CORS-1", props);
+
+		props = new Properties();
+		props.setProperty("cors.allowOrigin", "http://example.com");
+		props.setProperty("cors.exposedHeaders", "X-Second");
+
+		final CORSFilter second = createFilter("CORS-2", props);
+
+		final CountingChain servlet = new CountingChain();
+
+		Exchange ex = new Exchange("GET", true).header("Origin", "http://example.com");
+
+		first.doFilter(ex.request, ex.response, new FilterChain() {
+
+			@Override
+			public void doFilter(final ServletRequest request, final ServletResponse response)
+				throws IOException, ServletException {
+
+				second.doFilter(request, response, servlet);
+			}
+		});
+
+		// Both policies applied
+		assertEquals(1, servlet.count);
+		assertEquals("http://example.com", ex.responseHeaders.get("Access-Control-Allow-Origin"));
+		assertEquals("X-Second", ex.responseHeaders.get("Access-Control-Expose-Headers"));
+	}
+}
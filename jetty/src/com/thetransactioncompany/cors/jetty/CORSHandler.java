@@ -0,0 +1,272 @@
+package com.thetransactioncompany.cors.jetty;
+
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.http.HttpField;
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.PreEncodedHttpField;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.HandlerWrapper;
+
+import com.thetransactioncompany.cors.CORSConfiguration;
+import com.thetransactioncompany.cors.CORSErrors;
+import com.thetransactioncompany.cors.CORSException;
+import com.thetransactioncompany.cors.CORSRequest;
+import com.thetransactioncompany.cors.CORSRequestProcessor;
+import com.thetransactioncompany.cors.CORSResponse;
+
+
+/**
+ * Jetty handler for Cross-Origin Resource Sharing (CORS). Wrap the servlet
+ * context handler (or any other handler) with it:
+ *
+ * <pre>
+ * CORSHandler cors = new CORSHandler(new CORSConfiguration(props));
+ * cors.setHandler(contextHandler);
+ * server.setHandler(cors);
+ * </pre>
+ *
+ * <p>Preflight requests and denials are answered by the handler itself,
+ * before the servlet dispatch, so they don't incur session lookup, security
+ * constraint checks or filter chain construction. Allowed simple / actual
+ * requests receive their CORS response headers and are passed on to the
+ * wrapped handler. Non-CORS requests are passed on, unless generic HTTP
+ * requests are disallowed by the configuration.
+ *
+ * <p>Only the initial {@code REQUEST} dispatch is processed; async
+ * re-dispatches of a request, which Jetty passes through the handler
+ * again, already have their CORS response headers and are passed straight
+ * on.
+ *
+ * <p>The constant response header fields (supported methods and headers,
+ * max age, etc.) are pre-encoded once as {@code PreEncodedHttpField}s and
+ * added directly to the Jetty response fields.
+ *
+ * @author Vladimir Dzhuvinov
+ * @version $version$ ($version-date$)
+ */
+public class CORSHandler extends HandlerWrapper {
+
+
+	/**
+	 * The CORS configuration.
+	 */
+	private final CORSConfiguration config;
+
+
+	/**
+	 * The CORS request processor.
+	 */
+	private final CORSRequestProcessor processor;
+
+
+	/**
+	 * The pre-encoded constant response header fields, keyed by header
+	 * name.
+	 */
+	private final Map<String,HttpField> constantFields = new HashMap<String,HttpField>();
+
+
+	/**
+	 * Adapts the Jetty request and response fields to the
+	 * container-agnostic CORS interfaces.
+	 */
+	private final class Exchange implements CORSRequest, CORSResponse {
+
+
+		private final Request request;
+
+
+		private final HttpFields responseFields;
+
+
+		Exchange(final Request request) {
+
+			this.request = request;
+			responseFields = request.getResponse().getHttpFields();
+		}
+
+
+		@Override
+		public CharSequence getMethod() {
+
+			return request.getMethod();
+		}
+
+
+		@Override
+		public CharSequence getHeader(final String name) {
+
+			return request.getHttpFields().get(name);
+		}
+
+
+		@Override
+		public void addHeader(final String name, final String value) {
+
+			HttpField field = constantFields.get(name);
+
+			if (field == null || ! field.getValue().equals(value))
+				field = new HttpField(name, value);
+
+			responseFields.add(field);
+		}
+	}
+
+
+	/**
+	 * Creates a new CORS handler.
+	 *
+	 * @param config The CORS configuration.
+	 */
+	public CORSHandler(final CORSConfiguration config) {
+
+		this.config = config;
+
+		processor = new CORSRequestProcessor(config);
+
+		// Pre-encode the constant header fields
+		if (config.supportsCredentials)
+			addConstantField("Access-Control-Allow-Credentials", "true");
+		else if (config.allowAnyOrigin)
+			addConstantField("Access-Control-Allow-Origin", "*");
+
+		if (config.allowAnyOrigin)
+			addConstantField("Timing-Allow-Origin", "*");
+
+		if (config.maxAge > 0)
+			addConstantField("Access-Control-Max-Age", Integer.toString(config.maxAge));
+
+		addConstantField("Access-Control-Allow-Methods", join(config.supportedMethods));
+		addConstantField("Access-Control-Allow-Headers", join(config.supportedHeaders));
+		addConstantField("Access-Control-Expose-Headers", join(config.exposedHeaders));
+	}
+
+
+	/**
+	 * Pre-encodes a constant response header field.
+	 *
+	 * @param name  The header name.
+	 * @param value The header value.
+	 */
+	private void addConstantField(final String name, final String value) {
+
+		constantFields.put(name, new PreEncodedHttpField(null, name, value));
+	}
+
+
+	/**
+	 * Joins the items of a set into a comma-separated string, as the CORS
+	 * request processor does.
+	 *
+	 * @param set The set.
+	 *
+	 * @return The string.
+	 */
+	private static String join(final Iterable<?> set) {
+
+		StringBuilder sb = new StringBuilder();
+
+		for (Object item: set) {
+
+			if (sb.length() > 0)
+				sb.append(", ");
+
+			sb.append(item.toString());
+		}
+
+		return sb.toString();
+	}
+
+
+	/**
+	 * Gets the CORS configuration.
+	 *
+	 * @return The CORS configuration.
+	 */
+	public CORSConfiguration getConfiguration() {
+
+		return config;
+	}
+
+
+	@Override
+	public void handle(final String target,
+	                   final Request baseRequest,
+	                   final HttpServletRequest request,
+	                   final HttpServletResponse response)
+		throws IOException, ServletException {
+
+		// Async re-dispatch of a request which has already been
+		// through the handler
+		if (baseRequest.getDispatcherType() != DispatcherType.REQUEST) {
+			super.handle(target, baseRequest, request, response);
+			return;
+		}
+
+		final Exchange exchange = new Exchange(baseRequest);
+
+		try {
+			switch (CORSRequestProcessor.detect(exchange)) {
+
+				case PREFLIGHT:
+					processor.handlePreflightRequest(exchange, exchange);
+					response.setStatus(HttpServletResponse.SC_OK);
+					response.setContentLength(0);
+					baseRequest.setHandled(true);
+					return;
+
+				case ACTUAL:
+					processor.handleActualRequest(exchange, exchange);
+					break;
+
+				default:
+					if (! config.allowGenericHttpRequests) {
+						respondError(baseRequest, response, HttpServletResponse.SC_FORBIDDEN, CORSErrors.GENERIC_REQUEST_DENIED);
+						return;
+					}
+			}
+
+		} catch (CORSException e) {
+			respondError(baseRequest, response, CORSErrors.getStatusCode(e), CORSErrors.getMessage(e));
+			return;
+		}
+
+		super.handle(target, baseRequest, request, response);
+	}
+
+
+	/**
+	 * Answers a request with a CORS error message.
+	 *
+	 * @param baseRequest The Jetty request.
+	 * @param response    The HTTP response.
+	 * @param sc          The HTTP status code.
+	 * @param msg         The message.
+	 *
+	 * @throws IOException On a I/O exception.
+	 */
+	private static void respondError(final Request baseRequest,
+	                                 final HttpServletResponse response,
+	                                 final int sc,
+	                                 final String msg)
+		throws IOException {
+
+		response.setStatus(sc);
+		response.setContentType("text/plain");
+
+		PrintWriter out = response.getWriter();
+		out.println(CORSErrors.MESSAGE_PREFIX + msg);
+
+		baseRequest.setHandled(true);
+	}
+}
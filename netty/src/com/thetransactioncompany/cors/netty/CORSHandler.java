@@ -0,0 +1,517 @@
+package com.thetransactioncompany.cors.netty;
+
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpStatusClass;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.AsciiString;
+import io.netty.util.CharsetUtil;
+import io.netty.util.ReferenceCountUtil;
+
+import com.thetransactioncompany.cors.CORSConfiguration;
+import com.thetransactioncompany.cors.CORSErrors;
+import com.thetransactioncompany.cors.CORSException;
+import com.thetransactioncompany.cors.CORSRequest;
+import com.thetransactioncompany.cors.CORSRequestProcessor;
+import com.thetransactioncompany.cors.CORSRequestType;
+import com.thetransactioncompany.cors.CORSResponse;
+
+
+/**
+ * Netty channel handler for Cross-Origin Resource Sharing (CORS). Place it
+ * in the pipeline after the {@code HttpServerCodec}, before or after an
+ * {@code HttpObjectAggregator}.
+ *
+ * <ul>
+ *     <li>Preflight requests are answered directly by the handler and are
+ *         not passed further down the pipeline.
+ *     <li>Allowed simple / actual requests are passed on; the CORS
+ *         response headers are added to the matching outbound
+ *         response.
+ *     <li>Denied and invalid CORS requests are answered with an error
+ *         response, with the same status codes as the servlet
+ *         {@link com.thetransactioncompany.cors.CORSFilter}.
+ *     <li>Non-CORS requests are passed on, unless generic HTTP requests are
+ *         disallowed by the configuration.
+ * </ul>
+ *
+ * <p>The policy logic is that of the container-agnostic
+ * {@link CORSRequestProcessor}. The constant response header names and
+ * values are pre-encoded once per {@link Policy} as {@code AsciiString}s,
+ * error bodies are written to pooled buffers.
+ *
+ * <p>The handler keeps per-connection state (to match pipelined responses
+ * to requests), so a new instance must be created for each channel; the
+ * {@link Policy} is shared. The responses generated by the handler itself,
+ * to preflight and denied requests, are queued behind the responses to
+ * earlier pipelined requests, so the responses leave in request order.
+ *
+ * @author Vladimir Dzhuvinov
+ * @version $version$ ($version-date$)
+ */
+public class CORSHandler extends ChannelDuplexHandler {
+
+
+	/**
+	 * Immutable CORS policy with pre-encoded response headers, shared
+	 * between the handlers of all channels.
+	 */
+	public static final class Policy {
+
+
+		/**
+		 * The "Timing-Allow-Origin" header name.
+		 */
+		static final AsciiString TIMING_ALLOW_ORIGIN = AsciiString.cached("timing-allow-origin");
+
+
+		/**
+		 * The CORS configuration.
+		 */
+		final CORSConfiguration config;
+
+
+		/**
+		 * The CORS request processor.
+		 */
+		final CORSRequestProcessor processor;
+
+
+		/**
+		 * The pre-encoded constant header values, keyed by their string
+		 * value.
+		 */
+		final Map<String,AsciiString> values = new HashMap<String,AsciiString>();
+
+
+		/**
+		 * Creates a new shareable CORS policy.
+		 *
+		 * @param config The CORS configuration.
+		 */
+		public Policy(final CORSConfiguration config) {
+
+			this.config = config;
+
+			processor = new CORSRequestProcessor(config);
+
+			// The same serialisation as the processor, so the looked
+			// up strings match
+			encode(serialize(config.supportedMethods));
+			encode(serialize(config.supportedHeaders));
+			encode(serialize(config.exposedHeaders));
+			encode(Integer.toString(config.maxAge));
+			encode("true");
+			encode("*");
+		}
+
+
+		/**
+		 * Pre-encodes a constant header value.
+		 *
+		 * @param value The header value.
+		 */
+		private void encode(final String value) {
+
+			values.put(value, AsciiString.cached(value));
+		}
+
+
+		/**
+		 * Serialises a set of methods or header names into a
+		 * comma-separated string.
+		 *
+		 * @param set The set.
+		 *
+		 * @return The string.
+		 */
+		private static String serialize(final Set<?> set) {
+
+			StringBuilder sb = new StringBuilder();
+
+			Iterator<?> it = set.iterator();
+
+			while (it.hasNext()) {
+				sb.append(it.next().toString());
+				if (it.hasNext())
+					sb.append(", ");
+			}
+
+			return sb.toString();
+		}
+
+
+		/**
+		 * Gets the pre-encoded name of a CORS response header.
+		 *
+		 * @param name The header name.
+		 *
+		 * @return The pre-encoded header name.
+		 */
+		static CharSequence encodeName(final String name) {
+
+			switch (name) {
+				case "Access-Control-Allow-Origin":      return HttpHeaderNames.ACCESS_CONTROL_ALLOW_ORIGIN;
+				case "Access-Control-Allow-Credentials": return HttpHeaderNames.ACCESS_CONTROL_ALLOW_CREDENTIALS;
+				case "Access-Control-Allow-Methods":     return HttpHeaderNames.ACCESS_CONTROL_ALLOW_METHODS;
+				case "Access-Control-Allow-Headers":     return HttpHeaderNames.ACCESS_CONTROL_ALLOW_HEADERS;
+				case "Access-Control-Expose-Headers":    return HttpHeaderNames.ACCESS_CONTROL_EXPOSE_HEADERS;
+				case "Access-Control-Max-Age":           return HttpHeaderNames.ACCESS_CONTROL_MAX_AGE;
+				case "Timing-Allow-Origin":              return TIMING_ALLOW_ORIGIN;
+				default:                                 return name;
+			}
+		}
+
+
+		/**
+		 * Gets the pre-encoded form of a header value, if constant.
+		 *
+		 * @param value The header value.
+		 *
+		 * @return The pre-encoded value, or the value itself if not
+		 *         constant (e.g. an echoed origin).
+		 */
+		CharSequence encodeValue(final String value) {
+
+			AsciiString encoded = values.get(value);
+
+			return encoded != null ? encoded : value;
+		}
+	}
+
+
+	/**
+	 * Adapts Netty HTTP request and response headers to the
+	 * container-agnostic CORS interfaces.
+	 */
+	private static final class Exchange implements CORSRequest, CORSResponse {
+
+
+		private final Policy policy;
+
+
+		private final HttpRequest request;
+
+
+		private final HttpHeaders responseHeaders;
+
+
+		Exchange(final Policy policy, final HttpRequest request, final HttpHeaders responseHeaders) {
+
+			this.policy = policy;
+			this.request = request;
+			this.responseHeaders = responseHeaders;
+		}
+
+
+		@Override
+		public CharSequence getMethod() {
+
+			return request.method().asciiName();
+		}
+
+
+		@Override
+		public CharSequence getHeader(final String name) {
+
+			return request.headers().get(name);
+		}
+
+
+		@Override
+		public void addHeader(final String name, final String value) {
+
+			responseHeaders.add(Policy.encodeName(name), policy.encodeValue(value));
+		}
+	}
+
+
+	/**
+	 * The shared CORS policy.
+	 */
+	private final Policy policy;
+
+
+	/**
+	 * A response generated by this handler, waiting in {@link #pending}
+	 * for the responses to earlier pipelined requests.
+	 */
+	private static final class QueuedResponse {
+
+
+		private final FullHttpResponse response;
+
+
+		private final boolean close;
+
+
+		QueuedResponse(final FullHttpResponse response, final boolean close) {
+
+			this.response = response;
+			this.close = close;
+		}
+	}
+
+
+	/**
+	 * The pending responses, in request order. For requests passed on, the
+	 * CORS headers to add to the outbound response, {@link #NONE} for
+	 * requests that get no CORS headers. For requests answered by this
+	 * handler, the {@link QueuedResponse}.
+	 */
+	private final Queue<Object> pending = new ArrayDeque<Object>();
+
+
+	/**
+	 * {@code true} while the content of an outbound response to a request
+	 * passed on is being written.
+	 */
+	private boolean responding = false;
+
+
+	/**
+	 * Placeholder in {@link #pending} for responses without CORS headers.
+	 */
+	private static final HttpHeaders NONE = new DefaultHttpHeaders(false);
+
+
+	/**
+	 * {@code true} while discarding the content of a request that was
+	 * answered by this handler.
+	 */
+	private boolean discarding = false;
+
+
+	/**
+	 * Creates a new CORS channel handler.
+	 *
+	 * @param policy The shared CORS policy.
+	 */
+	public CORSHandler(final Policy policy) {
+
+		this.policy = policy;
+	}
+
+
+	/**
+	 * Creates a new CORS channel handler. Prefer
+	 * {@link #CORSHandler(Policy)} with a shared policy, to encode the
+	 * constant headers only once.
+	 *
+	 * @param config The CORS configuration.
+	 */
+	public CORSHandler(final CORSConfiguration config) {
+
+		this(new Policy(config));
+	}
+
+
+	@Override
+	public void channelRead(final ChannelHandlerContext ctx, final Object msg)
+		throws Exception {
+
+		if (discarding && msg instanceof HttpContent) {
+
+			// Content of an answered request
+			if (msg instanceof LastHttpContent)
+				discarding = false;
+
+			ReferenceCountUtil.release(msg);
+			return;
+		}
+
+		if (! (msg instanceof HttpRequest)) {
+			ctx.fireChannelRead(msg);
+			return;
+		}
+
+		final HttpRequest request = (HttpRequest)msg;
+
+		final CORSRequestType type = CORSRequestProcessor.detect(new Exchange(policy, request, null));
+
+		try {
+			if (type == CORSRequestType.PREFLIGHT) {
+
+				FullHttpResponse response = new DefaultFullHttpResponse(request.protocolVersion(), HttpResponseStatus.OK, Unpooled.EMPTY_BUFFER);
+
+				Exchange exchange = new Exchange(policy, request, response.headers());
+
+				policy.processor.handlePreflightRequest(exchange, exchange);
+
+				respond(ctx, request, response);
+				return;
+			}
+			else if (type == CORSRequestType.ACTUAL) {
+
+				HttpHeaders headers = new DefaultHttpHeaders(false);
+
+				Exchange exchange = new Exchange(policy, request, headers);
+
+				policy.processor.handleActualRequest(exchange, exchange);
+
+				pending.add(headers);
+			}
+			else if (policy.config.allowGenericHttpRequests) {
+
+				pending.add(NONE);
+			}
+			else {
+				respondError(ctx, request, HttpResponseStatus.FORBIDDEN, CORSErrors.GENERIC_REQUEST_DENIED);
+				return;
+			}
+
+		} catch (CORSException e) {
+			respondError(ctx, request, HttpResponseStatus.valueOf(CORSErrors.getStatusCode(e)), CORSErrors.getMessage(e));
+			return;
+		}
+
+		ctx.fireChannelRead(msg);
+	}
+
+
+	@Override
+	public void write(final ChannelHandlerContext ctx, final Object msg, final ChannelPromise promise)
+		throws Exception {
+
+		if (msg instanceof HttpResponse) {
+
+			HttpResponse response = (HttpResponse)msg;
+
+			// Interim 1xx responses precede the final response
+			if (response.status().codeClass() != HttpStatusClass.INFORMATIONAL) {
+
+				Object headers = pending.poll();
+
+				if (headers != null && headers != NONE)
+					response.headers().add((HttpHeaders)headers);
+
+				responding = true;
+			}
+		}
+
+		ctx.write(msg, promise);
+
+		if (responding && msg instanceof LastHttpContent) {
+
+			responding = false;
+
+			// Now the answers to the following requests may go
+			while (pending.peek() instanceof QueuedResponse) {
+
+				QueuedResponse queued = (QueuedResponse)pending.poll();
+				writeResponse(ctx, queued.response, queued.close);
+			}
+		}
+	}
+
+
+	@Override
+	public void channelInactive(final ChannelHandlerContext ctx)
+		throws Exception {
+
+		for (Object entry: pending) {
+
+			if (entry instanceof QueuedResponse)
+				ReferenceCountUtil.release(((QueuedResponse)entry).response);
+		}
+
+		pending.clear();
+
+		ctx.fireChannelInactive();
+	}
+
+
+	/**
+	 * Answers a request with a response generated by this handler and
+	 * releases the request. The content of a streamed request is
+	 * discarded. If responses to earlier pipelined requests are still
+	 * pending the response is queued behind them.
+	 *
+	 * @param ctx      The channel handler context.
+	 * @param request  The request.
+	 * @param response The response.
+	 */
+	private void respond(final ChannelHandlerContext ctx, final HttpRequest request, final FullHttpResponse response) {
+
+		HttpUtil.setContentLength(response, response.content().readableBytes());
+
+		final boolean close = ! HttpUtil.isKeepAlive(request);
+
+		if (close)
+			response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
+
+		if (! (request instanceof LastHttpContent))
+			discarding = true;
+
+		ReferenceCountUtil.release(request);
+
+		if (pending.isEmpty() && ! responding)
+			writeResponse(ctx, response, close);
+		else
+			pending.add(new QueuedResponse(response, close));
+	}
+
+
+	/**
+	 * Writes a response generated by this handler, closing the connection
+	 * afterwards if requested.
+	 *
+	 * @param ctx      The channel handler context.
+	 * @param response The response.
+	 * @param close    {@code true} to close the connection.
+	 */
+	private static void writeResponse(final ChannelHandlerContext ctx, final FullHttpResponse response, final boolean close) {
+
+		if (close)
+			ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+		else
+			ctx.writeAndFlush(response);
+	}
+
+
+	/**
+	 * Writes an error response generated by this handler.
+	 *
+	 * @param ctx     The channel handler context.
+	 * @param request The request.
+	 * @param status  The HTTP status.
+	 * @param message The error message.
+	 */
+	private void respondError(final ChannelHandlerContext ctx,
+	                          final HttpRequest request,
+	                          final HttpResponseStatus status,
+	                          final String message) {
+
+		ByteBuf content = ctx.alloc().buffer();
+		ByteBufUtil.writeUtf8(content, CORSErrors.MESSAGE_PREFIX + message + "\r\n");
+
+		FullHttpResponse response = new DefaultFullHttpResponse(request.protocolVersion(), status, content);
+		response.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/plain; charset=" + CharsetUtil.UTF_8.name());
+
+		respond(ctx, request, response);
+	}
+}
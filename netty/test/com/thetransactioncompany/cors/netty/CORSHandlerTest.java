@@ -0,0 +1,262 @@
+package com.thetransactioncompany.cors.netty;
+
+
+import java.util.Properties;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.AsciiString;
+
+import junit.framework.*;
+
+import com.thetransactioncompany.cors.CORSConfiguration;
+
+
+/**
+ * Tests the Netty CORS channel handler.
+ *
+ * @author Vladimir Dzhuvinov
+ * @version $version$ ($version-date$)
+ */
+public class CORSHandlerTest extends TestCase {
+
+
+	private static CORSHandler.Policy createPolicy()
+		throws Exception {
+
+		Properties props = new Properties();
+		props.setProperty("cors.allowOrigin", "http://example.com");
+		props.setProperty("cors.supportedMethods", "GET, POST");
+		props.setProperty("cors.supportedHeaders", "Content-Type");
+		props.setProperty("cors.exposedHeaders", "X-Custom");
+
+		return new CORSHandler.Policy(new CORSConfiguration(props));
+	}
+
+
+	private static FullHttpRequest preflight(final String origin, final String method, final String headers) {
+
+		FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.OPTIONS, "/resource");
+		request.headers().set("Origin", origin);
+		request.headers().set("Access-Control-Request-Method", method);
+
+		if (headers != null)
+			request.headers().set("Access-Control-Request-Headers", headers);
+
+		return request;
+	}
+
+
+	public void testPreflightAnswered()
+		throws Exception {
+
+		EmbeddedChannel channel = new EmbeddedChannel(new CORSHandler(createPolicy()));
+
+		channel.writeInbound(preflight("http://example.com", "POST", "Content-Type"));
+
+		// Not passed on
+		assertNull(channel.readInbound());
+
+		FullHttpResponse response = channel.readOutbound();
+
+		assertEquals(HttpResponseStatus.OK, response.status());
+		assertEquals("http://example.com", response.headers().get("Access-Control-Allow-Origin"));
+		assertEquals("true", response.headers().get("Access-Control-Allow-Credentials"));
+		assertEquals("Content-Type", response.headers().get("Access-Control-Allow-Headers"));
+		assertNotNull(response.headers().get("Access-Control-Allow-Methods"));
+		assertEquals("0", response.headers().get("Content-Length"));
+
+		response.release();
+
+		assertFalse(channel.finish());
+	}
+
+
+	public void testPreflightDenied()
+		throws Exception {
+
+		EmbeddedChannel channel = new EmbeddedChannel(new CORSHandler(createPolicy()));
+
+		channel.writeInbound(preflight("http://evil.com", "POST", null));
+		FullHttpResponse response = channel.readOutbound();
+		assertEquals(HttpResponseStatus.FORBIDDEN, response.status());
+		assertNull(response.headers().get("Access-Control-Allow-Origin"));
+		assertTrue(response.content().readableBytes() > 0);
+		response.release();
+
+		channel.writeInbound(preflight("http://example.com", "DELETE", null));
+		response = channel.readOutbound();
+		assertEquals(HttpResponseStatus.METHOD_NOT_ALLOWED, response.status());
+		response.release();
+
+		channel.writeInbound(preflight("http://example.com", "POST", "X-Other"));
+		response = channel.readOutbound();
+		assertEquals(HttpResponseStatus.FORBIDDEN, response.status());
+		response.release();
+
+		assertNull(channel.readInbound());
+		assertFalse(channel.finish());
+	}
+
+
+	public void testStreamedPreflightContentDiscarded()
+		throws Exception {
+
+		EmbeddedChannel channel = new EmbeddedChannel(new CORSHandler(createPolicy()));
+
+		HttpRequest request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.OPTIONS, "/resource");
+		request.headers().set("Origin", "http://example.com");
+		request.headers().set("Access-Control-Request-Method", "GET");
+
+		channel.writeInbound(request, LastHttpContent.EMPTY_LAST_CONTENT);
+
+		assertNull(channel.readInbound());
+
+		FullHttpResponse response = channel.readOutbound();
+		assertEquals(HttpResponseStatus.OK, response.status());
+		response.release();
+
+		assertFalse(channel.finish());
+	}
+
+
+	public void testActualRequestPassedWithHeaders()
+		throws Exception {
+
+		EmbeddedChannel channel = new EmbeddedChannel(new CORSHandler(createPolicy()));
+
+		FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/resource");
+		request.headers().set("Origin", "http://example.com");
+
+		channel.writeInbound(request);
+
+		FullHttpRequest passed = channel.readInbound();
+		assertSame(request, passed);
+		passed.release();
+
+		channel.writeOutbound(new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK));
+
+		FullHttpResponse response = channel.readOutbound();
+		assertEquals("http://example.com", response.headers().get("Access-Control-Allow-Origin"));
+		assertEquals("true", response.headers().get("Access-Control-Allow-Credentials"));
+		assertEquals("X-Custom", response.headers().get("Access-Control-Expose-Headers"));
+		response.release();
+
+		assertFalse(channel.finish());
+	}
+
+
+	public void testPipelinedResponsesMatched()
+		throws Exception {
+
+		EmbeddedChannel channel = new EmbeddedChannel(new CORSHandler(createPolicy()));
+
+		FullHttpRequest plain = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/a");
+		FullHttpRequest cors = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/b");
+		cors.headers().set("Origin", "http://example.com");
+
+		channel.writeInbound(plain, cors);
+
+		((FullHttpRequest)channel.readInbound()).release();
+		((FullHttpRequest)channel.readInbound()).release();
+
+		channel.writeOutbound(new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK),
+		                      new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK));
+
+		FullHttpResponse first = channel.readOutbound();
+		FullHttpResponse second = channel.readOutbound();
+
+		assertNull(first.headers().get("Access-Control-Allow-Origin"));
+		assertEquals("http://example.com", second.headers().get("Access-Control-Allow-Origin"));
+
+		first.release();
+		second.release();
+
+		assertFalse(channel.finish());
+	}
+
+
+	public void testPipelinedPreflightAnsweredInOrder()
+		throws Exception {
+
+		EmbeddedChannel channel = new EmbeddedChannel(new CORSHandler(createPolicy()));
+
+		FullHttpRequest actual = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/a");
+		actual.headers().set("Origin", "http://example.com");
+
+		channel.writeInbound(actual, preflight("http://example.com", "POST", null));
+
+		((FullHttpRequest)channel.readInbound()).release();
+		assertNull(channel.readInbound());
+
+		// The preflight response waits for the earlier response
+		assertNull(channel.readOutbound());
+
+		channel.writeOutbound(new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.ACCEPTED));
+
+		FullHttpResponse first = channel.readOutbound();
+		FullHttpResponse second = channel.readOutbound();
+
+		assertEquals(HttpResponseStatus.ACCEPTED, first.status());
+		assertEquals("http://example.com", first.headers().get("Access-Control-Allow-Origin"));
+
+		assertEquals(HttpResponseStatus.OK, second.status());
+		assertNotNull(second.headers().get("Access-Control-Allow-Methods"));
+
+		first.release();
+		second.release();
+
+		assertFalse(channel.finish());
+	}
+
+
+	public void testPipelinedDenialClosesAfterEarlierResponse()
+		throws Exception {
+
+		EmbeddedChannel channel = new EmbeddedChannel(new CORSHandler(createPolicy()));
+
+		FullHttpRequest actual = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, "/a");
+		actual.headers().set("Origin", "http://example.com");
+
+		FullHttpRequest denied = preflight("http://evil.com", "POST", null);
+		denied.headers().set("Connection", "close");
+
+		channel.writeInbound(actual, denied);
+
+		((FullHttpRequest)channel.readInbound()).release();
+
+		assertNull(channel.readOutbound());
+		assertTrue(channel.isOpen());
+
+		channel.writeOutbound(new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.ACCEPTED));
+
+		FullHttpResponse first = channel.readOutbound();
+		FullHttpResponse second = channel.readOutbound();
+
+		assertEquals(HttpResponseStatus.ACCEPTED, first.status());
+		assertEquals(HttpResponseStatus.FORBIDDEN, second.status());
+		assertEquals("close", second.headers().get("Connection"));
+		assertFalse(channel.isOpen());
+
+		first.release();
+		second.release();
+
+		channel.finish();
+	}
+
+
+	public void testPolicyEncodesNames() {
+
+		assertTrue(CORSHandler.Policy.encodeName("Access-Control-Allow-Origin") instanceof AsciiString);
+		assertEquals("X-Other", CORSHandler.Policy.encodeName("X-Other"));
+	}
+}
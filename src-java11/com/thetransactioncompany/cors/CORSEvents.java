@@ -0,0 +1,259 @@
+package com.thetransactioncompany.cors;
+
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+
+/**
+ * Diagnostic event hooks for CORS request handling, invoked by the
+ * {@link CORSRequestHandler}.
+ *
+ * <p>This Java 11+ version records JDK Flight Recorder (JFR) events:
+ *
+ * <ul>
+ *     <li>{@code com.thetransactioncompany.cors.Preflight} for each handled
+ *         preflight CORS request.
+ *     <li>{@code com.thetransactioncompany.cors.ActualRequest} for each 
+ *         handled simple / actual CORS request.
+ *     <li>{@code com.thetransactioncompany.cors.Denied} for each denied 
+ *         CORS request.
+ * </ul>
+ *
+ * <p>The events are disabled by default and must be enabled in the JFR 
+ * settings. While they are disabled {@link #begin} checks the cached event
+ * types, returns {@code null} without allocating, and no further work is
+ * done.
+ *
+ * @author Vladimir Dzhuvinov
+ * @version $version$ ($version-date$)
+ */
+final class CORSEvents {
+
+
+	/**
+	 * Outcome of an allowed CORS request.
+	 */
+	static final String ALLOWED = "allowed";
+
+
+	/**
+	 * Outcome of a CORS request denied due to its origin.
+	 */
+	static final String ORIGIN_DENIED = "origin-denied";
+
+
+	/**
+	 * Outcome of a CORS request denied due to its HTTP method.
+	 */
+	static final String METHOD_UNSUPPORTED = "method-unsupported";
+
+
+	/**
+	 * Outcome of a preflight CORS request denied due to its headers.
+	 */
+	static final String HEADER_UNSUPPORTED = "header-unsupported";
+
+
+	/**
+	 * Outcome of an invalid CORS request.
+	 */
+	static final String INVALID = "invalid";
+
+
+	/**
+	 * Base class for the timed CORS request events.
+	 */
+	@Category({"CORS Filter"})
+	abstract static class RequestEvent extends Event {
+
+
+		@Label("Origin")
+		@Description("The value of the Origin header")
+		String origin;
+
+
+		@Label("Outcome")
+		@Description("The outcome of the CORS request handling")
+		String outcome;
+
+
+		// Begun together with this event if denials are recorded,
+		// not an event field (JFR ignores fields of other types)
+		DeniedEvent denied;
+	}
+
+
+	/**
+	 * Preflight CORS request event.
+	 */
+	@Name("com.thetransactioncompany.cors.Preflight")
+	@Label("CORS Preflight Request")
+	@Description("Handling of a preflight CORS request")
+	static final class PreflightEvent extends RequestEvent {
+
+	}
+
+
+	/**
+	 * Simple / actual CORS request event.
+	 */
+	@Name("com.thetransactioncompany.cors.ActualRequest")
+	@Label("CORS Actual Request")
+	@Description("Handling of a simple / actual CORS request")
+	static final class ActualRequestEvent extends RequestEvent {
+
+	}
+
+
+	/**
+	 * Denied CORS request event.
+	 */
+	@Name("com.thetransactioncompany.cors.Denied")
+	@Label("CORS Request Denied")
+	@Description("A CORS request denied by the access policy")
+	@Category({"CORS Filter"})
+	static final class DeniedEvent extends Event {
+
+
+		@Label("Origin")
+		@Description("The value of the Origin header")
+		String origin;
+
+
+		@Label("Outcome")
+		@Description("The reason for the denial")
+		String outcome;
+
+
+		@Label("Request Type")
+		@Description("The CORS request type, actual or preflight")
+		String requestType;
+	}
+
+
+	/**
+	 * The preflight event type.
+	 */
+	private static final EventType PREFLIGHT_TYPE = EventType.getEventType(PreflightEvent.class);
+
+
+	/**
+	 * The actual request event type.
+	 */
+	private static final EventType ACTUAL_REQUEST_TYPE = EventType.getEventType(ActualRequestEvent.class);
+
+
+	/**
+	 * The denied event type.
+	 */
+	private static final EventType DENIED_TYPE = EventType.getEventType(DeniedEvent.class);
+
+
+	/**
+	 * Prevents instantiation.
+	 */
+	private CORSEvents() {
+
+		// do nothing
+	}
+
+
+	/**
+	 * Begins timing the handling of a CORS request. The denial event, if
+	 * enabled, is timed from the same start, so that its duration covers
+	 * the handling of the denied request.
+	 *
+	 * @param type The CORS request type, {@link CORSRequestType#ACTUAL} or
+	 *             {@link CORSRequestType#PREFLIGHT}.
+	 *
+	 * @return An opaque event handle to pass to {@link #commit},
+	 *         {@code null} if events are not being recorded.
+	 */
+	static Object begin(final CORSRequestType type) {
+
+		final boolean preflight = type == CORSRequestType.PREFLIGHT;
+
+		final boolean recordDenials = DENIED_TYPE.isEnabled();
+
+		// Check the event types before allocating anything
+		if (! (preflight ? PREFLIGHT_TYPE : ACTUAL_REQUEST_TYPE).isEnabled() && ! recordDenials)
+			return null;
+
+		RequestEvent event;
+
+		if (preflight)
+			event = new PreflightEvent();
+		else
+			event = new ActualRequestEvent();
+
+		event.begin();
+
+		if (recordDenials) {
+			event.denied = new DeniedEvent();
+			event.denied.begin();
+		}
+
+		return event;
+	}
+
+
+	/**
+	 * Returns the string value of an "Origin" header.
+	 *
+	 * @param value The value, may be {@code null}.
+	 *
+	 * @return The string value, {@code null} if the input was
+	 *         {@code null}.
+	 */
+	private static String asString(final CharSequence value) {
+
+		return value != null ? value.toString() : null;
+	}
+
+
+	/**
+	 * Commits an event previously started with {@link #begin}. If the
+	 * outcome is other than {@link #ALLOWED} a denial event is also
+	 * recorded.
+	 *
+	 * @param event   The event handle, {@code null} if events are not
+	 *                being recorded.
+	 * @param origin  The value of the "Origin" header, {@code null} if
+	 *                undefined. Copied only if an event is recorded.
+	 * @param outcome The outcome.
+	 */
+	static void commit(final Object event, final CharSequence origin, final String outcome) {
+
+		if (event == null)
+			return;
+
+		RequestEvent requestEvent = (RequestEvent)event;
+
+		requestEvent.end();
+
+		if (requestEvent.shouldCommit()) {
+			requestEvent.origin = asString(origin);
+			requestEvent.outcome = outcome;
+			requestEvent.commit();
+		}
+
+		DeniedEvent deniedEvent = requestEvent.denied;
+
+		if (ALLOWED.equals(outcome) || deniedEvent == null)
+			return;
+
+		deniedEvent.end();
+
+		if (deniedEvent.shouldCommit()) {
+			deniedEvent.origin = asString(origin);
+			deniedEvent.outcome = outcome;
+			deniedEvent.requestType = requestEvent instanceof PreflightEvent ? "preflight" : "actual";
+			deniedEvent.commit();
+		}
+	}
+}
@@ -0,0 +1,326 @@
+package com.thetransactioncompany.cors;
+
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+
+/**
+ * Evaluates a CORS access policy against large numbers of requests, for
+ * example to audit past traffic from access logs before tightening a
+ * configuration.
+ *
+ * <p>The requests are consumed as a stream, in batches which are evaluated
+ * in parallel on a fork-join pool. Only a bounded number of batches is
+ * held in memory at a time, so the input may be arbitrarily large. The
+ * decisions are aggregated per origin into a {@link PolicyAudit}.
+ *
+ * <p>The evaluation applies the same checks as the {@link CORSFilter}, but
+ * without the servlet API and without producing response headers.
+ *
+ * <p>An evaluator created with its own fork-join pool should be closed
+ * after use to stop the pool threads. A pool passed in by the caller is
+ * left running.
+ *
+ * @author Vladimir Dzhuvinov
+ * @version $version$ ($version-date$)
+ */
+public class BulkPolicyEvaluator implements Closeable {
+
+
+	/**
+	 * A request to evaluate.
+	 */
+	public static class Request {
+
+
+		/**
+		 * The value of the "Origin" header, {@code null} if undefined.
+		 */
+		public final String origin;
+
+
+		/**
+		 * The HTTP method of an actual request, or the value of the
+		 * "Access-Control-Request-Method" header of a preflight
+		 * request.
+		 */
+		public final String method;
+
+
+		/**
+		 * The value of the "Access-Control-Request-Headers" header of
+		 * a preflight request, {@code null} for an actual request.
+		 */
+		public final String requestHeaders;
+
+
+		/**
+		 * Creates a new request to evaluate.
+		 *
+		 * @param origin         The value of the "Origin" header,
+		 *                       {@code null} if undefined.
+		 * @param method         The HTTP method of an actual request,
+		 *                       or the requested method of a preflight
+		 *                       request.
+		 * @param requestHeaders The requested headers of a preflight
+		 *                       request, empty if none, {@code null}
+		 *                       for an actual request.
+		 */
+		public Request(final String origin,
+		               final String method,
+		               final String requestHeaders) {
+
+			this.origin = origin;
+			this.method = method;
+			this.requestHeaders = requestHeaders;
+		}
+
+
+		/**
+		 * Returns {@code true} if this is a preflight request.
+		 *
+		 * @return {@code true} for a preflight request, {@code false}
+		 *         for an actual request.
+		 */
+		public boolean isPreflight() {
+
+			return requestHeaders != null;
+		}
+	}
+
+
+	/**
+	 * The default number of requests per batch.
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 8192;
+
+
+	/**
+	 * Batches are split into sub-tasks down to this size.
+	 */
+	private static final int SPLIT_THRESHOLD = 1024;
+
+
+	/**
+	 * The CORS request processor, performs the checks.
+	 */
+	private final CORSRequestProcessor processor;
+
+
+	/**
+	 * The fork-join pool.
+	 */
+	private final ForkJoinPool pool;
+
+
+	/**
+	 * {@code true} if the pool was created by this evaluator and is shut
+	 * down on {@link #close}.
+	 */
+	private final boolean ownsPool;
+
+
+	/**
+	 * The number of requests per batch.
+	 */
+	private final int batchSize;
+
+
+	/**
+	 * Creates a new bulk policy evaluator using a new fork-join pool
+	 * with one worker thread per available processor. The pool is shut
+	 * down when the evaluator is closed.
+	 *
+	 * @param config The CORS configuration to evaluate.
+	 */
+	public BulkPolicyEvaluator(final CORSConfiguration config) {
+
+		this(config, new ForkJoinPool(), DEFAULT_BATCH_SIZE, true);
+	}
+
+
+	/**
+	 * Creates a new bulk policy evaluator. The pool remains owned by the
+	 * caller and is not shut down when the evaluator is closed.
+	 *
+	 * @param config    The CORS configuration to evaluate.
+	 * @param pool      The fork-join pool to use.
+	 * @param batchSize The number of requests per batch, must be
+	 *                  positive.
+	 */
+	public BulkPolicyEvaluator(final CORSConfiguration config,
+	                           final ForkJoinPool pool,
+	                           final int batchSize) {
+
+		this(config, pool, batchSize, false);
+	}
+
+
+	/**
+	 * Creates a new bulk policy evaluator.
+	 *
+	 * @param config    The CORS configuration to evaluate.
+	 * @param pool      The fork-join pool to use.
+	 * @param batchSize The number of requests per batch, must be
+	 *                  positive.
+	 * @param ownsPool  {@code true} to shut down the pool on close.
+	 */
+	private BulkPolicyEvaluator(final CORSConfiguration config,
+	                            final ForkJoinPool pool,
+	                            final int batchSize,
+	                            final boolean ownsPool) {
+
+		if (batchSize < 1)
+			throw new IllegalArgumentException("The batch size must be positive");
+
+		processor = new CORSRequestProcessor(config);
+		this.pool = pool;
+		this.batchSize = batchSize;
+		this.ownsPool = ownsPool;
+	}
+
+
+	/**
+	 * Evaluates a single request.
+	 *
+	 * @param request The request.
+	 *
+	 * @return The policy decision.
+	 */
+	public PolicyDecision evaluate(final Request request) {
+
+		if (request.origin == null)
+			return PolicyDecision.NOT_CORS;
+
+		try {
+			if (request.isPreflight())
+				processor.checkPreflightRequest(request.origin, request.method, request.requestHeaders);
+			else
+				processor.checkActualRequest(request.origin, request.method);
+
+			return PolicyDecision.ALLOWED;
+
+		} catch (InvalidCORSRequestException e) {
+			return PolicyDecision.INVALID;
+
+		} catch (CORSOriginDeniedException e) {
+			return PolicyDecision.ORIGIN_DENIED;
+
+		} catch (UnsupportedHTTPMethodException e) {
+			return PolicyDecision.METHOD_UNSUPPORTED;
+
+		} catch (UnsupportedHTTPHeaderException e) {
+			return PolicyDecision.HEADER_UNSUPPORTED;
+		}
+	}
+
+
+	/**
+	 * Evaluates a stream of requests in parallel and aggregates the
+	 * decisions per origin. The iterator is consumed on the calling
+	 * thread.
+	 *
+	 * @param requests The requests.
+	 *
+	 * @return The aggregated decisions.
+	 */
+	public PolicyAudit evaluate(final Iterator<Request> requests) {
+
+		PolicyAudit audit = new PolicyAudit();
+
+		// Bound the batches in flight to keep the memory use constant
+		final int maxInFlight = pool.getParallelism() * 2;
+
+		Deque<ForkJoinTask<PolicyAudit>> inFlight = new ArrayDeque<ForkJoinTask<PolicyAudit>>();
+
+		while (requests.hasNext()) {
+
+			Request[] batch = new Request[batchSize];
+
+			int size = 0;
+
+			while (size < batchSize && requests.hasNext())
+				batch[size++] = requests.next();
+
+			if (inFlight.size() == maxInFlight)
+				audit.merge(inFlight.removeFirst().join());
+
+			inFlight.addLast(pool.submit(new BatchTask(batch, 0, size)));
+		}
+
+		while (! inFlight.isEmpty())
+			audit.merge(inFlight.removeFirst().join());
+
+		return audit;
+	}
+
+
+	/**
+	 * Shuts down the fork-join pool if it was created by this evaluator.
+	 * Evaluations in progress are completed.
+	 */
+	@Override
+	public void close() {
+
+		if (ownsPool)
+			pool.shutdown();
+	}
+
+
+	/**
+	 * Evaluates a range of a batch, splitting it in halves down to the
+	 * split threshold.
+	 */
+	private class BatchTask extends RecursiveTask<PolicyAudit> {
+
+
+		private static final long serialVersionUID = 1L;
+
+
+		private final Request[] batch;
+
+
+		private final int from;
+
+
+		private final int to;
+
+
+		BatchTask(final Request[] batch, final int from, final int to) {
+
+			this.batch = batch;
+			this.from = from;
+			this.to = to;
+		}
+
+
+		@Override
+		protected PolicyAudit compute() {
+
+			if (to - from > SPLIT_THRESHOLD) {
+
+				int mid = (from + to) >>> 1;
+
+				BatchTask left = new BatchTask(batch, from, mid);
+				left.fork();
+
+				PolicyAudit audit = new BatchTask(batch, mid, to).compute();
+				audit.merge(left.join());
+				return audit;
+			}
+
+			PolicyAudit audit = new PolicyAudit();
+
+			for (int i=from; i < to; i++)
+				audit.add(batch[i].origin, evaluate(batch[i]));
+
+			return audit;
+		}
+	}
+}
@@ -1,6 +1,9 @@
 package com.thetransactioncompany.cors;
 
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Properties;
 import java.util.Set;
@@ -56,7 +59,11 @@ public class CORSConfiguration {
 	 * parsing of the request origins before matching, see 
 	 * http://lists.w3.org/Archives/Public/public-webapps/2010JulSep/1046.html
 	 *
-	 * <p>Property key: cors.allowOrigin
+	 * <p>The set is unmodifiable. Runtime changes through the
+	 * {@link CORSPolicyAdmin} produce a new configuration, with the origins
+	 * in a {@link PersistentStringSet}.
+	 *
+	 * <p>Property keys: cors.allowOrigin, cors.allowOriginFile
 	 */
 	public final Set<String> allowedOrigins;
 
@@ -200,6 +207,47 @@ public class CORSConfiguration {
 	public final int maxAge;
 	
 	
+	/**
+	 * If {@code true} the CORS filter must report its own processing time
+	 * in a {@code Server-Timing} response header on allowed CORS requests.
+	 *
+	 * <p>Property key: cors.serverTiming
+	 */
+	public final boolean serverTiming;
+	
+	
+	/**
+	 * If {@code true} the CORS filter must allow the origin of allowed
+	 * simple / actual CORS requests to access the detailed Resource Timing
+	 * information of the response, by means of a 
+	 * {@code Timing-Allow-Origin} header.
+	 *
+	 * <p>Property key: cors.timingAllowOrigin
+	 */
+	public final boolean timingAllowOrigin;
+	
+	
+	/**
+	 * If {@code true} the CORS request processor must compile the access
+	 * policy into specialised lookup tables and pre-computed response 
+	 * headers, instead of evaluating the generic policy on each request.
+	 * See {@link CompiledPolicy}.
+	 *
+	 * <p>Property key: cors.compilePolicy
+	 */
+	public final boolean compilePolicy;
+	
+	
+	/**
+	 * The file to capture the CORS-relevant request headers to, for 
+	 * offline replay, {@code null} if capturing is disabled. See
+	 * {@link RequestCapture}.
+	 *
+	 * <p>Property key: cors.captureFile
+	 */
+	public final String captureFile;
+	
+	
 	/**
 	 * Parses a string containing words separated by space and/or comma.
 	 *
@@ -227,12 +275,19 @@ public class CORSConfiguration {
 	 * <ul>
 	 *     <li>cors.allowGenericHttpRequests {true|false} defaults to {@code true}.
 	 *     <li>cors.allowOriginSuffixMatching {true|false} defaults to {@code false}.
-	 *     <li>cors.allowOrigin {"*"|origin-list} defaults to {@code *}.
+	 *     <li>cors.allowOrigin {"*"|origin-list} defaults to {@code *},
+	 *         or to none if cors.allowOriginFile is set.
+	 *     <li>cors.allowOriginFile {file-path} additional allowed origins,
+	 *         read with a {@link OriginListLoader}, defaults to none.
 	 *     <li>cors.supportedMethods {method-list} defaults to {@code "GET, POST, HEAD, OPTIONS"}.
 	 *     <li>cors.supportedHeaders {header-list} defaults to empty list.
 	 *     <li>cors.exposedHeaders {header-list} defaults to empty list.
 	 *     <li>cors.supportsCredentials {true|false} defaults to {@code true}.
 	 *     <li>cors.maxAge {int} defaults to {@code -1} (unspecified).
+	 *     <li>cors.serverTiming {true|false} defaults to {@code false}.
+	 *     <li>cors.timingAllowOrigin {true|false} defaults to {@code false}.
+	 *     <li>cors.compilePolicy {true|false} defaults to {@code false}.
+	 *     <li>cors.captureFile {file-path} defaults to none (disabled).
 	 * </ul>
 	 *
 	 * @param props The properties.
@@ -254,9 +309,11 @@ public class CORSConfiguration {
 
 			// Parse the allowed origins list
 			
-			String originSpec = pr.getOptString("cors.allowOrigin", "*").trim();
+			String originFileSpec = pr.getOptString("cors.allowOriginFile", "").trim();
+			
+			String originSpec = pr.getOptString("cors.allowOrigin", originFileSpec.isEmpty() ? "*" : "").trim();
 			
-			allowedOrigins = new HashSet<String>();
+			Set<String> origins = new HashSet<String>();
 			
 			if (originSpec.equals("*")) {
 
@@ -273,7 +330,7 @@ public class CORSConfiguration {
 					try {
 						
 						Origin origin = new Origin(url);
-						allowedOrigins.add(origin.toString());
+						origins.add(origin.toString());
 
                 	} catch (OriginException e) {
                         	throw new PropertyParseException("Bad origin URL in property cors.allowOrigin: " + url);
@@ -281,6 +338,20 @@ public class CORSConfiguration {
 				}
 			}
 			
+			if (! originFileSpec.isEmpty()) {
+			
+				try {
+					Set<String> fileOrigins = OriginListLoader.loadFile(new File(originFileSpec));
+					fileOrigins.addAll(origins);
+					origins = fileOrigins;
+					
+				} catch (IOException e) {
+					throw new PropertyParseException("Couldn't read file in property cors.allowOriginFile: " + e.getMessage());
+				}
+			}
+			
+			allowedOrigins = Collections.unmodifiableSet(origins);
+			
 
 			// Parse the supported methods list
 
@@ -342,6 +413,27 @@ public class CORSConfiguration {
 			// Parse the max cache age of preflight requests
 			maxAge = pr.getOptInt("cors.maxAge", -1);
 			
+			
+			// Parse the Server-Timing option
+			serverTiming = pr.getOptBoolean("cors.serverTiming", false);
+			
+			
+			// Parse the Timing-Allow-Origin option
+			timingAllowOrigin = pr.getOptBoolean("cors.timingAllowOrigin", false);
+			
+			
+			// Parse the policy compilation option
+			compilePolicy = pr.getOptBoolean("cors.compilePolicy", false);
+			
+			
+			// Parse the request capture file
+			String captureFileSpec = pr.getOptString("cors.captureFile", "").trim();
+			
+			if (captureFileSpec.isEmpty())
+				captureFile = null;
+			else
+				captureFile = captureFileSpec;
+			
 		
 		} catch (PropertyParseException e) {
 			
@@ -352,4 +444,85 @@ public class CORSConfiguration {
 			throw new CORSConfigurationException(e.getMessage());
 		}
 	}
+	
+	
+	/**
+	 * Returns a copy of this configuration with the access policy of the
+	 * specified configuration: the allowed origins, the supported methods
+	 * and headers, the exposed headers, the credentials and max age
+	 * options and the generic HTTP request, any origin and origin suffix
+	 * matching options. The deployment settings of this configuration
+	 * (Server-Timing, Timing-Allow-Origin, policy compilation and request
+	 * capture) are kept.
+	 *
+	 * @param policy The configuration to take the access policy from.
+	 *
+	 * @return The combined configuration.
+	 */
+	public CORSConfiguration withAccessPolicy(final CORSConfiguration policy) {
+	
+		return new CORSConfiguration(policy.allowGenericHttpRequests,
+		                             policy.allowAnyOrigin,
+		                             policy.allowOriginSuffixMatching,
+		                             policy.allowedOrigins,
+		                             policy.supportedMethods,
+		                             policy.supportedHeaders,
+		                             policy.exposedHeaders,
+		                             policy.supportsCredentials,
+		                             policy.maxAge,
+		                             serverTiming,
+		                             timingAllowOrigin,
+		                             compilePolicy,
+		                             captureFile);
+	}
+	
+	
+	/**
+	 * Creates a new CORS configuration from already parsed and validated
+	 * values, see {@link PolicySnapshot}.
+	 *
+	 * @param allowGenericHttpRequests  The generic HTTP requests option.
+	 * @param allowAnyOrigin            The allow any origin option.
+	 * @param allowOriginSuffixMatching The origin suffix matching option.
+	 * @param allowedOrigins            The canonical allowed origins,
+	 *                                  unmodifiable.
+	 * @param supportedMethods          The supported methods.
+	 * @param supportedHeaders          The supported headers.
+	 * @param exposedHeaders            The exposed headers.
+	 * @param supportsCredentials       The credentials option.
+	 * @param maxAge                    The preflight max age.
+	 * @param serverTiming              The Server-Timing option.
+	 * @param timingAllowOrigin         The Timing-Allow-Origin option.
+	 * @param compilePolicy             The policy compilation option.
+	 * @param captureFile               The capture file, {@code null} if
+	 *                                  none.
+	 */
+	CORSConfiguration(final boolean allowGenericHttpRequests,
+	                  final boolean allowAnyOrigin,
+	                  final boolean allowOriginSuffixMatching,
+	                  final Set<String> allowedOrigins,
+	                  final Set<HTTPMethod> supportedMethods,
+	                  final Set<HeaderFieldName> supportedHeaders,
+	                  final Set<HeaderFieldName> exposedHeaders,
+	                  final boolean supportsCredentials,
+	                  final int maxAge,
+	                  final boolean serverTiming,
+	                  final boolean timingAllowOrigin,
+	                  final boolean compilePolicy,
+	                  final String captureFile) {
+	
+		this.allowGenericHttpRequests = allowGenericHttpRequests;
+		this.allowAnyOrigin = allowAnyOrigin;
+		this.allowOriginSuffixMatching = allowOriginSuffixMatching;
+		this.allowedOrigins = allowedOrigins;
+		this.supportedMethods = supportedMethods;
+		this.supportedHeaders = supportedHeaders;
+		this.exposedHeaders = exposedHeaders;
+		this.supportsCredentials = supportsCredentials;
+		this.maxAge = maxAge;
+		this.serverTiming = serverTiming;
+		this.timingAllowOrigin = timingAllowOrigin;
+		this.compilePolicy = compilePolicy;
+		this.captureFile = captureFile;
+	}
 }
@@ -0,0 +1,132 @@
+package com.thetransactioncompany.cors;
+
+
+/**
+ * Maps the CORS request handling exceptions to HTTP error responses. Shared
+ * by the servlet filters and the native server handlers, so that denied
+ * and invalid CORS requests get the same status codes and messages in
+ * every container.
+ *
+ * <ul>
+ *     <li>{@link InvalidCORSRequestException} to {@code 400 Bad Request}.
+ *     <li>{@link CORSOriginDeniedException} to {@code 403 Forbidden}.
+ *     <li>{@link UnsupportedHTTPMethodException} to
+ *         {@code 405 Method Not Allowed}.
+ *     <li>{@link UnsupportedHTTPHeaderException} to {@code 403 Forbidden}.
+ * </ul>
+ *
+ * @author Vladimir Dzhuvinov
+ * @version $version$ ($version-date$)
+ */
+public final class CORSErrors {
+
+
+	/**
+	 * The HTTP status code for a bad request.
+	 */
+	public static final int SC_BAD_REQUEST = 400;
+
+
+	/**
+	 * The HTTP status code for a forbidden request.
+	 */
+	public static final int SC_FORBIDDEN = 403;
+
+
+	/**
+	 * The HTTP status code for a request method which is not allowed.
+	 */
+	public static final int SC_METHOD_NOT_ALLOWED = 405;
+
+
+	/**
+	 * The prefix of the error response messages.
+	 */
+	public static final String MESSAGE_PREFIX = "Cross-Origin Resource Sharing (CORS) Filter: ";
+
+
+	/**
+	 * The error message for a non-CORS request which is denied because
+	 * generic HTTP requests are not allowed, to be sent with
+	 * {@link #SC_FORBIDDEN}.
+	 */
+	public static final String GENERIC_REQUEST_DENIED = "Generic HTTP requests not allowed";
+
+
+	/**
+	 * Prevents instantiation.
+	 */
+	private CORSErrors() {
+
+		// do nothing
+	}
+
+
+	/**
+	 * Gets the HTTP status code for the specified CORS exception.
+	 *
+	 * @param e The CORS exception.
+	 *
+	 * @return The HTTP status code.
+	 */
+	public static int getStatusCode(final CORSException e) {
+
+		if (e instanceof InvalidCORSRequestException)
+			return SC_BAD_REQUEST;
+
+		if (e instanceof UnsupportedHTTPMethodException)
+			return SC_METHOD_NOT_ALLOWED;
+
+		return SC_FORBIDDEN;
+	}
+
+
+	/**
+	 * Gets the error message for the specified CORS exception, with the
+	 * denied origins, method or header appended.
+	 *
+	 * @param e The CORS exception.
+	 *
+	 * @return The error message, without the {@link #MESSAGE_PREFIX}.
+	 */
+	public static String getMessage(final CORSException e) {
+
+		if (e instanceof CORSOriginDeniedException) {
+
+			StringBuilder sb = new StringBuilder(e.getMessage()).append(": ");
+
+			String[] origins = ((CORSOriginDeniedException)e).getRequestOrigins();
+
+			if (origins != null) {
+
+				for (int i=0; i < origins.length; i++) {
+
+					if (i > 0)
+						sb.append(' ');
+
+					sb.append(origins[i]);
+				}
+			}
+
+			return sb.toString();
+		}
+
+		if (e instanceof UnsupportedHTTPMethodException) {
+
+			HTTPMethod method = ((UnsupportedHTTPMethodException)e).getRequestedMethod();
+
+			if (method != null)
+				return e.getMessage() + ": " + method.toString();
+		}
+
+		if (e instanceof UnsupportedHTTPHeaderException) {
+
+			HeaderFieldName header = ((UnsupportedHTTPHeaderException)e).getRequestHeader();
+
+			if (header != null)
+				return e.getMessage() + ": " + header.toString();
+		}
+
+		return e.getMessage();
+	}
+}
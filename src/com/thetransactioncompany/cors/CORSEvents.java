@@ -0,0 +1,89 @@
+package com.thetransactioncompany.cors;
+
+
+/**
+ * Diagnostic event hooks for CORS request handling, invoked by the
+ * {@link CORSRequestHandler}.
+ *
+ * <p>This base version does nothing. On Java 11+ runtimes the multi-release
+ * JAR substitutes a version (under {@code META-INF/versions/11}) that
+ * records JDK Flight Recorder (JFR) events for preflight requests, actual
+ * requests and denials. When the JFR events are disabled {@link #begin}
+ * returns {@code null} and no further work is done.
+ *
+ * @author Vladimir Dzhuvinov
+ * @version $version$ ($version-date$)
+ */
+final class CORSEvents {
+
+
+	/**
+	 * Outcome of an allowed CORS request.
+	 */
+	static final String ALLOWED = "allowed";
+
+
+	/**
+	 * Outcome of a CORS request denied due to its origin.
+	 */
+	static final String ORIGIN_DENIED = "origin-denied";
+
+
+	/**
+	 * Outcome of a CORS request denied due to its HTTP method.
+	 */
+	static final String METHOD_UNSUPPORTED = "method-unsupported";
+
+
+	/**
+	 * Outcome of a preflight CORS request denied due to its headers.
+	 */
+	static final String HEADER_UNSUPPORTED = "header-unsupported";
+
+
+	/**
+	 * Outcome of an invalid CORS request.
+	 */
+	static final String INVALID = "invalid";
+
+
+	/**
+	 * Prevents instantiation.
+	 */
+	private CORSEvents() {
+
+		// do nothing
+	}
+
+
+	/**
+	 * Begins timing the handling of a CORS request.
+	 *
+	 * @param type The CORS request type, {@link CORSRequestType#ACTUAL} or
+	 *             {@link CORSRequestType#PREFLIGHT}.
+	 *
+	 * @return An opaque event handle to pass to {@link #commit},
+	 *         {@code null} if events are not being recorded.
+	 */
+	static Object begin(final CORSRequestType type) {
+
+		return null;
+	}
+
+
+	/**
+	 * Commits an event previously started with {@link #begin}. If the
+	 * outcome is other than {@link #ALLOWED} a denial event is also
+	 * recorded.
+	 *
+	 * @param event   The event handle, {@code null} if events are not
+	 *                being recorded.
+	 * @param origin  The value of the "Origin" header, {@code null} if
+	 *                undefined. Copied only if an event is recorded.
+	 * @param outcome The outcome.
+	 */
+	static void commit(final Object event, final CharSequence origin, final String outcome) {
+
+		// do nothing
+	}
+}
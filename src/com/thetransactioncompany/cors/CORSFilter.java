@@ -21,20 +21,108 @@ import javax.servlet.http.HttpServletResponse;
  *
  * <p>The filter intercepts incoming HTTP requests and applies the CORS
  * policy as specified by the filter init parameters. The actual CORS
- * request is processed by the {@link CORSRequestHandler} class.
+ * request is processed by the {@link CORSRequestHandler} class. The
+ * initialisation and the runtime replacement of the handler are shared
+ * with the Jakarta Servlet filter, see {@link CORSFilterLifecycle}.
  *
  * <p>Supported filter init parameters:
  *
  * <ul>
  *     <li>cors.allowGenericHttpRequests {true|false} defaults to {@code true}.
  *     <li>cors.allowOrigin {"*"|origin-list} defaults to {@code *}.
+ *     <li>cors.allowOriginFile {file-path} defaults to none.
  *     <li>cors.supportedMethods {method-list} defaults to {@code "GET, POST, HEAD, OPTIONS"}.
  *     <li>cors.supportedHeaders {header-list} defaults to empty list.
  *     <li>cors.exposedHeaders {header-list} defaults to empty list.
  *     <li>cors.supportsCredentials {true|false} defaults to {@code true}.
  *     <li>cors.maxAge {int} defaults to {@code -1} (unspecified).
+ *     <li>cors.serverTiming {true|false} defaults to {@code false}.
+ *     <li>cors.timingAllowOrigin {true|false} defaults to {@code false}.
+ *     <li>cors.compilePolicy {true|false} defaults to {@code false}.
+ *     <li>cors.captureFile {file-path} defaults to none (disabled).
+ *     <li>cors.captureMaxBytes {long} defaults to {@code 1073741824} (1 GiB).
+ *     <li>cors.snapshotFile {file-path} defaults to none.
+ *     <li>cors.backgroundInit {true|false} defaults to {@code false}.
+ *     <li>cors.mbeanName {object-name} defaults to none (not registered).
+ *     <li>cors.warmupIterations {int} defaults to {@code 0} (disabled).
+ *     <li>cors.warmupMillis {int} defaults to {@code 1000}.
+ *     <li>cors.hotRequestFile {file-path} defaults to none (disabled).
+ *     <li>cors.hotRequestSaveSeconds {int} defaults to {@code 60}.
+ *     <li>cors.policyAdmin {true|false} defaults to {@code false}.
+ *     <li>cors.syncDirectory {directory-path} defaults to none (disabled).
+ *     <li>cors.syncIntervalSeconds {int} defaults to {@code 10}.
  * </ul>
  *
+ * <p>If {@code cors.serverTiming} is enabled the filter adds a 
+ * {@code Server-Timing: cors;dur=<millis>} response header to allowed CORS
+ * requests, reporting the time spent in the filter itself.
+ *
+ * <p>If {@code cors.timingAllowOrigin} is enabled the filter adds a 
+ * {@code Timing-Allow-Origin} response header to allowed simple / actual 
+ * CORS requests, set to the matched origin (or {@code *} if any origin is
+ * allowed).
+ *
+ * <p>If {@code cors.compilePolicy} is enabled the access policy is 
+ * compiled into specialised lookup tables and pre-computed response headers
+ * at initialisation. See {@link CompiledPolicy}.
+ *
+ * <p>If {@code cors.snapshotFile} is set the filter loads its access policy
+ * from the specified policy snapshot and ignores the other access policy
+ * parameters. The deployment settings, such as {@code cors.serverTiming} and
+ * {@code cors.captureFile}, are still read from the init parameters. See
+ * {@link PolicySnapshot}.
+ *
+ * <p>If {@code cors.backgroundInit} is enabled together with 
+ * {@code cors.compilePolicy} the filter starts serving requests as soon as 
+ * the configuration is loaded, with the generic access policy evaluation, 
+ * and compiles the policy on a background thread. The compiled policy is 
+ * swapped in when ready. The progress is reported by the 
+ * {@link CORSFilterStatus}, which is registered as a JMX MBean if 
+ * {@code cors.mbeanName} is set.
+ *
+ * <p>If {@code cors.warmupIterations} is set the filter drives synthetic 
+ * requests through its request path, from the request tagging to the 
+ * response headers, at initialisation, so that the JIT compiles it before
+ * the first real requests. See 
+ * {@link PolicyWarmup}.
+ *
+ * <p>If {@code cors.hotRequestFile} is set the filter periodically saves the
+ * keys (origin, requested method and headers) of its most frequent CORS 
+ * requests to the file, and on the next initialisation replays them in the
+ * warm-up, evaluated against the current configuration. The replay requires
+ * {@code cors.warmupIterations} to be set as well. See 
+ * {@link HotRequestTracker}.
+ *
+ * <p>If {@code cors.policyAdmin} is enabled the allowed origins, supported
+ * methods and supported headers can be changed at runtime, through
+ * {@link #getPolicyAdmin} or, if {@code cors.mbeanName} is set, the JMX
+ * MBean with the same name plus {@code component=PolicyAdmin}. The changes
+ * are lost on re-initialisation. See {@link PolicyEditor}.
+ *
+ * <p>If {@code cors.syncDirectory} is set the filter polls the directory, 
+ * typically shared by all nodes of a cluster, for versioned policy 
+ * snapshots and swaps in each newer version once it has been validated and
+ * compiled on the poll thread. The version in effect is tagged on the 
+ * requests as {@code cors.policyVersion} and reported by the 
+ * {@link CORSFilterStatus}. See {@link PolicySync}.
+ *
+ * <p>If {@code cors.captureFile} is set the filter appends the CORS-relevant
+ * headers of each CORS request to the specified file, for offline replay of
+ * real traffic. The file is rotated when it reaches 
+ * {@code cors.captureMaxBytes}, zero for no limit. See 
+ * {@link RequestCapture}.
+ *
+ * <p>The filter may be mapped to several dispatcher types (REQUEST, 
+ * FORWARD, INCLUDE, ERROR, ASYNC). Only the first pass of a request through
+ * the filter performs the CORS work; the request is then marked with a
+ * request attribute named after the filter instance, see
+ * {@link #FILTERED_ATTRIBUTE}, and subsequent forward, include, error and
+ * async dispatches of the same request are passed straight down the chain.
+ * Other CORS filter instances in the same chain still apply their own
+ * policies. The filter does no work after the chain returns, so it can be
+ * declared {@code <async-supported>true</async-supported>} in Servlet 3.0+
+ * containers and used with {@code AsyncContext}.
+ *
  * @author Vladimir Dzhuvinov
  * @version $version$ (2011-12-02)
  */
@@ -43,15 +131,94 @@ public class CORSFilter
 
 
 	/**
-	 * The CORS filer configuration.
+	 * The name prefix of the request attribute which marks a request as
+	 * already processed by a CORS filter instance. The full attribute name
+	 * is the prefix followed by a dot and the filter name.
 	 */
-	private CORSConfiguration config;
+	public static final String FILTERED_ATTRIBUTE = CORSFilterLifecycle.FILTERED_ATTRIBUTE;
 	
 	
 	/**
-	 * Encapsulates the CORS request handling logic.
+	 * The filter lifecycle, publishes the CORS request handler which
+	 * encapsulates the CORS request handling logic and the CORS filter 
+	 * configuration.
 	 */
-	private CORSRequestHandler handler;
+	private final CORSFilterLifecycle<CORSRequestHandler> lifecycle = new CORSFilterLifecycle<CORSRequestHandler>() {
+		
+		@Override
+		protected CORSRequestHandler createProcessor(final CORSConfiguration config,
+		                                             final boolean compilePolicy,
+		                                             final long policyVersion) {
+			
+			return new CORSRequestHandler(config, compilePolicy, policyVersion);
+		}
+		
+		
+		@Override
+		protected PolicyWarmup.Target createWarmupTarget(final CORSRequestHandler handler) {
+			
+			return new WarmupTarget(handler);
+		}
+	};
+	
+	
+	/**
+	 * Drives the warm-up requests through the CORS work of 
+	 * {@link CORSFilter#doFilter}, with proxy servlet request / response 
+	 * stubs.
+	 */
+	private static final class WarmupTarget implements PolicyWarmup.Target {
+		
+		
+		/**
+		 * The filter chain, does nothing.
+		 */
+		private static final FilterChain CHAIN = new FilterChain() {
+			
+			@Override
+			public void doFilter(final ServletRequest request, final ServletResponse response) {
+				
+				// do nothing
+			}
+		};
+		
+		
+		private final CORSRequestHandler handler;
+		
+		
+		private final PolicyWarmup.Stub requestStub = new PolicyWarmup.Stub();
+		
+		
+		private final HttpServletRequest request = requestStub.newProxy(HttpServletRequest.class);
+		
+		
+		private final HttpServletResponse response = new PolicyWarmup.Stub().newProxy(HttpServletResponse.class);
+		
+		
+		WarmupTarget(final CORSRequestHandler handler) {
+			
+			this.handler = handler;
+		}
+		
+		
+		@Override
+		public void request(final String method,
+		                    final String origin,
+		                    final String requestMethod,
+		                    final String requestHeaders) {
+			
+			requestStub.set(method, origin, requestMethod, requestHeaders);
+			
+			try {
+				doFilter(handler, null, null, request, response, CHAIN);
+			
+			} catch (IOException e) {
+				// ignore
+			} catch (ServletException e) {
+				// ignore
+			}
+		}
+	}
 	
 	
 	/**
@@ -81,32 +248,6 @@ public class CORSFilter
 	}
 	
 	
-	/**
-	 * Serialises the items of an array into a string. Each item must have a 
-	 * meaningful {@code toString()} method.
-	 * 
-	 * @param array The array to serialise, may be {@code null}.
-	 * @param sep   The string separator to apply.
-	 *
-	 * @return The serialised array as string.
-	 */
-	private static String serialize(final Object[] array, final String sep) {
-	
-		if (array == null)
-			return "";
-	
-		String s = "";
-		
-		for (int i=0; i<array.length; i++) {
-			s = s + array[i].toString();
-			if (i+1 < array.length)
-				s = s + sep;
-		}
-		
-		return s;
-	}
-	
-	
 	/**
 	 * This method is invoked by the web container to initialise the
 	 * filter at startup.
@@ -118,19 +259,37 @@ public class CORSFilter
 	public void init(final FilterConfig filterConfig)
 		throws ServletException {
 		
-		// Get the init params
-		Properties props = getFilterInitParameters(filterConfig);
-		
-		// Extract and parse all required CORS filter properties
 		try {
-			config = new CORSConfiguration(props);
+			lifecycle.init(filterConfig.getFilterName(), getFilterInitParameters(filterConfig));
 			
 		} catch (CORSConfigurationException e) {
 		
 			throw new ServletException(e);
 		}
+	}
+	
+	
+	/**
+	 * Returns the initialisation status of this filter.
+	 *
+	 * @return The filter status.
+	 */
+	public CORSFilterStatus getStatus() {
+	
+		return lifecycle.getStatus();
+	}
+	
+	
+	/**
+	 * Returns the runtime administration interface of the access policy
+	 * of this filter.
+	 *
+	 * @return The policy admin, {@code null} if {@code cors.policyAdmin}
+	 *         is not enabled.
+	 */
+	public CORSPolicyAdmin getPolicyAdmin() {
 		
-		handler = new CORSRequestHandler(config);
+		return lifecycle.getPolicyAdmin();
 	}
 	
 	
@@ -146,11 +305,10 @@ public class CORSFilter
 	 * @param sc      The HTTP status code.
 	 * @param message The message.
 	 *
-	 * @throws IOException      On a I/O exception.
-	 * @throws ServletException On a general request processing exception.
+	 * @throws IOException On a I/O exception.
 	 */
-	private void printMessage(final HttpServletResponse response, final int sc, final String msg)
-		throws IOException, ServletException {
+	static void printMessage(final HttpServletResponse response, final int sc, final String msg)
+		throws IOException {
 	
 		// Set the status code
 		response.setStatus(sc);
@@ -164,14 +322,15 @@ public class CORSFilter
 		
 		PrintWriter out = response.getWriter();
 		
-		out.println("Cross-Origin Resource Sharing (CORS) Filter: " + msg);
+		out.println(CORSErrors.MESSAGE_PREFIX + msg);
 	}
 	
 	
 	/**
 	 * Filters an HTTP request/reponse pair according to the configured CORS
 	 * policy. Also tags the request with CORS information to downstream
-	 * handlers.
+	 * handlers. Requests already processed on a previous dispatch are
+	 * passed on unchanged.
 	 * 
 	 * @param request  The servlet request.
 	 * @param response The servlet response.
@@ -182,68 +341,52 @@ public class CORSFilter
 	 */
 	private void doFilter(final HttpServletRequest request, final HttpServletResponse response, final FilterChain chain)
 		throws IOException, ServletException {
-	
-		// Tag
-		handler.tagRequest(request);
 		
-		CORSRequestType type = CORSRequestType.detect(request);
-	
-		try {
-			if (type == CORSRequestType.ACTUAL) {
-				// Simple/actual CORS request
-				handler.handleActualRequest(request, response);
-				chain.doFilter(request, response);
-			}
-			else if (type == CORSRequestType.PREFLIGHT) {
-				// Preflight CORS request, handle but don't pass
-				// further down the chain
-				handler.handlePreflightRequest(request, response);
-			}
-			else if (config.allowGenericHttpRequests) {
-				// Not a CORS request, but allow it through
-				request.setAttribute("cors.isCorsRequest", false); // tag
-				chain.doFilter(request, response);
-			}
-			else {
-				// Generic HTTP requests denied
-				request.setAttribute("cors.isCorsRequest", false); // tag
-				printMessage(response, HttpServletResponse.SC_FORBIDDEN, "Generic HTTP requests not allowed");
-			}
-				
-		} catch (InvalidCORSRequestException e) {
-			request.setAttribute("cors.isCorsRequest", false); // tag
-			printMessage(response, HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
-		
-		} catch (CORSOriginDeniedException e) {
-			
-			String msg = e.getMessage() + ": " + serialize(e.getRequestOrigins(), " ");
-			printMessage(response, HttpServletResponse.SC_FORBIDDEN, msg);
-			
-		} catch (UnsupportedHTTPMethodException e) {
+		final String filteredAttribute = lifecycle.getFilteredAttribute();
 		
-			String msg = e.getMessage();
-			
-			HTTPMethod method = e.getRequestedMethod();
-			
-			if (method != null)
-				msg = msg + ": " + method.toString();
-		
-			printMessage(response, HttpServletResponse.SC_METHOD_NOT_ALLOWED, msg);
-			
-		} catch (UnsupportedHTTPHeaderException e) {
+		// Forward, include, error or async dispatch of a request which
+		// has already been through this filter
+		if (request.getAttribute(filteredAttribute) != null) {
+			chain.doFilter(request, response);
+			return;
+		}
 		
-			String msg = e.getMessage();
-			
-			HeaderFieldName header = e.getRequestHeader();
-			
-			if (header != null)
-				msg = msg + ": " + header.toString();
+		request.setAttribute(filteredAttribute, Boolean.TRUE);
 		
-			printMessage(response, HttpServletResponse.SC_FORBIDDEN, msg);
-		}
+		// Read once, the handler may be replaced by a concurrent 
+		// re-initialisation
+		doFilter(lifecycle.getProcessor(), lifecycle.getCapture(), lifecycle.getHotRequestTracker(), request, response, chain);
 	}
 	
 	
+	/**
+	 * Performs the CORS work of the filter on an HTTP request/response 
+	 * pair and tags the request. Also used by the filter warm-up.
+	 *
+	 * @param handler           The CORS request handler.
+	 * @param capture           The request capture, {@code null} if 
+	 *                          disabled.
+	 * @param hotRequestTracker The hot request tracker, {@code null} if 
+	 *                          disabled.
+	 * @param request           The servlet request.
+	 * @param response          The servlet response.
+	 * @param chain             The filter chain.
+	 *
+	 * @throws IOException      On a I/O exception.
+	 * @throws ServletException On a general request processing exception.
+	 */
+	private static void doFilter(final CORSRequestHandler handler,
+	                             final RequestCapture capture,
+	                             final HotRequestTracker hotRequestTracker,
+	                             final HttpServletRequest request, 
+	                             final HttpServletResponse response, 
+	                             final FilterChain chain)
+		throws IOException, ServletException {
+		
+		if (CORSFilterLifecycle.process(handler, capture, hotRequestTracker, new ServletExchange(request, response)) == CORSFilterLifecycle.Disposition.CHAIN)
+			chain.doFilter(request, response);
+	}
+	
 	
 	/**
 	 * Called by the servlet container each time a request/response pair is 
@@ -270,13 +413,12 @@ public class CORSFilter
 		}
 	}
 	
-	
 	/**
 	 * Called by the web container to indicate to a filter that it is being 
 	 * taken out of service.
 	 */
 	public void destroy() {
 	
-		// do nothing
+		lifecycle.destroy();
 	}
 }
@@ -0,0 +1,899 @@
+package com.thetransactioncompany.cors;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+
+/**
+ * The container-independent lifecycle of a CORS filter: parses the filter
+ * init parameters, builds and publishes the CORS request processor, and
+ * owns the {@link PolicyEditor}, the {@link PolicySync}, the
+ * {@link CORSFilterStatus} MBean, the {@link RequestCapture} and the
+ * {@link HotRequestTracker}. The {@code javax.servlet} {@link CORSFilter}
+ * and the Jakarta Servlet filter delegate to it and only adapt the
+ * requests and responses of their container.
+ *
+ * <p>The processor is published through a volatile field; the request
+ * threads read it once per request, without locking. It is replaced on
+ * re-initialisation, when the compiled policy has been built in the
+ * background, on a runtime policy change and when a newer policy version
+ * has been synced.
+ *
+ * @param <P> The CORS request processor type.
+ *
+ * @author Vladimir Dzhuvinov
+ * @version $version$ ($version-date$)
+ */
+public abstract class CORSFilterLifecycle<P extends CORSRequestProcessor> {
+
+
+	/**
+	 * The name prefix of the request attribute which marks a request as
+	 * already processed by a CORS filter instance. The full attribute name
+	 * is the prefix followed by a dot and the filter name.
+	 */
+	public static final String FILTERED_ATTRIBUTE = "cors.filtered";
+
+
+	/**
+	 * The default maximum size of the request capture file before it is
+	 * rotated, 1 GiB.
+	 */
+	public static final long DEFAULT_CAPTURE_MAX_BYTES = 1L << 30;
+
+
+	/**
+	 * A servlet request / response pair, adapted by the filter of each
+	 * servlet API.
+	 */
+	public interface FilterExchange extends CORSRequest, CORSResponse {
+
+
+		/**
+		 * Gets the request URI.
+		 *
+		 * @return The request URI, {@code null} if not known.
+		 */
+		String getRequestURI();
+
+
+		/**
+		 * Sets a request attribute, to tag the request for downstream
+		 * handlers.
+		 *
+		 * @param name  The attribute name.
+		 * @param value The attribute value.
+		 */
+		void setAttribute(final String name, final Object value);
+
+
+		/**
+		 * Answers the request with a CORS error message.
+		 *
+		 * @param sc  The HTTP status code.
+		 * @param msg The message, without the
+		 *            {@link CORSErrors#MESSAGE_PREFIX}.
+		 *
+		 * @throws IOException On a I/O exception.
+		 */
+		void sendError(final int sc, final String msg)
+			throws IOException;
+	}
+
+
+	/**
+	 * What a filter is to do with a request after its CORS work.
+	 */
+	public enum Disposition {
+
+
+		/**
+		 * Pass the request down the filter chain.
+		 */
+		CHAIN,
+
+
+		/**
+		 * Allowed preflight request, answered with the CORS headers and
+		 * not to be passed down the chain.
+		 */
+		PREFLIGHT,
+
+
+		/**
+		 * Denied request, answered with an error message.
+		 */
+		DENIED
+	}
+
+
+	/**
+	 * The name of the request attribute which marks a request as already
+	 * processed by the filter instance.
+	 */
+	private volatile String filteredAttribute = FILTERED_ATTRIBUTE;
+
+
+	/**
+	 * The CORS request processor, {@code null} if not initialised.
+	 */
+	private volatile P processor;
+
+
+	/**
+	 * The request capture, {@code null} if disabled.
+	 */
+	private volatile RequestCapture capture;
+
+
+	/**
+	 * The hot request tracker, {@code null} if disabled.
+	 */
+	private volatile HotRequestTracker hotRequestTracker;
+
+
+	/**
+	 * The policy sync, {@code null} if disabled.
+	 */
+	private volatile PolicySync policySync;
+
+
+	/**
+	 * Guards the replacement of the processor.
+	 */
+	private final Object processorLock = new Object();
+
+
+	/**
+	 * The initialisation status.
+	 */
+	private final CORSFilterStatus status = new CORSFilterStatus();
+
+
+	/**
+	 * The runtime policy editor, disabled unless
+	 * {@code cors.policyAdmin} is set.
+	 */
+	private final PolicyEditor policyEditor = new PolicyEditor(new PolicyEditor.Listener() {
+
+		@Override
+		public void policyChanged(final CORSConfiguration oldConfig, final CORSConfiguration newConfig) {
+
+			publishChangedPolicy(oldConfig, newConfig);
+		}
+	});
+
+
+	/**
+	 * Creates a new CORS request processor.
+	 *
+	 * @param config        The CORS configuration.
+	 * @param compilePolicy {@code true} to compile the access policy if
+	 *                      enabled by the configuration.
+	 * @param policyVersion The version of the synchronised policy, -1 if
+	 *                      none.
+	 *
+	 * @return The CORS request processor.
+	 */
+	protected abstract P createProcessor(final CORSConfiguration config,
+	                                     final boolean compilePolicy,
+	                                     final long policyVersion);
+
+
+	/**
+	 * Creates the warm-up target for the specified processor: drives the
+	 * synthetic requests through the filter's own request path, with the
+	 * processor instead of the published one and without request capture
+	 * or hot request tracking.
+	 *
+	 * @param processor The CORS request processor to warm up.
+	 *
+	 * @return The warm-up target.
+	 */
+	protected abstract PolicyWarmup.Target createWarmupTarget(final P processor);
+
+
+	/**
+	 * Returns the name of the request attribute which marks a request as
+	 * processed by the CORS filter with the specified name.
+	 *
+	 * @param filterName The filter name, {@code null} if unknown.
+	 *
+	 * @return The request attribute name.
+	 */
+	public static String getFilteredAttribute(final String filterName) {
+
+		if (filterName == null)
+			return FILTERED_ATTRIBUTE;
+
+		return FILTERED_ATTRIBUTE + "." + filterName;
+	}
+
+
+	/**
+	 * Gets a non-negative integer filter init parameter.
+	 *
+	 * @param params       The filter init parameters.
+	 * @param name         The parameter name.
+	 * @param defaultValue The default value if the parameter is not set.
+	 *
+	 * @return The parameter value.
+	 *
+	 * @throws CORSConfigurationException If the parameter value is
+	 *                                    invalid.
+	 */
+	private static int getIntParameter(final Properties params, final String name, final int defaultValue)
+		throws CORSConfigurationException {
+
+		long l = getLongParameter(params, name, defaultValue);
+
+		if (l > Integer.MAX_VALUE)
+			throw new CORSConfigurationException("Bad " + name + " filter init parameter: " + params.getProperty(name));
+
+		return (int)l;
+	}
+
+
+	/**
+	 * Gets a non-negative long integer filter init parameter.
+	 *
+	 * @param params       The filter init parameters.
+	 * @param name         The parameter name.
+	 * @param defaultValue The default value if the parameter is not set.
+	 *
+	 * @return The parameter value.
+	 *
+	 * @throws CORSConfigurationException If the parameter value is
+	 *                                    invalid.
+	 */
+	private static long getLongParameter(final Properties params, final String name, final long defaultValue)
+		throws CORSConfigurationException {
+
+		String value = params.getProperty(name);
+
+		if (value == null || value.trim().isEmpty())
+			return defaultValue;
+
+		try {
+			long l = Long.parseLong(value.trim());
+
+			if (l >= 0)
+				return l;
+
+		} catch (NumberFormatException e) {
+			// report below
+		}
+
+		throw new CORSConfigurationException("Bad " + name + " filter init parameter: " + value);
+	}
+
+
+	/**
+	 * Initialises or re-initialises the filter. The request processor in
+	 * use is replaced once the new one is ready; runtime policy changes
+	 * made through the policy admin are discarded.
+	 *
+	 * @param filterName The filter name, {@code null} if unknown.
+	 * @param params     The filter init parameters.
+	 *
+	 * @throws CORSConfigurationException If an init parameter is invalid,
+	 *                                    a file couldn't be read or the
+	 *                                    MBean couldn't be registered.
+	 */
+	public void init(final String filterName, final Properties params)
+		throws CORSConfigurationException {
+
+		final long loadStart = System.nanoTime();
+
+		// Parse all CORS filter properties, or load the access policy
+		// from a snapshot
+		CORSConfiguration config;
+
+		String snapshotFile = params.getProperty("cors.snapshotFile");
+
+		try {
+			if (snapshotFile != null && ! snapshotFile.trim().isEmpty())
+				config = PolicySnapshot.read(new File(snapshotFile.trim()), params);
+			else
+				config = new CORSConfiguration(params);
+
+		} catch (IOException e) {
+
+			throw new CORSConfigurationException("Couldn't read CORS policy snapshot file: " + e.getMessage(), e);
+		}
+
+		final int warmupIterations = getIntParameter(params, "cors.warmupIterations", 0);
+		final int warmupMillis = getIntParameter(params, "cors.warmupMillis", 1000);
+
+		final String hotRequestFile = params.getProperty("cors.hotRequestFile");
+		final int hotRequestSaveSeconds = getIntParameter(params, "cors.hotRequestSaveSeconds", 60);
+
+		final boolean trackHotRequests = hotRequestFile != null && ! hotRequestFile.trim().isEmpty();
+
+		List<RequestCapture.Record> hotRequests = Collections.emptyList();
+
+		if (trackHotRequests) {
+
+			try {
+				hotRequests = HotRequestTracker.load(new File(hotRequestFile.trim()));
+
+			} catch (IOException e) {
+
+				throw new CORSConfigurationException("Couldn't read CORS hot request file: " + e.getMessage(), e);
+			}
+		}
+
+		final PolicyWarmup warmup = new PolicyWarmup(warmupIterations, warmupMillis, hotRequests);
+
+		final String syncDirectory = params.getProperty("cors.syncDirectory");
+		final int syncIntervalSeconds = getIntParameter(params, "cors.syncIntervalSeconds", 10);
+
+		final boolean sync = syncDirectory != null && ! syncDirectory.trim().isEmpty();
+
+		if (sync && syncIntervalSeconds == 0)
+			throw new CORSConfigurationException("Bad cors.syncIntervalSeconds filter init parameter: 0");
+
+		final long captureMaxBytes = getLongParameter(params, "cors.captureMaxBytes", DEFAULT_CAPTURE_MAX_BYTES);
+
+		RequestCapture newCapture = null;
+
+		if (config.captureFile != null) {
+
+			try {
+				newCapture = new RequestCapture(new File(config.captureFile), captureMaxBytes);
+
+			} catch (IOException e) {
+
+				throw new CORSConfigurationException("Couldn't open CORS request capture file: " + e.getMessage(), e);
+			}
+		}
+
+		final long loadMillis = (System.nanoTime() - loadStart) / 1000000L;
+
+		final boolean background = config.compilePolicy &&
+		                           Boolean.parseBoolean(params.getProperty("cors.backgroundInit"));
+
+		final boolean policyAdmin = Boolean.parseBoolean(params.getProperty("cors.policyAdmin"));
+
+		// Register the MBeans before anything is replaced, so that a
+		// failure leaves the previous initialisation in effect
+		String mbeanName = params.getProperty("cors.mbeanName");
+
+		if (mbeanName != null && ! mbeanName.trim().isEmpty()) {
+
+			final ObjectName oldStatusName = status.getMBeanName();
+			final ObjectName oldEditorName = policyEditor.getMBeanName();
+
+			try {
+				status.register(mbeanName.trim());
+
+				if (policyAdmin)
+					policyEditor.register(mbeanName.trim() + ",component=PolicyAdmin");
+
+			} catch (JMException e) {
+
+				if (newCapture != null)
+					newCapture.close();
+
+				restoreRegistrations(oldStatusName, oldEditorName);
+
+				throw new CORSConfigurationException("Couldn't register CORS filter MBean: " + e.getMessage(), e);
+			}
+
+		} else {
+
+			status.unregister();
+			policyEditor.unregister();
+		}
+
+		if (! policyAdmin)
+			policyEditor.unregister();
+
+		filteredAttribute = getFilteredAttribute(filterName);
+
+		RequestCapture oldCapture = capture;
+
+		capture = newCapture;
+
+		HotRequestTracker oldTracker = hotRequestTracker;
+
+		if (trackHotRequests)
+			hotRequestTracker = new HotRequestTracker(new File(hotRequestFile.trim()), hotRequestSaveSeconds * 1000L);
+		else
+			hotRequestTracker = null;
+
+		// No version of the previous sync is loaded after this
+		PolicySync oldSync = policySync;
+
+		policySync = null;
+
+		if (oldSync != null)
+			oldSync.stop();
+
+		final P newProcessor;
+
+		// Hold the editor until the new processor is published, so that
+		// no runtime change is applied to the previous configuration
+		synchronized (policyEditor) {
+
+			final long buildStart = System.nanoTime();
+
+			// Runtime changes to the previous configuration are
+			// discarded
+			if (policyAdmin)
+				config = policyEditor.reset(config);
+			else
+				policyEditor.reset(null);
+
+			// In background mode, serve with the generic policy
+			// evaluation until the compiled policy is built
+			newProcessor = createProcessor(config, ! background, -1L);
+
+			final long buildMillis = (System.nanoTime() - buildStart) / 1000000L;
+
+			if (! background && ! warmup.isDisabled())
+				warmup.warmUp(config, createWarmupTarget(newProcessor));
+
+			synchronized (processorLock) {
+
+				processor = newProcessor;
+
+				status.configurationLoaded(config, loadMillis);
+
+				if (! background)
+					status.policyBuilt(buildMillis);
+			}
+		}
+
+		if (background)
+			buildPolicyInBackground(config, newProcessor, warmup);
+
+		if (sync) {
+
+			PolicySync newSync = new PolicySync(new File(syncDirectory.trim()), syncIntervalSeconds * 1000L, new PolicySync.Listener() {
+
+				@Override
+				public void policyLoaded(final long version, final CORSConfiguration config) {
+
+					publishSyncedPolicy(version, config);
+				}
+
+
+				@Override
+				public void policyLoadFailed(final long version, final String error) {
+
+					status.policySyncFailed(version, error);
+				}
+			});
+
+			policySync = newSync;
+
+			newSync.start();
+		}
+
+		if (oldCapture != null)
+			oldCapture.close();
+
+		if (oldTracker != null)
+			stopTracker(oldTracker);
+	}
+
+
+	/**
+	 * Restores the MBean registrations after a failed re-initialisation.
+	 * Best effort.
+	 *
+	 * @param statusName The previous name of the status MBean,
+	 *                   {@code null} if not registered.
+	 * @param editorName The previous name of the policy admin MBean,
+	 *                   {@code null} if not registered.
+	 */
+	private void restoreRegistrations(final ObjectName statusName, final ObjectName editorName) {
+
+		try {
+			if (statusName != null)
+				status.register(statusName.toString());
+			else
+				status.unregister();
+
+			if (editorName != null)
+				policyEditor.register(editorName.toString());
+			else
+				policyEditor.unregister();
+
+		} catch (JMException e) {
+			// the registration error is reported
+		}
+	}
+
+
+	/**
+	 * Builds and publishes the processor for a runtime change of the
+	 * access policy, unless the filter has been re-initialised in the
+	 * meantime.
+	 *
+	 * @param oldConfig The previous configuration.
+	 * @param newConfig The changed configuration.
+	 */
+	private void publishChangedPolicy(final CORSConfiguration oldConfig,
+	                                  final CORSConfiguration newConfig) {
+
+		final long start = System.nanoTime();
+
+		// Keep the version of a synchronised policy
+		final P newProcessor = createProcessor(newConfig, true, processor.getPolicyVersion());
+
+		final long buildMillis = (System.nanoTime() - start) / 1000000L;
+
+		synchronized (processorLock) {
+
+			if (processor.getConfiguration() != oldConfig)
+				return; // superseded
+
+			processor = newProcessor;
+
+			status.policyChanged(newConfig, buildMillis);
+		}
+	}
+
+
+	/**
+	 * Builds and publishes the processor for a policy version loaded from
+	 * the shared snapshot directory. Called on the sync thread. Runtime
+	 * changes made through the policy admin are discarded.
+	 *
+	 * @param version The policy version.
+	 * @param config  The loaded access policy, combined with the current
+	 *                deployment settings.
+	 */
+	private void publishSyncedPolicy(final long version, final CORSConfiguration config) {
+
+		synchronized (policyEditor) {
+
+			final long start = System.nanoTime();
+
+			CORSConfiguration newConfig = processor.getConfiguration().withAccessPolicy(config);
+
+			if (policyEditor.isEnabled())
+				newConfig = policyEditor.reset(newConfig);
+
+			final P newProcessor = createProcessor(newConfig, true, version);
+
+			final long buildMillis = (System.nanoTime() - start) / 1000000L;
+
+			synchronized (processorLock) {
+
+				processor = newProcessor;
+
+				status.policySynced(version, newConfig, buildMillis);
+			}
+		}
+	}
+
+
+	/**
+	 * Builds the compiled access policy on a background thread and
+	 * replaces the fallback processor with it, unless the filter has been
+	 * re-initialised in the meantime.
+	 *
+	 * @param config   The CORS configuration.
+	 * @param fallback The fallback processor, currently in use.
+	 * @param warmup   The warm-up to run before the swap.
+	 */
+	private void buildPolicyInBackground(final CORSConfiguration config,
+	                                     final P fallback,
+	                                     final PolicyWarmup warmup) {
+
+		Thread builder = new Thread("cors-policy-build") {
+
+			@Override
+			public void run() {
+
+				final long start = System.nanoTime();
+
+				P compiled = null;
+
+				long buildMillis = 0L;
+
+				String error = null;
+
+				Error fatal = null;
+
+				try {
+					P built = createProcessor(config, true, -1L);
+
+					buildMillis = (System.nanoTime() - start) / 1000000L;
+
+					if (! warmup.isDisabled())
+						warmup.warmUp(config, createWarmupTarget(built));
+
+					compiled = built;
+
+				} catch (Throwable t) {
+
+					// Report any failure, the filter keeps serving
+					// with the fallback processor
+					error = t.toString();
+
+					if (t instanceof Error)
+						fatal = (Error)t;
+				}
+
+				synchronized (processorLock) {
+
+					if (processor == fallback) {
+
+						if (compiled != null) {
+							processor = compiled;
+							status.policyBuilt(buildMillis);
+						} else {
+							status.policyBuildFailed(error);
+						}
+					}
+				}
+
+				// After the status update, to the uncaught exception
+				// handler
+				if (fatal != null)
+					throw fatal;
+			}
+		};
+
+		builder.setDaemon(true);
+		builder.start();
+	}
+
+
+	/**
+	 * Performs the CORS work of a servlet filter on a request / response
+	 * pair: captures the CORS requests, tags the request, adds the CORS
+	 * response headers, answers denied requests and samples the allowed
+	 * CORS requests. Also
+	 * used by the filter warm-up, without capture and tracking.
+	 *
+	 * <p>Request tagging:
+	 *
+	 * <ul>
+	 *     <li>{@code cors.isCorsRequest} set to {@code true} or
+	 *         {@code false}.
+	 *     <li>{@code cors.origin} set to the value of the "Origin" header,
+	 *         for CORS requests.
+	 *     <li>{@code cors.requestType} set to "actual" or "preflight", for
+	 *         CORS requests.
+	 *     <li>{@code cors.requestHeaders} set to the value of the
+	 *         "Access-Control-Request-Headers", for preflight requests.
+	 *     <li>{@code cors.policyVersion} set to the version of the
+	 *         synchronised policy, if any.
+	 * </ul>
+	 *
+	 * @param processor         The CORS request processor.
+	 * @param capture           The request capture, {@code null} if
+	 *                          disabled.
+	 * @param hotRequestTracker The hot request tracker, {@code null} if
+	 *                          disabled.
+	 * @param exchange          The request / response pair.
+	 *
+	 * @return What the filter is to do with the request.
+	 *
+	 * @throws IOException On a I/O exception.
+	 */
+	public static Disposition process(final CORSRequestProcessor processor,
+	                                  final RequestCapture capture,
+	                                  final HotRequestTracker hotRequestTracker,
+	                                  final FilterExchange exchange)
+		throws IOException {
+
+		final CORSConfiguration config = processor.getConfiguration();
+
+		final long start = config.serverTiming ? System.nanoTime() : 0L;
+
+		final CORSRequestType type = CORSRequestProcessor.detect(exchange);
+
+		final String origin = toString(exchange.getHeader("Origin"));
+
+		if (capture != null && type != CORSRequestType.OTHER) {
+			capture.append(new RequestCapture.Record(toString(exchange.getMethod()),
+			                                         origin,
+			                                         toString(exchange.getHeader("Access-Control-Request-Method")),
+			                                         toString(exchange.getHeader("Access-Control-Request-Headers")),
+			                                         exchange.getRequestURI()));
+		}
+
+		if (processor.getPolicyVersion() >= 0)
+			exchange.setAttribute("cors.policyVersion", processor.getPolicyVersion());
+
+		exchange.setAttribute("cors.isCorsRequest", type != CORSRequestType.OTHER);
+
+		try {
+			switch (type) {
+
+				case ACTUAL:
+					exchange.setAttribute("cors.origin", origin);
+					exchange.setAttribute("cors.requestType", "actual");
+
+					processor.handleActualRequest(exchange, exchange);
+					break;
+
+				case PREFLIGHT:
+					exchange.setAttribute("cors.origin", origin);
+					exchange.setAttribute("cors.requestType", "preflight");
+					exchange.setAttribute("cors.requestHeaders", toString(exchange.getHeader("Access-Control-Request-Headers")));
+
+					processor.handlePreflightRequest(exchange, exchange);
+					break;
+
+				default:
+					if (config.allowGenericHttpRequests)
+						return Disposition.CHAIN;
+
+					exchange.sendError(CORSErrors.SC_FORBIDDEN, CORSErrors.GENERIC_REQUEST_DENIED);
+					return Disposition.DENIED;
+			}
+
+		} catch (CORSException e) {
+
+			if (e instanceof InvalidCORSRequestException)
+				exchange.setAttribute("cors.isCorsRequest", false); // tag
+
+			exchange.sendError(CORSErrors.getStatusCode(e), CORSErrors.getMessage(e));
+			return Disposition.DENIED;
+		}
+
+		if (config.serverTiming)
+			exchange.addHeader("Server-Timing", CORSRequestProcessor.formatServerTiming(System.nanoTime() - start));
+
+		// Allowed requests only
+		if (hotRequestTracker != null && hotRequestTracker.sample()) {
+
+			final boolean preflight = type == CORSRequestType.PREFLIGHT;
+
+			hotRequestTracker.record(toString(exchange.getMethod()),
+			                         origin,
+			                         preflight ? toString(exchange.getHeader("Access-Control-Request-Method")) : null,
+			                         preflight ? toString(exchange.getHeader("Access-Control-Request-Headers")) : null);
+		}
+
+		return type == CORSRequestType.ACTUAL ? Disposition.CHAIN : Disposition.PREFLIGHT;
+	}
+
+
+	/**
+	 * Returns the string value of the specified header value.
+	 *
+	 * @param value The header value, {@code null} if none.
+	 *
+	 * @return The string value, {@code null} if none.
+	 */
+	private static String toString(final CharSequence value) {
+
+		return value != null ? value.toString() : null;
+	}
+
+
+	/**
+	 * Returns the CORS request processor in effect. Request threads
+	 * should read it once per request, it may be replaced concurrently.
+	 *
+	 * @return The CORS request processor, {@code null} if not
+	 *         initialised.
+	 */
+	public P getProcessor() {
+
+		return processor;
+	}
+
+
+	/**
+	 * Returns the request capture.
+	 *
+	 * @return The request capture, {@code null} if disabled.
+	 */
+	public RequestCapture getCapture() {
+
+		return capture;
+	}
+
+
+	/**
+	 * Returns the hot request tracker.
+	 *
+	 * @return The hot request tracker, {@code null} if disabled.
+	 */
+	public HotRequestTracker getHotRequestTracker() {
+
+		return hotRequestTracker;
+	}
+
+
+	/**
+	 * Returns the name of the request attribute which marks a request as
+	 * processed by the filter instance, see
+	 * {@link #getFilteredAttribute(String)}.
+	 *
+	 * @return The request attribute name.
+	 */
+	public String getFilteredAttribute() {
+
+		return filteredAttribute;
+	}
+
+
+	/**
+	 * Returns the initialisation status of the filter.
+	 *
+	 * @return The filter status.
+	 */
+	public CORSFilterStatus getStatus() {
+
+		return status;
+	}
+
+
+	/**
+	 * Returns the runtime administration interface of the access policy
+	 * of the filter.
+	 *
+	 * @return The policy admin, {@code null} if {@code cors.policyAdmin}
+	 *         is not enabled.
+	 */
+	public CORSPolicyAdmin getPolicyAdmin() {
+
+		return policyEditor.isEnabled() ? policyEditor : null;
+	}
+
+
+	/**
+	 * Takes the filter out of service: unregisters the MBeans, stops the
+	 * policy sync and closes the request capture and hot request tracker.
+	 */
+	public void destroy() {
+
+		status.unregister();
+
+		policyEditor.unregister();
+
+		PolicySync policySync = this.policySync;
+
+		if (policySync != null) {
+			this.policySync = null;
+			policySync.stop();
+		}
+
+		RequestCapture capture = this.capture;
+
+		if (capture != null) {
+			this.capture = null;
+			capture.close();
+		}
+
+		HotRequestTracker hotRequestTracker = this.hotRequestTracker;
+
+		if (hotRequestTracker != null) {
+			this.hotRequestTracker = null;
+			stopTracker(hotRequestTracker);
+		}
+	}
+
+
+	/**
+	 * Stops a hot request tracker, saving the hot requests a last time.
+	 *
+	 * @param tracker The hot request tracker.
+	 */
+	private static void stopTracker(final HotRequestTracker tracker) {
+
+		try {
+			tracker.stop();
+
+		} catch (IOException e) {
+			// Best effort, the file is only used for warm-up
+		}
+	}
+}
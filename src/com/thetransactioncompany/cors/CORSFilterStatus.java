@@ -0,0 +1,270 @@
+package com.thetransactioncompany.cors;
+
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+
+/**
+ * The initialisation status of a CORS filter. It can be registered as a
+ * JMX MBean (set the {@code cors.mbeanName} filter init parameter) or
+ * obtained from the filter directly.
+ *
+ * <p>With the {@code cors.backgroundInit} filter init parameter the filter
+ * starts serving requests as soon as the configuration is loaded, with the
+ * generic access policy evaluation, while the compiled access policy (see
+ * {@link CompiledPolicy}) is built on a background thread. The status then
+ * reports when the compiled policy is ready and how long it took to build.
+ *
+ * @author Vladimir Dzhuvinov
+ * @version $version$ ($version-date$)
+ */
+public class CORSFilterStatus implements CORSFilterStatusMBean {
+
+
+	/**
+	 * {@code true} once the access policy structures are built.
+	 */
+	private volatile boolean policyReady = false;
+
+
+	/**
+	 * The configuration load time, in milliseconds, -1 if not loaded.
+	 */
+	private volatile long configurationLoadMillis = -1;
+
+
+	/**
+	 * The policy build time, in milliseconds, -1 if not built.
+	 */
+	private volatile long policyBuildMillis = -1;
+
+
+	/**
+	 * The number of allowed origins.
+	 */
+	private volatile int allowedOriginCount = 0;
+
+
+	/**
+	 * The policy build error message, {@code null} if none.
+	 */
+	private volatile String policyBuildError = null;
+
+
+	/**
+	 * The synced policy version, -1 if none.
+	 */
+	private volatile long policyVersion = -1L;
+
+
+	/**
+	 * The last policy sync error message, {@code null} if none.
+	 */
+	private volatile String policySyncError = null;
+
+
+	/**
+	 * The registered MBean name, {@code null} if not registered.
+	 */
+	private ObjectName mbeanName = null;
+
+
+	@Override
+	public boolean isPolicyReady() {
+
+		return policyReady;
+	}
+
+
+	@Override
+	public long getConfigurationLoadMillis() {
+
+		return configurationLoadMillis;
+	}
+
+
+	@Override
+	public long getPolicyBuildMillis() {
+
+		return policyBuildMillis;
+	}
+
+
+	@Override
+	public int getAllowedOriginCount() {
+
+		return allowedOriginCount;
+	}
+
+
+	@Override
+	public String getPolicyBuildError() {
+
+		return policyBuildError;
+	}
+
+
+	@Override
+	public long getPolicyVersion() {
+
+		return policyVersion;
+	}
+
+
+	@Override
+	public String getPolicySyncError() {
+
+		return policySyncError;
+	}
+
+
+	/**
+	 * Records a newly loaded CORS configuration. The policy is not ready
+	 * until {@link #policyBuilt} is called.
+	 *
+	 * @param config The CORS configuration.
+	 * @param millis The configuration load time, in milliseconds.
+	 */
+	public void configurationLoaded(final CORSConfiguration config, final long millis) {
+
+		policyReady = false;
+		policyBuildMillis = -1;
+		policyBuildError = null;
+		policyVersion = -1L;
+		policySyncError = null;
+		allowedOriginCount = config.allowedOrigins.size();
+		configurationLoadMillis = millis;
+	}
+
+
+	/**
+	 * Records the completed build of the access policy structures.
+	 *
+	 * @param millis The policy build time, in milliseconds.
+	 */
+	public void policyBuilt(final long millis) {
+
+		policyBuildMillis = millis;
+		policyReady = true;
+	}
+
+
+	/**
+	 * Records a runtime change of the access policy, see
+	 * {@link PolicyEditor}.
+	 *
+	 * @param config The changed CORS configuration.
+	 * @param millis The policy build time, in milliseconds.
+	 */
+	public void policyChanged(final CORSConfiguration config, final long millis) {
+
+		policyBuildError = null;
+		allowedOriginCount = config.allowedOrigins.size();
+		policyBuilt(millis);
+	}
+
+
+	/**
+	 * Records the swap to a policy version loaded from the shared
+	 * snapshot directory, see {@link PolicySync}.
+	 *
+	 * @param version The policy version.
+	 * @param config  The loaded CORS configuration.
+	 * @param millis  The policy build time, in milliseconds.
+	 */
+	public void policySynced(final long version, final CORSConfiguration config, final long millis) {
+
+		policyVersion = version;
+		policySyncError = null;
+		policyChanged(config, millis);
+	}
+
+
+	/**
+	 * Records a failed attempt to load a policy version from the shared
+	 * snapshot directory.
+	 *
+	 * @param version The policy version.
+	 * @param error   The error message.
+	 */
+	public void policySyncFailed(final long version, final String error) {
+
+		policySyncError = "Version " + version + ": " + error;
+	}
+
+
+	/**
+	 * Records a failed background build of the access policy structures.
+	 *
+	 * @param error The error message.
+	 */
+	public void policyBuildFailed(final String error) {
+
+		policyBuildError = error;
+	}
+
+
+	/**
+	 * Registers this status with the platform MBean server. If already
+	 * registered under a different name, for example after a filter
+	 * re-initialisation with a changed {@code cors.mbeanName}, the
+	 * previous registration is removed first.
+	 *
+	 * @param name The MBean object name.
+	 *
+	 * @throws JMException If the name is invalid or the registration
+	 *                     failed.
+	 */
+	public synchronized void register(final String name)
+		throws JMException {
+
+		ObjectName objectName = new ObjectName(name);
+
+		if (objectName.equals(mbeanName))
+			return;
+
+		unregister();
+
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+
+		mbeanName = objectName;
+	}
+
+
+	/**
+	 * Returns the name under which this status is registered with the
+	 * platform MBean server.
+	 *
+	 * @return The MBean object name, {@code null} if not registered.
+	 */
+	synchronized ObjectName getMBeanName() {
+
+		return mbeanName;
+	}
+
+
+	/**
+	 * Unregisters this status from the platform MBean server, if
+	 * registered.
+	 */
+	public synchronized void unregister() {
+
+		if (mbeanName == null)
+			return;
+
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+		try {
+			server.unregisterMBean(mbeanName);
+
+		} catch (JMException e) {
+			// already gone
+		}
+
+		mbeanName = null;
+	}
+}
@@ -0,0 +1,81 @@
+package com.thetransactioncompany.cors;
+
+
+/**
+ * Management interface of the CORS filter status, see
+ * {@link CORSFilterStatus}.
+ *
+ * @author Vladimir Dzhuvinov
+ * @version $version$ ($version-date$)
+ */
+public interface CORSFilterStatusMBean {
+
+
+	/**
+	 * Returns {@code true} if the filter serves requests with its final
+	 * access policy structures, {@code false} if the fallback policy
+	 * evaluation is still in use while they are built in the background.
+	 *
+	 * @return {@code true} if the final policy structures are in use.
+	 */
+	boolean isPolicyReady();
+
+
+	/**
+	 * Returns the time it took to load and validate the current CORS
+	 * configuration.
+	 *
+	 * @return The configuration load time, in milliseconds.
+	 */
+	long getConfigurationLoadMillis();
+
+
+	/**
+	 * Returns the time it took to build the access policy structures for
+	 * the current CORS configuration.
+	 *
+	 * @return The policy build time, in milliseconds, -1 if still being
+	 *         built or the build failed.
+	 */
+	long getPolicyBuildMillis();
+
+
+	/**
+	 * Returns the number of allowed origins in the current CORS
+	 * configuration.
+	 *
+	 * @return The number of allowed origins, zero if any origin is
+	 *         allowed.
+	 */
+	int getAllowedOriginCount();
+
+
+	/**
+	 * Returns the error of a failed background policy build. The filter
+	 * then keeps serving requests with the fallback policy evaluation.
+	 *
+	 * @return The error message, {@code null} if none.
+	 */
+	String getPolicyBuildError();
+
+
+	/**
+	 * Returns the version of the policy snapshot in effect, if the
+	 * filter is synchronised with a shared snapshot directory. See
+	 * {@link PolicySync}.
+	 *
+	 * @return The policy version, -1 if the locally configured policy is
+	 *         in effect.
+	 */
+	long getPolicyVersion();
+
+
+	/**
+	 * Returns the error of the last failed attempt to load a newer policy
+	 * snapshot from the shared directory. The filter then keeps serving
+	 * requests with its current policy.
+	 *
+	 * @return The error message, {@code null} if none.
+	 */
+	String getPolicySyncError();
+}
@@ -0,0 +1,136 @@
+package com.thetransactioncompany.cors;
+
+
+import java.io.IOException;
+
+
+/**
+ * Runtime administration of the CORS access policy of a filter: adding and
+ * removing allowed origins, supported methods and supported headers without
+ * a restart. Implemented by {@link PolicyEditor}, which is also registered
+ * as a JMX MBean with this interface.
+ *
+ * <p>Each change takes effect for the requests which start after the
+ * method returns. The changes are kept in memory only; use
+ * {@link #writeSnapshot} to persist the changed policy.
+ *
+ * <p>The add and remove methods throw an {@code IllegalArgumentException}
+ * on an invalid origin, method or header name, and an
+ * {@code IllegalStateException} if the runtime administration is disabled.
+ *
+ * @author Vladimir Dzhuvinov
+ * @version $version$ ($version-date$)
+ */
+public interface CORSPolicyAdmin {
+
+
+	/**
+	 * Returns the number of allowed origins.
+	 *
+	 * @return The number of allowed origins.
+	 */
+	int getAllowedOriginCount();
+
+
+	/**
+	 * Returns the supported methods.
+	 *
+	 * @return The supported methods, comma separated.
+	 */
+	String getSupportedMethods();
+
+
+	/**
+	 * Returns the supported headers.
+	 *
+	 * @return The supported headers, comma separated, empty if none.
+	 */
+	String getSupportedHeaders();
+
+
+	/**
+	 * Checks if the specified origin is in the allowed origins list.
+	 *
+	 * @param origin The origin.
+	 *
+	 * @return {@code true} if listed.
+	 */
+	boolean isListedOrigin(final String origin);
+
+
+	/**
+	 * Adds an allowed origin.
+	 *
+	 * @param origin The origin.
+	 *
+	 * @return {@code true} if added, {@code false} if already listed.
+	 *
+	 * @throws IllegalStateException If any origin is allowed, the origin
+	 *                               list then has no effect.
+	 */
+	boolean addAllowedOrigin(final String origin);
+
+
+	/**
+	 * Removes an allowed origin.
+	 *
+	 * @param origin The origin.
+	 *
+	 * @return {@code true} if removed, {@code false} if not listed.
+	 */
+	boolean removeAllowedOrigin(final String origin);
+
+
+	/**
+	 * Adds a supported method.
+	 *
+	 * @param method The method name.
+	 *
+	 * @return {@code true} if added, {@code false} if already supported.
+	 */
+	boolean addSupportedMethod(final String method);
+
+
+	/**
+	 * Removes a supported method.
+	 *
+	 * @param method The method name.
+	 *
+	 * @return {@code true} if removed, {@code false} if not supported.
+	 */
+	boolean removeSupportedMethod(final String method);
+
+
+	/**
+	 * Adds a supported header.
+	 *
+	 * @param header The header name.
+	 *
+	 * @return {@code true} if added, {@code false} if already supported.
+	 */
+	boolean addSupportedHeader(final String header);
+
+
+	/**
+	 * Removes a supported header.
+	 *
+	 * @param header The header name.
+	 *
+	 * @return {@code true} if removed, {@code false} if not supported.
+	 */
+	boolean removeSupportedHeader(final String header);
+
+
+	/**
+	 * Writes the current access policy to a snapshot file, which can be
+	 * loaded with the {@code cors.snapshotFile} filter init parameter.
+	 * The file is replaced through a temporary file, so that readers
+	 * never see a partial snapshot. See {@link PolicySnapshot}.
+	 *
+	 * @param file The snapshot file path.
+	 *
+	 * @throws IOException If the file couldn't be written.
+	 */
+	void writeSnapshot(final String file)
+		throws IOException;
+}
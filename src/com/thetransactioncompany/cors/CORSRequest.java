@@ -0,0 +1,40 @@
+package com.thetransactioncompany.cors;
+
+
+/**
+ * Minimal read-only view of an HTTP request, as required by the CORS 
+ * processing logic. Lets native (non-servlet) server handlers invoke the
+ * {@link CORSRequestProcessor} directly, without building servlet facades.
+ *
+ * <p>The returned values may be views over the server's own buffers, e.g. 
+ * a {@code CharSequence} backed by the raw header bytes. The processor may
+ * read a header more than once per request, for example the "Origin"
+ * header when detecting and then handling the request, and copies each
+ * value which is not already a {@code String}. The values must therefore
+ * remain valid and unchanged for the duration of the call.
+ *
+ * @author Vladimir Dzhuvinov
+ * @version $version$ ($version-date$)
+ */
+public interface CORSRequest {
+
+
+	/**
+	 * Gets the HTTP method of the request.
+	 *
+	 * @return The HTTP method, e.g. "GET", {@code null} if unknown.
+	 */
+	public CharSequence getMethod();
+	
+	
+	/**
+	 * Gets the value of the first request header with the specified 
+	 * name.
+	 *
+	 * @param name The header name, case-insensitive.
+	 *
+	 * @return The header value, {@code null} if the request has no such
+	 *         header.
+	 */
+	public CharSequence getHeader(final String name);
+}
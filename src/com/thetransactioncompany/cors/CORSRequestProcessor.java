@@ -0,0 +1,748 @@
+package com.thetransactioncompany.cors;
+
+
+import java.util.Iterator;
+import java.util.Set;
+
+
+/**
+ * Processes incoming cross-origin (CORS) requests according to the 
+ * configured access policy. Encapsulates the CORS processing logic as 
+ * specified by the <a href="http://www.w3.org/TR/access-control/">W3C 
+ * draft</a> from 2010-07-27.
+ *
+ * <p>This is the container-agnostic core of the CORS filter. Requests and 
+ * responses are accessed via the minimal {@link CORSRequest} and 
+ * {@link CORSResponse} interfaces, so native (e.g. Netty) server handlers 
+ * can use it directly; the servlet API is not required. Servlet based
+ * applications should use the {@link CORSRequestHandler} subclass.
+ *
+ * <p>Note that the actual CORS exception handling (which is outside the CORS
+ * specification scope) is left to the invoking class to implement.
+ *
+ * <p>Instances are immutable and may be shared between threads.
+ *
+ * @author Vladimir Dzhuvinov
+ * @version $version$ ($version-date$)
+ */
+public class CORSRequestProcessor {
+
+	
+	/**
+	 * The CORS filter configuration, containing details of the cross-origin
+	 * access policy.
+	 */
+	private final CORSConfiguration config;
+	
+	
+	/**
+	 * Pre-computed string of the CORS supported methods.
+	 */
+	private final String supportedMethods;
+	
+	
+	/**
+	 * Pre-computed string of the CORS supported headers.
+	 */
+	private final String supportedHeaders;
+	
+	
+	/**
+	 * Pre-computed string of the CORS exposed headers.
+	 */
+	private final String exposedHeaders;
+	
+	
+	/**
+	 * The compiled access policy, {@code null} if not enabled.
+	 */
+	private final CompiledPolicy compiledPolicy;
+	
+	
+	/**
+	 * The version of the synchronised policy snapshot, -1 if none.
+	 */
+	private final long policyVersion;
+	
+	
+	/**
+	 * Creates a new CORS request processor.
+	 *
+	 * @param config Specifies the cross-origin access policy.
+	 */
+	public CORSRequestProcessor(final CORSConfiguration config) {
+	
+		this(config, true);
+	}
+	
+	
+	/**
+	 * Creates a new CORS request processor, optionally without the
+	 * compiled access policy. Intended for a fallback processor which
+	 * serves requests while the compiled one is being built.
+	 *
+	 * @param config        Specifies the cross-origin access policy.
+	 * @param compilePolicy If {@code false} the access policy is not
+	 *                      compiled, even if enabled in the 
+	 *                      configuration.
+	 */
+	public CORSRequestProcessor(final CORSConfiguration config, final boolean compilePolicy) {
+	
+		this(config, compilePolicy, -1L);
+	}
+	
+	
+	/**
+	 * Creates a new CORS request processor for a versioned access policy,
+	 * see {@link PolicySync}.
+	 *
+	 * @param config        Specifies the cross-origin access policy.
+	 * @param compilePolicy If {@code false} the access policy is not
+	 *                      compiled, even if enabled in the 
+	 *                      configuration.
+	 * @param policyVersion The version of the policy snapshot, -1 if
+	 *                      none.
+	 */
+	public CORSRequestProcessor(final CORSConfiguration config, final boolean compilePolicy, final long policyVersion) {
+	
+		this.config = config;
+		this.policyVersion = policyVersion;
+		
+		// Pre-compute some response headers
+		supportedMethods = serialize(config.supportedMethods, ", ");
+		supportedHeaders = serialize(config.supportedHeaders, ", ");
+		exposedHeaders = serialize(config.exposedHeaders, ", ");	
+		
+		if (config.compilePolicy && compilePolicy)
+			compiledPolicy = new CompiledPolicy(config, supportedMethods, supportedHeaders, exposedHeaders);
+		else
+			compiledPolicy = null;
+	}
+	
+	
+	/**
+	 * Gets the CORS filter configuration.
+	 *
+	 * @return The CORS filter configuration.
+	 */
+	public CORSConfiguration getConfiguration() {
+	
+		return config;
+	}
+	
+	
+	/**
+	 * Gets the version of the synchronised policy snapshot this processor
+	 * applies.
+	 *
+	 * @return The policy version, -1 if none.
+	 */
+	public long getPolicyVersion() {
+	
+		return policyVersion;
+	}
+	
+	
+	/**
+	 * Detects the CORS type of the specified HTTP request.
+	 *
+	 * @param request The HTTP request to check. Must not be {@code null}.
+	 *
+	 * @return The CORS request type.
+	 */
+	public static CORSRequestType detect(final CORSRequest request) {
+	
+		if (request == null)
+			throw new NullPointerException("The HTTP request must not be null");
+		
+		// All CORS request have an Origin header
+		if (request.getHeader("Origin") == null)
+			return CORSRequestType.OTHER;
+		
+		// We have a CORS request - determine type
+		final CharSequence method = request.getMethod();
+		
+		if (request.getHeader("Access-Control-Request-Method") != null &&
+		    method != null &&
+		    "OPTIONS".contentEquals(method))
+		    
+			return CORSRequestType.PREFLIGHT;
+			
+		else
+			return CORSRequestType.ACTUAL;
+	}
+	
+	
+	/**
+	 * Serialises the items of a set into a string. Each item must have a 
+	 * meaningful {@code toString()} method.
+	 * 
+	 * @param set The set to serialise.
+	 * @param sep The string separator to apply.
+	 *
+	 * @return The serialised set as string.
+	 */
+	private static String serialize(final Set set, final String sep) {
+	
+		Iterator it = set.iterator();
+	
+		String s = "";
+	
+		while (it.hasNext()) {
+			s = s + it.next().toString();
+			if (it.hasNext())
+				s = s + sep;
+		}
+		
+		return s;
+	}
+	
+	
+	/**
+	 * Parses a header value consisting of zero or more space/comma/space+comma 
+	 * separated strings. The input string is trimmed before splitting.
+	 *
+	 * @param headerValue The header value, may be {@code null}.
+	 *
+	 * @return A string array of the parsed string items, empty if none
+	 *         were found or the input was {@code null}.
+	 */
+	private static String[] parseMultipleHeaderValues(final String headerValue) {
+	
+		if (headerValue == null)
+			return new String[0];
+	
+		String trimmedHeaderValue = headerValue.trim();
+		
+		if (trimmedHeaderValue.isEmpty())
+			return new String[0];
+	
+		return trimmedHeaderValue.split("\\s*,\\s*|\\s+");
+	}
+	
+	
+	/**
+	 * Returns the string value of a header or method, copying it only if
+	 * it is not a string already.
+	 *
+	 * @param value The value, may be {@code null}.
+	 *
+	 * @return The string value, {@code null} if the input was 
+	 *         {@code null}.
+	 */
+	private static String asString(final CharSequence value) {
+		
+		return value != null ? value.toString() : null;
+	}
+	
+	
+	/**
+	 * Returns the value of the "Origin" header to echo in the response.
+	 * If the header holds just the matched origin, the common case, the 
+	 * matched origin is returned and the header is not copied.
+	 *
+	 * @param originHeader  The value of the "Origin" header.
+	 * @param matchedOrigin The matched request origin.
+	 *
+	 * @return The "Origin" header value as string.
+	 */
+	private static String originValue(final CharSequence originHeader, final String matchedOrigin) {
+		
+		if (matchedOrigin.contentEquals(originHeader))
+			return matchedOrigin;
+		
+		return originHeader.toString();
+	}
+	
+	
+	/**
+	 * The {@code Server-Timing} header value prefix.
+	 */
+	private static final String SERVER_TIMING_PREFIX = "cors;dur=";
+	
+	
+	/**
+	 * Per-thread scratch buffer for {@link #formatServerTiming}, holding
+	 * the prefix followed by room for the digits. Holds no application
+	 * classes, so it doesn't pin the web application class loader.
+	 */
+	private static final ThreadLocal<char[]> SERVER_TIMING_BUFFER = new ThreadLocal<char[]>() {
+		
+		@Override
+		protected char[] initialValue() {
+			
+			char[] buf = new char[SERVER_TIMING_PREFIX.length() + 24];
+			SERVER_TIMING_PREFIX.getChars(0, SERVER_TIMING_PREFIX.length(), buf, 0);
+			return buf;
+		}
+	};
+	
+	
+	/**
+	 * Formats a {@code Server-Timing} header value for the specified CORS
+	 * filter processing time, for example {@code cors;dur=0.042}. The 
+	 * duration is in milliseconds with microsecond precision. The digits 
+	 * are formatted in a per-thread buffer, so the returned string is the
+	 * only allocation.
+	 *
+	 * @param nanos The processing time, in nanoseconds.
+	 *
+	 * @return The {@code Server-Timing} header value.
+	 */
+	public static String formatServerTiming(final long nanos) {
+	
+		final long micros = nanos > 0 ? (nanos + 500) / 1000 : 0;
+		
+		final String prefix = SERVER_TIMING_PREFIX;
+		
+		final char[] buf = SERVER_TIMING_BUFFER.get();
+		
+		// Write the digits backwards from the end of the buffer,
+		// inserting the decimal point before the last 3 digits
+		int pos = buf.length;
+		
+		long value = micros;
+		
+		for (int i=0; i < 3; i++) {
+			buf[--pos] = (char)('0' + value % 10);
+			value /= 10;
+		}
+		
+		buf[--pos] = '.';
+		
+		do {
+			buf[--pos] = (char)('0' + value % 10);
+			value /= 10;
+		} while (value > 0);
+		
+		final int digits = buf.length - pos;
+		
+		System.arraycopy(buf, pos, buf, prefix.length(), digits);
+		
+		return new String(buf, 0, prefix.length() + digits);
+	}
+	
+	
+	/**
+	 * Matches the list of request origins against the allowed origins. This
+	 * is done by invoking the configuration helper method
+	 * {@link CORSConfiguration#isAllowedOrigin}.
+	 *
+	 * @param requestOrigins The request origins (zero or more).
+	 *
+	 * @return The first case-insensitive match, or {@code null} if nothing
+	 *         matched.
+	 */
+	protected String checkOrigin(final String[] requestOrigins) {
+	
+		for (String origin: requestOrigins) {
+		
+			if (config.isAllowedOrigin(origin))
+				return origin;
+		}
+	
+		return null;
+	}
+	
+	
+	/**
+	 * Checks a simple or actual CORS request against the access policy.
+	 * The compiled policy matches the values in place, the generic 
+	 * evaluation copies them to strings.
+	 *
+	 * @param originHeader The value of the "Origin" header, {@code null}
+	 *                     if undefined.
+	 * @param method       The HTTP method, {@code null} if undefined.
+	 *
+	 * @return The matched request origin.
+	 *
+	 * @throws CORSOriginDeniedException      If the origin is not allowed.
+	 * @throws UnsupportedHTTPMethodException If the HTTP method is not
+	 *                                        supported by the CORS policy.
+	 */
+	String checkActualRequest(final CharSequence originHeader, final CharSequence method)
+		throws CORSOriginDeniedException, 
+		       UnsupportedHTTPMethodException {
+		
+		if (compiledPolicy != null)
+			return compiledPolicy.checkActualRequest(originHeader, method);
+		
+		// Get request origins
+		
+		String[] requestOrigins = parseMultipleHeaderValues(asString(originHeader));
+		
+		
+		// Check origin against allow list
+		
+		String matchedOrigin = checkOrigin(requestOrigins);
+		
+		if (matchedOrigin == null)
+			throw new CORSOriginDeniedException("CORS origin denied", requestOrigins);
+		
+		
+		// Check method
+		
+		HTTPMethod httpMethod = null;
+		
+		try {
+			httpMethod = HTTPMethod.valueOf(asString(method));
+			
+		} catch (Exception e) {
+			// Parse exception
+			throw new UnsupportedHTTPMethodException("Unsupported HTTP method: " + method);
+		}
+		
+		if (! config.isSupportedMethod(httpMethod))
+			throw new UnsupportedHTTPMethodException("Unsupported HTTP method", httpMethod);
+		
+		return matchedOrigin;
+	}
+	
+	
+	/**
+	 * Checks a preflight CORS request against the access policy. The 
+	 * compiled policy matches the values in place, the generic evaluation
+	 * copies them to strings.
+	 *
+	 * @param originHeader         The value of the "Origin" header,
+	 *                             {@code null} if undefined.
+	 * @param requestMethodHeader  The value of the 
+	 *                             "Access-Control-Request-Method" header,
+	 *                             {@code null} if undefined.
+	 * @param requestHeadersHeader The value of the 
+	 *                             "Access-Control-Request-Headers" header,
+	 *                             {@code null} if undefined.
+	 *
+	 * @return The matched request origin.
+	 *
+	 * @throws InvalidCORSRequestException    If not a valid CORS preflight
+	 *                                        request.
+	 * @throws CORSOriginDeniedException      If the origin is not allowed.
+	 * @throws UnsupportedHTTPMethodException If the requested HTTP method
+	 *                                        is not supported by the CORS
+	 *                                        policy.
+	 * @throws UnsupportedHTTPHeaderException If the requested HTTP header
+	 *                                        is not supported by the CORS
+	 *                                        policy.
+	 */
+	String checkPreflightRequest(final CharSequence originHeader,
+	                             final CharSequence requestMethodHeader,
+	                             final CharSequence requestHeadersHeader)
+		throws InvalidCORSRequestException, 
+		       CORSOriginDeniedException, 
+		       UnsupportedHTTPMethodException, 
+		       UnsupportedHTTPHeaderException {
+		
+		if (compiledPolicy != null)
+			return compiledPolicy.checkPreflightRequest(originHeader, requestMethodHeader, requestHeadersHeader);
+		
+		// Get request origins
+		
+		String[] requestOrigins = parseMultipleHeaderValues(asString(originHeader));
+		
+		
+		// Check origin against allow list
+		
+		String matchedOrigin = checkOrigin(requestOrigins);
+		
+		if (matchedOrigin == null)
+			throw new CORSOriginDeniedException("CORS origin denied", requestOrigins);
+			
+		
+		// Parse requested method
+		// Note: method checking must be done after header parsing, see CORS spec
+		
+		if (requestMethodHeader == null)
+			throw new InvalidCORSRequestException("Invalid preflight CORS request: Missing Access-Control-Request-Method header");
+		
+		HTTPMethod requestedMethod = null;
+		
+		try {
+			requestedMethod = HTTPMethod.valueOf(requestMethodHeader.toString().toUpperCase());
+			
+		} catch (Exception e) {
+			// Parse exception
+			throw new UnsupportedHTTPMethodException("Unsupported HTTP method: " + requestMethodHeader);
+		}
+		
+		
+		// Parse custom headers
+		
+		final String[] requestHeaderValues = parseMultipleHeaderValues(asString(requestHeadersHeader));
+		
+		final HeaderFieldName[] requestHeaders = new HeaderFieldName[requestHeaderValues.length];
+		
+		for (int i=0; i<requestHeaders.length; i++) {
+		
+			try {
+				requestHeaders[i] = new HeaderFieldName(requestHeaderValues[i]);
+				
+			} catch (IllegalArgumentException e) {
+				// Invalid header name
+				throw new InvalidCORSRequestException("Invalid preflight CORS request: Bad request header value");
+			}
+		}
+		
+		
+		// Now, do method check
+		if (! config.isSupportedMethod(requestedMethod))
+			throw new UnsupportedHTTPMethodException("Unsupported HTTP method", requestedMethod);
+		
+		
+		// Author request headers check
+		
+		for (int i=0; i<requestHeaders.length; i++) {
+		
+			if (! config.supportedHeaders.contains(requestHeaders[i]))
+				throw new UnsupportedHTTPHeaderException("Unsupported HTTP request header", requestHeaders[i]);
+				
+		}
+		
+		return matchedOrigin;
+	}
+	
+	
+	/**
+	 * Handles a simple or actual CORS request.
+	 *
+	 * <p>CORS specification: <a href="http://www.w3.org/TR/access-control/#resource-requests">Simple Cross-Origin Request, Actual Request, and Redirects</a>
+	 *
+	 * @param request  The HTTP request.
+	 * @param response The HTTP response.
+	 *
+	 * @throws InvalidCORSRequestException    If not a valid CORS simple/
+	 *                                        actual request.
+	 * @throws CORSOriginDeniedException      If the origin is not allowed.
+	 * @throws UnsupportedHTTPMethodException If the requested HTTP method
+	 *                                        is not supported by the CORS
+	 *                                        policy.
+	 */
+	public void handleActualRequest(final CORSRequest request, final CORSResponse response)
+		throws InvalidCORSRequestException, 
+		       CORSOriginDeniedException, 
+		       UnsupportedHTTPMethodException {
+	
+		final Object event = CORSEvents.begin(CORSRequestType.ACTUAL);
+		
+		if (event == null) {
+			doHandleActualRequest(request, response);
+			return;
+		}
+		
+		final CharSequence origin = request.getHeader("Origin");
+		
+		try {
+			doHandleActualRequest(request, response);
+			CORSEvents.commit(event, origin, CORSEvents.ALLOWED);
+			
+		} catch (InvalidCORSRequestException e) {
+			CORSEvents.commit(event, origin, CORSEvents.INVALID);
+			throw e;
+			
+		} catch (CORSOriginDeniedException e) {
+			CORSEvents.commit(event, origin, CORSEvents.ORIGIN_DENIED);
+			throw e;
+			
+		} catch (UnsupportedHTTPMethodException e) {
+			CORSEvents.commit(event, origin, CORSEvents.METHOD_UNSUPPORTED);
+			throw e;
+		}
+	}
+	
+	
+	/**
+	 * Handles a simple or actual CORS request, see 
+	 * {@link #handleActualRequest(CORSRequest,CORSResponse)}.
+	 * Records no diagnostic events.
+	 *
+	 * @param request  The HTTP request.
+	 * @param response The HTTP response.
+	 *
+	 * @throws InvalidCORSRequestException    If not a valid CORS simple/
+	 *                                        actual request.
+	 * @throws CORSOriginDeniedException      If the origin is not allowed.
+	 * @throws UnsupportedHTTPMethodException If the requested HTTP method
+	 *                                        is not supported by the CORS
+	 *                                        policy.
+	 */
+	void doHandleActualRequest(final CORSRequest request, final CORSResponse response)
+		throws InvalidCORSRequestException, 
+		       CORSOriginDeniedException, 
+		       UnsupportedHTTPMethodException {
+	
+		if (detect(request) != CORSRequestType.ACTUAL)
+			throw new InvalidCORSRequestException("Invalid simple/actual CORS request");
+		
+		final CharSequence originHeader = request.getHeader("Origin");
+		
+		final String matchedOrigin = checkActualRequest(originHeader, request.getMethod());
+		
+		
+		// Success, append response headers
+		addActualResponseHeaders(response, originValue(originHeader, matchedOrigin), matchedOrigin);
+	}
+	
+	
+	/**
+	 * Appends the response headers for an allowed simple / actual CORS 
+	 * request.
+	 *
+	 * @param response      The HTTP response.
+	 * @param originHeader  The value of the "Origin" header.
+	 * @param matchedOrigin The matched request origin.
+	 */
+	void addActualResponseHeaders(final CORSResponse response, 
+	                              final String originHeader, 
+	                              final String matchedOrigin) {
+		
+		if (compiledPolicy != null) {
+			compiledPolicy.addActualResponseHeaders(response, originHeader, matchedOrigin);
+			return;
+		}
+		
+		response.addHeader("Access-Control-Allow-Origin", originHeader);
+		
+		if (config.supportsCredentials)
+			response.addHeader("Access-Control-Allow-Credentials", "true");
+		
+		if (! exposedHeaders.isEmpty())
+			response.addHeader("Access-Control-Expose-Headers", exposedHeaders);
+		
+		if (config.timingAllowOrigin) {
+			// Reuse the origin check result, the Resource Timing
+			// access follows the CORS policy
+			if (config.allowAnyOrigin)
+				response.addHeader("Timing-Allow-Origin", "*");
+			else
+				response.addHeader("Timing-Allow-Origin", matchedOrigin);
+		}
+	}
+	
+	
+	/**
+	 * Handles a preflight CORS request.
+	 *
+	 * <p>CORS specification: <a href="http://www.w3.org/TR/access-control/#resource-preflight-requests">Preflight Request</a>
+	 *
+	 * @param request  The HTTP request.
+	 * @param response The HTTP response.
+	 *
+	 * @throws InvalidCORSRequestException    If not a valid CORS preflight
+	 *                                        request.
+	 * @throws CORSOriginDeniedException      If the origin is not allowed.
+	 * @throws UnsupportedHTTPMethodException If the requested HTTP method
+	 *                                        is not supported by the CORS
+	 *                                        policy.
+	 * @throws UnsupportedHTTPHeaderException If the requested HTTP header
+	 *                                        is not supported by the CORS
+	 *                                        policy.
+	 */
+	public void handlePreflightRequest(final CORSRequest request, final CORSResponse response)
+		throws InvalidCORSRequestException, 
+		       CORSOriginDeniedException, 
+		       UnsupportedHTTPMethodException, 
+		       UnsupportedHTTPHeaderException {
+		
+		final Object event = CORSEvents.begin(CORSRequestType.PREFLIGHT);
+		
+		if (event == null) {
+			doHandlePreflightRequest(request, response);
+			return;
+		}
+		
+		final CharSequence origin = request.getHeader("Origin");
+		
+		try {
+			doHandlePreflightRequest(request, response);
+			CORSEvents.commit(event, origin, CORSEvents.ALLOWED);
+			
+		} catch (InvalidCORSRequestException e) {
+			CORSEvents.commit(event, origin, CORSEvents.INVALID);
+			throw e;
+			
+		} catch (CORSOriginDeniedException e) {
+			CORSEvents.commit(event, origin, CORSEvents.ORIGIN_DENIED);
+			throw e;
+			
+		} catch (UnsupportedHTTPMethodException e) {
+			CORSEvents.commit(event, origin, CORSEvents.METHOD_UNSUPPORTED);
+			throw e;
+			
+		} catch (UnsupportedHTTPHeaderException e) {
+			CORSEvents.commit(event, origin, CORSEvents.HEADER_UNSUPPORTED);
+			throw e;
+		}
+	}
+	
+	
+	/**
+	 * Handles a preflight CORS request, see 
+	 * {@link #handlePreflightRequest(CORSRequest,CORSResponse)}.
+	 * Records no diagnostic events.
+	 *
+	 * @param request  The HTTP request.
+	 * @param response The HTTP response.
+	 *
+	 * @throws InvalidCORSRequestException    If not a valid CORS preflight
+	 *                                        request.
+	 * @throws CORSOriginDeniedException      If the origin is not allowed.
+	 * @throws UnsupportedHTTPMethodException If the requested HTTP method
+	 *                                        is not supported by the CORS
+	 *                                        policy.
+	 * @throws UnsupportedHTTPHeaderException If the requested HTTP header
+	 *                                        is not supported by the CORS
+	 *                                        policy.
+	 */
+	void doHandlePreflightRequest(final CORSRequest request, final CORSResponse response)
+		throws InvalidCORSRequestException, 
+		       CORSOriginDeniedException, 
+		       UnsupportedHTTPMethodException, 
+		       UnsupportedHTTPHeaderException {
+		
+		if (detect(request) != CORSRequestType.PREFLIGHT)
+			throw new InvalidCORSRequestException("Invalid preflight CORS request");
+		
+		final CharSequence originHeader = request.getHeader("Origin");
+		
+		final String matchedOrigin = checkPreflightRequest(originHeader,
+		                                                   request.getHeader("Access-Control-Request-Method"),
+		                                                   request.getHeader("Access-Control-Request-Headers"));
+		
+		// Success, append response headers
+		addPreflightResponseHeaders(response, originValue(originHeader, matchedOrigin));
+	}
+	
+	
+	/**
+	 * Appends the response headers for an allowed preflight CORS request.
+	 *
+	 * @param response     The HTTP response.
+	 * @param originHeader The value of the "Origin" header.
+	 */
+	void addPreflightResponseHeaders(final CORSResponse response, final String originHeader) {
+		
+		if (compiledPolicy != null) {
+			compiledPolicy.addPreflightResponseHeaders(response, originHeader);
+			return;
+		}
+		
+		if (config.supportsCredentials) {
+			response.addHeader("Access-Control-Allow-Origin", originHeader);
+			response.addHeader("Access-Control-Allow-Credentials", "true");
+		}
+		else {
+			if (config.allowAnyOrigin)
+				response.addHeader("Access-Control-Allow-Origin", "*");
+			else
+				response.addHeader("Access-Control-Allow-Origin", originHeader);
+		}
+		
+		if (config.maxAge > 0)
+			response.addHeader("Access-Control-Max-Age", Integer.toString(config.maxAge));
+		
+		response.addHeader("Access-Control-Allow-Methods", supportedMethods);
+		
+		if (! supportedHeaders.isEmpty())
+			response.addHeader("Access-Control-Allow-Headers", supportedHeaders);
+	}
+}
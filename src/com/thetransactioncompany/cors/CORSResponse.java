@@ -0,0 +1,23 @@
+package com.thetransactioncompany.cors;
+
+
+/**
+ * Minimal write-only view of an HTTP response, as required by the CORS 
+ * processing logic. Lets native (non-servlet) server handlers invoke the
+ * {@link CORSRequestProcessor} directly, without building servlet facades.
+ *
+ * @author Vladimir Dzhuvinov
+ * @version $version$ ($version-date$)
+ */
+public interface CORSResponse {
+
+
+	/**
+	 * Adds a response header. Must not replace existing headers with the
+	 * same name.
+	 *
+	 * @param name  The header name.
+	 * @param value The header value.
+	 */
+	public void addHeader(final String name, final String value);
+}
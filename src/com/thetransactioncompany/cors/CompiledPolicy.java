@@ -0,0 +1,904 @@
+package com.thetransactioncompany.cors;
+
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.regex.Pattern;
+
+
+/**
+ * CORS access policy compiled for a particular {@link CORSConfiguration}.
+ * Enabled by the {@code cors.compilePolicy} configuration property, the
+ * generic policy evaluation in {@link CORSRequestProcessor} remains the
+ * default.
+ *
+ * <p>The configuration flags are resolved once, at compile time:
+ *
+ * <ul>
+ *     <li>The allowed origins and the supported header names are placed in
+ *         open-addressing lookup tables (scanned linearly if small), the
+ *         supported methods in a table indexed by ordinal.
+ *     <li>The constant response headers (credentials, exposed headers, max
+ *         age, allowed methods and headers) are pre-computed as name /
+ *         value arrays, so the per-request code doesn't test the
+ *         configuration flags.
+ *     <li>The {@code Origin}, method and requested header values are
+ *         matched in place, as regions of the {@code CharSequence}
+ *         supplied by the {@link CORSRequest}, without splitting or
+ *         copying them. An allowed listed origin is returned as the
+ *         configured string, and request header names are matched
+ *         without instantiating {@link HeaderFieldName}s. Values are
+ *         copied only to report a denial.
+ * </ul>
+ *
+ * <p>The outcome of each check, including the exception thrown on a
+ * denial, is the same as with the generic policy evaluation. Note that the
+ * {@link CORSRequestProcessor#checkOrigin} hook is not consulted.
+ *
+ * <p>Instances are immutable and may be shared between threads.
+ *
+ * @author Vladimir Dzhuvinov
+ * @version $version$ ($version-date$)
+ */
+final class CompiledPolicy {
+
+
+	/**
+	 * Splits multi-valued headers, same as
+	 * {@code CORSRequestProcessor.parseMultipleHeaderValues}.
+	 */
+	private static final Pattern SEPARATOR = Pattern.compile("\\s*,\\s*|\\s+");
+
+
+	/**
+	 * The HTTP methods, to parse method names without copying them.
+	 */
+	private static final HTTPMethod[] METHODS = HTTPMethod.values();
+
+
+	/**
+	 * Origin check mode: any origin allowed.
+	 */
+	private static final int ANY_ORIGIN = 0;
+
+
+	/**
+	 * Origin check mode: origin looked up in {@link #allowedOrigins}.
+	 */
+	private static final int LISTED_ORIGIN = 1;
+
+
+	/**
+	 * Origin check mode: generic check, used for suffix matching.
+	 */
+	private static final int GENERIC_ORIGIN = 2;
+
+
+	/**
+	 * Origin check mode: origin looked up in the persistent allowed
+	 * origins set of the configuration, which is shared between the
+	 * configurations produced by a {@link PolicyEditor}.
+	 */
+	private static final int SHARED_ORIGIN = 3;
+
+
+	/**
+	 * Timing-Allow-Origin mode: header not set.
+	 */
+	private static final int NO_TIMING = 0;
+
+
+	/**
+	 * Timing-Allow-Origin mode: header set to {@code *}.
+	 */
+	private static final int ANY_TIMING = 1;
+
+
+	/**
+	 * Timing-Allow-Origin mode: header set to the matched origin.
+	 */
+	private static final int MATCHED_TIMING = 2;
+
+
+	/**
+	 * Lookup table of strings, scanned linearly if small, else hashed
+	 * with open addressing. May be case-insensitive for US-ASCII letters.
+	 */
+	static final class StringTable {
+
+
+		/**
+		 * Tables up to this size are scanned linearly.
+		 */
+		static final int LINEAR_MAX = 4;
+
+
+		/**
+		 * The table slots, {@code null} if empty.
+		 */
+		private final String[] slots;
+
+
+		/**
+		 * The slot index mask, zero for a linear table.
+		 */
+		private final int mask;
+
+
+		/**
+		 * {@code true} for US-ASCII case-insensitive matching.
+		 */
+		private final boolean ignoreCase;
+
+
+		/**
+		 * Creates a new string table.
+		 *
+		 * @param items      The strings.
+		 * @param ignoreCase {@code true} for US-ASCII case-insensitive
+		 *                   matching.
+		 */
+		StringTable(final Collection<String> items, final boolean ignoreCase) {
+
+			this.ignoreCase = ignoreCase;
+
+			if (items.size() <= LINEAR_MAX) {
+
+				slots = items.toArray(new String[items.size()]);
+				mask = 0;
+				return;
+			}
+
+			// Load factor at most 1/2
+			int size = Integer.highestOneBit(items.size()) * 4;
+
+			slots = new String[size];
+			mask = size - 1;
+
+			for (String item: items) {
+
+				int i = hash(item, 0, item.length()) & mask;
+
+				while (slots[i] != null) {
+
+					if (matches(slots[i], item, 0, item.length()))
+						break;
+
+					i = (i + 1) & mask;
+				}
+
+				slots[i] = item;
+			}
+		}
+
+
+		/**
+		 * Hashes the specified character region, consistent with
+		 * {@link #matches}.
+		 *
+		 * @param s     The character sequence.
+		 * @param start The region start index.
+		 * @param end   The region end index, exclusive.
+		 *
+		 * @return The hash.
+		 */
+		private int hash(final CharSequence s, final int start, final int end) {
+
+			int h = 0;
+
+			if (ignoreCase) {
+
+				for (int i=start; i < end; i++)
+					h = 31 * h + toLowerCase(s.charAt(i));
+			}
+			else {
+				for (int i=start; i < end; i++)
+					h = 31 * h + s.charAt(i);
+			}
+
+			return h ^ (h >>> 16);
+		}
+
+
+		/**
+		 * Matches a table string against a character region.
+		 *
+		 * @param slot  The table string.
+		 * @param s     The character sequence.
+		 * @param start The region start index.
+		 * @param end   The region end index, exclusive.
+		 *
+		 * @return {@code true} if they match.
+		 */
+		private boolean matches(final String slot, final CharSequence s, final int start, final int end) {
+
+			final int len = slot.length();
+
+			if (len != end - start)
+				return false;
+
+			if (! ignoreCase) {
+
+				for (int i=0; i < len; i++) {
+
+					if (slot.charAt(i) != s.charAt(start + i))
+						return false;
+				}
+
+				return true;
+			}
+
+			for (int i=0; i < len; i++) {
+
+				if (toLowerCase(slot.charAt(i)) != toLowerCase(s.charAt(start + i)))
+					return false;
+			}
+
+			return true;
+		}
+
+
+		/**
+		 * Lowers the case of US-ASCII letters only, unlike
+		 * {@code Character.toLowerCase}.
+		 *
+		 * @param c The character.
+		 *
+		 * @return The character, lowered if an US-ASCII letter.
+		 */
+		private static char toLowerCase(final char c) {
+
+			return c >= 'A' && c <= 'Z' ? (char)(c + ('a' - 'A')) : c;
+		}
+
+
+		/**
+		 * Checks if the table contains the specified string.
+		 *
+		 * @param s The string, must not be {@code null}.
+		 *
+		 * @return {@code true} if found.
+		 */
+		boolean contains(final String s) {
+
+			return get(s, 0, s.length()) != null;
+		}
+
+
+		/**
+		 * Looks up the specified character region, without copying it.
+		 *
+		 * @param s     The character sequence, must not be
+		 *              {@code null}.
+		 * @param start The region start index.
+		 * @param end   The region end index, exclusive.
+		 *
+		 * @return The matching table string, {@code null} if not found.
+		 */
+		String get(final CharSequence s, final int start, final int end) {
+
+			if (mask == 0) {
+
+				for (String slot: slots) {
+
+					if (matches(slot, s, start, end))
+						return slot;
+				}
+
+				return null;
+			}
+
+			int i = hash(s, start, end) & mask;
+
+			String slot;
+
+			while ((slot = slots[i]) != null) {
+
+				if (matches(slot, s, start, end))
+					return slot;
+
+				i = (i + 1) & mask;
+			}
+
+			return null;
+		}
+	}
+
+
+	/**
+	 * The CORS configuration.
+	 */
+	private final CORSConfiguration config;
+
+
+	/**
+	 * The origin check mode.
+	 */
+	private final int originMode;
+
+
+	/**
+	 * The allowed origins, for {@link #LISTED_ORIGIN}, {@code null}
+	 * otherwise.
+	 */
+	private final StringTable allowedOrigins;
+
+
+	/**
+	 * The supported methods, indexed by ordinal.
+	 */
+	private final boolean[] supportedMethods;
+
+
+	/**
+	 * The supported header names, case-insensitive.
+	 */
+	private final StringTable supportedHeaders;
+
+
+	/**
+	 * The constant actual request response header names, after
+	 * Access-Control-Allow-Origin.
+	 */
+	private final String[] actualHeaderNames;
+
+
+	/**
+	 * The constant actual request response header values.
+	 */
+	private final String[] actualHeaderValues;
+
+
+	/**
+	 * The Timing-Allow-Origin mode.
+	 */
+	private final int timingMode;
+
+
+	/**
+	 * The constant preflight Access-Control-Allow-Origin value,
+	 * {@code null} if the request origin is echoed.
+	 */
+	private final String preflightAllowOrigin;
+
+
+	/**
+	 * The constant preflight response header names, after
+	 * Access-Control-Allow-Origin.
+	 */
+	private final String[] preflightHeaderNames;
+
+
+	/**
+	 * The constant preflight response header values.
+	 */
+	private final String[] preflightHeaderValues;
+
+
+	/**
+	 * Compiles the access policy of the specified CORS configuration.
+	 *
+	 * @param config           The CORS configuration.
+	 * @param supportedMethods The serialised supported methods.
+	 * @param supportedHeaders The serialised supported headers, empty if
+	 *                         none.
+	 * @param exposedHeaders   The serialised exposed headers, empty if
+	 *                         none.
+	 */
+	CompiledPolicy(final CORSConfiguration config,
+	               final String supportedMethods,
+	               final String supportedHeaders,
+	               final String exposedHeaders) {
+
+		this.config = config;
+
+		if (config.allowAnyOrigin)
+			originMode = ANY_ORIGIN;
+		else if (config.allowOriginSuffixMatching)
+			originMode = GENERIC_ORIGIN;
+		else if (config.allowedOrigins instanceof PersistentStringSet)
+			originMode = SHARED_ORIGIN;
+		else
+			originMode = LISTED_ORIGIN;
+
+		// Not rebuilt on each runtime change of a large origin set
+		allowedOrigins = originMode == LISTED_ORIGIN ? new StringTable(config.allowedOrigins, false) : null;
+
+		this.supportedMethods = new boolean[HTTPMethod.values().length];
+
+		for (HTTPMethod method: config.supportedMethods)
+			this.supportedMethods[method.ordinal()] = true;
+
+		List<String> headerNames = new ArrayList<String>();
+
+		for (HeaderFieldName name: config.supportedHeaders)
+			headerNames.add(name.toString());
+
+		this.supportedHeaders = new StringTable(headerNames, true);
+
+
+		// Actual request response headers
+		Headers actual = new Headers();
+
+		if (config.supportsCredentials)
+			actual.add("Access-Control-Allow-Credentials", "true");
+
+		if (! exposedHeaders.isEmpty())
+			actual.add("Access-Control-Expose-Headers", exposedHeaders);
+
+		actualHeaderNames = actual.names();
+		actualHeaderValues = actual.values();
+
+		if (! config.timingAllowOrigin)
+			timingMode = NO_TIMING;
+		else if (config.allowAnyOrigin)
+			timingMode = ANY_TIMING;
+		else
+			timingMode = MATCHED_TIMING;
+
+
+		// Preflight response headers
+		Headers preflight = new Headers();
+
+		if (config.supportsCredentials) {
+			preflightAllowOrigin = null;
+			preflight.add("Access-Control-Allow-Credentials", "true");
+		}
+		else {
+			preflightAllowOrigin = config.allowAnyOrigin ? "*" : null;
+		}
+
+		if (config.maxAge > 0)
+			preflight.add("Access-Control-Max-Age", Integer.toString(config.maxAge));
+
+		preflight.add("Access-Control-Allow-Methods", supportedMethods);
+
+		if (! supportedHeaders.isEmpty())
+			preflight.add("Access-Control-Allow-Headers", supportedHeaders);
+
+		preflightHeaderNames = preflight.names();
+		preflightHeaderValues = preflight.values();
+	}
+
+
+	/**
+	 * Ordered list of response header name / value pairs, for compiling.
+	 */
+	private static final class Headers {
+
+
+		private final List<String> names = new ArrayList<String>();
+
+
+		private final List<String> values = new ArrayList<String>();
+
+
+		void add(final String name, final String value) {
+
+			names.add(name);
+			values.add(value);
+		}
+
+
+		String[] names() {
+
+			return names.toArray(new String[names.size()]);
+		}
+
+
+		String[] values() {
+
+			return values.toArray(new String[values.size()]);
+		}
+	}
+
+
+	/**
+	 * Parses a header value consisting of zero or more space/comma/
+	 * space+comma separated strings.
+	 *
+	 * @param headerValue The header value, may be {@code null}.
+	 *
+	 * @return The parsed items, empty if none.
+	 */
+	private static String[] parseMultipleHeaderValues(final String headerValue) {
+
+		if (headerValue == null)
+			return new String[0];
+
+		String trimmedHeaderValue = headerValue.trim();
+
+		if (trimmedHeaderValue.isEmpty())
+			return new String[0];
+
+		return SEPARATOR.split(trimmedHeaderValue);
+	}
+
+
+	/**
+	 * Checks if the specified character is white space, as matched by
+	 * {@code \s} in {@link #SEPARATOR}.
+	 *
+	 * @param c The character.
+	 *
+	 * @return {@code true} if white space.
+	 */
+	private static boolean isWhitespace(final char c) {
+
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+	}
+
+
+	/**
+	 * Returns the start index of the first item in a multi-valued header
+	 * value, after trimming, as {@link #parseMultipleHeaderValues}.
+	 *
+	 * @param headerValue The header value.
+	 *
+	 * @return The start index of the first item.
+	 */
+	private static int itemsStart(final CharSequence headerValue) {
+
+		int pos = 0;
+
+		while (pos < headerValue.length() && headerValue.charAt(pos) <= ' ')
+			pos++;
+
+		return pos;
+	}
+
+
+	/**
+	 * Returns the end index of the last non-empty item in a multi-valued
+	 * header value, after trimming. Trailing empty items are dropped, as
+	 * by {@link #parseMultipleHeaderValues}.
+	 *
+	 * @param headerValue The header value.
+	 * @param start       The start index of the first item.
+	 *
+	 * @return The end index of the last non-empty item, exclusive.
+	 */
+	private static int itemsEnd(final CharSequence headerValue, final int start) {
+
+		int end = headerValue.length();
+
+		while (end > start && headerValue.charAt(end - 1) <= ' ')
+			end--;
+
+		while (end > start && (headerValue.charAt(end - 1) == ',' || isWhitespace(headerValue.charAt(end - 1))))
+			end--;
+
+		return end;
+	}
+
+
+	/**
+	 * Returns the end index of the item starting at the specified index.
+	 *
+	 * @param headerValue The header value.
+	 * @param pos         The item start index.
+	 * @param end         The end index of the last item.
+	 *
+	 * @return The item end index, exclusive.
+	 */
+	private static int itemEnd(final CharSequence headerValue, int pos, final int end) {
+
+		while (pos < end && headerValue.charAt(pos) != ',' && ! isWhitespace(headerValue.charAt(pos)))
+			pos++;
+
+		return pos;
+	}
+
+
+	/**
+	 * Skips the separator following an item.
+	 *
+	 * @param headerValue The header value.
+	 * @param pos         The item end index.
+	 * @param end         The end index of the last item.
+	 *
+	 * @return The start index of the next item.
+	 */
+	private static int nextItem(final CharSequence headerValue, int pos, final int end) {
+
+		while (pos < end && isWhitespace(headerValue.charAt(pos)))
+			pos++;
+
+		if (pos < end && headerValue.charAt(pos) == ',') {
+
+			pos++;
+
+			while (pos < end && isWhitespace(headerValue.charAt(pos)))
+				pos++;
+		}
+
+		return pos;
+	}
+
+
+	/**
+	 * Parses an HTTP method name without copying it.
+	 *
+	 * @param method     The method name, {@code null} if undefined.
+	 * @param ignoreCase {@code true} to match the name case-insensitively.
+	 *
+	 * @return The HTTP method, {@code null} if not recognised.
+	 */
+	private static HTTPMethod parseMethod(final CharSequence method, final boolean ignoreCase) {
+
+		if (method == null)
+			return null;
+
+		final int len = method.length();
+
+		for (HTTPMethod candidate: METHODS) {
+
+			final String name = candidate.name();
+
+			if (name.length() != len)
+				continue;
+
+			int i = 0;
+
+			while (i < len) {
+
+				final char c = ignoreCase ? Character.toUpperCase(method.charAt(i)) : method.charAt(i);
+
+				if (c != name.charAt(i))
+					break;
+
+				i++;
+			}
+
+			if (i == len)
+				return candidate;
+		}
+
+		return null;
+	}
+
+
+	/**
+	 * Returns the string value of a header, copying it only if it is not
+	 * a string already.
+	 *
+	 * @param value The value, may be {@code null}.
+	 *
+	 * @return The string value, {@code null} if the input was
+	 *         {@code null}.
+	 */
+	private static String asString(final CharSequence value) {
+
+		return value != null ? value.toString() : null;
+	}
+
+
+	/**
+	 * Checks if the specified origin is allowed.
+	 *
+	 * @param originHeader The value of the "Origin" header.
+	 * @param start        The origin start index.
+	 * @param end          The origin end index, exclusive.
+	 *
+	 * @return The origin as string if allowed, else {@code null}.
+	 */
+	private String matchOrigin(final CharSequence originHeader, final int start, final int end) {
+
+		if (originMode == LISTED_ORIGIN)
+			return allowedOrigins.get(originHeader, start, end);
+
+		// Returns the header itself if a string holding just the origin
+		final String origin = originHeader.subSequence(start, end).toString();
+
+		switch (originMode) {
+
+			case ANY_ORIGIN:
+				return origin;
+
+			case SHARED_ORIGIN:
+				return config.allowedOrigins.contains(origin) ? origin : null;
+
+			default:
+				return config.isAllowedOrigin(origin) ? origin : null;
+		}
+	}
+
+
+	/**
+	 * Matches the "Origin" header value against the allowed origins.
+	 *
+	 * @param originHeader The value of the "Origin" header, {@code null}
+	 *                     if undefined.
+	 *
+	 * @return The matched request origin.
+	 *
+	 * @throws CORSOriginDeniedException If the origin is not allowed.
+	 */
+	private String checkOrigin(final CharSequence originHeader)
+		throws CORSOriginDeniedException {
+
+		if (originHeader != null) {
+
+			final int start = itemsStart(originHeader);
+			final int end = itemsEnd(originHeader, start);
+
+			int pos = start;
+
+			while (pos < end) {
+
+				final int itemEnd = itemEnd(originHeader, pos, end);
+
+				final String origin = matchOrigin(originHeader, pos, itemEnd);
+
+				if (origin != null)
+					return origin;
+
+				pos = nextItem(originHeader, itemEnd, end);
+			}
+		}
+
+		throw new CORSOriginDeniedException("CORS origin denied", parseMultipleHeaderValues(asString(originHeader)));
+	}
+
+
+	/**
+	 * Checks a simple or actual CORS request against the access policy,
+	 * see {@link CORSRequestProcessor#checkActualRequest}.
+	 *
+	 * @param originHeader The value of the "Origin" header, {@code null}
+	 *                     if undefined.
+	 * @param method       The HTTP method, {@code null} if undefined.
+	 *
+	 * @return The matched request origin.
+	 *
+	 * @throws CORSOriginDeniedException      If the origin is not allowed.
+	 * @throws UnsupportedHTTPMethodException If the HTTP method is not
+	 *                                        supported by the CORS policy.
+	 */
+	String checkActualRequest(final CharSequence originHeader, final CharSequence method)
+		throws CORSOriginDeniedException,
+		       UnsupportedHTTPMethodException {
+
+		final String matchedOrigin = checkOrigin(originHeader);
+
+		final HTTPMethod httpMethod = parseMethod(method, false);
+
+		if (httpMethod == null)
+			throw new UnsupportedHTTPMethodException("Unsupported HTTP method: " + method);
+
+		if (! supportedMethods[httpMethod.ordinal()])
+			throw new UnsupportedHTTPMethodException("Unsupported HTTP method", httpMethod);
+
+		return matchedOrigin;
+	}
+
+
+	/**
+	 * Checks a preflight CORS request against the access policy, see
+	 * {@link CORSRequestProcessor#checkPreflightRequest}.
+	 *
+	 * @param originHeader         The value of the "Origin" header,
+	 *                             {@code null} if undefined.
+	 * @param requestMethodHeader  The value of the
+	 *                             "Access-Control-Request-Method" header,
+	 *                             {@code null} if undefined.
+	 * @param requestHeadersHeader The value of the
+	 *                             "Access-Control-Request-Headers" header,
+	 *                             {@code null} if undefined.
+	 *
+	 * @return The matched request origin.
+	 *
+	 * @throws InvalidCORSRequestException    If not a valid CORS preflight
+	 *                                        request.
+	 * @throws CORSOriginDeniedException      If the origin is not allowed.
+	 * @throws UnsupportedHTTPMethodException If the requested HTTP method
+	 *                                        is not supported by the CORS
+	 *                                        policy.
+	 * @throws UnsupportedHTTPHeaderException If the requested HTTP header
+	 *                                        is not supported by the CORS
+	 *                                        policy.
+	 */
+	String checkPreflightRequest(final CharSequence originHeader,
+	                             final CharSequence requestMethodHeader,
+	                             final CharSequence requestHeadersHeader)
+		throws InvalidCORSRequestException,
+		       CORSOriginDeniedException,
+		       UnsupportedHTTPMethodException,
+		       UnsupportedHTTPHeaderException {
+
+		final String matchedOrigin = checkOrigin(originHeader);
+
+		if (requestMethodHeader == null)
+			throw new InvalidCORSRequestException("Invalid preflight CORS request: Missing Access-Control-Request-Method header");
+
+		final HTTPMethod requestedMethod = parseMethod(requestMethodHeader, true);
+
+		if (requestedMethod == null)
+			throw new UnsupportedHTTPMethodException("Unsupported HTTP method: " + requestMethodHeader);
+
+
+		// Validate all header names before the method check, as the
+		// generic evaluation does; the supported ones are valid
+		HeaderFieldName unsupportedHeader = null;
+
+		if (requestHeadersHeader != null) {
+
+			final int start = itemsStart(requestHeadersHeader);
+			final int end = itemsEnd(requestHeadersHeader, start);
+
+			int pos = start;
+
+			while (pos < end) {
+
+				final int itemEnd = itemEnd(requestHeadersHeader, pos, end);
+
+				if (supportedHeaders.get(requestHeadersHeader, pos, itemEnd) == null) {
+
+					HeaderFieldName header;
+
+					try {
+						header = new HeaderFieldName(requestHeadersHeader.subSequence(pos, itemEnd).toString());
+
+					} catch (IllegalArgumentException e) {
+						// Invalid header name
+						throw new InvalidCORSRequestException("Invalid preflight CORS request: Bad request header value");
+					}
+
+					if (unsupportedHeader == null && ! config.supportedHeaders.contains(header))
+						unsupportedHeader = header;
+				}
+
+				pos = nextItem(requestHeadersHeader, itemEnd, end);
+			}
+		}
+
+		if (! supportedMethods[requestedMethod.ordinal()])
+			throw new UnsupportedHTTPMethodException("Unsupported HTTP method", requestedMethod);
+
+		if (unsupportedHeader != null)
+			throw new UnsupportedHTTPHeaderException("Unsupported HTTP request header", unsupportedHeader);
+
+		return matchedOrigin;
+	}
+
+
+	/**
+	 * Adds the response headers for an allowed simple / actual CORS
+	 * request.
+	 *
+	 * @param response      The response.
+	 * @param originHeader  The value of the "Origin" header.
+	 * @param matchedOrigin The matched request origin.
+	 */
+	void addActualResponseHeaders(final CORSResponse response,
+	                              final String originHeader,
+	                              final String matchedOrigin) {
+
+		response.addHeader("Access-Control-Allow-Origin", originHeader);
+
+		for (int i=0; i < actualHeaderNames.length; i++)
+			response.addHeader(actualHeaderNames[i], actualHeaderValues[i]);
+
+		if (timingMode == ANY_TIMING)
+			response.addHeader("Timing-Allow-Origin", "*");
+		else if (timingMode == MATCHED_TIMING)
+			response.addHeader("Timing-Allow-Origin", matchedOrigin);
+	}
+
+
+	/**
+	 * Adds the response headers for an allowed preflight CORS request.
+	 *
+	 * @param response     The response.
+	 * @param originHeader The value of the "Origin" header.
+	 */
+	void addPreflightResponseHeaders(final CORSResponse response, final String originHeader) {
+
+		response.addHeader("Access-Control-Allow-Origin",
+		                   preflightAllowOrigin != null ? preflightAllowOrigin : originHeader);
+
+		for (int i=0; i < preflightHeaderNames.length; i++)
+			response.addHeader(preflightHeaderNames[i], preflightHeaderValues[i]);
+	}
+}
@@ -0,0 +1,369 @@
+package com.thetransactioncompany.cors;
+
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Tracks the most frequent CORS request keys (origin, and for preflight
+ * requests the requested method and headers) seen by a filter, and saves
+ * them periodically to a local file. On the next filter start the keys are
+ * loaded and replayed by the {@link PolicyWarmup} against the current
+ * configuration, so the warm-up follows the real traffic. The replay only
+ * takes place if the warm-up is enabled with {@code cors.warmupIterations}.
+ *
+ * <p>Only the request keys are saved, never the policy decisions, so a
+ * changed configuration can't be bypassed by a stale file.
+ *
+ * <p>Requests are sampled, one in {@link #SAMPLE_RATE}, to keep the cost on
+ * the request path low. Only allowed requests are to be recorded, so that
+ * clients can't fill the file with made-up origins; keys longer than
+ * {@link #MAX_KEY_LENGTH} or with an origin which doesn't parse are
+ * skipped. At most {@link #MAX_KEYS} distinct keys are tracked; the counts
+ * are halved after each save so that new hot keys can replace old ones.
+ *
+ * <p>The file uses the {@link RequestCapture} line format, without the
+ * request URI, hottest first. It is replaced atomically where the file
+ * system supports it.
+ *
+ * <p>Filter init parameters:
+ *
+ * <ul>
+ *     <li>cors.hotRequestFile {file-path} defaults to none (disabled).
+ *     <li>cors.hotRequestSaveSeconds {int} defaults to {@code 60}.
+ * </ul>
+ *
+ * @author Vladimir Dzhuvinov
+ * @version $version$ ($version-date$)
+ */
+public class HotRequestTracker {
+
+
+	/**
+	 * One in this many requests is sampled.
+	 */
+	public static final int SAMPLE_RATE = 16;
+
+
+	/**
+	 * The maximum number of distinct tracked keys.
+	 */
+	public static final int MAX_KEYS = 4096;
+
+
+	/**
+	 * The maximum number of keys to save.
+	 */
+	public static final int MAX_SAVED_KEYS = 1024;
+
+
+	/**
+	 * The maximum length of a tracked key, in characters.
+	 */
+	public static final int MAX_KEY_LENGTH = 256;
+
+
+	/**
+	 * The key counts.
+	 */
+	private final ConcurrentHashMap<String,AtomicLong> counts = new ConcurrentHashMap<String,AtomicLong>();
+
+
+	/**
+	 * The file to save to.
+	 */
+	private final File file;
+
+
+	/**
+	 * The periodic save thread, {@code null} if none.
+	 */
+	private final Thread saver;
+
+
+	/**
+	 * Set to stop the save thread.
+	 */
+	private volatile boolean stopped = false;
+
+
+	/**
+	 * Creates a new hot request tracker.
+	 *
+	 * @param file           The file to save the hot request keys to.
+	 * @param intervalMillis The save interval in milliseconds, zero to
+	 *                       save only on {@link #stop}.
+	 */
+	public HotRequestTracker(final File file, final long intervalMillis) {
+
+		this.file = file;
+
+		if (intervalMillis <= 0) {
+			saver = null;
+			return;
+		}
+
+		saver = new Thread("cors-hot-request-save") {
+
+			@Override
+			public void run() {
+
+				while (! stopped) {
+
+					try {
+						Thread.sleep(intervalMillis);
+
+					} catch (InterruptedException e) {
+						return;
+					}
+
+					if (stopped)
+						return;
+
+					try {
+						save();
+
+					} catch (IOException e) {
+						// try again on the next interval
+					}
+				}
+			}
+		};
+
+		saver.setDaemon(true);
+		saver.start();
+	}
+
+
+	/**
+	 * Returns {@code true} if the current request should be sampled.
+	 *
+	 * @return {@code true} to record the request.
+	 */
+	public boolean sample() {
+
+		return ThreadLocalRandom.current().nextInt(SAMPLE_RATE) == 0;
+	}
+
+
+	/**
+	 * Records a sampled and allowed CORS request. Requests with a key
+	 * longer than {@link #MAX_KEY_LENGTH} or an invalid origin are
+	 * ignored.
+	 *
+	 * @param method         The HTTP method.
+	 * @param origin         The "Origin" header value.
+	 * @param requestMethod  The "Access-Control-Request-Method" header
+	 *                       value, {@code null} if none.
+	 * @param requestHeaders The "Access-Control-Request-Headers" header
+	 *                       value, {@code null} if none.
+	 */
+	public void record(final String method,
+	                   final String origin,
+	                   final String requestMethod,
+	                   final String requestHeaders) {
+
+		String key = RequestCapture.format(new RequestCapture.Record(method, origin, requestMethod, requestHeaders, null));
+
+		if (key.length() > MAX_KEY_LENGTH)
+			return;
+
+		try {
+			new Origin(origin);
+
+		} catch (OriginException e) {
+			return;
+		}
+
+		AtomicLong count = counts.get(key);
+
+		if (count == null) {
+
+			if (counts.size() >= MAX_KEYS)
+				return;
+
+			count = new AtomicLong();
+
+			AtomicLong existing = counts.putIfAbsent(key, count);
+
+			if (existing != null)
+				count = existing;
+		}
+
+		count.incrementAndGet();
+	}
+
+
+	/**
+	 * Returns the hottest request keys.
+	 *
+	 * @param max The maximum number of keys.
+	 *
+	 * @return The keys, hottest first.
+	 */
+	public List<String> getHotKeys(final int max) {
+
+		List<Map.Entry<String,Long>> entries = new ArrayList<Map.Entry<String,Long>>(counts.size());
+
+		for (Map.Entry<String,AtomicLong> en: counts.entrySet())
+			entries.add(new AbstractMap.SimpleEntry<String,Long>(en.getKey(), en.getValue().get()));
+
+		Collections.sort(entries, new Comparator<Map.Entry<String,Long>>() {
+
+			@Override
+			public int compare(final Map.Entry<String,Long> a, final Map.Entry<String,Long> b) {
+
+				return b.getValue().compareTo(a.getValue());
+			}
+		});
+
+		List<String> keys = new ArrayList<String>(Math.min(max, entries.size()));
+
+		for (int i=0; i < entries.size() && i < max; i++)
+			keys.add(entries.get(i).getKey());
+
+		return keys;
+	}
+
+
+	/**
+	 * Saves the hottest request keys to the file, then halves the counts.
+	 * Nothing is saved if no requests were recorded.
+	 *
+	 * @throws IOException If the file couldn't be written.
+	 */
+	public synchronized void save()
+		throws IOException {
+
+		List<String> keys = getHotKeys(MAX_SAVED_KEYS);
+
+		// Keep the previous file
+		if (keys.isEmpty())
+			return;
+
+		File tmp = new File(file.getPath() + ".tmp");
+
+		Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8));
+
+		try {
+			for (String key: keys) {
+				writer.write(key);
+				writer.write('\n');
+			}
+
+		} finally {
+			writer.close();
+		}
+
+		try {
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		} catch (IOException e) {
+
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+
+		// Decay
+		Iterator<AtomicLong> it = counts.values().iterator();
+
+		while (it.hasNext()) {
+
+			AtomicLong count = it.next();
+
+			if (count.get() <= 1)
+				it.remove();
+			else
+				count.set(count.get() / 2);
+		}
+	}
+
+
+	/**
+	 * Stops the periodic saving and saves the hot request keys a last
+	 * time.
+	 *
+	 * @throws IOException If the file couldn't be written.
+	 */
+	public void stop()
+		throws IOException {
+
+		stopped = true;
+
+		if (saver != null)
+			saver.interrupt();
+
+		save();
+	}
+
+
+	/**
+	 * Loads saved hot request keys. Malformed lines and lines longer than
+	 * {@link #MAX_KEY_LENGTH} are skipped.
+	 *
+	 * @param file The file.
+	 *
+	 * @return The saved requests, hottest first, empty if the file
+	 *         doesn't exist.
+	 *
+	 * @throws IOException If the file couldn't be read.
+	 */
+	public static List<RequestCapture.Record> load(final File file)
+		throws IOException {
+
+		List<RequestCapture.Record> records = new ArrayList<RequestCapture.Record>();
+
+		BufferedReader reader;
+
+		try {
+			reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+
+		} catch (FileNotFoundException e) {
+
+			return records;
+		}
+
+		try {
+			String line;
+
+			while ((line = reader.readLine()) != null && records.size() < MAX_SAVED_KEYS) {
+
+				if (line.trim().isEmpty() || line.length() > MAX_KEY_LENGTH)
+					continue;
+
+				try {
+					records.add(RequestCapture.parse(line));
+
+				} catch (IllegalArgumentException e) {
+					// skip
+				}
+			}
+
+		} finally {
+			reader.close();
+		}
+
+		return records;
+	}
+}
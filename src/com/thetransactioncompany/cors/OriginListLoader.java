@@ -0,0 +1,400 @@
+package com.thetransactioncompany.cors;
+
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+
+/**
+ * Loads large allowed origin lists, for the {@code cors.allowOriginFile}
+ * configuration property.
+ *
+ * <p>The origins are read line by line, one or more per line separated by
+ * space and / or comma. Blank lines and lines starting with {@code #} are
+ * ignored. The origins are validated and converted to canonical form in
+ * batches which are processed in parallel on a fork-join pool, while the
+ * input is still being read. Only a bounded number of batches is held in
+ * memory at a time. Duplicate origins, also equivalent ones such as
+ * {@code HTTP://Example.com} and {@code http://example.com}, are merged.
+ *
+ * <p>The invalid origins are reported together, with their line numbers,
+ * rather than only the first one. The report lists up to
+ * {@link #MAX_REPORTED_ERRORS} of them, followed by the total count.
+ *
+ * <p>{@link #loadFile(File)} runs on a fork-join pool shared by all loads,
+ * created on first use; its worker threads are daemons and exit when
+ * idle.
+ *
+ * @author Vladimir Dzhuvinov
+ * @version $version$ ($version-date$)
+ */
+public class OriginListLoader {
+
+
+	/**
+	 * The default number of origins per batch.
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 4096;
+
+
+	/**
+	 * The maximum number of invalid origins listed in the error message.
+	 */
+	public static final int MAX_REPORTED_ERRORS = 10;
+
+
+	/**
+	 * Batches are split into sub-tasks down to this size.
+	 */
+	private static final int SPLIT_THRESHOLD = 512;
+
+
+	/**
+	 * The fork-join pool.
+	 */
+	private final ForkJoinPool pool;
+
+
+	/**
+	 * The number of origins per batch.
+	 */
+	private final int batchSize;
+
+
+	/**
+	 * Creates a new origin list loader.
+	 *
+	 * @param pool      The fork-join pool to use.
+	 * @param batchSize The number of origins per batch, must be
+	 *                  positive.
+	 */
+	public OriginListLoader(final ForkJoinPool pool, final int batchSize) {
+
+		if (batchSize < 1)
+			throw new IllegalArgumentException("The batch size must be positive");
+
+		this.pool = pool;
+		this.batchSize = batchSize;
+	}
+
+
+	/**
+	 * The shared fork-join pool, with one worker thread per available
+	 * processor. Created on first use.
+	 */
+	private static class SharedPool {
+
+
+		static final ForkJoinPool INSTANCE = new ForkJoinPool();
+	}
+
+
+	/**
+	 * Loads the origins from the specified file, using the shared
+	 * fork-join pool.
+	 *
+	 * @param file The origin list file.
+	 *
+	 * @return The canonical origins.
+	 *
+	 * @throws IOException                If the file couldn't be read.
+	 * @throws CORSConfigurationException If one or more origins are
+	 *                                    invalid.
+	 */
+	public static Set<String> loadFile(final File file)
+		throws IOException, CORSConfigurationException {
+
+		return loadFile(file, SharedPool.INSTANCE);
+	}
+
+
+	/**
+	 * Loads the origins from the specified file, using the specified
+	 * fork-join pool.
+	 *
+	 * @param file The origin list file.
+	 * @param pool The fork-join pool to use, not shut down.
+	 *
+	 * @return The canonical origins.
+	 *
+	 * @throws IOException                If the file couldn't be read.
+	 * @throws CORSConfigurationException If one or more origins are
+	 *                                    invalid.
+	 */
+	public static Set<String> loadFile(final File file, final ForkJoinPool pool)
+		throws IOException, CORSConfigurationException {
+
+		return new OriginListLoader(pool, DEFAULT_BATCH_SIZE).load(file);
+	}
+
+
+	/**
+	 * Loads the origins from the specified file.
+	 *
+	 * @param file The origin list file.
+	 *
+	 * @return The canonical origins.
+	 *
+	 * @throws IOException                If the file couldn't be read.
+	 * @throws CORSConfigurationException If one or more origins are
+	 *                                    invalid.
+	 */
+	public Set<String> load(final File file)
+		throws IOException, CORSConfigurationException {
+
+		InputStream in = new FileInputStream(file);
+
+		try {
+			return load(in);
+
+		} finally {
+			in.close();
+		}
+	}
+
+
+	/**
+	 * Loads the origins from the specified UTF-8 input stream. The
+	 * stream is consumed on the calling thread.
+	 *
+	 * @param in The input stream, not closed.
+	 *
+	 * @return The canonical origins.
+	 *
+	 * @throws IOException                If the stream couldn't be read.
+	 * @throws CORSConfigurationException If one or more origins are
+	 *                                    invalid.
+	 */
+	public Set<String> load(final InputStream in)
+		throws IOException, CORSConfigurationException {
+
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+
+		Set<String> origins = new HashSet<String>();
+
+		// The first invalid origins and the total count
+		List<String> errors = new ArrayList<String>(0);
+
+		int errorCount = 0;
+
+		// Bound the batches in flight to keep the memory use constant
+		final int maxInFlight = pool.getParallelism() * 2;
+
+		Deque<BatchTask> inFlight = new ArrayDeque<BatchTask>();
+
+		BatchTask batch = new BatchTask(batchSize);
+
+		int lineNumber = 0;
+
+		String line;
+
+		while ((line = reader.readLine()) != null) {
+
+			lineNumber++;
+
+			line = line.trim();
+
+			if (line.isEmpty() || line.startsWith("#"))
+				continue;
+
+			// Skip the regex split for the common one origin per line
+			String[] urls;
+
+			if (line.indexOf(' ') < 0 && line.indexOf(',') < 0 && line.indexOf('\t') < 0)
+				urls = new String[]{ line };
+			else
+				urls = CORSConfiguration.parseWords(line);
+
+			for (String url: urls) {
+
+				batch.add(url, lineNumber);
+
+				if (batch.to < batchSize)
+					continue;
+
+				if (inFlight.size() == maxInFlight)
+					errorCount += inFlight.removeFirst().collect(origins, errors);
+
+				submit(batch);
+				inFlight.addLast(batch);
+
+				batch = new BatchTask(batchSize);
+			}
+		}
+
+		if (batch.to > 0) {
+			submit(batch);
+			inFlight.addLast(batch);
+		}
+
+		while (! inFlight.isEmpty())
+			errorCount += inFlight.removeFirst().collect(origins, errors);
+
+		if (errorCount > 0) {
+
+			StringBuilder sb = new StringBuilder();
+			sb.append(errorCount);
+			sb.append(errorCount == 1 ? " bad origin URL" : " bad origin URLs");
+			sb.append(" in allowed origin list: ");
+
+			for (int i=0; i < errors.size(); i++) {
+
+				if (i > 0)
+					sb.append("; ");
+
+				sb.append(errors.get(i));
+			}
+
+			if (errorCount > errors.size()) {
+				sb.append("; and ");
+				sb.append(errorCount - errors.size());
+				sb.append(" more");
+			}
+
+			throw new CORSConfigurationException(sb.toString());
+		}
+
+		return origins;
+	}
+
+
+	/**
+	 * Submits a batch to the pool. With a single worker thread the batch
+	 * is processed on the calling thread instead, saving the hand-off.
+	 *
+	 * @param batch The batch.
+	 */
+	private void submit(final BatchTask batch) {
+
+		if (pool.getParallelism() == 1)
+			batch.invoke();
+		else
+			pool.execute(batch);
+	}
+
+
+	/**
+	 * Validates and canonicalises a range of a batch of origins,
+	 * splitting it in halves down to the split threshold. The canonical
+	 * origins are stored in place, the invalid ones are set to
+	 * {@code null}.
+	 */
+	private static class BatchTask extends RecursiveAction {
+
+
+		private static final long serialVersionUID = 1L;
+
+
+		private final String[] urls;
+
+
+		private final String[] canonical;
+
+
+		private final int[] lines;
+
+
+		private final int from;
+
+
+		private int to;
+
+
+		BatchTask(final int batchSize) {
+
+			this(new String[batchSize], new String[batchSize], new int[batchSize], 0, 0);
+		}
+
+
+		private BatchTask(final String[] urls,
+		                  final String[] canonical,
+		                  final int[] lines,
+		                  final int from,
+		                  final int to) {
+
+			this.urls = urls;
+			this.canonical = canonical;
+			this.lines = lines;
+			this.from = from;
+			this.to = to;
+		}
+
+
+		void add(final String url, final int line) {
+
+			urls[to] = url;
+			lines[to] = line;
+			to++;
+		}
+
+
+		/**
+		 * Waits for the batch to complete and adds its canonical
+		 * origins and errors to the specified collections, up to
+		 * {@link #MAX_REPORTED_ERRORS} errors.
+		 *
+		 * @return The number of invalid origins in the batch.
+		 */
+		int collect(final Set<String> origins, final List<String> errors) {
+
+			join();
+
+			int errorCount = 0;
+
+			for (int i=from; i < to; i++) {
+
+				if (canonical[i] != null) {
+					origins.add(canonical[i]);
+					continue;
+				}
+
+				errorCount++;
+
+				if (errors.size() < MAX_REPORTED_ERRORS)
+					errors.add("line " + lines[i] + ": " + urls[i]);
+			}
+
+			return errorCount;
+		}
+
+
+		@Override
+		protected void compute() {
+
+			if (to - from > SPLIT_THRESHOLD) {
+
+				int mid = (from + to) >>> 1;
+
+				invokeAll(new BatchTask(urls, canonical, lines, from, mid),
+				          new BatchTask(urls, canonical, lines, mid, to));
+				return;
+			}
+
+			for (int i=from; i < to; i++) {
+
+				try {
+					canonical[i] = new Origin(urls[i]).toString();
+
+				} catch (OriginException e) {
+					// invalid, left null
+
+				} catch (IllegalArgumentException e) {
+					// IDN conversion failure, left null
+				}
+			}
+		}
+	}
+}
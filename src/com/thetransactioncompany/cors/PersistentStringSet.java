@@ -0,0 +1,485 @@
+package com.thetransactioncompany.cors;
+
+
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+
+/**
+ * Immutable set of strings, implemented as a hash array mapped trie
+ * (HAMT). The {@link #plus} and {@link #minus} operations return a new set
+ * which shares all but the changed path of the trie with the original one,
+ * so a change costs O(log n) time and memory and the original set remains
+ * valid for concurrent readers.
+ *
+ * <p>Used for the allowed origins of configurations changed at runtime
+ * through a {@link PolicyEditor}.
+ *
+ * @author Vladimir Dzhuvinov
+ * @version $version$ ($version-date$)
+ */
+final class PersistentStringSet extends AbstractSet<String> {
+
+
+	/**
+	 * The number of hash bits per trie level.
+	 */
+	private static final int BITS = 5;
+
+
+	/**
+	 * The hash bit mask for one trie level.
+	 */
+	private static final int MASK = (1 << BITS) - 1;
+
+
+	/**
+	 * The maximum trie depth: seven levels consume the 32 hash bits,
+	 * plus one level for colliding hashes.
+	 */
+	private static final int MAX_DEPTH = 8;
+
+
+	/**
+	 * The empty set.
+	 */
+	static final PersistentStringSet EMPTY = new PersistentStringSet(new BitmapNode(0, new Object[0]), 0);
+
+
+	/**
+	 * A trie node. The entries are strings (leaves) or child nodes.
+	 */
+	private static abstract class Node {
+
+
+		final Object[] array;
+
+
+		Node(final Object[] array) {
+
+			this.array = array;
+		}
+
+
+		/**
+		 * Returns the string if this node holds a single string and
+		 * no child nodes, so that the parent can inline it.
+		 */
+		String singleLeaf() {
+
+			if (array.length == 1 && array[0] instanceof String)
+				return (String)array[0];
+			else
+				return null;
+		}
+
+
+		abstract boolean contains(final String s, final int hash, final int shift);
+
+
+		/**
+		 * Returns this node if the string is already present.
+		 */
+		abstract Node plus(final String s, final int hash, final int shift);
+
+
+		/**
+		 * Returns this node if the string is not present, {@code null}
+		 * if the node becomes empty.
+		 */
+		abstract Node minus(final String s, final int hash, final int shift);
+	}
+
+
+	/**
+	 * Node indexed by a bitmap of the occupied hash slots at its level.
+	 */
+	private static final class BitmapNode extends Node {
+
+
+		final int bitmap;
+
+
+		BitmapNode(final int bitmap, final Object[] array) {
+
+			super(array);
+			this.bitmap = bitmap;
+		}
+
+
+		private int index(final int bit) {
+
+			return Integer.bitCount(bitmap & (bit - 1));
+		}
+
+
+		@Override
+		boolean contains(final String s, final int hash, final int shift) {
+
+			final int bit = 1 << ((hash >>> shift) & MASK);
+
+			if ((bitmap & bit) == 0)
+				return false;
+
+			final Object o = array[index(bit)];
+
+			if (o instanceof Node)
+				return ((Node)o).contains(s, hash, shift + BITS);
+			else
+				return o.equals(s);
+		}
+
+
+		@Override
+		Node plus(final String s, final int hash, final int shift) {
+
+			final int bit = 1 << ((hash >>> shift) & MASK);
+			final int idx = index(bit);
+
+			if ((bitmap & bit) == 0)
+				return new BitmapNode(bitmap | bit, insert(array, idx, s));
+
+			final Object o = array[idx];
+
+			Object replacement;
+
+			if (o instanceof Node) {
+
+				replacement = ((Node)o).plus(s, hash, shift + BITS);
+
+				if (replacement == o)
+					return this;
+			}
+			else if (o.equals(s)) {
+
+				return this;
+			}
+			else {
+				replacement = pair((String)o, o.hashCode(), s, hash, shift + BITS);
+			}
+
+			return new BitmapNode(bitmap, replace(array, idx, replacement));
+		}
+
+
+		@Override
+		Node minus(final String s, final int hash, final int shift) {
+
+			final int bit = 1 << ((hash >>> shift) & MASK);
+
+			if ((bitmap & bit) == 0)
+				return this;
+
+			final int idx = index(bit);
+
+			final Object o = array[idx];
+
+			if (o instanceof Node) {
+
+				Node child = ((Node)o).minus(s, hash, shift + BITS);
+
+				if (child == o)
+					return this;
+
+				if (child != null) {
+
+					String leaf = child.singleLeaf();
+
+					return new BitmapNode(bitmap, replace(array, idx, leaf != null ? leaf : child));
+				}
+			}
+			else if (! o.equals(s)) {
+
+				return this;
+			}
+
+			if (array.length == 1)
+				return null;
+
+			return new BitmapNode(bitmap & ~bit, remove(array, idx));
+		}
+	}
+
+
+	/**
+	 * Node holding strings with the same hash code.
+	 */
+	private static final class CollisionNode extends Node {
+
+
+		CollisionNode(final Object[] array) {
+
+			super(array);
+		}
+
+
+		private int indexOf(final String s) {
+
+			for (int i=0; i < array.length; i++) {
+
+				if (array[i].equals(s))
+					return i;
+			}
+
+			return -1;
+		}
+
+
+		@Override
+		boolean contains(final String s, final int hash, final int shift) {
+
+			return indexOf(s) >= 0;
+		}
+
+
+		@Override
+		Node plus(final String s, final int hash, final int shift) {
+
+			if (indexOf(s) >= 0)
+				return this;
+
+			return new CollisionNode(insert(array, array.length, s));
+		}
+
+
+		@Override
+		Node minus(final String s, final int hash, final int shift) {
+
+			final int idx = indexOf(s);
+
+			if (idx < 0)
+				return this;
+
+			if (array.length == 1)
+				return null;
+
+			return new CollisionNode(remove(array, idx));
+		}
+	}
+
+
+	/**
+	 * Creates a node holding two different strings.
+	 */
+	private static Node pair(final String a, final int hashA,
+	                         final String b, final int hashB,
+	                         final int shift) {
+
+		// All hash bits consumed
+		if (shift >= 32)
+			return new CollisionNode(new Object[]{ a, b });
+
+		final int ia = (hashA >>> shift) & MASK;
+		final int ib = (hashB >>> shift) & MASK;
+
+		if (ia == ib)
+			return new BitmapNode(1 << ia, new Object[]{ pair(a, hashA, b, hashB, shift + BITS) });
+
+		return new BitmapNode((1 << ia) | (1 << ib), ia < ib ? new Object[]{ a, b } : new Object[]{ b, a });
+	}
+
+
+	private static Object[] insert(final Object[] array, final int idx, final Object o) {
+
+		Object[] copy = new Object[array.length + 1];
+		System.arraycopy(array, 0, copy, 0, idx);
+		copy[idx] = o;
+		System.arraycopy(array, idx, copy, idx + 1, array.length - idx);
+		return copy;
+	}
+
+
+	private static Object[] replace(final Object[] array, final int idx, final Object o) {
+
+		Object[] copy = array.clone();
+		copy[idx] = o;
+		return copy;
+	}
+
+
+	private static Object[] remove(final Object[] array, final int idx) {
+
+		Object[] copy = new Object[array.length - 1];
+		System.arraycopy(array, 0, copy, 0, idx);
+		System.arraycopy(array, idx + 1, copy, idx, array.length - idx - 1);
+		return copy;
+	}
+
+
+	/**
+	 * The root node, never {@code null}.
+	 */
+	private final Node root;
+
+
+	/**
+	 * The number of strings.
+	 */
+	private final int size;
+
+
+	private PersistentStringSet(final Node root, final int size) {
+
+		this.root = root;
+		this.size = size;
+	}
+
+
+	/**
+	 * Returns a set of the specified strings.
+	 *
+	 * @param strings The strings.
+	 *
+	 * @return The set.
+	 */
+	static PersistentStringSet of(final Collection<String> strings) {
+
+		if (strings instanceof PersistentStringSet)
+			return (PersistentStringSet)strings;
+
+		PersistentStringSet set = EMPTY;
+
+		for (String s: strings)
+			set = set.plus(s);
+
+		return set;
+	}
+
+
+	/**
+	 * Returns a set with the specified string added.
+	 *
+	 * @param s The string to add.
+	 *
+	 * @return The new set, this set if the string is already present.
+	 */
+	PersistentStringSet plus(final String s) {
+
+		Node newRoot = root.plus(s, s.hashCode(), 0);
+
+		if (newRoot == root)
+			return this;
+
+		return new PersistentStringSet(newRoot, size + 1);
+	}
+
+
+	/**
+	 * Returns a set with the specified string removed.
+	 *
+	 * @param s The string to remove.
+	 *
+	 * @return The new set, this set if the string is not present.
+	 */
+	PersistentStringSet minus(final String s) {
+
+		Node newRoot = root.minus(s, s.hashCode(), 0);
+
+		if (newRoot == root)
+			return this;
+
+		if (newRoot == null)
+			return EMPTY;
+
+		return new PersistentStringSet(newRoot, size - 1);
+	}
+
+
+	@Override
+	public boolean contains(final Object o) {
+
+		if (! (o instanceof String))
+			return false;
+
+		final String s = (String)o;
+
+		return root.contains(s, s.hashCode(), 0);
+	}
+
+
+	@Override
+	public int size() {
+
+		return size;
+	}
+
+
+	@Override
+	public Iterator<String> iterator() {
+
+		return new Iterator<String>() {
+
+
+			private final Object[][] arrays = new Object[MAX_DEPTH][];
+
+
+			private final int[] positions = new int[MAX_DEPTH];
+
+
+			private int depth = 0;
+
+
+			private String next;
+
+
+			{
+				arrays[0] = root.array;
+				advance();
+			}
+
+
+			private void advance() {
+
+				while (depth >= 0) {
+
+					if (positions[depth] == arrays[depth].length) {
+						depth--;
+						continue;
+					}
+
+					Object o = arrays[depth][positions[depth]++];
+
+					if (o instanceof Node) {
+						depth++;
+						arrays[depth] = ((Node)o).array;
+						positions[depth] = 0;
+					}
+					else {
+						next = (String)o;
+						return;
+					}
+				}
+
+				next = null;
+			}
+
+
+			@Override
+			public boolean hasNext() {
+
+				return next != null;
+			}
+
+
+			@Override
+			public String next() {
+
+				if (next == null)
+					throw new NoSuchElementException();
+
+				String s = next;
+				advance();
+				return s;
+			}
+
+
+			@Override
+			public void remove() {
+
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+}
@@ -0,0 +1,169 @@
+package com.thetransactioncompany.cors;
+
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * Aggregated CORS policy decisions for a set of requests, counted per
+ * origin. Produced by the {@link BulkPolicyEvaluator}.
+ *
+ * <p>Requests without an "Origin" header are counted under the
+ * {@code null} origin.
+ *
+ * <p>This class is not thread-safe; instances are merged after the parallel
+ * evaluation has completed.
+ *
+ * @author Vladimir Dzhuvinov
+ * @version $version$ ($version-date$)
+ */
+public class PolicyAudit {
+
+
+	/**
+	 * The decision counts, keyed by origin.
+	 */
+	private final Map<String,long[]> counts = new HashMap<String,long[]>();
+
+
+	/**
+	 * The total decision counts.
+	 */
+	private final long[] totals = new long[PolicyDecision.values().length];
+
+
+	/**
+	 * Records a decision.
+	 *
+	 * @param origin   The value of the "Origin" header, {@code null} if
+	 *                 undefined.
+	 * @param decision The policy decision.
+	 */
+	public void add(final String origin, final PolicyDecision decision) {
+
+		long[] originCounts = counts.get(origin);
+
+		if (originCounts == null) {
+			originCounts = new long[totals.length];
+			counts.put(origin, originCounts);
+		}
+
+		originCounts[decision.ordinal()]++;
+		totals[decision.ordinal()]++;
+	}
+
+
+	/**
+	 * Adds the counts of another audit to this one.
+	 *
+	 * @param other The other audit.
+	 */
+	public void merge(final PolicyAudit other) {
+
+		for (Map.Entry<String,long[]> entry: other.counts.entrySet()) {
+
+			long[] originCounts = counts.get(entry.getKey());
+
+			if (originCounts == null) {
+				counts.put(entry.getKey(), entry.getValue().clone());
+				continue;
+			}
+
+			for (int i=0; i < originCounts.length; i++)
+				originCounts[i] += entry.getValue()[i];
+		}
+
+		for (int i=0; i < totals.length; i++)
+			totals[i] += other.totals[i];
+	}
+
+
+	/**
+	 * Gets the audited origins.
+	 *
+	 * @return The origins, may include {@code null} for requests without
+	 *         an "Origin" header.
+	 */
+	public Set<String> getOrigins() {
+
+		return Collections.unmodifiableSet(counts.keySet());
+	}
+
+
+	/**
+	 * Gets the count of a decision for the specified origin.
+	 *
+	 * @param origin   The origin, {@code null} for requests without an
+	 *                 "Origin" header.
+	 * @param decision The policy decision.
+	 *
+	 * @return The count, zero if none.
+	 */
+	public long getCount(final String origin, final PolicyDecision decision) {
+
+		long[] originCounts = counts.get(origin);
+
+		if (originCounts == null)
+			return 0;
+
+		return originCounts[decision.ordinal()];
+	}
+
+
+	/**
+	 * Gets the count of denials for the specified origin.
+	 *
+	 * @param origin The origin, {@code null} for requests without an
+	 *               "Origin" header.
+	 *
+	 * @return The denial count, zero if none.
+	 */
+	public long getDenials(final String origin) {
+
+		long[] originCounts = counts.get(origin);
+
+		if (originCounts == null)
+			return 0;
+
+		long denials = 0;
+
+		for (PolicyDecision decision: PolicyDecision.values()) {
+			if (decision.isDenial())
+				denials += originCounts[decision.ordinal()];
+		}
+
+		return denials;
+	}
+
+
+	/**
+	 * Gets the total count of a decision.
+	 *
+	 * @param decision The policy decision.
+	 *
+	 * @return The total count.
+	 */
+	public long getTotal(final PolicyDecision decision) {
+
+		return totals[decision.ordinal()];
+	}
+
+
+	/**
+	 * Gets the total count of evaluated requests.
+	 *
+	 * @return The total count.
+	 */
+	public long getTotal() {
+
+		long total = 0;
+
+		for (long count: totals)
+			total += count;
+
+		return total;
+	}
+}
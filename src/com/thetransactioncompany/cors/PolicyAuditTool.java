@@ -0,0 +1,331 @@
+package com.thetransactioncompany.cors;
+
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Properties;
+
+
+/**
+ * Command-line tool that audits a log of past requests against a CORS
+ * filter configuration and reports, per origin, which requests would have
+ * been allowed or denied.
+ *
+ * <p>Usage:
+ *
+ * <pre>
+ * java -cp cors-filter.jar:servlet-api.jar:property-util.jar \
+ *      com.thetransactioncompany.cors.PolicyAuditTool config-file log-file [--format capture|tsv]
+ * </pre>
+ *
+ * <p>Log formats:
+ *
+ * <ul>
+ *     <li>{@code capture} (default) -- a request capture file, as written
+ *         by the {@code cors.captureFile} filter parameter, see
+ *         {@link RequestCapture}. An OPTIONS request with an
+ *         "Access-Control-Request-Method" header is audited as a
+ *         preflight request.
+ *     <li>{@code tsv} -- tab-separated lines of origin, method and
+ *         requested headers, using the {@link RequestCapture} escaping.
+ *         A line with requested headers (empty if none) is audited as a
+ *         preflight request with the method as the requested method; a
+ *         line with {@code \N} requested headers is audited as an actual
+ *         request.
+ * </ul>
+ *
+ * <p>The log is streamed, so its size is limited only by the disk. Malformed
+ * lines are skipped and their number is reported in the summary. The
+ * report is printed as CSV to the standard output, one line per origin,
+ * the most denied origins first.
+ *
+ * @author Vladimir Dzhuvinov
+ * @version $version$ ($version-date$)
+ */
+public class PolicyAuditTool {
+
+
+	/**
+	 * Streams the requests from a log, one line at a time. Malformed lines
+	 * are skipped and counted, see {@link #getMalformedCount}.
+	 */
+	static class LogIterator implements Iterator<BulkPolicyEvaluator.Request> {
+
+
+		private final BufferedReader reader;
+
+
+		private final boolean tsv;
+
+
+		private BulkPolicyEvaluator.Request next = null;
+
+
+		private long malformed = 0L;
+
+
+		LogIterator(final BufferedReader reader, final boolean tsv) {
+
+			this.reader = reader;
+			this.tsv = tsv;
+		}
+
+
+		@Override
+		public boolean hasNext() {
+
+			if (next != null)
+				return true;
+
+			try {
+				next = tsv ? readTSV() : readCapture();
+
+			} catch (IOException e) {
+
+				throw new IllegalStateException("Couldn't read log: " + e.getMessage(), e);
+			}
+
+			return next != null;
+		}
+
+
+		@Override
+		public BulkPolicyEvaluator.Request next() {
+
+			if (! hasNext())
+				throw new NoSuchElementException();
+
+			BulkPolicyEvaluator.Request request = next;
+			next = null;
+			return request;
+		}
+
+
+		@Override
+		public void remove() {
+
+			throw new UnsupportedOperationException();
+		}
+
+
+		/**
+		 * Returns the number of malformed lines skipped so far.
+		 *
+		 * @return The number of malformed lines.
+		 */
+		long getMalformedCount() {
+
+			return malformed;
+		}
+
+
+		private BulkPolicyEvaluator.Request readCapture()
+			throws IOException {
+
+			RequestCapture.Record record;
+
+			while (true) {
+
+				try {
+					record = RequestCapture.read(reader);
+					break;
+
+				} catch (IllegalArgumentException e) {
+
+					malformed++;
+				}
+			}
+
+			if (record == null)
+				return null;
+
+			if ("OPTIONS".equals(record.method) && record.requestMethod != null) {
+
+				return new BulkPolicyEvaluator.Request(
+					record.origin,
+					record.requestMethod,
+					record.requestHeaders != null ? record.requestHeaders : "");
+			}
+
+			return new BulkPolicyEvaluator.Request(record.origin, record.method, null);
+		}
+
+
+		private BulkPolicyEvaluator.Request readTSV()
+			throws IOException {
+
+			RequestCapture.Record record;
+
+			while (true) {
+
+				String line = reader.readLine();
+
+				if (line == null)
+					return null;
+
+				if (line.trim().isEmpty())
+					continue;
+
+				try {
+					// Reuse the capture parsing, padding the missing
+					// fields
+					record = RequestCapture.parse("\\N\t" + line + "\t\\N");
+					break;
+
+				} catch (IllegalArgumentException e) {
+
+					malformed++;
+				}
+			}
+
+			return new BulkPolicyEvaluator.Request(record.origin, record.requestMethod, record.requestHeaders);
+		}
+	}
+
+
+	/**
+	 * Prints an audit report as CSV, the most denied origins first.
+	 *
+	 * @param audit The audit.
+	 * @param out   The output stream.
+	 */
+	static void printReport(final PolicyAudit audit, final PrintStream out) {
+
+		final PolicyDecision[] decisions = PolicyDecision.values();
+
+		List<String> origins = new ArrayList<String>(audit.getOrigins());
+
+		Collections.sort(origins, new Comparator<String>() {
+
+			@Override
+			public int compare(final String a, final String b) {
+
+				long da = audit.getDenials(a);
+				long db = audit.getDenials(b);
+
+				if (da != db)
+					return da > db ? -1 : 1;
+
+				if (a == null)
+					return b == null ? 0 : 1;
+
+				if (b == null)
+					return -1;
+
+				return a.compareTo(b);
+			}
+		});
+
+		StringBuilder sb = new StringBuilder("origin,denied");
+
+		for (PolicyDecision decision: decisions)
+			sb.append(',').append(decision.name().toLowerCase());
+
+		out.println(sb);
+
+		for (String origin: origins) {
+
+			sb.setLength(0);
+
+			appendCSV(sb, origin != null ? origin : "(none)");
+			sb.append(',').append(audit.getDenials(origin));
+
+			for (PolicyDecision decision: decisions)
+				sb.append(',').append(audit.getCount(origin, decision));
+
+			out.println(sb);
+		}
+	}
+
+
+	/**
+	 * Appends a CSV value, quoting it if required.
+	 *
+	 * @param sb    The string builder.
+	 * @param value The value.
+	 */
+	private static void appendCSV(final StringBuilder sb, final String value) {
+
+		if (value.indexOf(',') < 0 && value.indexOf('"') < 0) {
+			sb.append(value);
+			return;
+		}
+
+		sb.append('"').append(value.replace("\"", "\"\"")).append('"');
+	}
+
+
+	/**
+	 * Audits the requests in a log file against a CORS configuration
+	 * properties file and prints the decisions per origin as CSV.
+	 *
+	 * @param args The configuration file, the log file and optionally
+	 *             {@code --format capture|tsv}.
+	 *
+	 * @throws Exception If the files couldn't be read or the configuration
+	 *                   is invalid.
+	 */
+	public static void main(final String[] args)
+		throws Exception {
+
+		if (args.length != 2 && ! (args.length == 4 && args[2].equals("--format"))) {
+			System.err.println("Usage: PolicyAuditTool config-file log-file [--format capture|tsv]");
+			System.exit(1);
+		}
+
+		boolean tsv = false;
+
+		if (args.length == 4) {
+
+			if (args[3].equals("tsv"))
+				tsv = true;
+			else if (! args[3].equals("capture"))
+				throw new IllegalArgumentException("Unknown log format: " + args[3]);
+		}
+
+		Properties props = new Properties();
+
+		InputStream in = new FileInputStream(args[0]);
+
+		try {
+			props.load(in);
+
+		} finally {
+			in.close();
+		}
+
+		BulkPolicyEvaluator evaluator = new BulkPolicyEvaluator(new CORSConfiguration(props));
+
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(args[1]), "UTF-8"), 1 << 16);
+
+		LogIterator log = new LogIterator(reader, tsv);
+
+		PolicyAudit audit;
+
+		try {
+			audit = evaluator.evaluate(log);
+
+		} finally {
+			reader.close();
+			evaluator.close();
+		}
+
+		printReport(audit, System.out);
+
+		System.err.println("Audited " + audit.getTotal() + " requests: " +
+		                   audit.getTotal(PolicyDecision.ALLOWED) + " allowed, " +
+		                   (audit.getTotal() - audit.getTotal(PolicyDecision.ALLOWED) - audit.getTotal(PolicyDecision.NOT_CORS)) + " denied, " +
+		                   audit.getTotal(PolicyDecision.NOT_CORS) + " non-CORS, " +
+		                   log.getMalformedCount() + " malformed lines skipped");
+	}
+}
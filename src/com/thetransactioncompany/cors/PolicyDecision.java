@@ -0,0 +1,59 @@
+package com.thetransactioncompany.cors;
+
+
+/**
+ * The decision of a CORS access policy for a request, as computed by the
+ * {@link BulkPolicyEvaluator}.
+ *
+ * @author Vladimir Dzhuvinov
+ * @version $version$ ($version-date$)
+ */
+public enum PolicyDecision {
+
+
+	/**
+	 * The CORS request is allowed.
+	 */
+	ALLOWED,
+
+
+	/**
+	 * The CORS request is denied due to its origin.
+	 */
+	ORIGIN_DENIED,
+
+
+	/**
+	 * The CORS request is denied due to its HTTP method.
+	 */
+	METHOD_UNSUPPORTED,
+
+
+	/**
+	 * The preflight CORS request is denied due to its requested headers.
+	 */
+	HEADER_UNSUPPORTED,
+
+
+	/**
+	 * The CORS request is invalid.
+	 */
+	INVALID,
+
+
+	/**
+	 * Not a CORS request (no "Origin" header).
+	 */
+	NOT_CORS;
+
+
+	/**
+	 * Returns {@code true} if the decision denies a CORS request.
+	 *
+	 * @return {@code true} for a denial, else {@code false}.
+	 */
+	public boolean isDenial() {
+
+		return this != ALLOWED && this != NOT_CORS;
+	}
+}
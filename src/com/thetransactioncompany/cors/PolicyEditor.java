@@ -0,0 +1,483 @@
+package com.thetransactioncompany.cors;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+
+/**
+ * Applies runtime changes to the access policy of a CORS filter, see
+ * {@link CORSPolicyAdmin}. Enabled with the {@code cors.policyAdmin} filter
+ * init parameter. If {@code cors.mbeanName} is also set the editor is
+ * registered as a JMX MBean under the same name with an added
+ * {@code component=PolicyAdmin} key.
+ *
+ * <p>Each change produces a new immutable {@link CORSConfiguration}, which
+ * is passed to the {@link Listener} to build and publish a new request
+ * handler. The request threads keep reading the handler they started with,
+ * without locking. The allowed origins are held in a persistent hash trie
+ * which shares its structure between the successive configurations, so an
+ * origin change costs O(log n) regardless of the number of allowed origins,
+ * and the {@link CompiledPolicy} looks them up in the trie instead of
+ * rebuilding its own table. The supported methods and headers are small
+ * and copied on each change.
+ *
+ * <p>Changes are serialised and delivered to the listener in order.
+ *
+ * @author Vladimir Dzhuvinov
+ * @version $version$ ($version-date$)
+ */
+public class PolicyEditor implements CORSPolicyAdmin {
+
+
+	/**
+	 * Receives the changed configurations.
+	 */
+	public interface Listener {
+
+
+		/**
+		 * Called after each change, with the editor locked.
+		 *
+		 * @param oldConfig The previous configuration.
+		 * @param newConfig The changed configuration.
+		 */
+		void policyChanged(final CORSConfiguration oldConfig, final CORSConfiguration newConfig);
+	}
+
+
+	/**
+	 * The listener.
+	 */
+	private final Listener listener;
+
+
+	/**
+	 * The current configuration, {@code null} if disabled.
+	 */
+	private CORSConfiguration config = null;
+
+
+	/**
+	 * The registered MBean name, {@code null} if not registered.
+	 */
+	private ObjectName mbeanName = null;
+
+
+	/**
+	 * Creates a new disabled policy editor.
+	 *
+	 * @param listener The listener for the changed configurations.
+	 */
+	public PolicyEditor(final Listener listener) {
+
+		this.listener = listener;
+	}
+
+
+	/**
+	 * Sets the configuration to edit, typically on filter
+	 * (re)initialisation. Changes made to the previous configuration are
+	 * discarded.
+	 *
+	 * @param config The configuration, {@code null} to disable the
+	 *               editor.
+	 *
+	 * @return The configuration to serve, with the allowed origins in a
+	 *         persistent set, {@code null} if disabled.
+	 */
+	public synchronized CORSConfiguration reset(final CORSConfiguration config) {
+
+		if (config == null) {
+			this.config = null;
+			return null;
+		}
+
+		this.config = copy(config, PersistentStringSet.of(config.allowedOrigins), config.supportedMethods, config.supportedHeaders);
+
+		return this.config;
+	}
+
+
+	/**
+	 * Returns {@code true} if this editor is enabled.
+	 *
+	 * @return {@code true} if enabled.
+	 */
+	public synchronized boolean isEnabled() {
+
+		return config != null;
+	}
+
+
+	/**
+	 * Returns the current configuration.
+	 *
+	 * @return The configuration, {@code null} if disabled.
+	 */
+	public synchronized CORSConfiguration getConfiguration() {
+
+		return config;
+	}
+
+
+	/**
+	 * Returns the current configuration, the editor must be locked.
+	 *
+	 * @return The configuration.
+	 *
+	 * @throws IllegalStateException If the editor is disabled.
+	 */
+	private CORSConfiguration current() {
+
+		if (config == null)
+			throw new IllegalStateException("The CORS policy admin is disabled");
+
+		return config;
+	}
+
+
+	/**
+	 * Creates a copy of the specified configuration with changed origins,
+	 * methods and headers.
+	 *
+	 * @param config           The configuration to copy.
+	 * @param allowedOrigins   The allowed origins.
+	 * @param supportedMethods The supported methods.
+	 * @param supportedHeaders The supported headers.
+	 *
+	 * @return The changed configuration.
+	 */
+	private static CORSConfiguration copy(final CORSConfiguration config,
+	                                      final Set<String> allowedOrigins,
+	                                      final Set<HTTPMethod> supportedMethods,
+	                                      final Set<HeaderFieldName> supportedHeaders) {
+
+		return new CORSConfiguration(config.allowGenericHttpRequests,
+		                             config.allowAnyOrigin,
+		                             config.allowOriginSuffixMatching,
+		                             allowedOrigins,
+		                             supportedMethods,
+		                             supportedHeaders,
+		                             config.exposedHeaders,
+		                             config.supportsCredentials,
+		                             config.maxAge,
+		                             config.serverTiming,
+		                             config.timingAllowOrigin,
+		                             config.compilePolicy,
+		                             config.captureFile);
+	}
+
+
+	/**
+	 * Makes the specified configuration current and notifies the
+	 * listener, the editor must be locked.
+	 *
+	 * @param newConfig The changed configuration.
+	 */
+	private void publish(final CORSConfiguration newConfig) {
+
+		CORSConfiguration oldConfig = config;
+
+		config = newConfig;
+
+		listener.policyChanged(oldConfig, newConfig);
+	}
+
+
+	/**
+	 * Parses an origin into its canonical serialisation, as held in the
+	 * allowed origins.
+	 *
+	 * @param origin The origin URL.
+	 *
+	 * @return The canonical origin.
+	 *
+	 * @throws IllegalArgumentException If the origin is invalid.
+	 */
+	private static String canonicalOrigin(final String origin) {
+
+		try {
+			return new Origin(origin).toString();
+
+		} catch (OriginException e) {
+
+			throw new IllegalArgumentException("Bad origin URL: " + origin);
+		}
+	}
+
+
+	/**
+	 * Parses an HTTP method name, case-insensitively.
+	 *
+	 * @param method The method name.
+	 *
+	 * @return The HTTP method.
+	 *
+	 * @throws IllegalArgumentException If the method is not supported.
+	 */
+	private static HTTPMethod parseMethod(final String method) {
+
+		try {
+			return HTTPMethod.valueOf(method.trim().toUpperCase());
+
+		} catch (IllegalArgumentException e) {
+
+			throw new IllegalArgumentException("Bad HTTP method name: " + method);
+		}
+	}
+
+
+	/**
+	 * Parses a header field name.
+	 *
+	 * @param header The header field name.
+	 *
+	 * @return The parsed header field name.
+	 *
+	 * @throws IllegalArgumentException If the name is invalid.
+	 */
+	private static HeaderFieldName parseHeader(final String header) {
+
+		try {
+			return new HeaderFieldName(header);
+
+		} catch (IllegalArgumentException e) {
+
+			throw new IllegalArgumentException("Bad header field name: " + header);
+		}
+	}
+
+
+	/**
+	 * Joins the string representations of the items of a set with
+	 * commas.
+	 *
+	 * @param set The set.
+	 *
+	 * @return The joined string, empty if the set is empty.
+	 */
+	private static String join(final Set<?> set) {
+
+		StringBuilder sb = new StringBuilder();
+
+		for (Object o: set) {
+
+			if (sb.length() > 0)
+				sb.append(", ");
+
+			sb.append(o.toString());
+		}
+
+		return sb.toString();
+	}
+
+
+	@Override
+	public synchronized int getAllowedOriginCount() {
+
+		return current().allowedOrigins.size();
+	}
+
+
+	@Override
+	public synchronized String getSupportedMethods() {
+
+		return join(current().supportedMethods);
+	}
+
+
+	@Override
+	public synchronized String getSupportedHeaders() {
+
+		return join(current().supportedHeaders);
+	}
+
+
+	@Override
+	public synchronized boolean isListedOrigin(final String origin) {
+
+		return current().allowedOrigins.contains(canonicalOrigin(origin));
+	}
+
+
+	@Override
+	public synchronized boolean addAllowedOrigin(final String origin) {
+
+		CORSConfiguration c = current();
+
+		if (c.allowAnyOrigin)
+			throw new IllegalStateException("Any origin is allowed, the allowed origins list has no effect");
+
+		PersistentStringSet origins = (PersistentStringSet)c.allowedOrigins;
+
+		PersistentStringSet changed = origins.plus(canonicalOrigin(origin));
+
+		if (changed == origins)
+			return false;
+
+		publish(copy(c, changed, c.supportedMethods, c.supportedHeaders));
+		return true;
+	}
+
+
+	@Override
+	public synchronized boolean removeAllowedOrigin(final String origin) {
+
+		CORSConfiguration c = current();
+
+		PersistentStringSet origins = (PersistentStringSet)c.allowedOrigins;
+
+		PersistentStringSet changed = origins.minus(canonicalOrigin(origin));
+
+		if (changed == origins)
+			return false;
+
+		publish(copy(c, changed, c.supportedMethods, c.supportedHeaders));
+		return true;
+	}
+
+
+	@Override
+	public synchronized boolean addSupportedMethod(final String method) {
+
+		CORSConfiguration c = current();
+
+		Set<HTTPMethod> methods = new HashSet<HTTPMethod>(c.supportedMethods);
+
+		if (! methods.add(parseMethod(method)))
+			return false;
+
+		publish(copy(c, c.allowedOrigins, methods, c.supportedHeaders));
+		return true;
+	}
+
+
+	@Override
+	public synchronized boolean removeSupportedMethod(final String method) {
+
+		CORSConfiguration c = current();
+
+		Set<HTTPMethod> methods = new HashSet<HTTPMethod>(c.supportedMethods);
+
+		if (! methods.remove(parseMethod(method)))
+			return false;
+
+		publish(copy(c, c.allowedOrigins, methods, c.supportedHeaders));
+		return true;
+	}
+
+
+	@Override
+	public synchronized boolean addSupportedHeader(final String header) {
+
+		CORSConfiguration c = current();
+
+		Set<HeaderFieldName> headers = new HashSet<HeaderFieldName>(c.supportedHeaders);
+
+		if (! headers.add(parseHeader(header)))
+			return false;
+
+		publish(copy(c, c.allowedOrigins, c.supportedMethods, headers));
+		return true;
+	}
+
+
+	@Override
+	public synchronized boolean removeSupportedHeader(final String header) {
+
+		CORSConfiguration c = current();
+
+		Set<HeaderFieldName> headers = new HashSet<HeaderFieldName>(c.supportedHeaders);
+
+		if (! headers.remove(parseHeader(header)))
+			return false;
+
+		publish(copy(c, c.allowedOrigins, c.supportedMethods, headers));
+		return true;
+	}
+
+
+	@Override
+	public void writeSnapshot(final String file)
+		throws IOException {
+
+		// The configuration is immutable, write outside the lock
+		CORSConfiguration c;
+
+		synchronized (this) {
+			c = current();
+		}
+
+		PolicySnapshot.write(c, new File(file));
+	}
+
+
+	/**
+	 * Registers this editor with the platform MBean server. If already
+	 * registered under a different name, for example after a filter
+	 * re-initialisation with a changed {@code cors.mbeanName}, the
+	 * previous registration is removed first.
+	 *
+	 * @param name The MBean object name.
+	 *
+	 * @throws JMException If the name is invalid or the registration
+	 *                     failed.
+	 */
+	public synchronized void register(final String name)
+		throws JMException {
+
+		ObjectName objectName = new ObjectName(name);
+
+		if (objectName.equals(mbeanName))
+			return;
+
+		unregister();
+
+		ManagementFactory.getPlatformMBeanServer().registerMBean(new StandardMBean(this, CORSPolicyAdmin.class), objectName);
+
+		mbeanName = objectName;
+	}
+
+
+	/**
+	 * Returns the name under which this editor is registered with the
+	 * platform MBean server.
+	 *
+	 * @return The MBean object name, {@code null} if not registered.
+	 */
+	synchronized ObjectName getMBeanName() {
+
+		return mbeanName;
+	}
+
+
+	/**
+	 * Unregisters this editor from the platform MBean server, if
+	 * registered.
+	 */
+	public synchronized void unregister() {
+
+		if (mbeanName == null)
+			return;
+
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+		try {
+			server.unregisterMBean(mbeanName);
+
+		} catch (JMException e) {
+			// already gone
+		}
+
+		mbeanName = null;
+	}
+}
@@ -0,0 +1,463 @@
+package com.thetransactioncompany.cors;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+
+/**
+ * Compact binary snapshot of the access policy of a validated CORS
+ * configuration, for fast filter startup with very large origin allow lists
+ * and for sharing a policy between nodes, see {@link PolicySync}. The
+ * snapshot holds the canonical origins and header names, so loading it
+ * skips the properties parsing and the origin URI / IDN processing of
+ * {@link CORSConfiguration#CORSConfiguration(Properties)}.
+ *
+ * <p>The snapshot holds only the access policy: the allowed origins, the
+ * supported methods and headers, the exposed headers, the credentials and
+ * max age options and the generic HTTP request, any origin and origin
+ * suffix matching options. The node-local deployment settings
+ * {@code cors.serverTiming}, {@code cors.timingAllowOrigin},
+ * {@code cors.compilePolicy} and {@code cors.captureFile} are not included
+ * and are taken from the filter init parameters.
+ *
+ * <p>Create a snapshot at build or deployment time with the command-line
+ * tool, which validates the configuration first:
+ *
+ * <pre>
+ * java -cp cors-filter.jar:property-util.jar \
+ *      com.thetransactioncompany.cors.PolicySnapshot config-file snapshot-file
+ * </pre>
+ *
+ * <p>Then set the {@code cors.snapshotFile} filter init parameter to the
+ * snapshot file, the other access policy parameters are ignored.
+ *
+ * <p>Format (big-endian, strings in modified UTF-8): the magic number
+ * {@code 0x434F5253}, the format version, the flags, the max age, the
+ * method names, the supported and exposed header names
+ * and the allowed origins (sorted), each list preceded by its length, and
+ * a trailing CRC-32 of the preceding bytes.
+ *
+ * @author Vladimir Dzhuvinov
+ * @version $version$ ($version-date$)
+ */
+public final class PolicySnapshot {
+
+
+	/**
+	 * The snapshot magic number, "CORS" in US-ASCII.
+	 */
+	public static final int MAGIC = 0x434F5253;
+
+
+	/**
+	 * The current snapshot format version.
+	 */
+	public static final int VERSION = 2;
+
+
+	/**
+	 * Flag for the allow generic HTTP requests option.
+	 */
+	private static final int ALLOW_GENERIC_HTTP_REQUESTS = 1;
+
+
+	/**
+	 * Flag for the allow any origin option.
+	 */
+	private static final int ALLOW_ANY_ORIGIN = 1 << 1;
+
+
+	/**
+	 * Flag for the origin suffix matching option.
+	 */
+	private static final int ALLOW_ORIGIN_SUFFIX_MATCHING = 1 << 2;
+
+
+	/**
+	 * Flag for the supports credentials option.
+	 */
+	private static final int SUPPORTS_CREDENTIALS = 1 << 3;
+
+
+	/**
+	 * The filter init parameters for the deployment settings, which are
+	 * not part of a snapshot.
+	 */
+	private static final String[] DEPLOYMENT_PARAMETERS = {
+		"cors.serverTiming",
+		"cors.timingAllowOrigin",
+		"cors.compilePolicy",
+		"cors.captureFile"
+	};
+
+
+	/**
+	 * Prevents public instantiation.
+	 */
+	private PolicySnapshot() { }
+
+
+	/**
+	 * Writes a snapshot of the access policy of the specified CORS
+	 * configuration. The deployment settings are not written.
+	 *
+	 * @param config The CORS configuration.
+	 * @param out    The output stream, not closed.
+	 *
+	 * @throws IOException On a I/O exception.
+	 */
+	public static void write(final CORSConfiguration config, final OutputStream out)
+		throws IOException {
+
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+
+		DataOutputStream data = new DataOutputStream(buf);
+
+		data.writeInt(MAGIC);
+		data.writeShort(VERSION);
+
+		int flags = 0;
+
+		if (config.allowGenericHttpRequests)
+			flags |= ALLOW_GENERIC_HTTP_REQUESTS;
+
+		if (config.allowAnyOrigin)
+			flags |= ALLOW_ANY_ORIGIN;
+
+		if (config.allowOriginSuffixMatching)
+			flags |= ALLOW_ORIGIN_SUFFIX_MATCHING;
+
+		if (config.supportsCredentials)
+			flags |= SUPPORTS_CREDENTIALS;
+
+		data.writeInt(flags);
+		data.writeInt(config.maxAge);
+
+		writeStrings(data, config.supportedMethods);
+		writeStrings(data, config.supportedHeaders);
+		writeStrings(data, config.exposedHeaders);
+		writeStrings(data, config.allowedOrigins);
+
+		data.flush();
+
+		CRC32 crc = new CRC32();
+		crc.update(buf.toByteArray());
+
+		data.writeInt((int)crc.getValue());
+		data.flush();
+
+		buf.writeTo(out);
+	}
+
+
+	/**
+	 * Writes the string representations of the items of a set, sorted so
+	 * that equal configurations produce equal snapshots.
+	 *
+	 * @param data The data output.
+	 * @param set  The set.
+	 *
+	 * @throws IOException On a I/O exception.
+	 */
+	private static void writeStrings(final DataOutputStream data, final Set<?> set)
+		throws IOException {
+
+		List<String> strings = new ArrayList<String>(set.size());
+
+		for (Object item: set)
+			strings.add(item.toString());
+
+		Collections.sort(strings);
+
+		data.writeInt(strings.size());
+
+		for (String s: strings)
+			data.writeUTF(s);
+	}
+
+
+	/**
+	 * Writes a snapshot of the access policy of the specified CORS
+	 * configuration to a file. The snapshot is written to a temporary
+	 * file in the same directory, named after the file with a leading
+	 * dot and a {@code .tmp} suffix, and then renamed, so that readers
+	 * never see a partial file where the file system supports atomic
+	 * renames.
+	 *
+	 * @param config The CORS configuration.
+	 * @param file   The snapshot file, replaced if it exists.
+	 *
+	 * @throws IOException On a I/O exception.
+	 */
+	public static void write(final CORSConfiguration config, final File file)
+		throws IOException {
+
+		File tmp = new File(file.getAbsoluteFile().getParentFile(), "." + file.getName() + ".tmp");
+
+		OutputStream out = new FileOutputStream(tmp);
+
+		try {
+			write(config, out);
+
+		} finally {
+			out.close();
+		}
+
+		try {
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		} catch (IOException e) {
+
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+
+	/**
+	 * Reads a snapshot.
+	 *
+	 * @param bytes The snapshot bytes.
+	 *
+	 * @return The CORS configuration, with the deployment settings at
+	 *         their defaults.
+	 *
+	 * @throws CORSConfigurationException If the snapshot is invalid, of
+	 *                                    an unsupported version or
+	 *                                    corrupted.
+	 */
+	public static CORSConfiguration read(final byte[] bytes)
+		throws CORSConfigurationException {
+
+		final int length = bytes.length - 4;
+
+		if (length < 6)
+			throw new CORSConfigurationException("Invalid CORS policy snapshot: Truncated");
+
+		DataInputStream data = new DataInputStream(new ByteArrayInputStream(bytes, 0, length));
+
+		try {
+			if (data.readInt() != MAGIC)
+				throw new CORSConfigurationException("Invalid CORS policy snapshot: Bad magic number");
+
+			final int version = data.readUnsignedShort();
+
+			if (version != VERSION)
+				throw new CORSConfigurationException("Unsupported CORS policy snapshot version: " + version);
+
+			CRC32 crc = new CRC32();
+			crc.update(bytes, 0, length);
+
+			final int checksum = ((bytes[length] & 0xFF) << 24) |
+			                     ((bytes[length + 1] & 0xFF) << 16) |
+			                     ((bytes[length + 2] & 0xFF) << 8) |
+			                     (bytes[length + 3] & 0xFF);
+
+			if (checksum != (int)crc.getValue())
+				throw new CORSConfigurationException("Invalid CORS policy snapshot: Checksum mismatch");
+
+			final int flags = data.readInt();
+			final int maxAge = data.readInt();
+
+			Set<HTTPMethod> supportedMethods = new HashSet<HTTPMethod>();
+
+			for (int i = data.readInt(); i > 0; i--)
+				supportedMethods.add(HTTPMethod.valueOf(data.readUTF()));
+
+			Set<HeaderFieldName> supportedHeaders = readHeaderNames(data);
+			Set<HeaderFieldName> exposedHeaders = readHeaderNames(data);
+
+			final int originCount = data.readInt();
+
+			Set<String> allowedOrigins = new HashSet<String>(Math.max(16, (int)(Math.min(originCount, length) / 0.75f) + 1));
+
+			for (int i=0; i < originCount; i++)
+				allowedOrigins.add(data.readUTF());
+
+			if (data.available() != 0)
+				throw new CORSConfigurationException("Invalid CORS policy snapshot: Trailing data");
+
+			return new CORSConfiguration((flags & ALLOW_GENERIC_HTTP_REQUESTS) != 0,
+			                             (flags & ALLOW_ANY_ORIGIN) != 0,
+			                             (flags & ALLOW_ORIGIN_SUFFIX_MATCHING) != 0,
+			                             Collections.unmodifiableSet(allowedOrigins),
+			                             supportedMethods,
+			                             supportedHeaders,
+			                             exposedHeaders,
+			                             (flags & SUPPORTS_CREDENTIALS) != 0,
+			                             maxAge,
+			                             false,
+			                             false,
+			                             false,
+			                             null);
+
+		} catch (IOException e) {
+
+			throw new CORSConfigurationException("Invalid CORS policy snapshot: Truncated");
+
+		} catch (IllegalArgumentException e) {
+
+			throw new CORSConfigurationException("Invalid CORS policy snapshot: " + e.getMessage());
+		}
+	}
+
+
+	/**
+	 * Reads a list of header field names.
+	 *
+	 * @param data The data input.
+	 *
+	 * @return The header field names.
+	 *
+	 * @throws IOException On a I/O exception.
+	 */
+	private static Set<HeaderFieldName> readHeaderNames(final DataInputStream data)
+		throws IOException {
+
+		Set<HeaderFieldName> names = new HashSet<HeaderFieldName>();
+
+		for (int i = data.readInt(); i > 0; i--)
+			names.add(new HeaderFieldName(data.readUTF()));
+
+		return names;
+	}
+
+
+	/**
+	 * Reads a snapshot file with a single sequential read.
+	 *
+	 * @param file The snapshot file.
+	 *
+	 * @return The CORS configuration, with the deployment settings at
+	 *         their defaults.
+	 *
+	 * @throws IOException                If the file couldn't be read.
+	 * @throws CORSConfigurationException If the snapshot is invalid, of
+	 *                                    an unsupported version or
+	 *                                    corrupted.
+	 */
+	public static CORSConfiguration read(final File file)
+		throws IOException, CORSConfigurationException {
+
+		InputStream in = new FileInputStream(file);
+
+		try {
+			long length = file.length();
+
+			if (length > Integer.MAX_VALUE)
+				throw new CORSConfigurationException("Invalid CORS policy snapshot: Too large");
+
+			byte[] bytes = new byte[(int)length];
+
+			new DataInputStream(in).readFully(bytes);
+
+			return read(bytes);
+
+		} finally {
+			in.close();
+		}
+	}
+
+
+	/**
+	 * Reads a snapshot file and combines its access policy with the
+	 * deployment settings from the specified filter init parameters. The
+	 * access policy parameters are ignored.
+	 *
+	 * @param file  The snapshot file.
+	 * @param props The filter init parameters.
+	 *
+	 * @return The CORS configuration.
+	 *
+	 * @throws IOException                If the file couldn't be read.
+	 * @throws CORSConfigurationException If the snapshot is invalid, of
+	 *                                    an unsupported version or
+	 *                                    corrupted, or a deployment
+	 *                                    parameter is invalid.
+	 */
+	public static CORSConfiguration read(final File file, final Properties props)
+		throws IOException, CORSConfigurationException {
+
+		Properties deployment = new Properties();
+
+		for (String name: DEPLOYMENT_PARAMETERS) {
+
+			String value = props.getProperty(name);
+
+			if (value != null)
+				deployment.setProperty(name, value);
+		}
+
+		return new CORSConfiguration(deployment).withAccessPolicy(read(file));
+	}
+
+
+	/**
+	 * Validates a CORS configuration properties file and writes a
+	 * snapshot of it.
+	 *
+	 * @param args The configuration file and the snapshot file.
+	 *
+	 * @throws Exception If the configuration couldn't be read or is
+	 *                   invalid, or the snapshot couldn't be written.
+	 */
+	public static void main(final String[] args)
+		throws Exception {
+
+		if (args.length != 2) {
+			System.err.println("Usage: PolicySnapshot config-file snapshot-file");
+			System.exit(1);
+		}
+
+		Properties props = new Properties();
+
+		InputStream in = new FileInputStream(args[0]);
+
+		try {
+			props.load(in);
+
+		} finally {
+			in.close();
+		}
+
+		CORSConfiguration config;
+
+		try {
+			config = new CORSConfiguration(props);
+
+		} catch (CORSConfigurationException e) {
+
+			System.err.println("Invalid CORS configuration: " + e.getMessage());
+			System.exit(1);
+			return;
+		}
+
+		OutputStream out = new FileOutputStream(args[1]);
+
+		try {
+			write(config, out);
+
+		} finally {
+			out.close();
+		}
+
+		System.err.println("Wrote CORS policy snapshot with " + config.allowedOrigins.size() + " origins to " + args[1]);
+	}
+}
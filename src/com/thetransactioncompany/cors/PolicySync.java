@@ -0,0 +1,342 @@
+package com.thetransactioncompany.cors;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+
+/**
+ * Keeps the access policy of a CORS filter in sync with versioned policy
+ * snapshots in a shared directory, such as an NFS mount which all nodes of
+ * a cluster see. No coordination service is involved: a new policy is
+ * published by writing a snapshot with a higher version to the directory,
+ * and each node picks it up on its next poll.
+ *
+ * <p>The snapshot files are named {@code cors-policy-<version>.snapshot},
+ * where the version is a non-negative decimal number, and use the
+ * {@link PolicySnapshot} format. Snapshots should be written to a temporary
+ * file and renamed into place, see {@link #write}. A file which fails its
+ * checksum or validation, for example because it is still being copied,
+ * is skipped and retried on the next poll; the previous policy stays in
+ * effect.
+ *
+ * <p>The directory is polled on a background thread, rather than watched
+ * with file system notifications, which network file systems don't
+ * reliably deliver. The highest valid version above the current one is
+ * loaded and passed to the {@link Listener}, still on the background
+ * thread, to build the new request handler before it is swapped in. The
+ * request path is never blocked.
+ *
+ * <p>Filter init parameters:
+ *
+ * <ul>
+ *     <li>cors.syncDirectory {directory-path} defaults to none (disabled).
+ *     <li>cors.syncIntervalSeconds {int} defaults to {@code 10}.
+ * </ul>
+ *
+ * @author Vladimir Dzhuvinov
+ * @version $version$ ($version-date$)
+ */
+public class PolicySync {
+
+
+	/**
+	 * The snapshot file name prefix.
+	 */
+	public static final String FILE_PREFIX = "cors-policy-";
+
+
+	/**
+	 * The snapshot file name suffix.
+	 */
+	public static final String FILE_SUFFIX = ".snapshot";
+
+
+	/**
+	 * Receives the loaded policy versions.
+	 */
+	public interface Listener {
+
+
+		/**
+		 * Called on the sync thread when a new policy version has
+		 * been loaded and validated.
+		 *
+		 * @param version The policy version.
+		 * @param config  The CORS configuration.
+		 */
+		void policyLoaded(final long version, final CORSConfiguration config);
+
+
+		/**
+		 * Called on the sync thread when a newer policy version
+		 * couldn't be loaded.
+		 *
+		 * @param version The policy version.
+		 * @param error   The error message.
+		 */
+		void policyLoadFailed(final long version, final String error);
+	}
+
+
+	/**
+	 * The watched directory.
+	 */
+	private final File directory;
+
+
+	/**
+	 * The poll interval, in milliseconds.
+	 */
+	private final long intervalMillis;
+
+
+	/**
+	 * The listener.
+	 */
+	private final Listener listener;
+
+
+	/**
+	 * The current policy version, -1 if none loaded.
+	 */
+	private volatile long version = -1L;
+
+
+	/**
+	 * The poll thread, {@code null} if not started.
+	 */
+	private Thread poller = null;
+
+
+	/**
+	 * Set to stop the poll thread.
+	 */
+	private volatile boolean stopped = false;
+
+
+	/**
+	 * Creates a new policy sync. The directory is not polled until
+	 * {@link #start} is called.
+	 *
+	 * @param directory      The shared snapshot directory.
+	 * @param intervalMillis The poll interval in milliseconds, must be
+	 *                       positive.
+	 * @param listener       The listener for the loaded policies.
+	 */
+	public PolicySync(final File directory, final long intervalMillis, final Listener listener) {
+
+		if (intervalMillis <= 0)
+			throw new IllegalArgumentException("The poll interval must be positive");
+
+		this.directory = directory;
+		this.intervalMillis = intervalMillis;
+		this.listener = listener;
+	}
+
+
+	/**
+	 * Returns the current policy version.
+	 *
+	 * @return The policy version, -1 if none loaded yet.
+	 */
+	public long getVersion() {
+
+		return version;
+	}
+
+
+	/**
+	 * Parses the version from a snapshot file name.
+	 *
+	 * @param fileName The file name.
+	 *
+	 * @return The version, -1 if not a snapshot file name.
+	 */
+	public static long parseVersion(final String fileName) {
+
+		if (! fileName.startsWith(FILE_PREFIX) || ! fileName.endsWith(FILE_SUFFIX))
+			return -1L;
+
+		String digits = fileName.substring(FILE_PREFIX.length(), fileName.length() - FILE_SUFFIX.length());
+
+		if (digits.isEmpty() || digits.length() > 18)
+			return -1L;
+
+		for (int i=0; i < digits.length(); i++) {
+
+			if (digits.charAt(i) < '0' || digits.charAt(i) > '9')
+				return -1L;
+		}
+
+		return Long.parseLong(digits);
+	}
+
+
+	/**
+	 * Returns the snapshot file for the specified version.
+	 *
+	 * @param directory The snapshot directory.
+	 * @param version   The policy version.
+	 *
+	 * @return The snapshot file.
+	 */
+	public static File getFile(final File directory, final long version) {
+
+		return new File(directory, FILE_PREFIX + version + FILE_SUFFIX);
+	}
+
+
+	/**
+	 * Publishes a policy version to a snapshot directory. The snapshot is
+	 * written to a temporary file and then renamed, so that the nodes
+	 * never see a partial file where the file system supports atomic
+	 * renames.
+	 *
+	 * @param directory The snapshot directory.
+	 * @param version   The policy version, must be non-negative.
+	 * @param config    The CORS configuration.
+	 *
+	 * @return The snapshot file.
+	 *
+	 * @throws IOException If the snapshot couldn't be written.
+	 */
+	public static File write(final File directory, final long version, final CORSConfiguration config)
+		throws IOException {
+
+		if (version < 0)
+			throw new IllegalArgumentException("The policy version must not be negative");
+
+		File file = getFile(directory, version);
+
+		// The temporary file is hidden from the poll by its name
+		PolicySnapshot.write(config, file);
+
+		return file;
+	}
+
+
+	/**
+	 * Polls the directory once and loads the highest valid policy version
+	 * above the current one, if any. Versions which fail to load are
+	 * reported to the listener and the next lower one is tried.
+	 *
+	 * @return {@code true} if a new policy version was loaded.
+	 */
+	public synchronized boolean poll() {
+
+		if (stopped)
+			return false;
+
+		String[] names = directory.list();
+
+		if (names == null)
+			return false; // directory missing or unreadable, retry
+
+		long[] versions = new long[names.length];
+
+		int count = 0;
+
+		for (String name: names) {
+
+			long v = parseVersion(name);
+
+			if (v > version)
+				versions[count++] = v;
+		}
+
+		if (count == 0)
+			return false;
+
+		Arrays.sort(versions, 0, count);
+
+		for (int i=count - 1; i >= 0; i--) {
+
+			final long v = versions[i];
+
+			CORSConfiguration config;
+
+			try {
+				config = PolicySnapshot.read(getFile(directory, v));
+
+			} catch (IOException e) {
+
+				// Possibly still being copied, retried on the next poll
+				listener.policyLoadFailed(v, "Couldn't read CORS policy snapshot: " + e.getMessage());
+				continue;
+
+			} catch (CORSConfigurationException e) {
+
+				listener.policyLoadFailed(v, e.getMessage());
+				continue;
+			}
+
+			try {
+				listener.policyLoaded(v, config);
+
+			} catch (RuntimeException e) {
+
+				listener.policyLoadFailed(v, e.toString());
+				continue;
+			}
+
+			version = v;
+			return true;
+		}
+
+		return false;
+	}
+
+
+	/**
+	 * Starts polling the directory on a background thread. The first poll
+	 * is made immediately.
+	 */
+	public synchronized void start() {
+
+		if (poller != null)
+			return;
+
+		poller = new Thread("cors-policy-sync") {
+
+			@Override
+			public void run() {
+
+				while (! stopped) {
+
+					poll();
+
+					try {
+						Thread.sleep(intervalMillis);
+
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+			}
+		};
+
+		poller.setDaemon(true);
+		poller.start();
+	}
+
+
+	/**
+	 * Stops polling the directory. A poll in progress is completed before
+	 * this method returns; no policy is loaded afterwards.
+	 */
+	public void stop() {
+
+		stopped = true;
+
+		Thread poller;
+
+		synchronized (this) {
+			poller = this.poller;
+		}
+
+		if (poller != null)
+			poller.interrupt();
+	}
+}
@@ -0,0 +1,436 @@
+package com.thetransactioncompany.cors;
+
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Warms up the CORS request processing code at filter initialisation, so
+ * that the JIT compiles the hot paths before the first real requests
+ * arrive.
+ *
+ * <p>Synthetic actual, preflight and denied requests are built from the
+ * configured origins, methods and headers and are driven through the
+ * request path of the filter, see {@link Target}: the servlet adapter, the
+ * request tagging, the processor checks and the response header generation
+ * all see the same receiver types as with real requests. The filters pass
+ * proxy servlet request / response stubs, see {@link Stub}, and skip the
+ * request capture and the hot request tracking. Diagnostic events are
+ * recorded if a JFR recording is already running. The warm-up stops after
+ * the specified number of iterations or time, whichever comes first.
+ *
+ * <p>Alternatively, the requests saved by a {@link HotRequestTracker} can be
+ * replayed. The replay is bounded by the same iteration setting, so with
+ * zero iterations the warm-up stays disabled even if there are saved
+ * requests.
+ *
+ * <p>Filter init parameters:
+ *
+ * <ul>
+ *     <li>cors.warmupIterations {int} defaults to {@code 0} (disabled).
+ *     <li>cors.warmupMillis {int} defaults to {@code 1000}.
+ * </ul>
+ *
+ * @author Vladimir Dzhuvinov
+ * @version $version$ ($version-date$)
+ */
+public final class PolicyWarmup {
+
+
+	/**
+	 * The maximum number of distinct allowed origins to use.
+	 */
+	private static final int MAX_ORIGINS = 16;
+
+
+	/**
+	 * An origin which is not expected to be allowed.
+	 */
+	private static final String DENIED_ORIGIN = "https://cors-warmup.invalid";
+
+
+	/**
+	 * Drives a synthetic request through the request path of a CORS
+	 * filter, with the processor to warm up.
+	 */
+	public interface Target {
+
+
+		/**
+		 * Filters the specified synthetic request. The outcome is
+		 * ignored, denials included.
+		 *
+		 * @param method         The HTTP method.
+		 * @param origin         The "Origin" header value.
+		 * @param requestMethod  The "Access-Control-Request-Method"
+		 *                       header value, {@code null} if none.
+		 * @param requestHeaders The "Access-Control-Request-Headers"
+		 *                       header value, {@code null} if none.
+		 */
+		void request(final String method,
+		             final String origin,
+		             final String requestMethod,
+		             final String requestHeaders);
+	}
+
+
+	/**
+	 * Minimal invocation handler for proxy servlet request and response
+	 * stubs, so that a filter can drive the synthetic requests through its
+	 * own servlet adapter without a container. Answers the request method,
+	 * the CORS request headers and the request attributes, and discards
+	 * the response. Any other method returns {@code null}, {@code false}
+	 * or zero.
+	 */
+	public static final class Stub implements InvocationHandler {
+
+
+		private String method;
+
+
+		private String origin;
+
+
+		private String requestMethod;
+
+
+		private String requestHeaders;
+
+
+		private final Map<String,Object> attributes = new HashMap<String,Object>();
+
+
+		private final PrintWriter writer = new PrintWriter(new Writer() {
+
+			@Override
+			public void write(final char[] buf, final int off, final int len) {
+
+				// discard
+			}
+
+
+			@Override
+			public void flush() {
+
+				// do nothing
+			}
+
+
+			@Override
+			public void close() {
+
+				// do nothing
+			}
+		});
+
+
+		/**
+		 * Sets the next synthetic request, clearing the request
+		 * attributes.
+		 *
+		 * @param method         The HTTP method.
+		 * @param origin         The "Origin" header value.
+		 * @param requestMethod  The "Access-Control-Request-Method"
+		 *                       header value, {@code null} if none.
+		 * @param requestHeaders The "Access-Control-Request-Headers"
+		 *                       header value, {@code null} if none.
+		 */
+		public void set(final String method,
+		                final String origin,
+		                final String requestMethod,
+		                final String requestHeaders) {
+
+			this.method = method;
+			this.origin = origin;
+			this.requestMethod = requestMethod;
+			this.requestHeaders = requestHeaders;
+
+			attributes.clear();
+		}
+
+
+		/**
+		 * Creates a proxy stub of the specified servlet request or
+		 * response interface, backed by this handler.
+		 *
+		 * @param type The interface.
+		 *
+		 * @return The proxy stub.
+		 */
+		public <T> T newProxy(final Class<T> type) {
+
+			return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, this));
+		}
+
+
+		@Override
+		public Object invoke(final Object proxy, final Method m, final Object[] args) {
+
+			final String name = m.getName();
+
+			if (name.equals("getMethod"))
+				return method;
+
+			if (name.equals("getHeader")) {
+
+				final String header = (String)args[0];
+
+				if (header.equalsIgnoreCase("Origin"))
+					return origin;
+				else if (header.equalsIgnoreCase("Access-Control-Request-Method"))
+					return requestMethod;
+				else if (header.equalsIgnoreCase("Access-Control-Request-Headers"))
+					return requestHeaders;
+				else
+					return null;
+			}
+
+			if (name.equals("getAttribute"))
+				return attributes.get((String)args[0]);
+
+			if (name.equals("setAttribute")) {
+				attributes.put((String)args[0], args[1]);
+				return null;
+			}
+
+			if (name.equals("removeAttribute")) {
+				attributes.remove((String)args[0]);
+				return null;
+			}
+
+			if (name.equals("getWriter"))
+				return writer;
+
+			if (name.equals("equals"))
+				return proxy == args[0];
+
+			if (name.equals("hashCode"))
+				return System.identityHashCode(proxy);
+
+			if (name.equals("toString"))
+				return "PolicyWarmup.Stub";
+
+			final Class<?> type = m.getReturnType();
+
+			if (! type.isPrimitive() || type == void.class)
+				return null;
+			else if (type == boolean.class)
+				return false;
+			else if (type == char.class)
+				return '\0';
+			else if (type == long.class)
+				return 0L;
+			else if (type == float.class)
+				return 0f;
+			else if (type == double.class)
+				return 0d;
+			else if (type == byte.class)
+				return (byte)0;
+			else if (type == short.class)
+				return (short)0;
+			else
+				return 0;
+		}
+	}
+
+
+	/**
+	 * The maximum number of iterations or replayed requests.
+	 */
+	private final int maxIterations;
+
+
+	/**
+	 * The maximum duration, in milliseconds.
+	 */
+	private final long maxMillis;
+
+
+	/**
+	 * The requests to replay, empty for synthetic requests.
+	 */
+	private final List<RequestCapture.Record> requests;
+
+
+	/**
+	 * Creates a new warm-up.
+	 *
+	 * @param maxIterations The maximum number of iterations of synthetic
+	 *                      requests, or of replayed requests, zero to
+	 *                      disable the warm-up.
+	 * @param maxMillis     The maximum duration, in milliseconds.
+	 * @param requests      The requests to replay, hottest first,
+	 *                      empty to use synthetic requests. Each is
+	 *                      replayed at least once unless the warm-up
+	 *                      is disabled.
+	 */
+	public PolicyWarmup(final int maxIterations,
+	                    final long maxMillis,
+	                    final List<RequestCapture.Record> requests) {
+
+		this.maxIterations = maxIterations;
+		this.maxMillis = maxMillis;
+		this.requests = requests;
+	}
+
+
+	/**
+	 * Returns {@code true} if this warm-up does nothing.
+	 *
+	 * @return {@code true} if disabled.
+	 */
+	public boolean isDisabled() {
+
+		return maxIterations == 0;
+	}
+
+
+	/**
+	 * Warms up the request path of a filter.
+	 *
+	 * @param config The CORS configuration of the processor to warm up.
+	 * @param target The filter request path, with the processor to warm
+	 *               up.
+	 *
+	 * @return The number of iterations or replayed requests, zero if
+	 *         disabled.
+	 */
+	public int warmUp(final CORSConfiguration config, final Target target) {
+
+		if (isDisabled())
+			return 0;
+
+		if (! requests.isEmpty())
+			return replay(target, requests, Math.max(maxIterations, requests.size()), maxMillis);
+		else
+			return run(config, target, maxIterations, maxMillis);
+	}
+
+
+	/**
+	 * Runs a warm-up with synthetic requests.
+	 *
+	 * @param config        The CORS configuration of the processor to
+	 *                      warm up.
+	 * @param target        The filter request path.
+	 * @param maxIterations The maximum number of iterations, each of
+	 *                      several synthetic requests.
+	 * @param maxMillis     The maximum duration, in milliseconds.
+	 *
+	 * @return The number of completed iterations.
+	 */
+	public static int run(final CORSConfiguration config,
+	                      final Target target,
+	                      final int maxIterations,
+	                      final long maxMillis) {
+
+		List<String> origins = new ArrayList<String>();
+
+		Iterator<String> it = config.allowedOrigins.iterator();
+
+		while (it.hasNext() && origins.size() < MAX_ORIGINS)
+			origins.add(it.next());
+
+		if (origins.isEmpty())
+			origins.add("https://cors-warmup.example");
+
+		List<String> methods = new ArrayList<String>();
+
+		for (HTTPMethod method: config.supportedMethods) {
+
+			// An OPTIONS request with an origin is a preflight
+			if (method != HTTPMethod.OPTIONS)
+				methods.add(method.toString());
+		}
+
+		if (methods.isEmpty())
+			methods.add("GET");
+
+		StringBuilder sb = new StringBuilder();
+
+		for (HeaderFieldName header: config.supportedHeaders) {
+
+			if (sb.length() > 0)
+				sb.append(", ");
+
+			sb.append(header.toString());
+		}
+
+		final String headers = sb.toString();
+
+		// Browsers send the requested headers in lower case
+		final String lowerCaseHeaders = headers.toLowerCase();
+
+		final long deadline = System.nanoTime() + maxMillis * 1000000L;
+
+		int i = 0;
+
+		for (; i < maxIterations; i++) {
+
+			if ((i & 63) == 0 && System.nanoTime() - deadline > 0)
+				break;
+
+			final String origin = origins.get(i % origins.size());
+			final String method = methods.get(i % methods.size());
+
+			target.request(method, origin, null, null);
+
+			target.request("OPTIONS", origin, method, (i & 1) == 0 ? headers : lowerCaseHeaders);
+
+			if ((i & 7) != 0)
+				continue;
+
+			target.request(method, DENIED_ORIGIN, null, null);
+		}
+
+		return i;
+	}
+
+
+	/**
+	 * Runs a warm-up by replaying saved requests, see
+	 * {@link HotRequestTracker}. The requests are evaluated afresh against
+	 * the configuration of the processor to warm up.
+	 *
+	 * @param target      The filter request path.
+	 * @param requests    The requests to replay, hottest first.
+	 * @param maxRequests The maximum number of requests to replay, the
+	 *                    list is repeated as needed.
+	 * @param maxMillis   The maximum duration, in milliseconds.
+	 *
+	 * @return The number of replayed requests.
+	 */
+	public static int replay(final Target target,
+	                         final List<RequestCapture.Record> requests,
+	                         final int maxRequests,
+	                         final long maxMillis) {
+
+		if (requests.isEmpty())
+			return 0;
+
+		final long deadline = System.nanoTime() + maxMillis * 1000000L;
+
+		int i = 0;
+
+		for (; i < maxRequests; i++) {
+
+			if ((i & 63) == 0 && System.nanoTime() - deadline > 0)
+				break;
+
+			RequestCapture.Record r = requests.get(i % requests.size());
+
+			target.request(r.method, r.origin, r.requestMethod, r.requestHeaders);
+		}
+
+		return i;
+	}
+}
@@ -0,0 +1,667 @@
+package com.thetransactioncompany.cors;
+
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Captures the CORS-relevant headers of HTTP requests to a local file, for
+ * offline replay and benchmarking of CORS configurations.
+ *
+ * <p>Each request is written as a line of tab-separated fields:
+ *
+ * <pre>
+ * method  Origin  Access-Control-Request-Method  Access-Control-Request-Headers  request-URI
+ * </pre>
+ *
+ * <p>Missing values are written as {@code \N}. Tab, new line, carriage
+ * return and backslash characters within values are escaped as {@code \t},
+ * {@code \n}, {@code \r} and {@code \\}. The file is UTF-8 encoded.
+ *
+ * <p>The request threads only offer the records to a bounded queue, without
+ * locking or blocking; a single writer thread formats and writes them,
+ * flushing whenever the queue is drained. If the queue is full the record
+ * is dropped and counted, see {@link #getDroppedCount}.
+ *
+ * <p>If a maximum file size is set the capture file is rotated before it
+ * would exceed it: the full file is renamed by appending {@code .1} to its
+ * name, replacing the previous one, and a new file is started. The capture
+ * thus takes up to twice the maximum size on disk.
+ *
+ * <p>On an I/O exception capturing stops and the exception is kept, see
+ * {@link #getError}; the request processing is never interrupted.
+ *
+ * @author Vladimir Dzhuvinov
+ * @version $version$ ($version-date$)
+ */
+public class RequestCapture {
+
+
+	/**
+	 * A captured request.
+	 */
+	public static class Record {
+
+
+		/**
+		 * The HTTP method, {@code null} if unknown.
+		 */
+		public final String method;
+
+
+		/**
+		 * The "Origin" header value, {@code null} if none.
+		 */
+		public final String origin;
+
+
+		/**
+		 * The "Access-Control-Request-Method" header value,
+		 * {@code null} if none.
+		 */
+		public final String requestMethod;
+
+
+		/**
+		 * The "Access-Control-Request-Headers" header value,
+		 * {@code null} if none.
+		 */
+		public final String requestHeaders;
+
+
+		/**
+		 * The request URI, {@code null} if unknown.
+		 */
+		public final String requestURI;
+
+
+		/**
+		 * Creates a new captured request record.
+		 *
+		 * @param method         The HTTP method, {@code null} if
+		 *                       unknown.
+		 * @param origin         The "Origin" header value,
+		 *                       {@code null} if none.
+		 * @param requestMethod  The "Access-Control-Request-Method"
+		 *                       header value, {@code null} if none.
+		 * @param requestHeaders The "Access-Control-Request-Headers"
+		 *                       header value, {@code null} if none.
+		 * @param requestURI     The request URI, {@code null} if
+		 *                       unknown.
+		 */
+		public Record(final String method,
+		              final String origin,
+		              final String requestMethod,
+		              final String requestHeaders,
+		              final String requestURI) {
+
+			this.method = method;
+			this.origin = origin;
+			this.requestMethod = requestMethod;
+			this.requestHeaders = requestHeaders;
+			this.requestURI = requestURI;
+		}
+	}
+
+
+	/**
+	 * The number of fields per line.
+	 */
+	private static final int FIELDS = 5;
+
+
+	/**
+	 * The capacity of the record queue.
+	 */
+	private static final int QUEUE_CAPACITY = 8192;
+
+
+	/**
+	 * Marks the end of the capture in the record queue.
+	 */
+	private static final Record END = new Record(null, null, null, null, null);
+
+
+	/**
+	 * The capture file, {@code null} if writing to a writer.
+	 */
+	private final File file;
+
+
+	/**
+	 * The maximum capture file size in bytes, zero if unlimited.
+	 */
+	private final long maxBytes;
+
+
+	/**
+	 * The records to write.
+	 */
+	private final BlockingQueue<Record> queue = new ArrayBlockingQueue<Record>(QUEUE_CAPACITY);
+
+
+	/**
+	 * The number of dropped records.
+	 */
+	private final AtomicLong dropped = new AtomicLong();
+
+
+	/**
+	 * {@code true} once closed.
+	 */
+	private volatile boolean closed = false;
+
+
+	/**
+	 * The writer thread.
+	 */
+	private final Thread thread;
+
+
+	/**
+	 * The capture file writer, {@code null} if closed or failed. Used by
+	 * the writer thread only.
+	 */
+	private Writer writer;
+
+
+	/**
+	 * The size of the capture file in bytes. Used by the writer thread
+	 * only.
+	 */
+	private long size;
+
+
+	/**
+	 * The first I/O exception, {@code null} if none.
+	 */
+	private volatile IOException error = null;
+
+
+	/**
+	 * Creates a new request capture, appending to the specified file,
+	 * with no size limit.
+	 *
+	 * @param file The capture file.
+	 *
+	 * @throws IOException If the file couldn't be opened.
+	 */
+	public RequestCapture(final File file)
+		throws IOException {
+
+		this(file, 0L);
+	}
+
+
+	/**
+	 * Creates a new request capture, appending to the specified file.
+	 *
+	 * @param file     The capture file.
+	 * @param maxBytes The maximum file size in bytes before it is
+	 *                 rotated, zero if unlimited.
+	 *
+	 * @throws IOException If the file couldn't be opened.
+	 */
+	public RequestCapture(final File file, final long maxBytes)
+		throws IOException {
+
+		this(file, maxBytes, open(file));
+	}
+
+
+	/**
+	 * Creates a new request capture to the specified writer.
+	 *
+	 * @param writer The writer.
+	 */
+	public RequestCapture(final Writer writer) {
+
+		this(null, 0L, writer);
+	}
+
+
+	/**
+	 * Creates a new request capture and starts its writer thread.
+	 *
+	 * @param file     The capture file, {@code null} if writing to a
+	 *                 writer.
+	 * @param maxBytes The maximum file size in bytes, zero if
+	 *                 unlimited.
+	 * @param writer   The writer.
+	 */
+	private RequestCapture(final File file, final long maxBytes, final Writer writer) {
+
+		this.file = file;
+		this.maxBytes = maxBytes;
+		this.writer = new BufferedWriter(writer, 65536);
+
+		size = file != null ? file.length() : 0L;
+
+		thread = new Thread("cors-request-capture") {
+
+			@Override
+			public void run() {
+
+				writeRecords();
+			}
+		};
+
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+
+	/**
+	 * Opens the specified capture file for appending.
+	 *
+	 * @param file The capture file.
+	 *
+	 * @return The writer.
+	 *
+	 * @throws IOException If the file couldn't be opened.
+	 */
+	private static Writer open(final File file)
+		throws IOException {
+
+		return new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8");
+	}
+
+
+	/**
+	 * Appends an escaped field value.
+	 *
+	 * @param sb    The string builder.
+	 * @param value The value, {@code null} if none.
+	 */
+	private static void appendField(final StringBuilder sb, final String value) {
+
+		if (value == null) {
+			sb.append("\\N");
+			return;
+		}
+
+		for (int i=0; i < value.length(); i++) {
+
+			char c = value.charAt(i);
+
+			switch (c) {
+				case '\t': sb.append("\\t"); break;
+				case '\n': sb.append("\\n"); break;
+				case '\r': sb.append("\\r"); break;
+				case '\\': sb.append("\\\\"); break;
+				default: sb.append(c);
+			}
+		}
+	}
+
+
+	/**
+	 * Unescapes a field value.
+	 *
+	 * @param field The escaped field.
+	 *
+	 * @return The value, {@code null} if none.
+	 */
+	private static String parseField(final String field) {
+
+		if (field.equals("\\N"))
+			return null;
+
+		if (field.indexOf('\\') < 0)
+			return field;
+
+		StringBuilder sb = new StringBuilder(field.length());
+
+		for (int i=0; i < field.length(); i++) {
+
+			char c = field.charAt(i);
+
+			if (c != '\\' || i + 1 == field.length()) {
+				sb.append(c);
+				continue;
+			}
+
+			char n = field.charAt(++i);
+
+			switch (n) {
+				case 't': sb.append('\t'); break;
+				case 'n': sb.append('\n'); break;
+				case 'r': sb.append('\r'); break;
+				default: sb.append(n);
+			}
+		}
+
+		return sb.toString();
+	}
+
+
+	/**
+	 * Formats a captured request as a line, without the line terminator.
+	 *
+	 * @param record The captured request.
+	 *
+	 * @return The line.
+	 */
+	public static String format(final Record record) {
+
+		StringBuilder sb = new StringBuilder(128);
+
+		appendField(sb, record.method);
+		sb.append('\t');
+		appendField(sb, record.origin);
+		sb.append('\t');
+		appendField(sb, record.requestMethod);
+		sb.append('\t');
+		appendField(sb, record.requestHeaders);
+		sb.append('\t');
+		appendField(sb, record.requestURI);
+
+		return sb.toString();
+	}
+
+
+	/**
+	 * Parses a captured request line.
+	 *
+	 * @param line The line, without the line terminator.
+	 *
+	 * @return The captured request.
+	 *
+	 * @throws IllegalArgumentException On a malformed line.
+	 */
+	public static Record parse(final String line) {
+
+		String[] fields = line.split("\t", -1);
+
+		if (fields.length != FIELDS)
+			throw new IllegalArgumentException("Bad captured request line, expected " + FIELDS + " fields: " + line);
+
+		return new Record(parseField(fields[0]),
+		                  parseField(fields[1]),
+		                  parseField(fields[2]),
+		                  parseField(fields[3]),
+		                  parseField(fields[4]));
+	}
+
+
+	/**
+	 * Reads the next captured request, skipping blank lines.
+	 *
+	 * @param reader The reader.
+	 *
+	 * @return The captured request, {@code null} at the end of the
+	 *         input.
+	 *
+	 * @throws IOException              On an I/O exception.
+	 * @throws IllegalArgumentException On a malformed line.
+	 */
+	public static Record read(final BufferedReader reader)
+		throws IOException {
+
+		String line;
+
+		do {
+			line = reader.readLine();
+
+			if (line == null)
+				return null;
+
+		} while (line.trim().isEmpty());
+
+		return parse(line);
+	}
+
+
+	/**
+	 * Appends the specified request record to the capture. Returns
+	 * immediately; the record is dropped if the queue is full or the
+	 * capture is closed.
+	 *
+	 * @param record The request record.
+	 */
+	public void append(final Record record) {
+
+		if (closed)
+			return;
+
+		if (! queue.offer(record))
+			dropped.incrementAndGet();
+	}
+
+
+	/**
+	 * Writes the queued records until the end of the capture, then
+	 * closes the file. Runs on the writer thread.
+	 */
+	private void writeRecords() {
+
+		try {
+			while (true) {
+
+				Record record = queue.poll();
+
+				if (record == null) {
+
+					flushWriter();
+
+					record = queue.take();
+				}
+
+				if (record == END)
+					break;
+
+				write(record);
+			}
+
+		} catch (InterruptedException e) {
+			// stop
+		}
+
+		if (writer == null)
+			return;
+
+		try {
+			writer.close();
+
+		} catch (IOException e) {
+
+			error = e;
+		}
+
+		writer = null;
+	}
+
+
+	/**
+	 * Writes a record, rotating the capture file first if it would
+	 * exceed the maximum size.
+	 *
+	 * @param record The request record.
+	 */
+	private void write(final Record record) {
+
+		if (writer == null)
+			return;
+
+		final String line = format(record);
+
+		final long lineBytes = utf8Length(line) + 1;
+
+		try {
+			if (maxBytes > 0 && size > 0 && size + lineBytes > maxBytes)
+				rotate();
+
+			writer.write(line);
+			writer.write('\n');
+
+			size += lineBytes;
+
+		} catch (IOException e) {
+
+			fail(e);
+		}
+	}
+
+
+	/**
+	 * Renames the full capture file by appending {@code .1} to its name,
+	 * replacing the previous one, and starts a new file.
+	 *
+	 * @throws IOException On an I/O exception.
+	 */
+	private void rotate()
+		throws IOException {
+
+		writer.close();
+		writer = null;
+
+		File rotated = new File(file.getPath() + ".1");
+
+		Files.move(file.toPath(), rotated.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+		writer = new BufferedWriter(open(file), 65536);
+		size = 0L;
+	}
+
+
+	/**
+	 * Returns the UTF-8 encoded length of the specified string.
+	 *
+	 * @param s The string.
+	 *
+	 * @return The length in bytes.
+	 */
+	private static int utf8Length(final String s) {
+
+		int length = 0;
+
+		for (int i=0; i < s.length(); i++) {
+
+			char c = s.charAt(i);
+
+			if (c < 0x80) {
+				length++;
+			} else if (c < 0x800) {
+				length += 2;
+			} else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+				length += 4;
+				i++;
+			} else {
+				length += 3;
+			}
+		}
+
+		return length;
+	}
+
+
+	/**
+	 * Flushes the written records to the file.
+	 */
+	private void flushWriter() {
+
+		if (writer == null)
+			return;
+
+		try {
+			writer.flush();
+
+		} catch (IOException e) {
+
+			fail(e);
+		}
+	}
+
+
+	/**
+	 * Writes the queued records, then closes the capture file. Further
+	 * requests are not captured.
+	 */
+	public synchronized void close() {
+
+		if (closed)
+			return;
+
+		closed = true;
+
+		boolean interrupted = false;
+
+		boolean ended = false;
+
+		while (thread.isAlive()) {
+
+			try {
+				if (! ended) {
+					queue.put(END);
+					ended = true;
+				}
+
+				thread.join();
+
+			} catch (InterruptedException e) {
+
+				interrupted = true;
+			}
+		}
+
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+
+	/**
+	 * Stops capturing after an I/O exception.
+	 *
+	 * @param e The I/O exception.
+	 */
+	private void fail(final IOException e) {
+
+		error = e;
+
+		if (writer == null)
+			return;
+
+		try {
+			writer.close();
+
+		} catch (IOException ignore) {
+			// already failed
+		}
+
+		writer = null;
+	}
+
+
+	/**
+	 * Gets the I/O exception that stopped capturing.
+	 *
+	 * @return The I/O exception, {@code null} if none.
+	 */
+	public IOException getError() {
+
+		return error;
+	}
+
+
+	/**
+	 * Gets the number of requests which were not captured because the
+	 * queue was full.
+	 *
+	 * @return The number of dropped requests.
+	 */
+	public long getDroppedCount() {
+
+		return dropped.get();
+	}
+}
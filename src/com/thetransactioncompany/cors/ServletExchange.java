@@ -0,0 +1,87 @@
+package com.thetransactioncompany.cors;
+
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+
+/**
+ * Adapts an HTTP servlet request / response pair to the container-agnostic
+ * {@link CORSRequest} and {@link CORSResponse} interfaces, and to the
+ * {@link CORSFilterLifecycle.FilterExchange} of the filter.
+ *
+ * @author Vladimir Dzhuvinov
+ * @version $version$ ($version-date$)
+ */
+final class ServletExchange implements CORSFilterLifecycle.FilterExchange {
+
+
+	/**
+	 * The servlet request.
+	 */
+	private final HttpServletRequest request;
+	
+	
+	/**
+	 * The servlet response.
+	 */
+	private final HttpServletResponse response;
+	
+	
+	/**
+	 * Creates a new servlet request / response adapter.
+	 *
+	 * @param request  The servlet request.
+	 * @param response The servlet response.
+	 */
+	ServletExchange(final HttpServletRequest request, final HttpServletResponse response) {
+	
+		this.request = request;
+		this.response = response;
+	}
+	
+	
+	@Override
+	public CharSequence getMethod() {
+	
+		return request.getMethod();
+	}
+	
+	
+	@Override
+	public CharSequence getHeader(final String name) {
+	
+		return request.getHeader(name);
+	}
+	
+	
+	@Override
+	public void addHeader(final String name, final String value) {
+	
+		response.addHeader(name, value);
+	}
+	
+	
+	@Override
+	public String getRequestURI() {
+		
+		return request.getRequestURI();
+	}
+	
+	
+	@Override
+	public void setAttribute(final String name, final Object value) {
+		
+		request.setAttribute(name, value);
+	}
+	
+	
+	@Override
+	public void sendError(final int sc, final String msg)
+		throws IOException {
+		
+		CORSFilter.printMessage(response, sc, msg);
+	}
+}
@@ -34,6 +34,13 @@
  *         {@code null} if undefined.
  * </ul>
  *
+ * <p>The CORS processing logic can also be used outside servlet containers,
+ * e.g. in Netty handlers: implement the minimal 
+ * {@link com.thetransactioncompany.cors.CORSRequest} and
+ * {@link com.thetransactioncompany.cors.CORSResponse} interfaces and pass 
+ * them to a {@link com.thetransactioncompany.cors.CORSRequestProcessor}. 
+ * The servlet API is then not required.
+ *
  * <p>This CORS filter version implements the W3C 
  * <a href="http://www.w3.org/TR/cors/">working draft</a> from 2010-07-10.</p>
  *
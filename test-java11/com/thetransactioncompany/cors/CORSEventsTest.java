@@ -0,0 +1,93 @@
+package com.thetransactioncompany.cors;
+
+
+import java.io.File;
+import java.time.Duration;
+import java.util.List;
+import java.util.Properties;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import junit.framework.*;
+
+
+/**
+ * Tests the JFR events of the Java 11+ version of the CORS event hooks. Must
+ * run with the Java 11+ classes ahead of the main classes on the class path,
+ * as from the multi-release JAR.
+ *
+ * @author Vladimir Dzhuvinov
+ * @version $version$ ($version-date$)
+ */
+public class CORSEventsTest extends TestCase {
+
+
+	private static final String ACTUAL_REQUEST = "com.thetransactioncompany.cors.ActualRequest";
+
+
+	private static final String DENIED = "com.thetransactioncompany.cors.Denied";
+
+
+	private static RecordedEvent find(final List<RecordedEvent> events, final String name) {
+
+		for (RecordedEvent event: events) {
+
+			if (event.getEventType().getName().equals(name))
+				return event;
+		}
+
+		fail("No " + name + " event");
+		return null;
+	}
+
+
+	public void testDeniedEventTimedWithRequest()
+		throws Exception {
+
+		Properties props = new Properties();
+		props.setProperty("cors.allowOrigin", "http://example.com");
+
+		CORSRequestHandler handler = new CORSRequestHandler(new CORSConfiguration(props));
+
+		File file = File.createTempFile("cors-events", ".jfr");
+		file.deleteOnExit();
+
+		Recording recording = new Recording();
+		recording.enable(ACTUAL_REQUEST).withThreshold(Duration.ZERO);
+		recording.enable(DENIED).withThreshold(Duration.ZERO);
+		recording.start();
+
+		FakeHttpServletRequest request = new FakeHttpServletRequest("GET", "/resource");
+		request.setHeader("Origin", "http://evil.com");
+
+		try {
+			handler.handleActualRequest(request, new FakeHttpServletResponse());
+			fail();
+
+		} catch (CORSOriginDeniedException e) {
+			// ok
+		}
+
+		recording.stop();
+		recording.dump(file.toPath());
+		recording.close();
+
+		List<RecordedEvent> events = RecordingFile.readAllEvents(file.toPath());
+
+		RecordedEvent requestEvent = find(events, ACTUAL_REQUEST);
+		RecordedEvent deniedEvent = find(events, DENIED);
+
+		assertEquals(CORSEvents.ORIGIN_DENIED, requestEvent.getString("outcome"));
+
+		assertEquals("http://evil.com", deniedEvent.getString("origin"));
+		assertEquals(CORSEvents.ORIGIN_DENIED, deniedEvent.getString("outcome"));
+		assertEquals("actual", deniedEvent.getString("requestType"));
+
+		// Timed from the start of the request handling
+		assertTrue(deniedEvent.getDuration().compareTo(Duration.ZERO) > 0);
+		assertFalse(deniedEvent.getStartTime().isAfter(requestEvent.getEndTime()));
+		assertFalse(deniedEvent.getStartTime().isBefore(requestEvent.getStartTime()));
+	}
+}
@@ -0,0 +1,210 @@
+package com.thetransactioncompany.cors;
+
+
+import java.lang.management.ManagementFactory;
+import java.util.Properties;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+import junit.framework.*;
+
+
+/**
+ * Allocation budget regression tests for the CORS filter hot path. Measures
+ * the bytes allocated per {@link CORSFilter#doFilter} call with 
+ * {@code com.sun.management.ThreadMXBean.getThreadAllocatedBytes} and fails
+ * if a scenario exceeds its declared budget.
+ *
+ * <p>The budgets include the request attribute map entries created by the
+ * {@link FakeHttpServletRequest}. Lower a budget whenever the hot path is
+ * made to allocate less, so that regressions are caught. The tests are 
+ * skipped on JVMs without thread allocation accounting.
+ *
+ * @author Vladimir Dzhuvinov
+ * @version $version$ ($version-date$)
+ */
+public class AllocationBudgetTest extends TestCase {
+
+
+	/**
+	 * Budget for an allowed simple / actual CORS request, in bytes.
+	 */
+	public static final long ACTUAL_REQUEST_BUDGET = 1536;
+	
+	
+	/**
+	 * Budget for an allowed preflight CORS request, in bytes.
+	 */
+	public static final long PREFLIGHT_REQUEST_BUDGET = 8192;
+	
+	
+	/**
+	 * Budget for a non-CORS request passed through the filter, in bytes.
+	 */
+	public static final long OTHER_REQUEST_BUDGET = 256;
+	
+	
+	/**
+	 * The number of warm-up calls, to let the JIT compile the hot path.
+	 */
+	private static final int WARM_UP_CALLS = 20000;
+	
+	
+	/**
+	 * The number of measured calls.
+	 */
+	private static final int MEASURED_CALLS = 10000;
+	
+	
+	/**
+	 * No-op filter chain.
+	 */
+	private static final FilterChain NO_OP_CHAIN = new FilterChain() {
+	
+		public void doFilter(final ServletRequest request, final ServletResponse response) {
+		
+			// do nothing
+		}
+	};
+	
+	
+	/**
+	 * The thread MX bean, {@code null} if allocation accounting is not 
+	 * supported.
+	 */
+	private com.sun.management.ThreadMXBean threadMXBean;
+	
+	
+	private CORSFilter filter;
+	
+	
+	public void setUp()
+		throws Exception {
+	
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		
+		if (bean instanceof com.sun.management.ThreadMXBean &&
+		    ((com.sun.management.ThreadMXBean)bean).isThreadAllocatedMemorySupported()) {
+		
+			threadMXBean = (com.sun.management.ThreadMXBean)bean;
+			threadMXBean.setThreadAllocatedMemoryEnabled(true);
+		}
+		
+		Properties props = new Properties();
+		props.setProperty("cors.allowOrigin", "http://example.com https://app.example.com http://localhost:8080");
+		props.setProperty("cors.supportedMethods", "GET, POST, HEAD, OPTIONS");
+		props.setProperty("cors.supportedHeaders", "Content-Type, X-Requested-With");
+		props.setProperty("cors.exposedHeaders", "X-Request-Id");
+		props.setProperty("cors.maxAge", "3600");
+		
+		filter = new CORSFilter();
+		filter.init(new FakeFilterConfig(props));
+	}
+	
+	
+	/**
+	 * Measures the average bytes allocated per filter call.
+	 *
+	 * @param request  The request, reused between calls.
+	 * @param response The response, reused between calls.
+	 *
+	 * @return The average allocated bytes per call.
+	 */
+	private long measure(final FakeHttpServletRequest request, final FakeHttpServletResponse response)
+		throws Exception {
+	
+		for (int i=0; i < WARM_UP_CALLS; i++) {
+			request.clearAttributes();
+			response.reset();
+			filter.doFilter(request, response, NO_OP_CHAIN);
+		}
+		
+		final long threadId = Thread.currentThread().getId();
+		
+		final long before = threadMXBean.getThreadAllocatedBytes(threadId);
+		
+		for (int i=0; i < MEASURED_CALLS; i++) {
+			request.clearAttributes();
+			response.reset();
+			filter.doFilter(request, response, NO_OP_CHAIN);
+		}
+		
+		final long after = threadMXBean.getThreadAllocatedBytes(threadId);
+		
+		assertEquals(200, response.getStatus());
+		
+		return (after - before) / MEASURED_CALLS;
+	}
+	
+	
+	/**
+	 * Asserts the allocated bytes are within the budget.
+	 *
+	 * @param scenario  The scenario name.
+	 * @param allocated The allocated bytes per call.
+	 * @param budget    The budget.
+	 */
+	private static void assertWithinBudget(final String scenario, final long allocated, final long budget) {
+	
+		assertTrue(scenario + " allocates " + allocated + " bytes per call, over the budget of " + budget,
+		           allocated <= budget);
+	}
+	
+	
+	public void testActualRequestBudget()
+		throws Exception {
+	
+		if (threadMXBean == null)
+			return;
+		
+		FakeHttpServletRequest request = new FakeHttpServletRequest("GET", "/api/resource")
+			.setHeader("Origin", "https://app.example.com");
+		
+		FakeHttpServletResponse response = new FakeHttpServletResponse();
+		
+		long allocated = measure(request, response);
+		
+		assertEquals("https://app.example.com", response.getHeader("Access-Control-Allow-Origin"));
+		
+		assertWithinBudget("allowed actual request", allocated, ACTUAL_REQUEST_BUDGET);
+	}
+	
+	
+	public void testPreflightRequestBudget()
+		throws Exception {
+	
+		if (threadMXBean == null)
+			return;
+		
+		FakeHttpServletRequest request = new FakeHttpServletRequest("OPTIONS", "/api/resource")
+			.setHeader("Origin", "https://app.example.com")
+			.setHeader("Access-Control-Request-Method", "POST")
+			.setHeader("Access-Control-Request-Headers", "content-type, x-requested-with");
+		
+		FakeHttpServletResponse response = new FakeHttpServletResponse();
+		
+		long allocated = measure(request, response);
+		
+		assertEquals("https://app.example.com", response.getHeader("Access-Control-Allow-Origin"));
+		
+		assertWithinBudget("allowed preflight request", allocated, PREFLIGHT_REQUEST_BUDGET);
+	}
+	
+	
+	public void testOtherRequestBudget()
+		throws Exception {
+	
+		if (threadMXBean == null)
+			return;
+		
+		FakeHttpServletRequest request = new FakeHttpServletRequest("GET", "/api/resource");
+		
+		FakeHttpServletResponse response = new FakeHttpServletResponse();
+		
+		long allocated = measure(request, response);
+		
+		assertWithinBudget("non-CORS request", allocated, OTHER_REQUEST_BUDGET);
+	}
+}
@@ -0,0 +1,175 @@
+package com.thetransactioncompany.cors;
+
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ForkJoinPool;
+
+import junit.framework.*;
+
+
+/**
+ * Tests the bulk policy evaluator.
+ *
+ * @author Vladimir Dzhuvinov
+ * @version $version$ ($version-date$)
+ */
+public class BulkPolicyEvaluatorTest extends TestCase {
+
+
+	private static CORSConfiguration createConfig()
+		throws CORSConfigurationException {
+
+		Properties props = new Properties();
+		props.setProperty("cors.allowOrigin", "http://example.com");
+		props.setProperty("cors.supportedMethods", "GET, POST");
+		props.setProperty("cors.supportedHeaders", "Content-Type");
+
+		return new CORSConfiguration(props);
+	}
+
+
+	public void testEvaluate()
+		throws CORSConfigurationException {
+
+		BulkPolicyEvaluator evaluator = new BulkPolicyEvaluator(createConfig());
+
+		assertEquals(PolicyDecision.ALLOWED, evaluator.evaluate(new BulkPolicyEvaluator.Request("http://example.com", "GET", null)));
+		assertEquals(PolicyDecision.ORIGIN_DENIED, evaluator.evaluate(new BulkPolicyEvaluator.Request("http://evil.com", "GET", null)));
+		assertEquals(PolicyDecision.METHOD_UNSUPPORTED, evaluator.evaluate(new BulkPolicyEvaluator.Request("http://example.com", "DELETE", null)));
+		assertEquals(PolicyDecision.NOT_CORS, evaluator.evaluate(new BulkPolicyEvaluator.Request(null, "GET", null)));
+
+		assertEquals(PolicyDecision.ALLOWED, evaluator.evaluate(new BulkPolicyEvaluator.Request("http://example.com", "post", "Content-Type")));
+		assertEquals(PolicyDecision.ALLOWED, evaluator.evaluate(new BulkPolicyEvaluator.Request("http://example.com", "POST", "")));
+		assertEquals(PolicyDecision.HEADER_UNSUPPORTED, evaluator.evaluate(new BulkPolicyEvaluator.Request("http://example.com", "POST", "X-Custom")));
+		assertEquals(PolicyDecision.INVALID, evaluator.evaluate(new BulkPolicyEvaluator.Request("http://example.com", null, "")));
+
+		evaluator.close();
+	}
+
+
+	public void testParallelAudit()
+		throws CORSConfigurationException {
+
+		// Small batches to exercise the batching and splitting
+		ForkJoinPool pool = new ForkJoinPool(4);
+
+		BulkPolicyEvaluator evaluator = new BulkPolicyEvaluator(createConfig(), pool, 3000);
+
+		List<BulkPolicyEvaluator.Request> requests = new ArrayList<BulkPolicyEvaluator.Request>();
+
+		final int n = 50000;
+
+		for (int i=0; i < n; i++) {
+
+			switch (i % 4) {
+				case 0: requests.add(new BulkPolicyEvaluator.Request("http://example.com", "GET", null)); break;
+				case 1: requests.add(new BulkPolicyEvaluator.Request("http://evil.com", "GET", null)); break;
+				case 2: requests.add(new BulkPolicyEvaluator.Request("http://example.com", "PUT", "")); break;
+				default: requests.add(new BulkPolicyEvaluator.Request(null, "GET", null));
+			}
+		}
+
+		PolicyAudit audit = evaluator.evaluate(requests.iterator());
+
+		assertEquals(n, audit.getTotal());
+		assertEquals(n / 4, audit.getTotal(PolicyDecision.ORIGIN_DENIED));
+		assertEquals(3, audit.getOrigins().size());
+
+		assertEquals(12500, audit.getCount("http://example.com", PolicyDecision.ALLOWED));
+		assertEquals(12500, audit.getCount("http://example.com", PolicyDecision.METHOD_UNSUPPORTED));
+		assertEquals(12500, audit.getDenials("http://example.com"));
+		assertEquals(12500, audit.getDenials("http://evil.com"));
+		assertEquals(0, audit.getDenials(null));
+		assertEquals(12500, audit.getCount(null, PolicyDecision.NOT_CORS));
+
+		// The caller's pool is left running
+		evaluator.close();
+		assertFalse(pool.isShutdown());
+
+		pool.shutdown();
+	}
+
+
+	public void testReadCaptureLog()
+		throws Exception {
+
+		String log = "OPTIONS\thttp://example.com\tPOST\t\\N\t/a\n" +
+		             "\n" +
+		             "GET\thttp://example.com\t\\N\t\\N\t/b\n" +
+		             "OPTIONS\thttp://example.com\t\\N\t\\N\t/c\n";
+
+		PolicyAuditTool.LogIterator it = new PolicyAuditTool.LogIterator(new BufferedReader(new StringReader(log)), false);
+
+		BulkPolicyEvaluator.Request r = it.next();
+		assertTrue(r.isPreflight());
+		assertEquals("POST", r.method);
+		assertEquals("", r.requestHeaders);
+
+		r = it.next();
+		assertFalse(r.isPreflight());
+		assertEquals("GET", r.method);
+
+		r = it.next();
+		assertFalse(r.isPreflight());
+		assertEquals("OPTIONS", r.method);
+
+		assertFalse(it.hasNext());
+	}
+
+
+	public void testReadTSVLog()
+		throws Exception {
+
+		String log = "http://example.com\tGET\t\\N\n" +
+		             "\\N\tPOST\tContent-Type\n";
+
+		PolicyAuditTool.LogIterator it = new PolicyAuditTool.LogIterator(new BufferedReader(new StringReader(log)), true);
+
+		BulkPolicyEvaluator.Request r = it.next();
+		assertEquals("http://example.com", r.origin);
+		assertFalse(r.isPreflight());
+
+		r = it.next();
+		assertNull(r.origin);
+		assertEquals("POST", r.method);
+		assertEquals("Content-Type", r.requestHeaders);
+
+		assertFalse(it.hasNext());
+	}
+
+
+	public void testSkipMalformedLines()
+		throws Exception {
+
+		String capture = "GET\thttp://example.com\t\\N\t\\N\t/a\n" +
+		                 "GET\thttp://example.com\n" +
+		                 "OPTIONS\thttp://example.com\tPOST\t\\N\t/b\n";
+
+		PolicyAuditTool.LogIterator it = new PolicyAuditTool.LogIterator(new BufferedReader(new StringReader(capture)), false);
+
+		assertEquals("GET", it.next().method);
+		assertEquals("POST", it.next().method);
+		assertFalse(it.hasNext());
+		assertEquals(1, it.getMalformedCount());
+
+		String tsv = "http://example.com\tGET\t\\N\n" +
+		             "http://example.com\tGET\t\\N\textra\textra\n" +
+		             "bad\n" +
+		             "http://example.com\tPOST\tContent-Type\n";
+
+		it = new PolicyAuditTool.LogIterator(new BufferedReader(new StringReader(tsv)), true);
+
+		BulkPolicyEvaluator evaluator = new BulkPolicyEvaluator(createConfig());
+
+		PolicyAudit audit = evaluator.evaluate(it);
+
+		evaluator.close();
+
+		assertEquals(2, audit.getTotal());
+		assertEquals(2, it.getMalformedCount());
+	}
+}
@@ -284,5 +284,124 @@ public class CORSConfigurationTest extends TestCase {
 		assertEquals(100, c.maxAge);
 	
 	}
-
+	
+	
+	public void testServerTiming() {
+	
+		Properties p = new Properties();
+		
+		CORSConfiguration c = null;
+		
+		try {
+			c = new CORSConfiguration(p);
+		
+		} catch (CORSConfigurationException e) {
+			fail(e.getMessage());
+		}
+		
+		assertFalse(c.serverTiming);
+		
+		p.setProperty("cors.serverTiming", "true");
+		
+		try {
+			c = new CORSConfiguration(p);
+		
+		} catch (CORSConfigurationException e) {
+			fail(e.getMessage());
+		}
+		
+		assertTrue(c.serverTiming);
+	}
+	
+	
+	public void testTimingAllowOrigin() {
+	
+		Properties p = new Properties();
+		
+		CORSConfiguration c = null;
+		
+		try {
+			c = new CORSConfiguration(p);
+		
+		} catch (CORSConfigurationException e) {
+			fail(e.getMessage());
+		}
+		
+		assertFalse(c.timingAllowOrigin);
+		
+		p.setProperty("cors.timingAllowOrigin", "true");
+		
+		try {
+			c = new CORSConfiguration(p);
+		
+		} catch (CORSConfigurationException e) {
+			fail(e.getMessage());
+		}
+		
+		assertTrue(c.timingAllowOrigin);
+	}
+	
+	
+	public void testCompilePolicy() {
+	
+		Properties p = new Properties();
+		
+		CORSConfiguration c = null;
+		
+		try {
+			c = new CORSConfiguration(p);
+		
+		} catch (CORSConfigurationException e) {
+			fail(e.getMessage());
+		}
+		
+		assertFalse(c.compilePolicy);
+		
+		p.setProperty("cors.compilePolicy", "true");
+		
+		try {
+			c = new CORSConfiguration(p);
+		
+		} catch (CORSConfigurationException e) {
+			fail(e.getMessage());
+		}
+		
+		assertTrue(c.compilePolicy);
+	}
+	
+	
+	public void testAllowedOriginsUnmodifiable()
+		throws Exception {
+	
+		Properties p = new Properties();
+		p.setProperty("cors.allowOrigin", "http://example.com");
+		
+		CORSConfiguration c = new CORSConfiguration(p);
+		
+		try {
+			c.allowedOrigins.add("http://evil.com");
+			fail();
+			
+		} catch (UnsupportedOperationException e) {
+			// ok
+		}
+		
+		assertFalse(c.isAllowedOrigin("http://evil.com"));
+		
+		// Also when loaded from a snapshot
+		java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream();
+		PolicySnapshot.write(c, out);
+		
+		c = PolicySnapshot.read(out.toByteArray());
+		
+		try {
+			c.allowedOrigins.clear();
+			fail();
+			
+		} catch (UnsupportedOperationException e) {
+			// ok
+		}
+		
+		assertTrue(c.isAllowedOrigin("http://example.com"));
+	}
 }
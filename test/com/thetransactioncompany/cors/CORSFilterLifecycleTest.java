@@ -0,0 +1,212 @@
+package com.thetransactioncompany.cors;
+
+
+import java.lang.management.ManagementFactory;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import junit.framework.*;
+
+
+/**
+ * Tests the container-independent CORS filter lifecycle.
+ *
+ * @author Vladimir Dzhuvinov
+ * @version $version$ ($version-date$)
+ */
+public class CORSFilterLifecycleTest extends TestCase {
+
+
+	private static final AtomicInteger warmupRequests = new AtomicInteger();
+
+
+	private static CORSFilterLifecycle<CORSRequestProcessor> createLifecycle() {
+
+		return new CORSFilterLifecycle<CORSRequestProcessor>() {
+
+			@Override
+			protected CORSRequestProcessor createProcessor(final CORSConfiguration config,
+			                                               final boolean compilePolicy,
+			                                               final long policyVersion) {
+
+				return new CORSRequestProcessor(config, compilePolicy, policyVersion);
+			}
+
+
+			@Override
+			protected PolicyWarmup.Target createWarmupTarget(final CORSRequestProcessor processor) {
+
+				return new PolicyWarmup.Target() {
+
+					@Override
+					public void request(final String method,
+					                    final String origin,
+					                    final String requestMethod,
+					                    final String requestHeaders) {
+
+						warmupRequests.incrementAndGet();
+					}
+				};
+			}
+		};
+	}
+
+
+	public void testInit()
+		throws Exception {
+
+		CORSFilterLifecycle<CORSRequestProcessor> lifecycle = createLifecycle();
+
+		assertNull(lifecycle.getProcessor());
+
+		Properties props = new Properties();
+		props.setProperty("cors.allowOrigin", "http://example.com");
+		props.setProperty("cors.policyAdmin", "true");
+
+		lifecycle.init("CORS", props);
+
+		assertEquals("cors.filtered.CORS", lifecycle.getFilteredAttribute());
+		assertTrue(lifecycle.getProcessor().getConfiguration().isAllowedOrigin("http://example.com"));
+		assertTrue(lifecycle.getStatus().isPolicyReady());
+		assertNull(lifecycle.getCapture());
+		assertNull(lifecycle.getHotRequestTracker());
+
+		// Runtime changes are published as a new processor
+		CORSRequestProcessor processor = lifecycle.getProcessor();
+
+		assertTrue(lifecycle.getPolicyAdmin().addAllowedOrigin("http://other.com"));
+
+		assertNotSame(processor, lifecycle.getProcessor());
+		assertTrue(lifecycle.getProcessor().getConfiguration().isAllowedOrigin("http://other.com"));
+
+		// Re-initialisation discards them
+		props.remove("cors.policyAdmin");
+		lifecycle.init(null, props);
+
+		assertEquals(CORSFilterLifecycle.FILTERED_ATTRIBUTE, lifecycle.getFilteredAttribute());
+		assertFalse(lifecycle.getProcessor().getConfiguration().isAllowedOrigin("http://other.com"));
+		assertNull(lifecycle.getPolicyAdmin());
+
+		lifecycle.destroy();
+	}
+
+
+	public void testWarmup()
+		throws Exception {
+
+		Properties props = new Properties();
+		props.setProperty("cors.allowOrigin", "http://example.com");
+		props.setProperty("cors.warmupIterations", "10");
+
+		warmupRequests.set(0);
+
+		CORSFilterLifecycle<CORSRequestProcessor> lifecycle = createLifecycle();
+		lifecycle.init("CORS", props);
+		lifecycle.destroy();
+
+		// 10 actual and 10 preflight requests, 2 denied
+		assertEquals(22, warmupRequests.get());
+	}
+
+
+	public void testBackgroundBuildError()
+		throws Exception {
+
+		CORSFilterLifecycle<CORSRequestProcessor> lifecycle = new CORSFilterLifecycle<CORSRequestProcessor>() {
+
+			@Override
+			protected CORSRequestProcessor createProcessor(final CORSConfiguration config,
+			                                               final boolean compilePolicy,
+			                                               final long policyVersion) {
+
+				if (compilePolicy)
+					throw new Error("Simulated policy build error");
+
+				return new CORSRequestProcessor(config, false, policyVersion);
+			}
+
+
+			@Override
+			protected PolicyWarmup.Target createWarmupTarget(final CORSRequestProcessor processor) {
+
+				throw new UnsupportedOperationException();
+			}
+		};
+
+		Properties props = new Properties();
+		props.setProperty("cors.allowOrigin", "http://example.com");
+		props.setProperty("cors.compilePolicy", "true");
+		props.setProperty("cors.backgroundInit", "true");
+
+		lifecycle.init("CORS", props);
+
+		CORSRequestProcessor fallback = lifecycle.getProcessor();
+
+		for (int i=0; i < 500 && lifecycle.getStatus().getPolicyBuildError() == null; i++)
+			Thread.sleep(10);
+
+		assertEquals("java.lang.Error: Simulated policy build error", lifecycle.getStatus().getPolicyBuildError());
+		assertFalse(lifecycle.getStatus().isPolicyReady());
+		assertSame(fallback, lifecycle.getProcessor());
+
+		lifecycle.destroy();
+	}
+
+
+	public void testRegistrationFailureKeepsPreviousInit()
+		throws Exception {
+
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+		ObjectName taken = new ObjectName("com.thetransactioncompany.cors:type=Taken");
+		server.registerMBean(new CORSFilterStatus(), taken);
+
+		CORSFilterLifecycle<CORSRequestProcessor> lifecycle = createLifecycle();
+
+		Properties props = new Properties();
+		props.setProperty("cors.allowOrigin", "http://example.com");
+		props.setProperty("cors.mbeanName", "com.thetransactioncompany.cors:type=CORSFilterStatus,name=Rollback");
+
+		lifecycle.init("CORS", props);
+
+		CORSRequestProcessor processor = lifecycle.getProcessor();
+
+		props.setProperty("cors.allowOrigin", "http://other.com");
+		props.setProperty("cors.mbeanName", taken.toString());
+
+		try {
+			lifecycle.init("CORS", props);
+			fail();
+
+		} catch (CORSConfigurationException e) {
+			// ok
+		}
+
+		// The previous initialisation stays in effect
+		assertSame(processor, lifecycle.getProcessor());
+		assertTrue(server.isRegistered(new ObjectName("com.thetransactioncompany.cors:type=CORSFilterStatus,name=Rollback")));
+
+		lifecycle.destroy();
+		server.unregisterMBean(taken);
+	}
+
+
+	public void testBadParameter() {
+
+		Properties props = new Properties();
+		props.setProperty("cors.syncDirectory", "/tmp");
+		props.setProperty("cors.syncIntervalSeconds", "x");
+
+		try {
+			createLifecycle().init("CORS", props);
+			fail();
+
+		} catch (CORSConfigurationException e) {
+
+			assertEquals("Bad cors.syncIntervalSeconds filter init parameter: x", e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,358 @@
+package com.thetransactioncompany.cors;
+
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Properties;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+import junit.framework.*;
+
+
+/**
+ * Tests the CORS filter class.
+ *
+ * @author Vladimir Dzhuvinov
+ * @version $version$ ($version-date$)
+ */
+public class CORSFilterTest extends TestCase {
+	
+	
+	public void testRepeatedDispatchProcessedOnce()
+		throws Exception {
+	
+		Properties props = new Properties();
+		props.setProperty("cors.allowOrigin", "http://example.com");
+		
+		final CORSFilter filter = new CORSFilter();
+		filter.init(new FakeFilterConfig(props));
+		
+		final int[] reached = new int[1];
+		
+		// Forwards the request once through the filter again, like a
+		// filter mapped to the REQUEST and FORWARD dispatcher types
+		FilterChain forwardingChain = new FilterChain() {
+		
+			public void doFilter(final ServletRequest request, final ServletResponse response)
+				throws IOException, ServletException {
+			
+				if (reached[0]++ == 0)
+					filter.doFilter(request, response, this);
+			}
+		};
+		
+		FakeHttpServletRequest request = new FakeHttpServletRequest("GET", "/resource");
+		request.setHeader("Origin", "http://example.com");
+		
+		FakeHttpServletResponse response = new FakeHttpServletResponse();
+		
+		filter.doFilter(request, response, forwardingChain);
+		
+		assertEquals(2, reached[0]);
+		assertEquals(Boolean.TRUE, request.getAttribute(CORSFilter.FILTERED_ATTRIBUTE + ".CORS"));
+		assertEquals("http://example.com", response.getHeader("Access-Control-Allow-Origin"));
+		
+		int count = response.getHeaderCount();
+		
+		// A new request is processed again
+		request.clearAttributes();
+		response.reset();
+		filter.doFilter(request, response, forwardingChain);
+		
+		assertEquals(3, reached[0]);
+		assertEquals(count, response.getHeaderCount());
+	}
+	
+	
+	public void testTwoFiltersInChain()
+		throws Exception {
+	
+		Properties props = new Properties();
+		props.setProperty("cors.allowOrigin", "http://example.com");
+		
+		final CORSFilter first = new CORSFilter();
+		first.init(new FakeFilterConfig("CORS-1", props));
+		
+		props = new Properties();
+		props.setProperty("cors.allowOrigin", "http://example.com");
+		props.setProperty("cors.exposedHeaders", "X-Second");
+		
+		final CORSFilter second = new CORSFilter();
+		second.init(new FakeFilterConfig("CORS-2", props));
+		
+		final int[] reached = new int[1];
+		
+		final FilterChain servlet = new FilterChain() {
+		
+			public void doFilter(final ServletRequest request, final ServletResponse response) {
+			
+				reached[0]++;
+			}
+		};
+		
+		FilterChain chain = new FilterChain() {
+		
+			public void doFilter(final ServletRequest request, final ServletResponse response)
+				throws IOException, ServletException {
+			
+				second.doFilter(request, response, servlet);
+			}
+		};
+		
+		FakeHttpServletRequest request = new FakeHttpServletRequest("GET", "/resource");
+		request.setHeader("Origin", "http://example.com");
+		
+		FakeHttpServletResponse response = new FakeHttpServletResponse();
+		
+		first.doFilter(request, response, chain);
+		
+		// Both policies applied
+		assertEquals(1, reached[0]);
+		assertEquals(Boolean.TRUE, request.getAttribute(CORSFilter.FILTERED_ATTRIBUTE + ".CORS-1"));
+		assertEquals(Boolean.TRUE, request.getAttribute(CORSFilter.FILTERED_ATTRIBUTE + ".CORS-2"));
+		assertEquals("X-Second", response.getHeader("Access-Control-Expose-Headers"));
+	}
+	
+	
+	public void testBackgroundInit()
+		throws Exception {
+	
+		StringBuilder origins = new StringBuilder();
+		
+		for (int i=0; i < 1000; i++)
+			origins.append("https://app").append(i).append(".example.com ");
+		
+		Properties props = new Properties();
+		props.setProperty("cors.allowOrigin", origins.toString());
+		props.setProperty("cors.compilePolicy", "true");
+		props.setProperty("cors.backgroundInit", "true");
+		props.setProperty("cors.mbeanName", "com.thetransactioncompany.cors:type=CORSFilter,name=test");
+		
+		CORSFilter filter = new CORSFilter();
+		filter.init(new FakeFilterConfig(props));
+		
+		CORSFilterStatus status = filter.getStatus();
+		
+		assertEquals(1000, status.getAllowedOriginCount());
+		assertTrue(status.getConfigurationLoadMillis() >= 0);
+		
+		// Correct answers whether or not the compiled policy is ready
+		for (int i=0; i < 20; i++) {
+		
+			FakeHttpServletRequest request = new FakeHttpServletRequest("GET", "/resource");
+			request.setHeader("Origin", "https://app" + (i * 37) + ".example.com");
+			
+			FakeHttpServletResponse response = new FakeHttpServletResponse();
+			
+			filter.doFilter(request, response, new FilterChain() {
+			
+				public void doFilter(final ServletRequest request, final ServletResponse response) { }
+			});
+			
+			assertEquals("https://app" + (i * 37) + ".example.com", response.getHeader("Access-Control-Allow-Origin"));
+		}
+		
+		for (int i=0; i < 500 && ! status.isPolicyReady(); i++)
+			Thread.sleep(10);
+		
+		assertTrue(status.isPolicyReady());
+		assertTrue(status.getPolicyBuildMillis() >= 0);
+		assertNull(status.getPolicyBuildError());
+		
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName("com.thetransactioncompany.cors:type=CORSFilter,name=test");
+		
+		assertEquals(Boolean.TRUE, server.getAttribute(name, "PolicyReady"));
+		assertEquals(1000, server.getAttribute(name, "AllowedOriginCount"));
+		
+		filter.destroy();
+		
+		assertFalse(server.isRegistered(name));
+	}
+	
+	
+	public void testMBeanNameChangedOnReinit()
+		throws Exception {
+		
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName first = new ObjectName("com.thetransactioncompany.cors:type=CORSFilter,name=first");
+		ObjectName second = new ObjectName("com.thetransactioncompany.cors:type=CORSFilter,name=second");
+		
+		ObjectName firstAdmin = new ObjectName(first + ",component=PolicyAdmin");
+		ObjectName secondAdmin = new ObjectName(second + ",component=PolicyAdmin");
+		
+		Properties props = new Properties();
+		props.setProperty("cors.mbeanName", first.toString());
+		props.setProperty("cors.policyAdmin", "true");
+		
+		CORSFilter filter = new CORSFilter();
+		filter.init(new FakeFilterConfig(props));
+		
+		assertTrue(server.isRegistered(first));
+		assertTrue(server.isRegistered(firstAdmin));
+		
+		props.setProperty("cors.mbeanName", second.toString());
+		filter.init(new FakeFilterConfig(props));
+		
+		assertFalse(server.isRegistered(first));
+		assertFalse(server.isRegistered(firstAdmin));
+		assertTrue(server.isRegistered(second));
+		assertTrue(server.isRegistered(secondAdmin));
+		
+		props.remove("cors.mbeanName");
+		filter.init(new FakeFilterConfig(props));
+		
+		assertFalse(server.isRegistered(second));
+		assertFalse(server.isRegistered(secondAdmin));
+		
+		filter.destroy();
+	}
+	
+	
+	public void testSynchronousInitReady()
+		throws Exception {
+	
+		CORSFilter filter = new CORSFilter();
+		filter.init(new FakeFilterConfig(new Properties()));
+		
+		assertTrue(filter.getStatus().isPolicyReady());
+		assertTrue(filter.getStatus().getPolicyBuildMillis() >= 0);
+		assertEquals(0, filter.getStatus().getAllowedOriginCount());
+	}
+	
+	
+	private static FakeHttpServletResponse doRequest(final CORSFilter filter, final FakeHttpServletRequest request)
+		throws Exception {
+	
+		FakeHttpServletResponse response = new FakeHttpServletResponse();
+		
+		filter.doFilter(request, response, new FilterChain() {
+		
+			public void doFilter(final ServletRequest request, final ServletResponse response) { }
+		});
+		
+		return response;
+	}
+	
+	
+	public void testPolicyAdmin()
+		throws Exception {
+	
+		Properties props = new Properties();
+		props.setProperty("cors.allowOrigin", "https://a.example.com");
+		props.setProperty("cors.supportedMethods", "GET, OPTIONS");
+		props.setProperty("cors.compilePolicy", "true");
+		props.setProperty("cors.policyAdmin", "true");
+		props.setProperty("cors.mbeanName", "com.thetransactioncompany.cors:type=CORSFilter,name=admin");
+		
+		CORSFilter filter = new CORSFilter();
+		filter.init(new FakeFilterConfig(props));
+		
+		CORSPolicyAdmin admin = filter.getPolicyAdmin();
+		
+		assertNotNull(admin);
+		assertEquals(1, admin.getAllowedOriginCount());
+		
+		FakeHttpServletRequest request = new FakeHttpServletRequest("GET", "/resource");
+		request.setHeader("Origin", "https://b.example.com");
+		assertNull(doRequest(filter, request).getHeader("Access-Control-Allow-Origin"));
+		
+		assertTrue(admin.addAllowedOrigin("HTTPS://B.example.com"));
+		assertFalse(admin.addAllowedOrigin("https://b.example.com"));
+		assertTrue(admin.isListedOrigin("https://b.example.com"));
+		assertEquals(2, filter.getStatus().getAllowedOriginCount());
+		
+		request = new FakeHttpServletRequest("GET", "/resource");
+		request.setHeader("Origin", "https://b.example.com");
+		assertEquals("https://b.example.com", doRequest(filter, request).getHeader("Access-Control-Allow-Origin"));
+		
+		// Method and header changes apply to preflight requests
+		request = new FakeHttpServletRequest("OPTIONS", "/resource");
+		request.setHeader("Origin", "https://b.example.com");
+		request.setHeader("Access-Control-Request-Method", "PUT");
+		request.setHeader("Access-Control-Request-Headers", "X-Requested-With");
+		assertNull(doRequest(filter, request).getHeader("Access-Control-Allow-Origin"));
+		
+		assertTrue(admin.addSupportedMethod("put"));
+		assertTrue(admin.addSupportedHeader("X-Requested-With"));
+		
+		request = new FakeHttpServletRequest("OPTIONS", "/resource");
+		request.setHeader("Origin", "https://b.example.com");
+		request.setHeader("Access-Control-Request-Method", "PUT");
+		request.setHeader("Access-Control-Request-Headers", "X-Requested-With");
+		assertEquals("https://b.example.com", doRequest(filter, request).getHeader("Access-Control-Allow-Origin"));
+		
+		assertTrue(admin.removeSupportedHeader("x-requested-with"));
+		assertFalse(admin.removeSupportedHeader("X-Requested-With"));
+		
+		try {
+			admin.addSupportedMethod("FETCH");
+			fail();
+			
+		} catch (IllegalArgumentException e) {
+			// ok
+		}
+		
+		// JMX operations
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName("com.thetransactioncompany.cors:type=CORSFilter,name=admin,component=PolicyAdmin");
+		
+		Object removed = server.invoke(name, "removeAllowedOrigin", new Object[]{"https://b.example.com"}, new String[]{String.class.getName()});
+		
+		assertEquals(Boolean.TRUE, removed);
+		assertEquals(1, server.getAttribute(name, "AllowedOriginCount"));
+		
+		request = new FakeHttpServletRequest("GET", "/resource");
+		request.setHeader("Origin", "https://b.example.com");
+		assertNull(doRequest(filter, request).getHeader("Access-Control-Allow-Origin"));
+		
+		// Changes are discarded on re-initialisation
+		admin.addAllowedOrigin("https://c.example.com");
+		filter.init(new FakeFilterConfig(props));
+		assertFalse(filter.getPolicyAdmin().isListedOrigin("https://c.example.com"));
+		
+		filter.destroy();
+		
+		assertFalse(server.isRegistered(name));
+	}
+	
+	
+	public void testPolicyAdminDisabled()
+		throws Exception {
+	
+		CORSFilter filter = new CORSFilter();
+		filter.init(new FakeFilterConfig(new Properties()));
+		
+		assertNull(filter.getPolicyAdmin());
+	}
+	
+	
+	public void testPolicyAdminAnyOrigin()
+		throws Exception {
+		
+		Properties props = new Properties();
+		props.setProperty("cors.allowOrigin", "*");
+		props.setProperty("cors.policyAdmin", "true");
+		
+		CORSFilter filter = new CORSFilter();
+		filter.init(new FakeFilterConfig(props));
+		
+		try {
+			filter.getPolicyAdmin().addAllowedOrigin("https://a.example.com");
+			fail();
+		
+		} catch (IllegalStateException e) {
+			// ok
+		}
+		
+		assertFalse(filter.getPolicyAdmin().isListedOrigin("https://a.example.com"));
+		
+		filter.destroy();
+	}
+}
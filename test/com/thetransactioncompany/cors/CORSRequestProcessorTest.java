@@ -0,0 +1,153 @@
+package com.thetransactioncompany.cors;
+
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import junit.framework.*;
+
+
+/**
+ * Tests the container-agnostic CORS request processor.
+ *
+ * @author Vladimir Dzhuvinov
+ * @version $version$ ($version-date$)
+ */
+public class CORSRequestProcessorTest extends TestCase {
+
+
+	/**
+	 * Request with headers backed by string builders, as a native server
+	 * would provide views over its buffers.
+	 */
+	private static class BufferRequest implements CORSRequest {
+	
+		final String method;
+		
+		final Map<String,StringBuilder> headers = new HashMap<String,StringBuilder>();
+		
+		BufferRequest(final String method) {
+			this.method = method;
+		}
+		
+		BufferRequest setHeader(final String name, final String value) {
+			headers.put(name, new StringBuilder(value));
+			return this;
+		}
+		
+		public CharSequence getMethod() {
+			return new StringBuilder(method);
+		}
+		
+		public CharSequence getHeader(final String name) {
+			return headers.get(name);
+		}
+	}
+	
+	
+	private static class ListResponse implements CORSResponse {
+	
+		final List<String> headers = new ArrayList<String>();
+		
+		public void addHeader(final String name, final String value) {
+			headers.add(name + ": " + value);
+		}
+	}
+	
+	
+	public void testDetect() {
+	
+		assertEquals(CORSRequestType.OTHER, CORSRequestProcessor.detect(new BufferRequest("GET")));
+		
+		assertEquals(CORSRequestType.ACTUAL, CORSRequestProcessor.detect(
+			new BufferRequest("GET").setHeader("Origin", "http://example.com")));
+		
+		assertEquals(CORSRequestType.PREFLIGHT, CORSRequestProcessor.detect(
+			new BufferRequest("OPTIONS").setHeader("Origin", "http://example.com")
+			                            .setHeader("Access-Control-Request-Method", "PUT")));
+	}
+	
+	
+	public void testHandleActualRequest()
+		throws Exception {
+	
+		Properties props = new Properties();
+		props.setProperty("cors.allowOrigin", "http://example.com");
+		props.setProperty("cors.exposedHeaders", "X-Custom");
+		
+		CORSRequestProcessor processor = new CORSRequestProcessor(new CORSConfiguration(props));
+		
+		ListResponse response = new ListResponse();
+		
+		processor.handleActualRequest(new BufferRequest("GET").setHeader("Origin", "http://example.com"), response);
+		
+		assertEquals("Access-Control-Allow-Origin: http://example.com", response.headers.get(0));
+		assertEquals("Access-Control-Allow-Credentials: true", response.headers.get(1));
+		assertEquals("Access-Control-Expose-Headers: X-Custom", response.headers.get(2));
+		assertEquals(3, response.headers.size());
+		
+		try {
+			processor.handleActualRequest(new BufferRequest("GET").setHeader("Origin", "http://evil.com"), new ListResponse());
+			fail();
+			
+		} catch (CORSOriginDeniedException e) {
+			// ok
+		}
+	}
+	
+	
+	public void testHandlePreflightRequest()
+		throws Exception {
+	
+		Properties props = new Properties();
+		props.setProperty("cors.supportedHeaders", "Content-Type");
+		
+		CORSRequestProcessor processor = new CORSRequestProcessor(new CORSConfiguration(props));
+		
+		ListResponse response = new ListResponse();
+		
+		processor.handlePreflightRequest(new BufferRequest("OPTIONS").setHeader("Origin", "http://example.com")
+		                                                             .setHeader("Access-Control-Request-Method", "post")
+		                                                             .setHeader("Access-Control-Request-Headers", "content-type"),
+		                                 response);
+		
+		assertTrue(response.headers.contains("Access-Control-Allow-Origin: http://example.com"));
+		assertTrue(response.headers.contains("Access-Control-Allow-Headers: Content-Type"));
+		
+		try {
+			processor.handlePreflightRequest(new BufferRequest("OPTIONS").setHeader("Origin", "http://example.com")
+			                                                             .setHeader("Access-Control-Request-Method", "POST")
+			                                                             .setHeader("Access-Control-Request-Headers", "X-Other"),
+			                                 new ListResponse());
+			fail();
+			
+		} catch (UnsupportedHTTPHeaderException e) {
+			// ok
+		}
+		
+		try {
+			processor.handlePreflightRequest(new BufferRequest("GET").setHeader("Origin", "http://example.com"), new ListResponse());
+			fail();
+			
+		} catch (InvalidCORSRequestException e) {
+			// ok
+		}
+	}
+	
+	
+	public void testFormatServerTiming() {
+	
+		assertEquals("cors;dur=0.000", CORSRequestProcessor.formatServerTiming(0));
+		assertEquals("cors;dur=0.000", CORSRequestProcessor.formatServerTiming(-1));
+		assertEquals("cors;dur=0.001", CORSRequestProcessor.formatServerTiming(1000));
+		assertEquals("cors;dur=0.042", CORSRequestProcessor.formatServerTiming(41600));
+		assertEquals("cors;dur=1.500", CORSRequestProcessor.formatServerTiming(1500000));
+		assertEquals("cors;dur=1234.567", CORSRequestProcessor.formatServerTiming(1234567000L));
+		
+		// The per-thread buffer is reused
+		assertEquals("cors;dur=0.042", CORSRequestProcessor.formatServerTiming(41600));
+	}
+}
@@ -0,0 +1,275 @@
+package com.thetransactioncompany.cors;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import junit.framework.*;
+
+
+/**
+ * Tests the compiled CORS access policy against the generic policy
+ * evaluation.
+ *
+ * @author Vladimir Dzhuvinov
+ * @version $version$ ($version-date$)
+ */
+public class CompiledPolicyTest extends TestCase {
+
+
+	/**
+	 * The tested configurations, as allowOrigin, supportedHeaders,
+	 * exposedHeaders, supportsCredentials, maxAge, timingAllowOrigin,
+	 * allowOriginSuffixMatching.
+	 */
+	private static final String[][] CONFIGS = {
+		{ "*", "", "", "true", "-1", "false", "false" },
+		{ "*", "Content-Type", "X-Custom", "false", "3600", "true", "false" },
+		{ "http://example.com", "Content-Type, X-Requested-With", "", "true", "600", "true", "false" },
+		{ "http://a.com http://b.com http://c.com http://d.com http://e.com http://f.com",
+		  "A-1 A-2 A-3 A-4 A-5 A-6 Content-Type Key", "X-1, X-2", "false", "-1", "false", "false" },
+		{ "https://example.com", "", "", "true", "-1", "true", "true" }
+	};
+
+
+	/**
+	 * The tested requests, as origin, method / requested method, requested
+	 * headers ({@code null} for an actual request).
+	 */
+	private static final String[][] REQUESTS = {
+		{ "http://example.com", "GET", null },
+		{ "http://example.com", "DELETE", null },
+		{ "http://example.com", "get", null },
+		{ "http://example.com", "FOO", null },
+		{ "http://evil.com", "GET", null },
+		{ "http://e.com", "POST", null },
+		{ "http://evil.com http://example.com", "GET", null },
+		{ " http://example.com ", "GET", null },
+		{ "", "GET", null },
+		{ "https://sub.example.com", "GET", null },
+		{ "http://example.com", "post", "" },
+		{ "http://example.com", "POST", "content-type" },
+		{ "http://example.com", "POST", "Content-Type, x-requested-with" },
+		{ "http://example.com", "POST", "a-5,A-6  CONTENT-TYPE" },
+		{ "http://example.com", "POST", "X-Other" },
+		{ "http://example.com", "PUT", "X-Other" },
+		{ "http://example.com", "PUT", "Content-Type, 1bad" },
+		{ "http://example.com", "POST", ",Content-Type" },
+		{ "http://example.com", "POST", "Content-Type,,X-Requested-With" },
+		{ "http://example.com", "POST", "Content-Type," },
+		{ "http://example.com", "POST", "\u212Aey" },
+		{ "http://example.com", "POST", "Content-Type ,, X-Requested-With ," },
+		{ ",http://example.com", "GET", null },
+		{ "http://evil.com,, http://example.com ,", "GET", null },
+		{ "\u0001http://example.com\u0001", "GET", null },
+		{ "http://example.com", "opt\u0131ons", "" },
+		{ "http://example.com", "BAD", "Content-Type" },
+		{ "http://evil.com", "POST", "Content-Type" },
+		{ "http://a.com", "GET", "A-3" }
+	};
+
+
+	private static CORSRequestProcessor createProcessor(final String[] c, final boolean compile)
+		throws Exception {
+
+		Properties props = new Properties();
+		props.setProperty("cors.allowOrigin", c[0]);
+		props.setProperty("cors.supportedMethods", "GET, POST, HEAD, OPTIONS");
+		props.setProperty("cors.supportedHeaders", c[1]);
+		props.setProperty("cors.exposedHeaders", c[2]);
+		props.setProperty("cors.supportsCredentials", c[3]);
+		props.setProperty("cors.maxAge", c[4]);
+		props.setProperty("cors.timingAllowOrigin", c[5]);
+		props.setProperty("cors.allowOriginSuffixMatching", c[6]);
+		props.setProperty("cors.compilePolicy", Boolean.toString(compile));
+
+		return new CORSRequestProcessor(new CORSConfiguration(props));
+	}
+
+
+	/**
+	 * Returns a non-string view of the specified value, as supplied by
+	 * native server handlers.
+	 */
+	private static CharSequence view(final String value) {
+
+		return value != null ? new StringBuilder(value) : null;
+	}
+
+
+	/**
+	 * Evaluates a request, recording the outcome and the response headers.
+	 */
+	private static List<String> evaluate(final CORSRequestProcessor processor, final String[] r) {
+
+		return evaluate(processor, r, false);
+	}
+
+
+	/**
+	 * Evaluates a request, recording the outcome and the response headers.
+	 * The request values are optionally passed as non-string views.
+	 */
+	private static List<String> evaluate(final CORSRequestProcessor processor, final String[] r, final boolean views) {
+
+		final List<String> out = new ArrayList<String>();
+
+		CORSResponse response = new CORSResponse() {
+
+			public void addHeader(final String name, final String value) {
+
+				out.add(name + ": " + value);
+			}
+		};
+
+		try {
+			String matched;
+
+			if (r[2] == null) {
+				matched = views ?
+					processor.checkActualRequest(view(r[0]), view(r[1])) :
+					processor.checkActualRequest(r[0], r[1]);
+				processor.addActualResponseHeaders(response, r[0], matched);
+			}
+			else {
+				matched = views ?
+					processor.checkPreflightRequest(view(r[0]), view(r[1]), view(r[2])) :
+					processor.checkPreflightRequest(r[0], r[1], r[2]);
+				processor.addPreflightResponseHeaders(response, r[0]);
+			}
+
+			out.add("matched " + matched);
+
+		} catch (CORSOriginDeniedException e) {
+			out.add(e.getClass().getName() + " " + e.getMessage() + " " + Arrays.asList(e.getRequestOrigins()));
+
+		} catch (UnsupportedHTTPMethodException e) {
+			out.add(e.getClass().getName() + " " + e.getMessage() + " " + e.getRequestedMethod());
+
+		} catch (UnsupportedHTTPHeaderException e) {
+			out.add(e.getClass().getName() + " " + e.getMessage() + " " + e.getRequestHeader());
+
+		} catch (CORSException e) {
+			out.add(e.getClass().getName() + " " + e.getMessage());
+		}
+
+		return out;
+	}
+
+
+	public void testSameOutcomeAsGeneric()
+		throws Exception {
+
+		for (String[] c: CONFIGS) {
+
+			CORSRequestProcessor generic = createProcessor(c, false);
+			CORSRequestProcessor compiled = createProcessor(c, true);
+
+			for (String[] r: REQUESTS) {
+
+				assertEquals(Arrays.asList(c) + " " + Arrays.asList(r),
+				             evaluate(generic, r), evaluate(compiled, r));
+
+				assertEquals(Arrays.asList(c) + " " + Arrays.asList(r),
+				             evaluate(generic, r), evaluate(compiled, r, true));
+			}
+		}
+	}
+
+
+	public void testListedOriginNotCopied()
+		throws Exception {
+
+		CORSRequestProcessor processor = createProcessor(CONFIGS[3], true);
+
+		String listed = null;
+
+		for (String origin: processor.getConfiguration().allowedOrigins) {
+
+			if (origin.equals("http://e.com"))
+				listed = origin;
+		}
+
+		assertSame(listed, processor.checkActualRequest(view("http://e.com"), view("GET")));
+		assertSame(listed, processor.checkActualRequest(view("http://x.com, http://e.com"), view("GET")));
+	}
+
+
+	public void testHandleRequests()
+		throws Exception {
+
+		CORSRequestProcessor processor = createProcessor(CONFIGS[2], true);
+
+		final List<String> headers = new ArrayList<String>();
+
+		CORSResponse response = new CORSResponse() {
+
+			public void addHeader(final String name, final String value) {
+
+				headers.add(name + ": " + value);
+			}
+		};
+
+		CORSRequest request = new CORSRequest() {
+
+			public CharSequence getMethod() {
+
+				return "OPTIONS";
+			}
+
+			public CharSequence getHeader(final String name) {
+
+				if (name.equals("Origin"))
+					return "http://example.com";
+				else if (name.equals("Access-Control-Request-Method"))
+					return "POST";
+				else
+					return null;
+			}
+		};
+
+		processor.handlePreflightRequest(request, response);
+
+		assertEquals(5, headers.size());
+		assertEquals("Access-Control-Allow-Origin: http://example.com", headers.get(0));
+		assertEquals("Access-Control-Allow-Credentials: true", headers.get(1));
+		assertEquals("Access-Control-Max-Age: 600", headers.get(2));
+		assertTrue(headers.get(3).startsWith("Access-Control-Allow-Methods: "));
+		assertTrue(headers.get(4).startsWith("Access-Control-Allow-Headers: "));
+	}
+	
+	
+	public void testStringTable() {
+
+		List<String> small = Arrays.asList("Content-Type", "X-Requested-With");
+		List<String> large = Arrays.asList("A-1", "A-2", "A-3", "A-4", "A-5", "A-6", "Content-Type");
+
+		for (List<String> items: Arrays.asList(small, large)) {
+
+			CompiledPolicy.StringTable exact = new CompiledPolicy.StringTable(items, false);
+			CompiledPolicy.StringTable ignoreCase = new CompiledPolicy.StringTable(items, true);
+
+			for (String item: items) {
+				assertTrue(exact.contains(item));
+				assertTrue(ignoreCase.contains(item));
+				assertTrue(ignoreCase.contains(item.toLowerCase()));
+				assertTrue(ignoreCase.contains(item.toUpperCase()));
+			}
+
+			assertFalse(exact.contains("content-type"));
+			assertFalse(exact.contains("X-Other"));
+			assertFalse(ignoreCase.contains("X-Other"));
+			assertFalse(ignoreCase.contains(""));
+
+			assertEquals("Content-Type", ignoreCase.get(view("x-content-type, "), 2, 14));
+			assertNull(exact.get(view("x-content-type, "), 2, 14));
+		}
+
+		// US-ASCII case folding only
+		CompiledPolicy.StringTable table = new CompiledPolicy.StringTable(Arrays.asList("Key"), true);
+		assertTrue(table.contains("KEY"));
+		assertFalse(table.contains("\u212Aey"));
+	}
+}
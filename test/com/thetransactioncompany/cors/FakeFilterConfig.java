@@ -0,0 +1,79 @@
+package com.thetransactioncompany.cors;
+
+
+import java.util.Properties;
+import java.util.Enumeration;
+
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
+
+
+/**
+ * Fake filter configuration for tests and benchmarks, backed by Java
+ * properties.
+ *
+ * @author Vladimir Dzhuvinov
+ * @version $version$ ($version-date$)
+ */
+public class FakeFilterConfig implements FilterConfig {
+
+
+	/**
+	 * The filter name.
+	 */
+	private final String filterName;
+	
+	
+	/**
+	 * The filter init parameters.
+	 */
+	private final Properties params;
+	
+	
+	/**
+	 * Creates a new fake filter configuration named "CORS".
+	 *
+	 * @param params The filter init parameters.
+	 */
+	public FakeFilterConfig(final Properties params) {
+	
+		this("CORS", params);
+	}
+	
+	
+	/**
+	 * Creates a new fake filter configuration.
+	 *
+	 * @param filterName The filter name.
+	 * @param params     The filter init parameters.
+	 */
+	public FakeFilterConfig(final String filterName, final Properties params) {
+	
+		this.filterName = filterName;
+		this.params = params;
+	}
+	
+	
+	public String getFilterName() {
+	
+		return filterName;
+	}
+	
+	
+	public ServletContext getServletContext() {
+	
+		return null;
+	}
+	
+	
+	public String getInitParameter(final String name) {
+	
+		return params.getProperty(name);
+	}
+	
+	
+	public Enumeration getInitParameterNames() {
+	
+		return params.propertyNames();
+	}
+}
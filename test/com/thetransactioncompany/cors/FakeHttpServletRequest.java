@@ -0,0 +1,296 @@
+package com.thetransactioncompany.cors;
+
+
+import java.io.BufferedReader;
+import java.security.Principal;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+
+
+/**
+ * Lightweight fake HTTP servlet request for tests and benchmarks. Supports
+ * the method, request URI, headers and attributes; the remaining methods 
+ * return {@code null} or a neutral value.
+ *
+ * <p>Headers are kept in small arrays and looked up case-insensitively. A
+ * request may be reused between invocations by calling 
+ * {@link #clearAttributes}.
+ *
+ * @author Vladimir Dzhuvinov
+ * @version $version$ ($version-date$)
+ */
+public class FakeHttpServletRequest implements HttpServletRequest {
+
+
+	/**
+	 * The HTTP method.
+	 */
+	private final String method;
+	
+	
+	/**
+	 * The request URI.
+	 */
+	private final String requestURI;
+	
+	
+	/**
+	 * The header names.
+	 */
+	private String[] headerNames = new String[4];
+	
+	
+	/**
+	 * The header values.
+	 */
+	private String[] headerValues = new String[4];
+	
+	
+	/**
+	 * The number of headers.
+	 */
+	private int headerCount = 0;
+	
+	
+	/**
+	 * The request attributes.
+	 */
+	private final Map<String,Object> attributes = new HashMap<String,Object>();
+	
+	
+	/**
+	 * Creates a new fake HTTP servlet request.
+	 *
+	 * @param method     The HTTP method, e.g. {@code GET}.
+	 * @param requestURI The request URI, e.g. {@code /api/resource}.
+	 */
+	public FakeHttpServletRequest(final String method, final String requestURI) {
+	
+		this.method = method;
+		this.requestURI = requestURI;
+	}
+	
+	
+	/**
+	 * Sets a request header. Headers with {@code null} values are 
+	 * ignored.
+	 *
+	 * @param name  The header name.
+	 * @param value The header value, {@code null} if none.
+	 *
+	 * @return This request.
+	 */
+	public FakeHttpServletRequest setHeader(final String name, final String value) {
+	
+		if (value == null)
+			return this;
+	
+		if (headerCount == headerNames.length) {
+		
+			String[] names = new String[headerCount * 2];
+			String[] values = new String[headerCount * 2];
+			System.arraycopy(headerNames, 0, names, 0, headerCount);
+			System.arraycopy(headerValues, 0, values, 0, headerCount);
+			headerNames = names;
+			headerValues = values;
+		}
+		
+		headerNames[headerCount] = name;
+		headerValues[headerCount] = value;
+		headerCount++;
+		
+		return this;
+	}
+	
+	
+	/**
+	 * Removes all request attributes, so the request can be reused.
+	 */
+	public void clearAttributes() {
+	
+		attributes.clear();
+	}
+
+
+	public String getHeader(final String name) {
+	
+		for (int i=0; i < headerCount; i++) {
+		
+			if (headerNames[i].equalsIgnoreCase(name))
+				return headerValues[i];
+		}
+		
+		return null;
+	}
+	
+	
+	public Enumeration getHeaders(final String name) {
+	
+		String value = getHeader(name);
+		
+		if (value == null)
+			return Collections.enumeration(Collections.emptyList());
+		
+		return Collections.enumeration(Collections.singletonList(value));
+	}
+	
+	
+	public Enumeration getHeaderNames() {
+	
+		String[] names = new String[headerCount];
+		System.arraycopy(headerNames, 0, names, 0, headerCount);
+		return Collections.enumeration(java.util.Arrays.asList(names));
+	}
+	
+	
+	public long getDateHeader(final String name) {
+	
+		return -1L;
+	}
+	
+	
+	public int getIntHeader(final String name) {
+	
+		String value = getHeader(name);
+		return value == null ? -1 : Integer.parseInt(value);
+	}
+	
+	
+	public String getMethod() {
+	
+		return method;
+	}
+	
+	
+	public String getRequestURI() {
+	
+		return requestURI;
+	}
+	
+	
+	public StringBuffer getRequestURL() {
+	
+		return new StringBuffer("http://localhost").append(requestURI);
+	}
+	
+	
+	public Object getAttribute(final String name) {
+	
+		return attributes.get(name);
+	}
+	
+	
+	public Enumeration getAttributeNames() {
+	
+		return Collections.enumeration(attributes.keySet());
+	}
+	
+	
+	public void setAttribute(final String name, final Object value) {
+	
+		if (value == null)
+			attributes.remove(name);
+		else
+			attributes.put(name, value);
+	}
+	
+	
+	public void removeAttribute(final String name) {
+	
+		attributes.remove(name);
+	}
+	
+	
+	public String getAuthType() { return null; }
+	
+	public Cookie[] getCookies() { return null; }
+	
+	public String getPathInfo() { return null; }
+	
+	public String getPathTranslated() { return null; }
+	
+	public String getContextPath() { return ""; }
+	
+	public String getQueryString() { return null; }
+	
+	public String getRemoteUser() { return null; }
+	
+	public boolean isUserInRole(final String role) { return false; }
+	
+	public Principal getUserPrincipal() { return null; }
+	
+	public String getRequestedSessionId() { return null; }
+	
+	public String getServletPath() { return requestURI; }
+	
+	public HttpSession getSession(final boolean create) { return null; }
+	
+	public HttpSession getSession() { return null; }
+	
+	public boolean isRequestedSessionIdValid() { return false; }
+	
+	public boolean isRequestedSessionIdFromCookie() { return false; }
+	
+	public boolean isRequestedSessionIdFromURL() { return false; }
+	
+	public boolean isRequestedSessionIdFromUrl() { return false; }
+	
+	public String getCharacterEncoding() { return null; }
+	
+	public void setCharacterEncoding(final String env) { }
+	
+	public int getContentLength() { return -1; }
+	
+	public String getContentType() { return null; }
+	
+	public ServletInputStream getInputStream() { return null; }
+	
+	public String getParameter(final String name) { return null; }
+	
+	public Enumeration getParameterNames() { return Collections.enumeration(Collections.emptyList()); }
+	
+	public String[] getParameterValues(final String name) { return null; }
+	
+	public Map getParameterMap() { return Collections.emptyMap(); }
+	
+	public String getProtocol() { return "HTTP/1.1"; }
+	
+	public String getScheme() { return "http"; }
+	
+	public String getServerName() { return "localhost"; }
+	
+	public int getServerPort() { return 80; }
+	
+	public BufferedReader getReader() { return null; }
+	
+	public String getRemoteAddr() { return "127.0.0.1"; }
+	
+	public String getRemoteHost() { return "localhost"; }
+	
+	public Locale getLocale() { return Locale.getDefault(); }
+	
+	public Enumeration getLocales() { return Collections.enumeration(Collections.singletonList(Locale.getDefault())); }
+	
+	public boolean isSecure() { return false; }
+	
+	public RequestDispatcher getRequestDispatcher(final String path) { return null; }
+	
+	public String getRealPath(final String path) { return null; }
+	
+	public int getRemotePort() { return 0; }
+	
+	public String getLocalName() { return "localhost"; }
+	
+	public String getLocalAddr() { return "127.0.0.1"; }
+	
+	public int getLocalPort() { return 80; }
+}
@@ -0,0 +1,278 @@
+package com.thetransactioncompany.cors;
+
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Locale;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletResponse;
+
+
+/**
+ * Lightweight fake HTTP servlet response for tests and benchmarks. Records
+ * the status code, headers and written text; the remaining methods do 
+ * nothing. A response may be reused between invocations by calling 
+ * {@link #reset}.
+ *
+ * @author Vladimir Dzhuvinov
+ * @version $version$ ($version-date$)
+ */
+public class FakeHttpServletResponse implements HttpServletResponse {
+
+
+	/**
+	 * The status code.
+	 */
+	private int status = SC_OK;
+	
+	
+	/**
+	 * The header names.
+	 */
+	private String[] headerNames = new String[8];
+	
+	
+	/**
+	 * The header values.
+	 */
+	private String[] headerValues = new String[8];
+	
+	
+	/**
+	 * The number of headers.
+	 */
+	private int headerCount = 0;
+	
+	
+	/**
+	 * The content type.
+	 */
+	private String contentType = null;
+	
+	
+	/**
+	 * The response body buffer, created on demand.
+	 */
+	private StringWriter body = null;
+	
+	
+	/**
+	 * The response writer, created on demand.
+	 */
+	private PrintWriter writer = null;
+	
+	
+	/**
+	 * Gets the status code.
+	 *
+	 * @return The status code.
+	 */
+	public int getStatus() {
+	
+		return status;
+	}
+	
+	
+	/**
+	 * Gets the first value of the specified header.
+	 *
+	 * @param name The header name.
+	 *
+	 * @return The header value, {@code null} if not set.
+	 */
+	public String getHeader(final String name) {
+	
+		for (int i=0; i < headerCount; i++) {
+		
+			if (headerNames[i].equalsIgnoreCase(name))
+				return headerValues[i];
+		}
+		
+		return null;
+	}
+	
+	
+	/**
+	 * Gets the number of headers set.
+	 *
+	 * @return The header count.
+	 */
+	public int getHeaderCount() {
+	
+		return headerCount;
+	}
+	
+	
+	/**
+	 * Gets the written response body.
+	 *
+	 * @return The response body, empty string if none.
+	 */
+	public String getBody() {
+	
+		if (writer != null)
+			writer.flush();
+	
+		return body == null ? "" : body.toString();
+	}
+	
+	
+	public void addHeader(final String name, final String value) {
+	
+		if (headerCount == headerNames.length) {
+		
+			String[] names = new String[headerCount * 2];
+			String[] values = new String[headerCount * 2];
+			System.arraycopy(headerNames, 0, names, 0, headerCount);
+			System.arraycopy(headerValues, 0, values, 0, headerCount);
+			headerNames = names;
+			headerValues = values;
+		}
+		
+		headerNames[headerCount] = name;
+		headerValues[headerCount] = value;
+		headerCount++;
+	}
+	
+	
+	public void setHeader(final String name, final String value) {
+	
+		for (int i=0; i < headerCount; i++) {
+		
+			if (headerNames[i].equalsIgnoreCase(name)) {
+				headerValues[i] = value;
+				return;
+			}
+		}
+		
+		addHeader(name, value);
+	}
+	
+	
+	public boolean containsHeader(final String name) {
+	
+		return getHeader(name) != null;
+	}
+	
+	
+	public void setIntHeader(final String name, final int value) {
+	
+		setHeader(name, Integer.toString(value));
+	}
+	
+	
+	public void addIntHeader(final String name, final int value) {
+	
+		addHeader(name, Integer.toString(value));
+	}
+	
+	
+	public void setDateHeader(final String name, final long date) {
+	
+		setHeader(name, Long.toString(date));
+	}
+	
+	
+	public void addDateHeader(final String name, final long date) {
+	
+		addHeader(name, Long.toString(date));
+	}
+	
+	
+	public void setStatus(final int sc) {
+	
+		status = sc;
+	}
+	
+	
+	public void setStatus(final int sc, final String msg) {
+	
+		status = sc;
+	}
+	
+	
+	public void sendError(final int sc, final String msg) {
+	
+		status = sc;
+	}
+	
+	
+	public void sendError(final int sc) {
+	
+		status = sc;
+	}
+	
+	
+	public String getContentType() {
+	
+		return contentType;
+	}
+	
+	
+	public void setContentType(final String type) {
+	
+		contentType = type;
+	}
+	
+	
+	public PrintWriter getWriter() {
+	
+		if (writer == null) {
+			body = new StringWriter();
+			writer = new PrintWriter(body);
+		}
+		
+		return writer;
+	}
+	
+	
+	public void resetBuffer() {
+	
+		if (body != null)
+			body.getBuffer().setLength(0);
+	}
+	
+	
+	public void reset() {
+	
+		status = SC_OK;
+		headerCount = 0;
+		contentType = null;
+		resetBuffer();
+	}
+	
+	
+	public void addCookie(final Cookie cookie) { }
+	
+	public String encodeURL(final String url) { return url; }
+	
+	public String encodeRedirectURL(final String url) { return url; }
+	
+	public String encodeUrl(final String url) { return url; }
+	
+	public String encodeRedirectUrl(final String url) { return url; }
+	
+	public void sendRedirect(final String location) { status = SC_FOUND; }
+	
+	public String getCharacterEncoding() { return "ISO-8859-1"; }
+	
+	public ServletOutputStream getOutputStream() { return null; }
+	
+	public void setCharacterEncoding(final String charset) { }
+	
+	public void setContentLength(final int len) { }
+	
+	public void setBufferSize(final int size) { }
+	
+	public int getBufferSize() { return 0; }
+	
+	public void flushBuffer() { }
+	
+	public boolean isCommitted() { return false; }
+	
+	public void setLocale(final Locale loc) { }
+	
+	public Locale getLocale() { return Locale.getDefault(); }
+}
@@ -0,0 +1,213 @@
+package com.thetransactioncompany.cors;
+
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+import junit.framework.*;
+
+
+/**
+ * Tests the hot request tracker.
+ *
+ * @author Vladimir Dzhuvinov
+ * @version $version$ ($version-date$)
+ */
+public class HotRequestTrackerTest extends TestCase {
+
+
+	private static File createTempFile()
+		throws Exception {
+
+		File file = File.createTempFile("cors-hot", ".txt");
+		file.delete();
+		file.deleteOnExit();
+		return file;
+	}
+
+
+	public void testSaveAndLoad()
+		throws Exception {
+
+		File file = createTempFile();
+
+		HotRequestTracker tracker = new HotRequestTracker(file, 0);
+
+		for (int i=0; i < 10; i++)
+			tracker.record("OPTIONS", "https://a.com", "PUT", "Content-Type");
+
+		for (int i=0; i < 5; i++)
+			tracker.record("GET", "https://b.com", null, null);
+
+		tracker.record("GET", "https://c.com", null, null);
+
+		tracker.stop();
+
+		List<RequestCapture.Record> records = HotRequestTracker.load(file);
+
+		assertEquals(3, records.size());
+
+		assertEquals("OPTIONS", records.get(0).method);
+		assertEquals("https://a.com", records.get(0).origin);
+		assertEquals("PUT", records.get(0).requestMethod);
+		assertEquals("Content-Type", records.get(0).requestHeaders);
+		assertNull(records.get(0).requestURI);
+
+		assertEquals("https://b.com", records.get(1).origin);
+		assertNull(records.get(1).requestMethod);
+		assertEquals("https://c.com", records.get(2).origin);
+
+		// Decayed, the single hit key dropped
+		assertEquals(2, tracker.getHotKeys(10).size());
+	}
+
+
+	public void testRecordSkipsInvalidKeys()
+		throws Exception {
+
+		HotRequestTracker tracker = new HotRequestTracker(createTempFile(), 0);
+
+		StringBuilder longHost = new StringBuilder("https://");
+
+		while (longHost.length() <= HotRequestTracker.MAX_KEY_LENGTH)
+			longHost.append("a");
+
+		tracker.record("GET", longHost.append(".com").toString(), null, null);
+		tracker.record("GET", "ftp://a.com", null, null);
+		tracker.record("GET", "https://a.com", null, null);
+
+		assertEquals(1, tracker.getHotKeys(10).size());
+		assertTrue(tracker.getHotKeys(10).get(0).contains("https://a.com"));
+	}
+
+
+	public void testEmptySaveKeepsFile()
+		throws Exception {
+
+		File file = createTempFile();
+
+		HotRequestTracker tracker = new HotRequestTracker(file, 0);
+		tracker.record("GET", "https://a.com", null, null);
+		tracker.save();
+
+		new HotRequestTracker(file, 0).stop();
+
+		assertEquals(1, HotRequestTracker.load(file).size());
+	}
+
+
+	public void testLoadMissingOrMalformed()
+		throws Exception {
+
+		File file = createTempFile();
+
+		assertTrue(HotRequestTracker.load(file).isEmpty());
+
+		FileOutputStream out = new FileOutputStream(file);
+		out.write("bad line\nGET\thttps://a.com\t\\N\t\\N\t\\N\n".getBytes("UTF-8"));
+		out.close();
+
+		List<RequestCapture.Record> records = HotRequestTracker.load(file);
+
+		assertEquals(1, records.size());
+		assertEquals("https://a.com", records.get(0).origin);
+	}
+
+
+	public void testFilterRoundTrip()
+		throws Exception {
+
+		File file = createTempFile();
+
+		Properties props = new Properties();
+		props.setProperty("cors.allowOrigin", "https://a.com https://b.com");
+		props.setProperty("cors.hotRequestFile", file.getPath());
+
+		CORSFilter filter = new CORSFilter();
+		filter.init(new FakeFilterConfig(props));
+
+		FilterChain chain = new FilterChain() {
+
+			public void doFilter(final ServletRequest request, final ServletResponse response) { }
+		};
+
+		for (int i=0; i < 2000; i++) {
+
+			FakeHttpServletRequest request = new FakeHttpServletRequest("GET", "/resource");
+			request.setHeader("Origin", "https://a.com");
+			filter.doFilter(request, new FakeHttpServletResponse(), chain);
+
+			// Denied, not recorded
+			request = new FakeHttpServletRequest("GET", "/resource");
+			request.setHeader("Origin", "https://evil.com");
+			filter.doFilter(request, new FakeHttpServletResponse(), chain);
+		}
+
+		filter.destroy();
+
+		List<RequestCapture.Record> records = HotRequestTracker.load(file);
+
+		assertEquals(1, records.size());
+		assertEquals("https://a.com", records.get(0).origin);
+
+		// The saved requests are replayed against the new configuration
+		props.setProperty("cors.allowOrigin", "https://b.com");
+		props.setProperty("cors.warmupIterations", "100");
+
+		filter = new CORSFilter();
+		filter.init(new FakeFilterConfig(props));
+
+		FakeHttpServletRequest request = new FakeHttpServletRequest("GET", "/resource");
+		request.setHeader("Origin", "https://a.com");
+
+		FakeHttpServletResponse response = new FakeHttpServletResponse();
+
+		filter.doFilter(request, response, chain);
+
+		assertEquals(403, response.getStatus());
+
+		filter.destroy();
+	}
+
+
+	public void testReplay()
+		throws Exception {
+
+		Properties props = new Properties();
+		props.setProperty("cors.allowOrigin", "https://a.com");
+
+		CORSConfiguration config = new CORSConfiguration(props);
+
+		final List<String> replayed = new ArrayList<String>();
+
+		PolicyWarmup.Target target = new PolicyWarmup.Target() {
+
+			@Override
+			public void request(final String method,
+			                    final String origin,
+			                    final String requestMethod,
+			                    final String requestHeaders) {
+
+				replayed.add(method + " " + origin);
+			}
+		};
+
+		List<RequestCapture.Record> requests = Arrays.asList(
+			new RequestCapture.Record("GET", "https://a.com", null, null, null),
+			new RequestCapture.Record("OPTIONS", "https://a.com", "POST", "X-Denied", null));
+
+		assertEquals(2, new PolicyWarmup(1, 60000, requests).warmUp(config, target));
+		assertEquals(Arrays.asList("GET https://a.com", "OPTIONS https://a.com"), replayed);
+		assertEquals(50, new PolicyWarmup(50, 60000, requests).warmUp(config, target));
+		assertTrue(new PolicyWarmup(0, 60000, Collections.<RequestCapture.Record>emptyList()).isDisabled());
+	}
+}
@@ -0,0 +1,191 @@
+package com.thetransactioncompany.cors;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import junit.framework.*;
+
+
+/**
+ * Tests the origin list loader.
+ *
+ * @author Vladimir Dzhuvinov
+ * @version $version$ ($version-date$)
+ */
+public class OriginListLoaderTest extends TestCase {
+
+
+	private static Set<String> load(final String list, final int parallelism, final int batchSize)
+		throws Exception {
+
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+
+		try {
+			OriginListLoader loader = new OriginListLoader(pool, batchSize);
+			return loader.load(new ByteArrayInputStream(list.getBytes("UTF-8")));
+
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+
+	public void testLoad()
+		throws Exception {
+
+		String list = "# Partners\n" +
+		              "http://example.com\n" +
+		              "\n" +
+		              "  HTTP://Example.COM  \n" +
+		              "https://a.com, https://b.com:8443 https://c.com\n";
+
+		Set<String> origins = load(list, 2, 2);
+
+		assertEquals(4, origins.size());
+		assertTrue(origins.contains("http://example.com"));
+		assertTrue(origins.contains("https://a.com"));
+		assertTrue(origins.contains("https://b.com:8443"));
+		assertTrue(origins.contains("https://c.com"));
+	}
+
+
+	public void testEmpty()
+		throws Exception {
+
+		assertTrue(load("", 1, 1).isEmpty());
+		assertTrue(load("# none\n\n", 1, 1).isEmpty());
+	}
+
+
+	public void testLargeList()
+		throws Exception {
+
+		StringBuilder sb = new StringBuilder();
+
+		for (int i=0; i < 10000; i++)
+			sb.append("https://app").append(i % 9000).append(".example.com\n");
+
+		Set<String> origins = load(sb.toString(), 4, 1000);
+
+		assertEquals(9000, origins.size());
+
+		for (int i=0; i < 9000; i++)
+			assertTrue(origins.contains("https://app" + i + ".example.com"));
+	}
+
+
+	public void testReportAllInvalid()
+		throws Exception {
+
+		StringBuilder sb = new StringBuilder();
+
+		for (int i=1; i <= 3000; i++) {
+
+			if (i == 2 || i == 1500 || i == 2999)
+				sb.append("example.com\n");
+			else
+				sb.append("https://app").append(i).append(".example.com\n");
+		}
+
+		try {
+			load(sb.toString(), 4, 100);
+			fail();
+
+		} catch (CORSConfigurationException e) {
+
+			assertEquals("3 bad origin URLs in allowed origin list: " +
+			             "line 2: example.com; line 1500: example.com; line 2999: example.com",
+			             e.getMessage());
+		}
+	}
+
+
+	public void testReportedInvalidCapped()
+		throws Exception {
+
+		StringBuilder sb = new StringBuilder();
+
+		for (int i=1; i <= 3000; i++)
+			sb.append(i <= 100 ? "https://app" + i + ".example.com" : "app" + i + ".example.com").append('\n');
+
+		try {
+			load(sb.toString(), 4, 100);
+			fail();
+
+		} catch (CORSConfigurationException e) {
+
+			assertTrue(e.getMessage().startsWith("2900 bad origin URLs in allowed origin list: line 101: app101.example.com; "));
+			assertTrue(e.getMessage().contains("line 110: app110.example.com; and 2890 more"));
+			assertTrue(e.getMessage().endsWith("; and 2890 more"));
+		}
+	}
+
+
+	public void testLoadFileSharedPool()
+		throws Exception {
+
+		File file = File.createTempFile("origins", ".txt");
+		file.deleteOnExit();
+
+		FileOutputStream out = new FileOutputStream(file);
+		out.write("https://a.com\nhttps://b.com\n".getBytes("UTF-8"));
+		out.close();
+
+		assertEquals(2, OriginListLoader.loadFile(file).size());
+		assertEquals(2, OriginListLoader.loadFile(file).size());
+
+		ForkJoinPool pool = new ForkJoinPool(1);
+
+		try {
+			assertEquals(2, OriginListLoader.loadFile(file, pool).size());
+			assertFalse(pool.isShutdown());
+
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+
+	public void testConfigurationProperty()
+		throws Exception {
+
+		File file = File.createTempFile("origins", ".txt");
+		file.deleteOnExit();
+
+		FileOutputStream out = new FileOutputStream(file);
+		out.write("https://a.com\nhttps://b.com\n".getBytes("UTF-8"));
+		out.close();
+
+		Properties props = new Properties();
+		props.setProperty("cors.allowOriginFile", file.getPath());
+
+		CORSConfiguration config = new CORSConfiguration(props);
+
+		assertFalse(config.allowAnyOrigin);
+		assertEquals(2, config.allowedOrigins.size());
+		assertTrue(config.isAllowedOrigin("https://a.com"));
+
+		props.setProperty("cors.allowOrigin", "https://c.com");
+
+		config = new CORSConfiguration(props);
+
+		assertEquals(3, config.allowedOrigins.size());
+		assertTrue(config.isAllowedOrigin("https://c.com"));
+
+		props.setProperty("cors.allowOriginFile", new File(file.getPath() + ".missing").getPath());
+
+		try {
+			new CORSConfiguration(props);
+			fail();
+
+		} catch (CORSConfigurationException e) {
+
+			assertTrue(e.getMessage().startsWith("Couldn't read file in property cors.allowOriginFile: "));
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package com.thetransactioncompany.cors;
+
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+
+/**
+ * Tests the persistent string set.
+ *
+ * @author Vladimir Dzhuvinov
+ * @version $version$ ($version-date$)
+ */
+public class PersistentStringSetTest extends TestCase {
+
+
+	public void testEmpty() {
+
+		PersistentStringSet set = PersistentStringSet.EMPTY;
+
+		assertEquals(0, set.size());
+		assertFalse(set.contains("a"));
+		assertFalse(set.iterator().hasNext());
+		assertSame(set, set.minus("a"));
+	}
+
+
+	public void testPlusMinus() {
+
+		PersistentStringSet set = PersistentStringSet.EMPTY.plus("a").plus("b");
+
+		assertEquals(2, set.size());
+		assertTrue(set.contains("a"));
+		assertTrue(set.contains("b"));
+		assertSame(set, set.plus("a"));
+
+		PersistentStringSet smaller = set.minus("a");
+
+		assertEquals(1, smaller.size());
+		assertFalse(smaller.contains("a"));
+
+		// The original is unchanged
+		assertTrue(set.contains("a"));
+		assertEquals(2, set.size());
+
+		assertSame(PersistentStringSet.EMPTY, smaller.minus("b"));
+	}
+
+
+	public void testHashCollisions() {
+
+		// "Aa" and "BB" have the same hash code
+		assertEquals("Aa".hashCode(), "BB".hashCode());
+
+		PersistentStringSet set = PersistentStringSet.EMPTY.plus("Aa").plus("BB").plus("AaAa").plus("BBBB").plus("AaBB");
+
+		assertEquals(5, set.size());
+		assertTrue(set.contains("Aa"));
+		assertTrue(set.contains("BB"));
+		assertTrue(set.contains("AaBB"));
+		assertFalse(set.contains("BBAa"));
+
+		set = set.minus("Aa");
+
+		assertFalse(set.contains("Aa"));
+		assertTrue(set.contains("BB"));
+		assertEquals(new HashSet<String>(Arrays.asList("BB", "AaAa", "BBBB", "AaBB")), set);
+	}
+
+
+	public void testAgainstHashSet() {
+
+		Random random = new Random(42);
+
+		Set<String> expected = new HashSet<String>();
+
+		PersistentStringSet set = PersistentStringSet.EMPTY;
+
+		for (int i=0; i < 20000; i++) {
+
+			String s = "https://app" + random.nextInt(5000) + ".example.com";
+
+			if (random.nextInt(3) == 0) {
+				assertEquals(expected.remove(s), set.minus(s) != set);
+				set = set.minus(s);
+			}
+			else {
+				assertEquals(expected.add(s), set.plus(s) != set);
+				set = set.plus(s);
+			}
+
+			assertEquals(expected.size(), set.size());
+		}
+
+		assertEquals(expected, set);
+		assertEquals(expected, new HashSet<String>(set));
+
+		assertSame(set, PersistentStringSet.of(set));
+		assertEquals(expected, PersistentStringSet.of(expected));
+	}
+}
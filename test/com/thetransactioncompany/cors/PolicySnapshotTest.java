@@ -0,0 +1,194 @@
+package com.thetransactioncompany.cors;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import junit.framework.*;
+
+
+/**
+ * Tests the CORS policy snapshot.
+ *
+ * @author Vladimir Dzhuvinov
+ * @version $version$ ($version-date$)
+ */
+public class PolicySnapshotTest extends TestCase {
+
+
+	private static CORSConfiguration createConfiguration()
+		throws Exception {
+	
+		Properties props = new Properties();
+		props.setProperty("cors.allowGenericHttpRequests", "false");
+		props.setProperty("cors.allowOrigin", "http://example.com https://app.example.com:8443 http://localhost:8080");
+		props.setProperty("cors.supportedMethods", "GET, PUT, DELETE");
+		props.setProperty("cors.supportedHeaders", "content-type, X-Requested-With");
+		props.setProperty("cors.exposedHeaders", "X-Request-Id");
+		props.setProperty("cors.supportsCredentials", "false");
+		props.setProperty("cors.maxAge", "3600");
+		props.setProperty("cors.timingAllowOrigin", "true");
+		props.setProperty("cors.compilePolicy", "true");
+		props.setProperty("cors.captureFile", "/var/log/cors-capture.log");
+		
+		return new CORSConfiguration(props);
+	}
+	
+	
+	private static byte[] write(final CORSConfiguration config)
+		throws Exception {
+	
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		PolicySnapshot.write(config, out);
+		return out.toByteArray();
+	}
+	
+	
+	public void testRoundTrip()
+		throws Exception {
+	
+		CORSConfiguration config = createConfiguration();
+		
+		CORSConfiguration copy = PolicySnapshot.read(write(config));
+		
+		assertEquals(config.allowGenericHttpRequests, copy.allowGenericHttpRequests);
+		assertEquals(config.allowAnyOrigin, copy.allowAnyOrigin);
+		assertEquals(config.allowOriginSuffixMatching, copy.allowOriginSuffixMatching);
+		assertEquals(config.allowedOrigins, copy.allowedOrigins);
+		assertEquals(config.supportedMethods, copy.supportedMethods);
+		assertEquals(config.supportedHeaders, copy.supportedHeaders);
+		assertEquals(config.exposedHeaders, copy.exposedHeaders);
+		assertEquals(config.supportsCredentials, copy.supportsCredentials);
+		assertEquals(config.maxAge, copy.maxAge);
+		
+		// Deployment settings not included
+		assertFalse(copy.serverTiming);
+		assertFalse(copy.timingAllowOrigin);
+		assertFalse(copy.compilePolicy);
+		assertNull(copy.captureFile);
+		
+		assertTrue(copy.isAllowedOrigin("https://app.example.com:8443"));
+		assertFalse(copy.isAllowedOrigin("http://evil.com"));
+		
+		// Deterministic
+		assertTrue(java.util.Arrays.equals(write(config), write(copy)));
+	}
+	
+	
+	public void testReadWithDeploymentSettings()
+		throws Exception {
+	
+		File file = File.createTempFile("cors-policy", ".snapshot");
+		file.deleteOnExit();
+		
+		OutputStream out = new FileOutputStream(file);
+		
+		try {
+			PolicySnapshot.write(createConfiguration(), out);
+			
+		} finally {
+			out.close();
+		}
+		
+		Properties props = new Properties();
+		props.setProperty("cors.allowOrigin", "http://ignored.com");
+		props.setProperty("cors.serverTiming", "true");
+		props.setProperty("cors.captureFile", "/tmp/node-capture.log");
+		
+		CORSConfiguration config = PolicySnapshot.read(file, props);
+		
+		assertTrue(config.isAllowedOrigin("http://example.com"));
+		assertFalse(config.isAllowedOrigin("http://ignored.com"));
+		assertEquals(3600, config.maxAge);
+		
+		assertTrue(config.serverTiming);
+		assertFalse(config.timingAllowOrigin);
+		assertFalse(config.compilePolicy);
+		assertEquals("/tmp/node-capture.log", config.captureFile);
+		
+		file.delete();
+	}
+	
+	
+	public void testDefaultConfiguration()
+		throws Exception {
+	
+		CORSConfiguration copy = PolicySnapshot.read(write(new CORSConfiguration(new Properties())));
+		
+		assertTrue(copy.allowAnyOrigin);
+		assertTrue(copy.allowGenericHttpRequests);
+		assertTrue(copy.supportsCredentials);
+		assertTrue(copy.allowedOrigins.isEmpty());
+		assertEquals(4, copy.supportedMethods.size());
+	}
+	
+	
+	public void testRejectCorrupted()
+		throws Exception {
+	
+		byte[] snapshot = write(createConfiguration());
+		
+		byte[] bad = snapshot.clone();
+		bad[bad.length / 2] ^= 1;
+		
+		try {
+			PolicySnapshot.read(bad);
+			fail();
+			
+		} catch (CORSConfigurationException e) {
+			assertEquals("Invalid CORS policy snapshot: Checksum mismatch", e.getMessage());
+		}
+		
+		bad = snapshot.clone();
+		bad[5] = 99;
+		
+		try {
+			PolicySnapshot.read(bad);
+			fail();
+			
+		} catch (CORSConfigurationException e) {
+			assertEquals("Unsupported CORS policy snapshot version: 99", e.getMessage());
+		}
+		
+		try {
+			PolicySnapshot.read(new byte[]{ 1, 2, 3 });
+			fail();
+			
+		} catch (CORSConfigurationException e) {
+			assertEquals("Invalid CORS policy snapshot: Truncated", e.getMessage());
+		}
+		
+		try {
+			PolicySnapshot.read("not a snapshot at all".getBytes("UTF-8"));
+			fail();
+			
+		} catch (CORSConfigurationException e) {
+			assertEquals("Invalid CORS policy snapshot: Bad magic number", e.getMessage());
+		}
+	}
+	
+	
+	public void testWriteFile()
+		throws Exception {
+	
+		File file = File.createTempFile("cors-policy", ".snapshot");
+		file.deleteOnExit();
+		
+		// Replaced, not appended to
+		OutputStream out = new FileOutputStream(file);
+		out.write("stale".getBytes("UTF-8"));
+		out.close();
+		
+		CORSConfiguration config = createConfiguration();
+		
+		PolicySnapshot.write(config, file);
+		
+		assertTrue(java.util.Arrays.equals(write(config), java.nio.file.Files.readAllBytes(file.toPath())));
+		assertFalse(new File(file.getParentFile(), "." + file.getName() + ".tmp").exists());
+		
+		assertEquals(config.allowedOrigins, PolicySnapshot.read(file).allowedOrigins);
+	}
+}
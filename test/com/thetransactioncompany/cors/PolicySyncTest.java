@@ -0,0 +1,239 @@
+package com.thetransactioncompany.cors;
+
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+import junit.framework.*;
+
+
+/**
+ * Tests the policy sync with a shared snapshot directory.
+ *
+ * @author Vladimir Dzhuvinov
+ * @version $version$ ($version-date$)
+ */
+public class PolicySyncTest extends TestCase {
+
+
+	/**
+	 * Records the listener calls.
+	 */
+	private static class Recorder implements PolicySync.Listener {
+
+
+		final List<Long> loaded = new ArrayList<Long>();
+
+
+		final List<Long> failed = new ArrayList<Long>();
+
+
+		CORSConfiguration config = null;
+
+
+		@Override
+		public void policyLoaded(final long version, final CORSConfiguration config) {
+
+			loaded.add(version);
+			this.config = config;
+		}
+
+
+		@Override
+		public void policyLoadFailed(final long version, final String error) {
+
+			failed.add(version);
+		}
+	}
+
+
+	private static File createTempDir()
+		throws Exception {
+
+		File dir = File.createTempFile("cors-sync", "");
+		dir.delete();
+		dir.mkdir();
+		dir.deleteOnExit();
+		return dir;
+	}
+
+
+	private static CORSConfiguration createConfig(final String origins)
+		throws Exception {
+
+		Properties props = new Properties();
+		props.setProperty("cors.allowOrigin", origins);
+		return new CORSConfiguration(props);
+	}
+
+
+	private static void deleteAll(final File dir) {
+
+		for (File file: dir.listFiles())
+			file.delete();
+
+		dir.delete();
+	}
+
+
+	public void testParseVersion() {
+
+		assertEquals(0L, PolicySync.parseVersion("cors-policy-0.snapshot"));
+		assertEquals(42L, PolicySync.parseVersion("cors-policy-42.snapshot"));
+		assertEquals(-1L, PolicySync.parseVersion("cors-policy-.snapshot"));
+		assertEquals(-1L, PolicySync.parseVersion("cors-policy-1a.snapshot"));
+		assertEquals(-1L, PolicySync.parseVersion("cors-policy--1.snapshot"));
+		assertEquals(-1L, PolicySync.parseVersion(".cors-policy-1.snapshot.tmp"));
+		assertEquals(-1L, PolicySync.parseVersion("policy-1.snapshot"));
+	}
+
+
+	public void testPollLoadsHighestVersion()
+		throws Exception {
+
+		File dir = createTempDir();
+
+		try {
+			PolicySync.write(dir, 1, createConfig("https://a.com"));
+			PolicySync.write(dir, 3, createConfig("https://c.com"));
+			PolicySync.write(dir, 2, createConfig("https://b.com"));
+
+			Recorder recorder = new Recorder();
+
+			PolicySync sync = new PolicySync(dir, 1000, recorder);
+
+			assertEquals(-1L, sync.getVersion());
+
+			assertTrue(sync.poll());
+			assertEquals(3L, sync.getVersion());
+			assertTrue(recorder.config.isAllowedOrigin("https://c.com"));
+
+			// No newer version
+			assertFalse(sync.poll());
+
+			PolicySync.write(dir, 4, createConfig("https://d.com"));
+
+			assertTrue(sync.poll());
+			assertEquals(4L, sync.getVersion());
+			assertTrue(recorder.config.isAllowedOrigin("https://d.com"));
+
+			assertEquals(2, recorder.loaded.size());
+			assertTrue(recorder.failed.isEmpty());
+
+		} finally {
+			deleteAll(dir);
+		}
+	}
+
+
+	public void testCorruptVersionSkipped()
+		throws Exception {
+
+		File dir = createTempDir();
+
+		try {
+			PolicySync.write(dir, 1, createConfig("https://a.com"));
+
+			// Truncated copy
+			FileOutputStream out = new FileOutputStream(PolicySync.getFile(dir, 2));
+			out.write(new byte[]{ 0x43, 0x4F, 0x52, 0x53, 0, 1, 0, 0 });
+			out.close();
+
+			Recorder recorder = new Recorder();
+
+			PolicySync sync = new PolicySync(dir, 1000, recorder);
+
+			assertTrue(sync.poll());
+			assertEquals(1L, sync.getVersion());
+			assertEquals(Long.valueOf(2L), recorder.failed.get(0));
+
+			// Retried once complete
+			PolicySync.write(dir, 2, createConfig("https://b.com"));
+
+			assertTrue(sync.poll());
+			assertEquals(2L, sync.getVersion());
+
+		} finally {
+			deleteAll(dir);
+		}
+	}
+
+
+	public void testNoLoadAfterStop()
+		throws Exception {
+
+		File dir = createTempDir();
+
+		try {
+			PolicySync.write(dir, 1, createConfig("https://a.com"));
+
+			Recorder recorder = new Recorder();
+
+			PolicySync sync = new PolicySync(dir, 1000, recorder);
+
+			sync.stop();
+
+			assertFalse(sync.poll());
+			assertTrue(recorder.loaded.isEmpty());
+
+		} finally {
+			deleteAll(dir);
+		}
+	}
+
+
+	public void testFilterSync()
+		throws Exception {
+
+		File dir = createTempDir();
+
+		try {
+			PolicySync.write(dir, 7, createConfig("https://b.com"));
+
+			Properties props = new Properties();
+			props.setProperty("cors.allowOrigin", "https://a.com");
+			props.setProperty("cors.syncDirectory", dir.getPath());
+			props.setProperty("cors.syncIntervalSeconds", "1");
+			props.setProperty("cors.serverTiming", "true");
+
+			CORSFilter filter = new CORSFilter();
+			filter.init(new FakeFilterConfig(props));
+
+			CORSFilterStatus status = filter.getStatus();
+
+			for (int i=0; i < 500 && status.getPolicyVersion() != 7; i++)
+				Thread.sleep(10);
+
+			assertEquals(7L, status.getPolicyVersion());
+			assertNull(status.getPolicySyncError());
+
+			FakeHttpServletRequest request = new FakeHttpServletRequest("GET", "/resource");
+			request.setHeader("Origin", "https://b.com");
+
+			FakeHttpServletResponse response = new FakeHttpServletResponse();
+
+			filter.doFilter(request, response, new FilterChain() {
+
+				public void doFilter(final ServletRequest request, final ServletResponse response) { }
+			});
+
+			assertEquals("https://b.com", response.getHeader("Access-Control-Allow-Origin"));
+			assertEquals(7L, request.getAttribute("cors.policyVersion"));
+
+			// Local deployment setting kept
+			assertNotNull(response.getHeader("Server-Timing"));
+
+			filter.destroy();
+
+		} finally {
+			deleteAll(dir);
+		}
+	}
+}
@@ -0,0 +1,179 @@
+package com.thetransactioncompany.cors;
+
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import junit.framework.*;
+
+
+/**
+ * Tests the filter warm-up.
+ *
+ * @author Vladimir Dzhuvinov
+ * @version $version$ ($version-date$)
+ */
+public class PolicyWarmupTest extends TestCase {
+
+
+	private static CORSConfiguration createConfig(final String allowOrigin)
+		throws Exception {
+
+		Properties props = new Properties();
+		props.setProperty("cors.allowOrigin", allowOrigin);
+		props.setProperty("cors.supportedMethods", "GET, POST, OPTIONS");
+		props.setProperty("cors.supportedHeaders", "Content-Type, X-Requested-With");
+		props.setProperty("cors.exposedHeaders", "X-Request-Id");
+
+		return new CORSConfiguration(props);
+	}
+
+
+	private static class CountingTarget implements PolicyWarmup.Target {
+
+
+		int count = 0;
+
+
+		String lastOrigin;
+
+
+		@Override
+		public void request(final String method,
+		                    final String origin,
+		                    final String requestMethod,
+		                    final String requestHeaders) {
+
+			count++;
+			lastOrigin = origin;
+		}
+	}
+
+
+	public void testIterationBound()
+		throws Exception {
+
+		CountingTarget target = new CountingTarget();
+
+		assertEquals(1000, PolicyWarmup.run(createConfig("http://a.com http://b.com"), target, 1000, 60000));
+
+		// An actual and a preflight request per iteration, a denied
+		// request every 8th
+		assertEquals(2000 + 125, target.count);
+
+		assertEquals(1000, PolicyWarmup.run(createConfig("*"), new CountingTarget(), 1000, 60000));
+		assertEquals(0, PolicyWarmup.run(createConfig("*"), new CountingTarget(), 0, 60000));
+	}
+
+
+	public void testTimeBound()
+		throws Exception {
+
+		long start = System.nanoTime();
+
+		int iterations = PolicyWarmup.run(createConfig("http://a.com"), new CountingTarget(), Integer.MAX_VALUE, 50);
+
+		assertTrue(iterations > 0);
+		assertTrue(iterations < Integer.MAX_VALUE);
+		assertTrue(System.nanoTime() - start < 5000000000L);
+	}
+
+
+	public void testZeroIterationsDisablesReplay()
+		throws Exception {
+
+		List<RequestCapture.Record> requests = Arrays.asList(
+			new RequestCapture.Record("GET", "http://a.com", null, null, null),
+			new RequestCapture.Record("OPTIONS", "http://a.com", "POST", "Content-Type", null));
+
+		PolicyWarmup warmup = new PolicyWarmup(0, 60000, requests);
+
+		CountingTarget target = new CountingTarget();
+
+		assertTrue(warmup.isDisabled());
+		assertEquals(0, warmup.warmUp(createConfig("http://a.com"), target));
+		assertEquals(0, target.count);
+
+		warmup = new PolicyWarmup(10, 60000, requests);
+
+		assertFalse(warmup.isDisabled());
+		assertEquals(10, warmup.warmUp(createConfig("http://a.com"), target));
+		assertEquals(10, target.count);
+		assertEquals("http://a.com", target.lastOrigin);
+	}
+
+
+	public void testStub()
+		throws Exception {
+
+		PolicyWarmup.Stub stub = new PolicyWarmup.Stub();
+
+		HttpServletRequest request = stub.newProxy(HttpServletRequest.class);
+
+		stub.set("OPTIONS", "http://a.com", "POST", "Content-Type");
+
+		assertEquals("OPTIONS", request.getMethod());
+		assertEquals("http://a.com", request.getHeader("origin"));
+		assertEquals("POST", request.getHeader("Access-Control-Request-Method"));
+		assertEquals("Content-Type", request.getHeader("Access-Control-Request-Headers"));
+		assertNull(request.getHeader("Host"));
+		assertNull(request.getRequestURI());
+		assertEquals(0, request.getContentLength());
+
+		request.setAttribute("cors.origin", "http://a.com");
+		assertEquals("http://a.com", request.getAttribute("cors.origin"));
+
+		// Cleared for the next request
+		stub.set("GET", "http://b.com", null, null);
+		assertNull(request.getAttribute("cors.origin"));
+		assertNull(request.getHeader("Access-Control-Request-Method"));
+
+		HttpServletResponse response = new PolicyWarmup.Stub().newProxy(HttpServletResponse.class);
+
+		response.addHeader("Access-Control-Allow-Origin", "http://a.com");
+		assertFalse(response.isCommitted());
+		assertNotNull(response.getWriter());
+	}
+
+
+	public void testFilterWarmupHasNoSideEffects()
+		throws Exception {
+
+		File captureFile = File.createTempFile("cors-capture", ".log");
+		captureFile.deleteOnExit();
+
+		Properties props = new Properties();
+		props.setProperty("cors.allowOrigin", "http://example.com");
+		props.setProperty("cors.captureFile", captureFile.getPath());
+		props.setProperty("cors.warmupIterations", "1000");
+
+		CORSFilter filter = new CORSFilter();
+		filter.init(new FakeFilterConfig(props));
+		filter.destroy();
+
+		assertEquals(0, captureFile.length());
+	}
+
+
+	public void testBadFilterParameter()
+		throws Exception {
+
+		Properties props = new Properties();
+		props.setProperty("cors.warmupIterations", "-1");
+
+		try {
+			new CORSFilter().init(new FakeFilterConfig(props));
+			fail();
+
+		} catch (ServletException e) {
+
+			assertEquals("Bad cors.warmupIterations filter init parameter: -1", e.getRootCause().getMessage());
+		}
+	}
+}
@@ -0,0 +1,172 @@
+package com.thetransactioncompany.cors;
+
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Properties;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+import junit.framework.*;
+
+
+/**
+ * Tests the request capture class.
+ *
+ * @author Vladimir Dzhuvinov
+ * @version $version$ ($version-date$)
+ */
+public class RequestCaptureTest extends TestCase {
+
+
+	public void testFormatParse() {
+	
+		RequestCapture.Record r = new RequestCapture.Record("OPTIONS", 
+		                                                    "http://example.com", 
+		                                                    "POST", 
+		                                                    "Content-Type, X-Requested-With", 
+		                                                    "/api/resource");
+		
+		String line = RequestCapture.format(r);
+		
+		assertEquals("OPTIONS\thttp://example.com\tPOST\tContent-Type, X-Requested-With\t/api/resource", line);
+		
+		RequestCapture.Record p = RequestCapture.parse(line);
+		
+		assertEquals("OPTIONS", p.method);
+		assertEquals("http://example.com", p.origin);
+		assertEquals("POST", p.requestMethod);
+		assertEquals("Content-Type, X-Requested-With", p.requestHeaders);
+		assertEquals("/api/resource", p.requestURI);
+	}
+	
+	
+	public void testNullsAndEscapes() {
+	
+		RequestCapture.Record r = new RequestCapture.Record("GET", 
+		                                                    "a\tb\nc\\d", 
+		                                                    null, 
+		                                                    "", 
+		                                                    null);
+		
+		String line = RequestCapture.format(r);
+		
+		assertEquals(-1, line.indexOf('\n'));
+		
+		RequestCapture.Record p = RequestCapture.parse(line);
+		
+		assertEquals("GET", p.method);
+		assertEquals("a\tb\nc\\d", p.origin);
+		assertNull(p.requestMethod);
+		assertEquals("", p.requestHeaders);
+		assertNull(p.requestURI);
+	}
+	
+	
+	public void testParseBadLine() {
+	
+		try {
+			RequestCapture.parse("GET\thttp://example.com");
+			fail();
+			
+		} catch (IllegalArgumentException e) {
+			// ok
+		}
+	}
+	
+	
+	public void testCaptureAndRead()
+		throws Exception {
+	
+		StringWriter out = new StringWriter();
+		
+		RequestCapture capture = new RequestCapture(out);
+		
+		capture.append(new RequestCapture.Record("GET", "http://example.com", null, null, "/a"));
+		capture.append(new RequestCapture.Record("GET", null, null, null, "/b"));
+		capture.close();
+		
+		// Closed capture ignores further requests
+		capture.append(new RequestCapture.Record("GET", null, null, null, "/c"));
+		
+		assertNull(capture.getError());
+		assertEquals(0, capture.getDroppedCount());
+		
+		BufferedReader reader = new BufferedReader(new StringReader(out.toString()));
+		
+		RequestCapture.Record r1 = RequestCapture.read(reader);
+		assertEquals("GET", r1.method);
+		assertEquals("http://example.com", r1.origin);
+		assertNull(r1.requestMethod);
+		assertEquals("/a", r1.requestURI);
+		
+		RequestCapture.Record r2 = RequestCapture.read(reader);
+		assertNull(r2.origin);
+		assertEquals("/b", r2.requestURI);
+		
+		assertNull(RequestCapture.read(reader));
+	}
+	
+	
+	public void testRotate()
+		throws Exception {
+	
+		File file = File.createTempFile("cors-capture", ".log");
+		file.deleteOnExit();
+		
+		File rotated = new File(file.getPath() + ".1");
+		rotated.deleteOnExit();
+		
+		RequestCapture.Record r = new RequestCapture.Record("GET", "http://example.com", null, null, "/a");
+		
+		int lineBytes = RequestCapture.format(r).length() + 1;
+		
+		// Room for 3 lines per file
+		RequestCapture capture = new RequestCapture(file, lineBytes * 3 + 1);
+		
+		for (int i=0; i < 5; i++)
+			capture.append(r);
+		
+		capture.close();
+		
+		assertNull(capture.getError());
+		assertEquals(lineBytes * 3, rotated.length());
+		assertEquals(lineBytes * 2, file.length());
+	}
+	
+	
+	public void testFilterCapturesCORSRequestsOnly()
+		throws Exception {
+	
+		File file = File.createTempFile("cors-capture", ".log");
+		file.deleteOnExit();
+		
+		Properties props = new Properties();
+		props.setProperty("cors.allowOrigin", "http://example.com");
+		props.setProperty("cors.captureFile", file.getPath());
+		
+		CORSFilter filter = new CORSFilter();
+		filter.init(new FakeFilterConfig(props));
+		
+		FilterChain chain = new FilterChain() {
+			
+			public void doFilter(final ServletRequest request, final ServletResponse response) { }
+		};
+		
+		filter.doFilter(new FakeHttpServletRequest("GET", "/a").setHeader("Origin", "http://example.com"), new FakeHttpServletResponse(), chain);
+		filter.doFilter(new FakeHttpServletRequest("GET", "/b"), new FakeHttpServletResponse(), chain);
+		filter.destroy();
+		
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		
+		assertEquals("/a", RequestCapture.read(reader).requestURI);
+		assertNull(RequestCapture.read(reader));
+		
+		reader.close();
+	}
+}
@@ -0,0 +1,305 @@
+package com.thetransactioncompany.cors.tomcat;
+
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.util.Properties;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.connector.Request;
+import org.apache.catalina.connector.Response;
+import org.apache.catalina.valves.ValveBase;
+import org.apache.tomcat.util.http.MimeHeaders;
+
+import com.thetransactioncompany.cors.CORSConfiguration;
+import com.thetransactioncompany.cors.CORSConfigurationException;
+import com.thetransactioncompany.cors.CORSErrors;
+import com.thetransactioncompany.cors.CORSException;
+import com.thetransactioncompany.cors.CORSRequest;
+import com.thetransactioncompany.cors.CORSRequestProcessor;
+import com.thetransactioncompany.cors.CORSResponse;
+
+
+/**
+ * Tomcat valve for Cross-Origin Resource Sharing (CORS). Configure it for
+ * an engine, host or context in {@code server.xml}, with the CORS filter
+ * properties in a separate file:
+ *
+ * <pre>
+ * &lt;Valve className="com.thetransactioncompany.cors.tomcat.CORSValve"
+ *        configFile="conf/cors.properties"/&gt;
+ * </pre>
+ *
+ * <p>A relative {@code configFile} is resolved against
+ * {@code catalina.base}. Without a {@code configFile} (and unless set
+ * programmatically with {@link #setConfiguration}) the default CORS
+ * configuration applies.
+ *
+ * <p>Preflight requests and denials are answered by the valve itself,
+ * before the servlet dispatch, so they don't incur session lookup, security
+ * constraint checks or filter chain construction. Allowed simple / actual
+ * requests receive their CORS response headers and are passed on to the
+ * next valve. Non-CORS requests are passed on, unless generic HTTP
+ * requests are disallowed by the configuration.
+ *
+ * <p>Only the initial {@code REQUEST} dispatch is processed; async
+ * re-dispatches of a request, which Tomcat passes through the valve
+ * pipeline again, already have their CORS response headers and are
+ * passed straight on.
+ *
+ * <p>The response headers are added directly to the Coyote response
+ * {@code MimeHeaders}, bypassing the servlet response facade.
+ *
+ * @author Vladimir Dzhuvinov
+ * @version $version$ ($version-date$)
+ */
+public class CORSValve extends ValveBase {
+
+
+	/**
+	 * The CORS configuration file, {@code null} if none.
+	 */
+	private String configFile = null;
+
+
+	/**
+	 * The programmatically set CORS configuration, {@code null} if none.
+	 */
+	private CORSConfiguration presetConfig = null;
+
+
+	/**
+	 * The CORS request processor, created on start.
+	 */
+	private volatile CORSRequestProcessor processor = null;
+
+
+	/**
+	 * Adapts the Tomcat request and response to the container-agnostic
+	 * CORS interfaces.
+	 */
+	private static final class Exchange implements CORSRequest, CORSResponse {
+
+
+		private final Request request;
+
+
+		private final MimeHeaders responseHeaders;
+
+
+		Exchange(final Request request, final Response response) {
+
+			this.request = request;
+			responseHeaders = response.getCoyoteResponse().getMimeHeaders();
+		}
+
+
+		@Override
+		public CharSequence getMethod() {
+
+			return request.getMethod();
+		}
+
+
+		@Override
+		public CharSequence getHeader(final String name) {
+
+			return request.getHeader(name);
+		}
+
+
+		@Override
+		public void addHeader(final String name, final String value) {
+
+			responseHeaders.addValue(name).setString(value);
+		}
+	}
+
+
+	/**
+	 * Creates a new CORS valve.
+	 */
+	public CORSValve() {
+
+		super(true); // async supported
+	}
+
+
+	/**
+	 * Gets the CORS configuration file.
+	 *
+	 * @return The configuration file, {@code null} if none.
+	 */
+	public String getConfigFile() {
+
+		return configFile;
+	}
+
+
+	/**
+	 * Sets the CORS configuration file, a properties file with the CORS
+	 * filter parameters. Takes effect on the next start.
+	 *
+	 * @param configFile The configuration file, {@code null} if none.
+	 */
+	public void setConfigFile(final String configFile) {
+
+		this.configFile = configFile;
+	}
+
+
+	/**
+	 * Gets the CORS configuration in effect.
+	 *
+	 * @return The CORS configuration, {@code null} if not started.
+	 */
+	public CORSConfiguration getConfiguration() {
+
+		CORSRequestProcessor processor = this.processor;
+
+		return processor != null ? processor.getConfiguration() : null;
+	}
+
+
+	/**
+	 * Sets the CORS configuration programmatically, overriding any
+	 * configuration file. Takes effect on the next start.
+	 *
+	 * @param config The CORS configuration.
+	 */
+	public void setConfiguration(final CORSConfiguration config) {
+
+		presetConfig = config;
+	}
+
+
+	@Override
+	protected synchronized void startInternal()
+		throws LifecycleException {
+
+		CORSConfiguration config = presetConfig;
+
+		if (config == null) {
+
+			try {
+				config = new CORSConfiguration(loadProperties());
+
+			} catch (IOException e) {
+
+				throw new LifecycleException("Couldn't read CORS configuration file: " + e.getMessage(), e);
+
+			} catch (CORSConfigurationException e) {
+
+				throw new LifecycleException(e.getMessage(), e);
+			}
+		}
+
+		processor = new CORSRequestProcessor(config);
+
+		super.startInternal();
+	}
+
+
+	/**
+	 * Loads the CORS filter properties from the configuration file.
+	 *
+	 * @return The properties, empty if no configuration file is set.
+	 *
+	 * @throws IOException If the file couldn't be read.
+	 */
+	private Properties loadProperties()
+		throws IOException {
+
+		Properties props = new Properties();
+
+		if (configFile == null)
+			return props;
+
+		File file = new File(configFile);
+
+		if (! file.isAbsolute())
+			file = new File(System.getProperty("catalina.base", "."), configFile);
+
+		InputStream in = new FileInputStream(file);
+
+		try {
+			props.load(in);
+
+		} finally {
+			in.close();
+		}
+
+		return props;
+	}
+
+
+	@Override
+	public void invoke(final Request request, final Response response)
+		throws IOException, ServletException {
+
+		// Async re-dispatch of a request which has already been
+		// through the valve
+		if (request.getDispatcherType() != DispatcherType.REQUEST) {
+			getNext().invoke(request, response);
+			return;
+		}
+
+		final CORSRequestProcessor processor = this.processor;
+
+		final Exchange exchange = new Exchange(request, response);
+
+		try {
+			switch (CORSRequestProcessor.detect(exchange)) {
+
+				case PREFLIGHT:
+					processor.handlePreflightRequest(exchange, exchange);
+					response.setStatus(HttpServletResponse.SC_OK);
+					response.setContentLength(0);
+					return;
+
+				case ACTUAL:
+					processor.handleActualRequest(exchange, exchange);
+					break;
+
+				default:
+					if (! processor.getConfiguration().allowGenericHttpRequests) {
+						respondError(response, HttpServletResponse.SC_FORBIDDEN, CORSErrors.GENERIC_REQUEST_DENIED);
+						return;
+					}
+			}
+
+		} catch (CORSException e) {
+			respondError(response, CORSErrors.getStatusCode(e), CORSErrors.getMessage(e));
+			return;
+		}
+
+		getNext().invoke(request, response);
+	}
+
+
+	/**
+	 * Answers a request with a CORS error message.
+	 *
+	 * @param response The response.
+	 * @param sc       The HTTP status code.
+	 * @param msg      The message.
+	 *
+	 * @throws IOException On a I/O exception.
+	 */
+	private static void respondError(final Response response, final int sc, final String msg)
+		throws IOException {
+
+		response.setStatus(sc);
+		response.setContentType("text/plain");
+
+		PrintWriter out = response.getWriter();
+		out.println(CORSErrors.MESSAGE_PREFIX + msg);
+	}
+}
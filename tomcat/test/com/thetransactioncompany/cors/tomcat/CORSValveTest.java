@@ -0,0 +1,229 @@
+package com.thetransactioncompany.cors.tomcat;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Wrapper;
+import org.apache.catalina.startup.Tomcat;
+
+import junit.framework.*;
+
+import com.thetransactioncompany.cors.CORSConfiguration;
+
+
+/**
+ * Tests the Tomcat CORS valve with an embedded server on localhost.
+ *
+ * @author Vladimir Dzhuvinov
+ * @version $version$ ($version-date$)
+ */
+public class CORSValveTest extends TestCase {
+
+
+	/**
+	 * Counts the requests that reach the servlet.
+	 */
+	private static class CountingServlet extends HttpServlet {
+
+
+		private static final long serialVersionUID = 1L;
+
+
+		final AtomicInteger count = new AtomicInteger();
+
+
+		@Override
+		protected void service(final HttpServletRequest request, final HttpServletResponse response)
+			throws IOException {
+
+			count.incrementAndGet();
+			response.setContentType("text/plain");
+			response.getWriter().print("Hello");
+		}
+	}
+
+
+	/**
+	 * Answers each request after an async re-dispatch.
+	 */
+	private static class AsyncServlet extends HttpServlet {
+
+
+		private static final long serialVersionUID = 1L;
+
+
+		@Override
+		protected void service(final HttpServletRequest request, final HttpServletResponse response)
+			throws IOException {
+
+			if (request.getDispatcherType() == DispatcherType.REQUEST) {
+				request.startAsync().dispatch();
+				return;
+			}
+
+			response.setContentType("text/plain");
+			response.getWriter().print("Hello");
+		}
+	}
+
+
+	private Tomcat tomcat;
+
+
+	private CountingServlet servlet;
+
+
+	private String url;
+
+
+	private String asyncURL;
+
+
+	@Override
+	protected void setUp()
+		throws Exception {
+
+		// Allow setting the Origin and Access-Control-* headers
+		System.setProperty("sun.net.http.allowRestrictedHeaders", "true");
+
+		Properties props = new Properties();
+		props.setProperty("cors.allowOrigin", "http://example.com");
+		props.setProperty("cors.supportedMethods", "GET, POST");
+		props.setProperty("cors.supportedHeaders", "Content-Type");
+		props.setProperty("cors.maxAge", "3600");
+
+		File baseDir = new File(System.getProperty("java.io.tmpdir"), "cors-valve-test");
+
+		tomcat = new Tomcat();
+		tomcat.setBaseDir(baseDir.getAbsolutePath());
+		tomcat.setHostname("127.0.0.1");
+		tomcat.setPort(0);
+
+		Context context = tomcat.addContext("", baseDir.getAbsolutePath());
+
+		servlet = new CountingServlet();
+		Tomcat.addServlet(context, "counting", servlet);
+		context.addServletMappingDecoded("/*", "counting");
+
+		Wrapper async = Tomcat.addServlet(context, "async", new AsyncServlet());
+		async.setAsyncSupported(true);
+		context.addServletMappingDecoded("/async", "async");
+
+		CORSValve valve = new CORSValve();
+		valve.setConfiguration(new CORSConfiguration(props));
+		context.getPipeline().addValve(valve);
+
+		tomcat.getConnector(); // create the default connector
+		tomcat.start();
+
+		url = "http://127.0.0.1:" + tomcat.getConnector().getLocalPort() + "/resource";
+		asyncURL = "http://127.0.0.1:" + tomcat.getConnector().getLocalPort() + "/async";
+	}
+
+
+	@Override
+	protected void tearDown()
+		throws Exception {
+
+		tomcat.stop();
+		tomcat.destroy();
+	}
+
+
+	private HttpURLConnection open(final String method, final String origin)
+		throws IOException {
+
+		HttpURLConnection con = (HttpURLConnection)new URL(url).openConnection();
+		con.setRequestMethod(method);
+
+		if (origin != null)
+			con.setRequestProperty("Origin", origin);
+
+		return con;
+	}
+
+
+	public void testPreflightAnsweredBeforeDispatch()
+		throws Exception {
+
+		HttpURLConnection con = open("OPTIONS", "http://example.com");
+		con.setRequestProperty("Access-Control-Request-Method", "POST");
+		con.setRequestProperty("Access-Control-Request-Headers", "Content-Type");
+
+		assertEquals(200, con.getResponseCode());
+		assertEquals("http://example.com", con.getHeaderField("Access-Control-Allow-Origin"));
+		assertEquals("true", con.getHeaderField("Access-Control-Allow-Credentials"));
+		assertEquals("3600", con.getHeaderField("Access-Control-Max-Age"));
+		assertEquals("Content-Type", con.getHeaderField("Access-Control-Allow-Headers"));
+		assertNotNull(con.getHeaderField("Access-Control-Allow-Methods"));
+
+		assertEquals(0, servlet.count.get());
+	}
+
+
+	public void testPreflightDenied()
+		throws Exception {
+
+		HttpURLConnection con = open("OPTIONS", "http://evil.com");
+		con.setRequestProperty("Access-Control-Request-Method", "POST");
+
+		assertEquals(403, con.getResponseCode());
+		assertNull(con.getHeaderField("Access-Control-Allow-Origin"));
+
+		con = open("OPTIONS", "http://example.com");
+		con.setRequestProperty("Access-Control-Request-Method", "DELETE");
+
+		assertEquals(405, con.getResponseCode());
+
+		assertEquals(0, servlet.count.get());
+	}
+
+
+	public void testActualRequestPassedWithHeaders()
+		throws Exception {
+
+		HttpURLConnection con = open("GET", "http://example.com");
+
+		assertEquals(200, con.getResponseCode());
+		assertEquals("http://example.com", con.getHeaderField("Access-Control-Allow-Origin"));
+		assertEquals("true", con.getHeaderField("Access-Control-Allow-Credentials"));
+
+		assertEquals(1, servlet.count.get());
+	}
+
+
+	public void testNonCORSRequestPassed()
+		throws Exception {
+
+		HttpURLConnection con = open("GET", null);
+
+		assertEquals(200, con.getResponseCode());
+		assertNull(con.getHeaderField("Access-Control-Allow-Origin"));
+
+		assertEquals(1, servlet.count.get());
+	}
+
+
+	public void testAsyncDispatchProcessedOnce()
+		throws Exception {
+
+		HttpURLConnection con = (HttpURLConnection)new URL(asyncURL).openConnection();
+		con.setRequestProperty("Origin", "http://example.com");
+
+		assertEquals(200, con.getResponseCode());
+		assertEquals(Collections.singletonList("http://example.com"), con.getHeaderFields().get("Access-Control-Allow-Origin"));
+		assertEquals(Collections.singletonList("true"), con.getHeaderFields().get("Access-Control-Allow-Credentials"));
+	}
+}